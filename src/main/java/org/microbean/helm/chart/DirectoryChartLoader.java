@@ -17,6 +17,8 @@
 package org.microbean.helm.chart;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.InterruptedIOException;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -25,15 +27,23 @@ import java.nio.file.LinkOption; // for javadoc only
 import java.nio.file.Path;
 
 import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.Map.Entry;
 import java.util.NoSuchElementException;
 import java.util.Objects;
 
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
 import java.util.stream.Stream;
 
 import hapi.chart.ChartOuterClass.Chart; // for javadoc only
 
+import org.microbean.development.annotation.Experimental;
+
 /**
  * A {@link StreamOrientedChartLoader
  * StreamOrientedChartLoader&lt;Path&gt;} that creates {@link Chart}
@@ -50,6 +60,35 @@ import hapi.chart.ChartOuterClass.Chart; // for javadoc only
 public class DirectoryChartLoader extends StreamOrientedChartLoader<Path> {
 
 
+  /*
+   * Static fields.
+   */
+
+
+  /**
+   * The maximum number of files read ahead of the file currently
+   * being loaded when an {@link ExecutorService} is {@linkplain
+   * #DirectoryChartLoader(ExecutorService) in use}.
+   */
+  private static final int READ_AHEAD = 16;
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  /**
+   * The {@link ExecutorService} used to read files concurrently.
+   *
+   * <p>This field may be {@code null}, in which case files are read
+   * one after another as they are loaded.</p>
+   *
+   * @see #DirectoryChartLoader(ExecutorService)
+   */
+  private final ExecutorService executor;
+
+
   /*
    * Constructors.
    */
@@ -59,7 +98,35 @@ public class DirectoryChartLoader extends StreamOrientedChartLoader<Path> {
    * Creates a new {@link DirectoryChartLoader}.
    */
   public DirectoryChartLoader() {
-    super();
+    this(null);
+  }
+
+  /**
+   * Creates a new {@link DirectoryChartLoader} that uses the supplied
+   * {@link ExecutorService} to read files concurrently.
+   *
+   * <p>The files of a chart directory are enumerated first, and then
+   * read into memory by tasks submitted to the supplied {@link
+   * ExecutorService}, at most a small, fixed number of files ahead of
+   * the file being loaded.  Files are still loaded in the order in
+   * which they were enumerated, so the loaded chart is the same as if
+   * no {@link ExecutorService} had been supplied.  This is worthwhile
+   * when the latency of opening and reading each file, rather than
+   * throughput, dominates, as is the case on network
+   * filesystems.</p>
+   *
+   * <p>The supplied {@link ExecutorService} is also used to {@linkplain
+   * StreamOrientedChartLoader#StreamOrientedChartLoader(ExecutorService)
+   * load embedded subchart archives concurrently}.</p>
+   *
+   * @param executor the {@link ExecutorService} to use; may be {@code
+   * null} in which case files are read one after another as they are
+   * loaded
+   */
+  @Experimental
+  public DirectoryChartLoader(final ExecutorService executor) {
+    super(executor);
+    this.executor = executor;
   }
 
 
@@ -98,7 +165,7 @@ public class DirectoryChartLoader extends StreamOrientedChartLoader<Path> {
     if (path == null || !Files.isDirectory(path)) {
       returnValue = new EmptyIterable();
     } else {
-      returnValue = new PathWalker(path);
+      returnValue = new PathWalker(path, this.executor);
     }
     return returnValue;
   }
@@ -114,8 +181,10 @@ public class DirectoryChartLoader extends StreamOrientedChartLoader<Path> {
     private final Path directoryParent;
 
     private final Stream<? extends Path> pathStream;
+
+    private final ExecutorService executor;
     
-    private PathWalker(final Path directory) throws IOException {
+    private PathWalker(final Path directory, final ExecutorService executor) throws IOException {
       super();
       Objects.requireNonNull(directory);
       if (!Files.isDirectory(directory)) {
@@ -141,11 +210,18 @@ public class DirectoryChartLoader extends StreamOrientedChartLoader<Path> {
           .filter(p -> p != null && !Files.isDirectory(p) && !helmIgnorePathMatcher.matches(p));
       }
       this.pathStream = pathStream;
+      this.executor = executor;
     }
 
     @Override
     public final Iterator<Entry<String, InputStream>> iterator() {
-      return new PathIterator(this.directoryParent, this.pathStream.iterator());
+      final Iterator<Entry<String, InputStream>> returnValue;
+      if (this.executor == null) {
+        returnValue = new PathIterator(this.directoryParent, this.pathStream.iterator());
+      } else {
+        returnValue = new ReadAheadPathIterator(this.directoryParent, this.pathStream.iterator(), this.executor);
+      }
+      return returnValue;
     }
     
   }
@@ -190,10 +266,7 @@ public class DirectoryChartLoader extends StreamOrientedChartLoader<Path> {
       final Path originalFile = this.pathIterator.next();
       assert originalFile != null;
       assert !Files.isDirectory(originalFile);
-      final Path relativeFile = this.directoryParent.relativize(originalFile);
-      assert relativeFile != null;
-      final String relativePathString = relativeFile.toString().replace('\\', '/');
-      assert relativePathString != null;
+      final String relativePathString = toEntryName(this.directoryParent, originalFile);
       try {
         this.currentEntry = new SimpleImmutableEntry<>(relativePathString, new BufferedInputStream(Files.newInputStream(originalFile)));
       } catch (final IOException wrapMe) {
@@ -204,6 +277,118 @@ public class DirectoryChartLoader extends StreamOrientedChartLoader<Path> {
     
   }
 
+  /**
+   * An {@link Iterator} of named {@link InputStream}s, one for each
+   * file {@linkplain Files#walk(Path, java.nio.file.FileVisitOption...)
+   * enumerated} beneath a chart directory, whose files are read in
+   * full by tasks submitted to an {@link ExecutorService}, no more
+   * than {@link #READ_AHEAD} files ahead of the consumer, and are
+   * returned in enumeration order.
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class ReadAheadPathIterator implements Iterator<Entry<String, InputStream>> {
+
+    private final Path directoryParent;
+
+    private final Iterator<? extends Path> pathIterator;
+
+    private final ExecutorService executor;
+
+    private final Deque<Entry<String, Future<byte[]>>> reads;
+
+    private ReadAheadPathIterator(final Path directoryParent, final Iterator<? extends Path> pathIterator, final ExecutorService executor) {
+      super();
+      Objects.requireNonNull(directoryParent);
+      Objects.requireNonNull(pathIterator);
+      Objects.requireNonNull(executor);
+      this.directoryParent = directoryParent;
+      this.pathIterator = pathIterator;
+      this.executor = executor;
+      this.reads = new ArrayDeque<>(READ_AHEAD);
+    }
+
+    /**
+     * Submits reads of enumerated files until {@link #READ_AHEAD}
+     * reads are outstanding or there are no more files.
+     */
+    private final void readAhead() {
+      while (this.reads.size() < READ_AHEAD && this.pathIterator.hasNext()) {
+        final Path file = this.pathIterator.next();
+        assert file != null;
+        assert !Files.isDirectory(file);
+        this.reads.add(new SimpleImmutableEntry<>(toEntryName(this.directoryParent, file), this.executor.submit(() -> Files.readAllBytes(file))));
+      }
+    }
+
+    @Override
+    public final boolean hasNext() {
+      this.readAhead();
+      return !this.reads.isEmpty();
+    }
+
+    @Override
+    public final Entry<String, InputStream> next() {
+      if (!this.hasNext()) {
+        throw new NoSuchElementException();
+      }
+      final Entry<String, Future<byte[]>> read = this.reads.remove();
+      assert read != null;
+      final byte[] bytes;
+      try {
+        bytes = read.getValue().get();
+      } catch (final InterruptedException interruptedException) {
+        Thread.currentThread().interrupt();
+        this.cancel();
+        final IOException wrapMe = (IOException)new InterruptedIOException().initCause(interruptedException);
+        throw (NoSuchElementException)new NoSuchElementException(read.getKey()).initCause(wrapMe);
+      } catch (final ExecutionException executionException) {
+        this.cancel();
+        final Throwable cause = executionException.getCause();
+        throw (NoSuchElementException)new NoSuchElementException(cause == null ? read.getKey() : cause.getMessage()).initCause(cause == null ? executionException : cause);
+      }
+      // Read ahead again now so the pool stays busy while this file
+      // is being loaded.
+      this.readAhead();
+      return new SimpleImmutableEntry<>(read.getKey(), new ByteArrayInputStream(bytes));
+    }
+
+    /**
+     * Cancels all outstanding reads.
+     */
+    private final void cancel() {
+      for (final Entry<String, Future<byte[]>> read : this.reads) {
+        read.getValue().cancel(true);
+      }
+      this.reads.clear();
+    }
+
+  }
+
+  /**
+   * Returns the name of the supplied file relative to the supplied
+   * directory, using solidi as separators.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param directoryParent the directory against which {@code file}
+   * will be {@linkplain Path#relativize(Path) relativized}; must not
+   * be {@code null}
+   *
+   * @param file the file; must not be {@code null}
+   *
+   * @return the non-{@code null} name of {@code file} relative to
+   * {@code directoryParent}
+   */
+  private static final String toEntryName(final Path directoryParent, final Path file) {
+    final Path relativeFile = directoryParent.relativize(file);
+    assert relativeFile != null;
+    final String returnValue = relativeFile.toString().replace('\\', '/');
+    assert returnValue != null;
+    return returnValue;
+  }
+
   /**
    * Does nothing on purpose.
    *
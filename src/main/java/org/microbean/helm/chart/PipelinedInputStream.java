@@ -0,0 +1,470 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2017 MicroBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.helm.chart;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+import java.util.Objects;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+import org.microbean.development.annotation.Experimental;
+
+/**
+ * An {@link InputStream} that reads ahead from another {@link
+ * InputStream} on a separate thread, so that expensive work done
+ * while producing bytes—such as {@linkplain
+ * java.util.zip.GZIPInputStream inflating} a chart archive—overlaps
+ * with the work done while consuming them—such as parsing {@code
+ * tar} headers and building {@link
+ * hapi.chart.ChartOuterClass.Chart.Builder Chart.Builder} contents.
+ *
+ * <p>Bytes are handed from the producing thread to the consuming
+ * thread in a fixed number of buffers of a fixed size, so the amount
+ * of memory used, and the distance by which the producer may get
+ * ahead, are bounded.</p>
+ *
+ * <p>Instances of this class may be read by only one thread at a
+ * time.  An {@link PipelinedInputStream} must be {@linkplain
+ * #close() closed} when it is no longer needed; closing it closes
+ * the {@link InputStream} it reads from.</p>
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ */
+@Experimental
+public final class PipelinedInputStream extends InputStream {
+
+
+  /*
+   * Static fields.
+   */
+
+
+  /**
+   * The default size, in bytes, of each buffer.
+   */
+  public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * The default number of buffers.
+   */
+  public static final int DEFAULT_BUFFER_COUNT = 4;
+
+  /**
+   * The {@link Executor} used to read ahead when none is supplied.
+   *
+   * <p>Its threads are daemon threads, and are discarded after a
+   * period of idleness.</p>
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private static final Executor DEFAULT_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+      final Thread thread = new Thread(runnable, PipelinedInputStream.class.getSimpleName());
+      thread.setDaemon(true);
+      return thread;
+    });
+
+  /**
+   * The {@link Chunk} marking the end of the stream.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private static final Chunk END = new Chunk(null, 0, null);
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  /**
+   * The buffers available to the producing thread.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final BlockingQueue<byte[]> free;
+
+  /**
+   * The {@link Chunk}s filled by the producing thread and not yet
+   * taken by the consuming thread.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final BlockingQueue<Chunk> filled;
+
+  /**
+   * A {@link CountDownLatch} that is released once the producing
+   * thread has finished and has closed the {@link InputStream} it
+   * reads from.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final CountDownLatch produced;
+
+  /**
+   * Whether this {@link PipelinedInputStream} has been {@linkplain
+   * #close() closed}.
+   */
+  private volatile boolean closed;
+
+  /**
+   * The {@link Chunk} currently being read by the consuming thread.
+   *
+   * <p>This field may be {@code null}.</p>
+   */
+  private Chunk current;
+
+  /**
+   * The position within the {@linkplain #current current
+   * <code>Chunk</code>} of the next byte to be read.
+   */
+  private int position;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link PipelinedInputStream} that reads ahead from
+   * the supplied {@link InputStream} using a default {@link
+   * Executor}, {@link #DEFAULT_BUFFER_COUNT} buffers and a buffer
+   * size of {@link #DEFAULT_BUFFER_SIZE} bytes.
+   *
+   * @param source the {@link InputStream} to read ahead from; must
+   * not be {@code null}
+   *
+   * @exception NullPointerException if {@code source} is {@code
+   * null}
+   */
+  public PipelinedInputStream(final InputStream source) {
+    this(source, null, DEFAULT_BUFFER_SIZE, DEFAULT_BUFFER_COUNT);
+  }
+
+  /**
+   * Creates a new {@link PipelinedInputStream} that reads ahead from
+   * the supplied {@link InputStream} using the supplied {@link
+   * Executor}, {@link #DEFAULT_BUFFER_COUNT} buffers and a buffer
+   * size of {@link #DEFAULT_BUFFER_SIZE} bytes.
+   *
+   * @param source the {@link InputStream} to read ahead from; must
+   * not be {@code null}
+   *
+   * @param executor the {@link Executor} whose thread will read
+   * ahead; may be {@code null} in which case a default {@link
+   * Executor} will be used; must run the task it is given on a
+   * thread other than the calling thread
+   *
+   * @exception NullPointerException if {@code source} is {@code
+   * null}
+   */
+  public PipelinedInputStream(final InputStream source, final Executor executor) {
+    this(source, executor, DEFAULT_BUFFER_SIZE, DEFAULT_BUFFER_COUNT);
+  }
+
+  /**
+   * Creates a new {@link PipelinedInputStream}.
+   *
+   * @param source the {@link InputStream} to read ahead from; must
+   * not be {@code null}
+   *
+   * @param executor the {@link Executor} whose thread will read
+   * ahead; may be {@code null} in which case a default {@link
+   * Executor} will be used; must run the task it is given on a
+   * thread other than the calling thread
+   *
+   * @param bufferSize the size, in bytes, of each buffer; must be
+   * greater than {@code 0}
+   *
+   * @param bufferCount the number of buffers; must be greater than
+   * {@code 0}
+   *
+   * @exception NullPointerException if {@code source} is {@code
+   * null}
+   *
+   * @exception IllegalArgumentException if {@code bufferSize} or
+   * {@code bufferCount} is less than {@code 1}
+   *
+   * @exception java.util.concurrent.RejectedExecutionException if
+   * the supplied {@link Executor} would not accept the task that
+   * reads ahead
+   */
+  public PipelinedInputStream(final InputStream source, final Executor executor, final int bufferSize, final int bufferCount) {
+    super();
+    Objects.requireNonNull(source);
+    if (bufferSize < 1) {
+      throw new IllegalArgumentException("bufferSize < 1: " + bufferSize);
+    }
+    if (bufferCount < 1) {
+      throw new IllegalArgumentException("bufferCount < 1: " + bufferCount);
+    }
+    this.free = new ArrayBlockingQueue<>(bufferCount);
+    for (int i = 0; i < bufferCount; i++) {
+      this.free.add(new byte[bufferSize]);
+    }
+    // One more slot than there are buffers, so that the final Chunk
+    // can always be added without blocking.
+    this.filled = new ArrayBlockingQueue<>(bufferCount + 1);
+    this.produced = new CountDownLatch(1);
+    (executor == null ? DEFAULT_EXECUTOR : executor).execute(() -> this.produce(source));
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  /**
+   * Reads from the supplied {@link InputStream} into free buffers
+   * until it is exhausted, an error occurs or this {@link
+   * PipelinedInputStream} is {@linkplain #close() closed}, and then
+   * closes it.
+   *
+   * <p>This method is run by the producing thread.</p>
+   *
+   * @param source the {@link InputStream} to read from; must not be
+   * {@code null}
+   */
+  private final void produce(final InputStream source) {
+    assert source != null;
+    Throwable failure = null;
+    byte[] buffer = null;
+    int length = 0;
+    try {
+      boolean done = false;
+      while (!done && !this.closed) {
+        buffer = this.free.take();
+        length = 0;
+        if (this.closed) {
+          break;
+        }
+        int bytesRead = 0;
+        while (length < buffer.length && (bytesRead = source.read(buffer, length, buffer.length - length)) >= 0) {
+          length += bytesRead;
+        }
+        done = bytesRead < 0;
+        if (length > 0) {
+          this.filled.put(new Chunk(buffer, length, null));
+        } else {
+          this.free.add(buffer);
+        }
+        buffer = null;
+      }
+    } catch (final InterruptedException interruptedException) {
+      Thread.currentThread().interrupt();
+      failure = new InterruptedIOException();
+    } catch (final IOException | RuntimeException exception) {
+      failure = exception;
+    } catch (final Error error) {
+      failure = error;
+      throw error;
+    } finally {
+      try {
+        source.close();
+      } catch (final IOException closeException) {
+        if (failure == null) {
+          failure = closeException;
+        } else {
+          failure.addSuppressed(closeException);
+        }
+      }
+      if (failure != null && buffer != null && length > 0) {
+        // Deliver whatever was read before the failure.
+        this.filled.offer(new Chunk(buffer, length, null));
+      }
+      this.filled.offer(failure == null ? END : new Chunk(null, 0, failure));
+      this.produced.countDown();
+    }
+  }
+
+  /**
+   * Returns the {@link Chunk} from which the next byte should be
+   * read, waiting for the producing thread if necessary.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return the {@link Chunk} to read from, which is {@link #END} if
+   * there is nothing more to read
+   *
+   * @exception IOException if this {@link PipelinedInputStream} has
+   * been closed, or if the producing thread failed
+   */
+  private final Chunk getChunk() throws IOException {
+    if (this.closed) {
+      throw new IOException("closed");
+    }
+    Chunk returnValue = this.current;
+    if (returnValue != null && returnValue.buffer != null && this.position >= returnValue.length) {
+      this.free.add(returnValue.buffer);
+      this.current = null;
+      returnValue = null;
+    }
+    if (returnValue == null) {
+      try {
+        returnValue = this.filled.take();
+      } catch (final InterruptedException interruptedException) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException();
+      }
+      this.current = returnValue;
+      this.position = 0;
+    }
+    assert returnValue != null;
+    if (returnValue.failure != null) {
+      throw new IOException(returnValue.failure.getMessage(), returnValue.failure);
+    }
+    return returnValue;
+  }
+
+  @Override
+  public final int read() throws IOException {
+    final Chunk chunk = this.getChunk();
+    return chunk.buffer == null ? -1 : chunk.buffer[this.position++] & 0xFF;
+  }
+
+  @Override
+  public final int read(final byte[] bytes, final int offset, final int length) throws IOException {
+    Objects.requireNonNull(bytes);
+    if (offset < 0 || length < 0 || length > bytes.length - offset) {
+      throw new IndexOutOfBoundsException();
+    }
+    int returnValue = 0;
+    if (length > 0) {
+      final Chunk chunk = this.getChunk();
+      if (chunk.buffer == null) {
+        returnValue = -1;
+      } else {
+        returnValue = Math.min(length, chunk.length - this.position);
+        System.arraycopy(chunk.buffer, this.position, bytes, offset, returnValue);
+        this.position += returnValue;
+      }
+    }
+    return returnValue;
+  }
+
+  /**
+   * Returns the number of bytes that can be read without waiting for
+   * the producing thread.
+   *
+   * @return the number of bytes that can be read without waiting;
+   * never negative
+   */
+  @Override
+  public final int available() {
+    final Chunk chunk = this.current;
+    return chunk == null || chunk.buffer == null ? 0 : chunk.length - this.position;
+  }
+
+  /**
+   * Closes this {@link PipelinedInputStream}, stopping the producing
+   * thread and waiting for it to close the {@link InputStream} it
+   * reads from.
+   *
+   * <p>If the producing thread is blocked reading from that {@link
+   * InputStream}, this method waits until that read completes.</p>
+   */
+  @Override
+  public final void close() {
+    if (!this.closed) {
+      this.closed = true;
+      // Give back every buffer so the producing thread, if it is
+      // waiting for one, can notice that it should stop.
+      final Chunk current = this.current;
+      this.current = null;
+      if (current != null && current.buffer != null) {
+        this.free.offer(current.buffer);
+      }
+      Chunk chunk;
+      while ((chunk = this.filled.poll()) != null) {
+        if (chunk.buffer != null) {
+          this.free.offer(chunk.buffer);
+        }
+      }
+      boolean interrupted = false;
+      while (this.produced.getCount() > 0L) {
+        try {
+          this.produced.await();
+        } catch (final InterruptedException interruptedException) {
+          interrupted = true;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * A buffer filled by the producing thread, or a marker for the end
+   * of the stream or for a failure.
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class Chunk {
+
+    /**
+     * The buffer; {@code null} if this {@link Chunk} marks the end
+     * of the stream or a failure.
+     */
+    private final byte[] buffer;
+
+    /**
+     * The number of bytes in {@link #buffer} that are valid.
+     */
+    private final int length;
+
+    /**
+     * The failure encountered by the producing thread; {@code null}
+     * unless this {@link Chunk} marks a failure.
+     */
+    private final Throwable failure;
+
+    /**
+     * Creates a new {@link Chunk}.
+     *
+     * @param buffer the buffer; may be {@code null}
+     *
+     * @param length the number of valid bytes in {@code buffer}
+     *
+     * @param failure the failure, if any; may be {@code null}
+     */
+    private Chunk(final byte[] buffer, final int length, final Throwable failure) {
+      super();
+      this.buffer = buffer;
+      this.length = length;
+      this.failure = failure;
+    }
+
+  }
+
+}
@@ -16,13 +16,18 @@
  */
 package org.microbean.helm.chart;
 
+import java.io.InterruptedIOException;
 import java.io.IOException;
 import java.io.InputStream;
 
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.NavigableMap;
@@ -31,6 +36,10 @@ import java.util.Objects;
 import java.util.TreeMap;
 import java.util.TreeSet;
 
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -38,6 +47,7 @@ import java.util.zip.GZIPInputStream;
 
 import com.google.protobuf.Any;
 import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
 
 import hapi.chart.ChartOuterClass.Chart;
 import hapi.chart.ConfigOuterClass.Config;
@@ -47,6 +57,7 @@ import hapi.chart.TemplateOuterClass.Template;
 
 import org.kamranzafar.jtar.TarInputStream;
 
+import org.microbean.development.annotation.Experimental;
 import org.microbean.development.annotation.Issue;
 
 import org.yaml.snakeyaml.Yaml;
@@ -58,6 +69,10 @@ import org.yaml.snakeyaml.Yaml;
  * <code>Iterable</code> of <code>InputStream</code>s indexed by their
  * name}.
  *
+ * <p>Subcharts embedded as {@code .tgz} archives within a chart's
+ * {@code charts} directory may optionally be {@linkplain
+ * #StreamOrientedChartLoader(ExecutorService) loaded concurrently}.</p>
+ *
  * @param <T> the type of source from which this {@link
  * StreamOrientedChartLoader} is capable of loading Helm charts
  *
@@ -118,6 +133,23 @@ public abstract class StreamOrientedChartLoader<T> extends AbstractChartLoader<T
   private static final Pattern basenamePattern = Pattern.compile("^.*?([^/]+)$");
 
 
+  /*
+   * Instance fields.
+   */
+
+
+  /**
+   * The {@link ExecutorService} used to load embedded subchart
+   * archives concurrently.
+   *
+   * <p>This field may be {@code null}, in which case embedded
+   * subchart archives are loaded as they are encountered.</p>
+   *
+   * @see #StreamOrientedChartLoader(ExecutorService)
+   */
+  private final ExecutorService subchartExecutor;
+
+
   /*
    * Constructors.
    */
@@ -127,7 +159,32 @@ public abstract class StreamOrientedChartLoader<T> extends AbstractChartLoader<T
    * Creates a new {@link StreamOrientedChartLoader}.
    */
   protected StreamOrientedChartLoader() {
+    this(null);
+  }
+
+  /**
+   * Creates a new {@link StreamOrientedChartLoader} that uses the
+   * supplied {@link ExecutorService} to load subcharts embedded as
+   * {@code .tgz} archives concurrently.
+   *
+   * <p>Each embedded archive is read into memory when it is
+   * encountered and is then decoded by a task submitted to the
+   * supplied {@link ExecutorService}, while the enclosing chart
+   * continues to be read.  The resulting subcharts are attached to
+   * the enclosing chart in the order in which their archives were
+   * encountered, so the loaded chart is the same as if no {@link
+   * ExecutorService} had been supplied.  Archives nested within an
+   * embedded archive are loaded by the task decoding it, so tasks
+   * never wait for other tasks.</p>
+   *
+   * @param subchartExecutor the {@link ExecutorService} to use; may
+   * be {@code null} in which case embedded subchart archives are
+   * loaded as they are encountered
+   */
+  @Experimental
+  protected StreamOrientedChartLoader(final ExecutorService subchartExecutor) {
     super();
+    this.subchartExecutor = subchartExecutor;
   }
 
 
@@ -249,21 +306,76 @@ public abstract class StreamOrientedChartLoader<T> extends AbstractChartLoader<T
     // XXX TODO FIXME: do we really want to say the root is null?
     // Or should it always be a path named after the chart?
     chartBuilders.put(null, rootBuilder);
-    for (final Entry<? extends String, ? extends InputStream> entry : entrySet) {
-      if (entry != null) {
-        final String key = entry.getKey();
-        if (key != null) {
-          final InputStream value = entry.getValue();
-          if (value != null) {
-            this.addFile(chartBuilders, key, value);
+    final List<Entry<Chart.Builder, Future<Chart.Builder>>> subchartLoads = this.subchartExecutor == null ? null : new ArrayList<>();
+    try {
+      for (final Entry<? extends String, ? extends InputStream> entry : entrySet) {
+        if (entry != null) {
+          final String key = entry.getKey();
+          if (key != null) {
+            final InputStream value = entry.getValue();
+            if (value != null) {
+              this.addFile(chartBuilders, key, value, subchartLoads);
+            }
           }
         }
       }
+      if (subchartLoads != null) {
+        finishSubchartLoads(subchartLoads);
+      }
+    } finally {
+      if (subchartLoads != null) {
+        // If anything went wrong, don't leave work running.
+        for (final Entry<Chart.Builder, Future<Chart.Builder>> subchartLoad : subchartLoads) {
+          subchartLoad.getValue().cancel(true);
+        }
+      }
     }
     return rootBuilder;
   }
+
+  /**
+   * Waits for each of the supplied concurrent subchart loads to
+   * finish, in order, and {@linkplain
+   * Chart.Builder#mergeFrom(Chart) merges} each resulting {@link
+   * Chart.Builder} into the placeholder {@link Chart.Builder} that
+   * was added to its parent when its archive was encountered.
+   *
+   * @param subchartLoads the subchart loads, in encounter order, as
+   * placeholder {@link Chart.Builder}s paired with {@link Future}s
+   * representing the loads; must not be {@code null}
+   *
+   * @exception IOException if a load failed, or if the calling
+   * thread was interrupted
+   */
+  private static final void finishSubchartLoads(final List<? extends Entry<? extends Chart.Builder, ? extends Future<? extends Chart.Builder>>> subchartLoads) throws IOException {
+    Objects.requireNonNull(subchartLoads);
+    for (final Entry<? extends Chart.Builder, ? extends Future<? extends Chart.Builder>> subchartLoad : subchartLoads) {
+      final Chart.Builder subchartBuilder;
+      try {
+        subchartBuilder = subchartLoad.getValue().get();
+      } catch (final InterruptedException interruptedException) {
+        Thread.currentThread().interrupt();
+        throw (InterruptedIOException)new InterruptedIOException().initCause(interruptedException);
+      } catch (final ExecutionException executionException) {
+        final Throwable cause = executionException.getCause();
+        if (cause instanceof IOException) {
+          throw (IOException)cause;
+        } else if (cause instanceof RuntimeException) {
+          throw (RuntimeException)cause;
+        } else if (cause instanceof Error) {
+          throw (Error)cause;
+        } else {
+          throw new IOException(executionException.getMessage(), executionException);
+        }
+      }
+      if (subchartBuilder == null) {
+        throw new IllegalStateException("load(builder, tarInputStream) == null");
+      }
+      subchartLoad.getKey().mergeFrom(subchartBuilder.buildPartial());
+    }
+  }
   
-  private final void addFile(final NavigableMap<String, Chart.Builder> chartBuilders, final String path, final InputStream stream) throws IOException {
+  private final void addFile(final NavigableMap<String, Chart.Builder> chartBuilders, final String path, final InputStream stream, final List<Entry<Chart.Builder, Future<Chart.Builder>>> subchartLoads) throws IOException {
     Objects.requireNonNull(chartBuilders);
     Objects.requireNonNull(path);
     Objects.requireNonNull(stream);
@@ -351,12 +463,26 @@ public abstract class StreamOrientedChartLoader<T> extends AbstractChartLoader<T
             // Not: wordpress/charts/foo
             // Not: wordpress/charts/bar/foo.tgz
             // Not: wordpress/charts/_bar/foo.tgz
-            Chart.Builder subchartBuilder = null;
-            try (final TarInputStream tarInputStream = new TarInputStream(new GZIPInputStream(new NonClosingInputStream(stream)))) {
-              subchartBuilder = new TapeArchiveChartLoader().load(builder, tarInputStream);
-            }
-            if (subchartBuilder == null) {
-              throw new IllegalStateException("load(builder, tarInputStream) == null; path: " + path);
+            if (subchartLoads == null) {
+              Chart.Builder subchartBuilder = null;
+              try (final TarInputStream tarInputStream = new TarInputStream(new GZIPInputStream(new NonClosingInputStream(stream)))) {
+                subchartBuilder = new TapeArchiveChartLoader().load(builder, tarInputStream);
+              }
+              if (subchartBuilder == null) {
+                throw new IllegalStateException("load(builder, tarInputStream) == null; path: " + path);
+              }
+            } else {
+              // Buffer the archive so the enclosing chart can be read
+              // further while it is decoded into a scratch builder;
+              // builder, already attached to its parent in encounter
+              // order, absorbs the result later.
+              final ByteString archive = toByteString(stream);
+              final Future<Chart.Builder> subchartLoad = this.subchartExecutor.submit(() -> {
+                  try (final TarInputStream tarInputStream = new TarInputStream(new GZIPInputStream(archive.newInput()))) {
+                    return new TapeArchiveChartLoader().load(Chart.newBuilder(), tarInputStream);
+                  }
+                });
+              subchartLoads.add(new SimpleImmutableEntry<>(builder, subchartLoad));
             }
             // builder.addDependencies(subchart);
           } else {
@@ -539,6 +665,41 @@ public abstract class StreamOrientedChartLoader<T> extends AbstractChartLoader<T
     return returnValue;
   }
   
+  /**
+   * Reads the supplied {@link InputStream} to its end and returns its
+   * contents as a {@link ByteString}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * <p>If the supplied {@link InputStream} is a {@link
+   * TarEntryInputStream}, whose size is known in advance, its
+   * contents are read into an array of exactly the right size that
+   * is then {@linkplain UnsafeByteOperations#unsafeWrap(byte[])
+   * wrapped}, not copied, so each byte is copied only once.  This is
+   * safe because the array is never exposed or modified
+   * afterwards.</p>
+   *
+   * @param stream the {@link InputStream} to read; must not be {@code
+   * null}
+   *
+   * @return a non-{@code null} {@link ByteString}
+   *
+   * @exception IOException if there was a problem reading from the
+   * supplied {@link InputStream}
+   *
+   * @see ByteString#readFrom(InputStream)
+   */
+  private static final ByteString toByteString(final InputStream stream) throws IOException {
+    Objects.requireNonNull(stream);
+    final ByteString returnValue;
+    if (stream instanceof TarEntryInputStream) {
+      returnValue = UnsafeByteOperations.unsafeWrap(((TarEntryInputStream)stream).readFully());
+    } else {
+      returnValue = ByteString.readFrom(stream);
+    }
+    return returnValue;
+  }
+  
 
   /*
    * Utility methods.
@@ -576,7 +737,7 @@ public abstract class StreamOrientedChartLoader<T> extends AbstractChartLoader<T
     Config returnValue = null;
     final Config.Builder builder = chartBuilder.getValuesBuilder();
     assert builder != null;
-    final ByteString rawBytes = ByteString.readFrom(stream);
+    final ByteString rawBytes = toByteString(stream);
     assert rawBytes != null;
     builder.setRawBytes(rawBytes);
   }
@@ -665,7 +826,7 @@ public abstract class StreamOrientedChartLoader<T> extends AbstractChartLoader<T
     final Template.Builder builder = chartBuilder.addTemplatesBuilder();
     assert builder != null;
     builder.setName(name);
-    final ByteString data = ByteString.readFrom(stream);
+    final ByteString data = toByteString(stream);
     assert data != null;
     assert data.isValidUtf8();
     builder.setData(data);
@@ -707,7 +868,7 @@ public abstract class StreamOrientedChartLoader<T> extends AbstractChartLoader<T
     final Any.Builder builder = chartBuilder.addFilesBuilder();
     assert builder != null;
     builder.setTypeUrl(name);
-    final ByteString fileContents = ByteString.readFrom(stream);
+    final ByteString fileContents = toByteString(stream);
     assert fileContents != null;
     assert fileContents.isValidUtf8();
     builder.setValue(fileContents);
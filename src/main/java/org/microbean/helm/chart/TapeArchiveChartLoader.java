@@ -16,8 +16,6 @@
  */
 package org.microbean.helm.chart;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -26,11 +24,15 @@ import java.util.Iterator;
 import java.util.NoSuchElementException;
 import java.util.Map.Entry;
 
+import java.util.concurrent.ExecutorService;
+
 import hapi.chart.ChartOuterClass.Chart;
 
 import org.kamranzafar.jtar.TarEntry;
 import org.kamranzafar.jtar.TarInputStream;
 
+import org.microbean.development.annotation.Experimental;
+
 /**
  * A {@link StreamOrientedChartLoader
  * StreamOrientedChartLoader&lt;TarInputStream&gt;} that creates
@@ -58,6 +60,22 @@ public class TapeArchiveChartLoader extends StreamOrientedChartLoader<TarInputSt
     super();
   }
 
+  /**
+   * Creates a new {@link TapeArchiveChartLoader} that uses the
+   * supplied {@link ExecutorService} to load subcharts embedded as
+   * {@code .tgz} archives concurrently.
+   *
+   * @param subchartExecutor the {@link ExecutorService} to use; may
+   * be {@code null} in which case embedded subchart archives are
+   * loaded as they are encountered
+   *
+   * @see StreamOrientedChartLoader#StreamOrientedChartLoader(ExecutorService)
+   */
+  @Experimental
+  public TapeArchiveChartLoader(final ExecutorService subchartExecutor) {
+    super(subchartExecutor);
+  }
+
 
   /*
    * Instance methods.
@@ -70,6 +88,13 @@ public class TapeArchiveChartLoader extends StreamOrientedChartLoader<TarInputSt
    * an {@link InputStream} representing an entry within the archive
    * together with its name.
    *
+   * <p>Entries are read from the supplied {@link TarInputStream} as
+   * they are iterated over, without being buffered, so each {@link
+   * InputStream} may be read only until the {@link Iterator}'s {@link
+   * Iterator#hasNext()} or {@link Iterator#next()} method is called
+   * again.  Whatever part of an entry has not been read by then is
+   * skipped.</p>
+   *
    * <p>This method never returns {@code null}.</p>
    *
    * <p>Overrides of this method are not permitted to return {@code
@@ -94,48 +119,51 @@ public class TapeArchiveChartLoader extends StreamOrientedChartLoader<TarInputSt
         @Override
         public Iterator<Entry<String, InputStream>> iterator() {
           return new Iterator<Entry<String, InputStream>>() {
-            private TarEntry currentEntry;
-            
-            {
-              try {
-                this.currentEntry = stream.getNextEntry();
-              } catch (final IOException ignore) {
-                this.currentEntry = null;
-              }
-            }
-            
+
+            // The entry read by hasNext() but not yet returned by
+            // next(), if any.
+            private TarEntry nextEntry;
+
+            // The InputStream last returned by next(); it is drained
+            // before the next entry is read.
+            private TarEntryInputStream currentStream;
+
+            private boolean done;
+
             @Override
             public boolean hasNext() {
-              return this.currentEntry != null;
+              if (this.nextEntry == null && !this.done) {
+                try {
+                  if (this.currentStream != null) {
+                    this.currentStream.drain();
+                    this.currentStream = null;
+                  }
+                  this.nextEntry = stream.getNextEntry();
+                } catch (final IOException wrapMe) {
+                  // A damaged archive must not look like a shorter
+                  // one.
+                  this.done = true;
+                  throw (NoSuchElementException)new NoSuchElementException(wrapMe.getMessage()).initCause(wrapMe);
+                }
+                this.done = this.nextEntry == null;
+              }
+              return this.nextEntry != null;
             }
-            
+
             @Override
             public Entry<String, InputStream> next() {
-              if (this.currentEntry == null) {
+              if (!this.hasNext()) {
                 throw new NoSuchElementException();
               }
+              final TarEntry entry = this.nextEntry;
+              assert entry != null;
+              this.nextEntry = null;
               final Entry<String, InputStream> returnValue;
-              if (this.currentEntry.isDirectory()) {
-                returnValue = new SimpleImmutableEntry<>(this.currentEntry.getName(), null);
+              if (entry.isDirectory()) {
+                returnValue = new SimpleImmutableEntry<>(entry.getName(), null);
               } else {
-                ByteArrayInputStream bais = null;
-                try (final ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
-                  int bytesRead = 0;
-                  final byte bytes[] = new byte[4096];
-                  while((bytesRead = stream.read(bytes)) >= 0) {
-                    baos.write(bytes, 0, bytesRead);
-                  }
-                  baos.flush();
-                  bais = new ByteArrayInputStream(baos.toByteArray());
-                } catch (final IOException wrapMe) {
-                  throw (NoSuchElementException)new NoSuchElementException(wrapMe.getMessage()).initCause(wrapMe);
-                }
-                returnValue = new SimpleImmutableEntry<>(this.currentEntry.getName(), bais);
-              }
-              try {
-                this.currentEntry = stream.getNextEntry();
-              } catch (final IOException ignore) {
-                this.currentEntry = null;
+                this.currentStream = new TarEntryInputStream(stream, entry);
+                returnValue = new SimpleImmutableEntry<>(entry.getName(), this.currentStream);
               }
               return returnValue;
             }
@@ -0,0 +1,226 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2017 MicroBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.helm.chart;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.util.Objects;
+
+import org.kamranzafar.jtar.TarEntry;
+import org.kamranzafar.jtar.TarInputStream;
+
+/**
+ * A {@link FilterInputStream} that reads the contents of the current
+ * {@link TarEntry} of a {@link TarInputStream} directly from it,
+ * never reading past the end of the entry as recorded in its
+ * header, and whose {@link #close()} method leaves the {@link
+ * TarInputStream} open.
+ *
+ * <p>Because the size of the entry is known in advance, its contents
+ * can be {@linkplain #readFully() read} into an array of exactly the
+ * right size, so that each byte is copied out of the archive only
+ * once.</p>
+ *
+ * <p>A {@link TarEntryInputStream} is usable only until the next
+ * entry of the {@link TarInputStream} is read.</p>
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see TapeArchiveChartLoader
+ */
+final class TarEntryInputStream extends FilterInputStream {
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  /**
+   * The number of bytes of the entry that have not yet been read.
+   */
+  private long remaining;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link TarEntryInputStream}.
+   *
+   * @param in the {@link TarInputStream} positioned at the start of
+   * the contents of {@code entry}; must not be {@code null}
+   *
+   * @param entry the {@link TarEntry} whose contents will be read;
+   * must not be {@code null}
+   *
+   * @exception NullPointerException if either parameter is {@code
+   * null}
+   */
+  TarEntryInputStream(final TarInputStream in, final TarEntry entry) {
+    super(Objects.requireNonNull(in));
+    this.remaining = Math.max(0L, Objects.requireNonNull(entry).getSize());
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  /**
+   * Returns the number of bytes of the entry that have not yet been
+   * read.
+   *
+   * @return the number of bytes remaining; never negative
+   */
+  final long getRemaining() {
+    return this.remaining;
+  }
+
+  /**
+   * Reads all remaining bytes of the entry into a new array of
+   * exactly the right size and returns it.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a new, non-{@code null} array holding the remaining
+   * contents of the entry
+   *
+   * @exception IOException if the entry is too large to be held in
+   * an array, or if the archive ends before the entry does
+   */
+  final byte[] readFully() throws IOException {
+    if (this.remaining > Integer.MAX_VALUE - 8) {
+      throw new IOException("Entry too large: " + this.remaining);
+    }
+    final byte[] returnValue = new byte[(int)this.remaining];
+    int offset = 0;
+    while (offset < returnValue.length) {
+      final int bytesRead = this.read(returnValue, offset, returnValue.length - offset);
+      if (bytesRead < 0) {
+        throw new EOFException();
+      }
+      offset += bytesRead;
+    }
+    return returnValue;
+  }
+
+  /**
+   * Reads and discards whatever remains of the entry, so that the
+   * underlying {@link TarInputStream} is positioned at its end.
+   *
+   * @exception IOException if an error occurs
+   */
+  final void drain() throws IOException {
+    if (this.remaining > 0L) {
+      final byte[] buffer = new byte[(int)Math.min(this.remaining, 8192L)];
+      while (this.remaining > 0L && this.read(buffer, 0, (int)Math.min(this.remaining, buffer.length)) >= 0) {
+        // Reading decrements this.remaining.
+      }
+    }
+  }
+
+  @Override
+  public final int read() throws IOException {
+    int returnValue = -1;
+    if (this.remaining > 0L) {
+      returnValue = super.read();
+      if (returnValue < 0) {
+        this.remaining = 0L;
+      } else {
+        this.remaining--;
+      }
+    }
+    return returnValue;
+  }
+
+  @Override
+  public final int read(final byte[] bytes, final int offset, final int length) throws IOException {
+    int returnValue = -1;
+    if (length == 0) {
+      returnValue = 0;
+    } else if (this.remaining > 0L) {
+      returnValue = super.read(bytes, offset, (int)Math.min(length, this.remaining));
+      if (returnValue < 0) {
+        this.remaining = 0L;
+      } else {
+        this.remaining -= returnValue;
+      }
+    }
+    return returnValue;
+  }
+
+  @Override
+  public final long skip(final long n) throws IOException {
+    long returnValue = 0L;
+    if (n > 0L && this.remaining > 0L) {
+      final byte[] buffer = new byte[(int)Math.min(Math.min(n, this.remaining), 8192L)];
+      while (returnValue < n) {
+        final int bytesRead = this.read(buffer, 0, (int)Math.min(n - returnValue, buffer.length));
+        if (bytesRead < 0) {
+          break;
+        }
+        returnValue += bytesRead;
+      }
+    }
+    return returnValue;
+  }
+
+  /**
+   * Returns the number of bytes of the entry that have not yet been
+   * read, or {@link Integer#MAX_VALUE} if that number is larger.
+   *
+   * @return the number of bytes of the entry remaining, capped at
+   * {@link Integer#MAX_VALUE}
+   */
+  @Override
+  public final int available() {
+    return (int)Math.min(this.remaining, Integer.MAX_VALUE);
+  }
+
+  @Override
+  public final boolean markSupported() {
+    return false;
+  }
+
+  @Override
+  public final void mark(final int readLimit) {
+
+  }
+
+  @Override
+  public final void reset() throws IOException {
+    throw new IOException("mark/reset not supported");
+  }
+
+  /**
+   * Does nothing when invoked, leaving the underlying {@link
+   * TarInputStream} open.
+   */
+  @Override
+  public final void close() {
+
+  }
+
+}
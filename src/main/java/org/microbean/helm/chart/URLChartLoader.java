@@ -34,6 +34,8 @@ import java.util.Iterator;
 import java.util.Map.Entry;
 import java.util.Objects;
 
+import java.util.concurrent.ExecutorService;
+
 import java.util.zip.GZIPInputStream;
 import java.util.zip.ZipInputStream;
 
@@ -41,6 +43,8 @@ import hapi.chart.ChartOuterClass.Chart; // for javadoc only
 
 import org.kamranzafar.jtar.TarInputStream;
 
+import org.microbean.development.annotation.Experimental;
+
 /**
  * A {@link StreamOrientedChartLoader StreamOrientedChartLoader&lt;URL&gt;} that creates
  * {@link Chart} instances from {@link URL} instances.
@@ -76,7 +80,23 @@ public class URLChartLoader extends StreamOrientedChartLoader<URL> {
    * Creates a new {@link URLChartLoader}.
    */
   public URLChartLoader() {
-    super();
+    this(null);
+  }
+
+  /**
+   * Creates a new {@link URLChartLoader} that uses the supplied
+   * {@link ExecutorService} to load subcharts embedded as {@code
+   * .tgz} archives concurrently.
+   *
+   * @param subchartExecutor the {@link ExecutorService} to use; may
+   * be {@code null} in which case embedded subchart archives are
+   * loaded as they are encountered
+   *
+   * @see StreamOrientedChartLoader#StreamOrientedChartLoader(ExecutorService)
+   */
+  @Experimental
+  public URLChartLoader(final ExecutorService subchartExecutor) {
+    super(subchartExecutor);
     this.closeables = new IdentityHashMap<>();
   }
 
@@ -97,6 +117,10 @@ public class URLChartLoader extends StreamOrientedChartLoader<URL> {
    * <p>Overrides of this method are not permitted to return {@code
    * null}.
    *
+   * <p>A {@link URL} naming a gzipped tape archive is inflated by a
+   * {@link PipelinedInputStream}, on a thread other than the one
+   * reading the returned entries.</p>
+   *
    * @param url the {@link URL} to dereference; must be non-{@code
    * null} or an effectively empty {@link Iterable} will be returned
    *
@@ -136,7 +160,7 @@ public class URLChartLoader extends StreamOrientedChartLoader<URL> {
         this.closeables.put(loader, null);
         returnValue = loader.toNamedInputStreamEntries(zipInputStream);
       } else {
-        final TarInputStream tarInputStream = new TarInputStream(new GZIPInputStream(new BufferedInputStream(url.openStream())));
+        final TarInputStream tarInputStream = new TarInputStream(new PipelinedInputStream(new GZIPInputStream(new BufferedInputStream(url.openStream()))));
         this.closeables.put(tarInputStream, null);
         final TapeArchiveChartLoader loader = new TapeArchiveChartLoader();
         this.closeables.put(loader, null);
@@ -0,0 +1,736 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2017 MicroBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.helm.chart.repository;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import java.util.stream.Stream;
+
+import org.microbean.development.annotation.Experimental;
+
+/**
+ * A manager for a directory of Helm chart archives, such as the
+ * archive cache directory used by a {@link ChartRepository}, that
+ * keeps the directory within a maximum total size and a maximum
+ * number of archives by evicting the least recently used archives.
+ *
+ * <p>An archive's last use is recorded as its {@linkplain
+ * Files#getLastModifiedTime(Path, LinkOption...) last modified
+ * time}, so that it is shared by all processes using the same
+ * directory.</p>
+ *
+ * <p>An archive may be {@linkplain #pin(Path) pinned} while it is
+ * being read.  Pinned archives are never evicted by this {@link
+ * ArchiveCache}, although they still count towards its limits.</p>
+ *
+ * <p>Partially downloaded archives, kept so that their downloads can
+ * be resumed, count towards the limits too, and are evicted like
+ * archives unless they are still being downloaded.</p>
+ *
+ * <p>Instances of this class are safe for concurrent use by multiple
+ * threads.</p>
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see ChartRepository#setArchiveCache(ArchiveCache)
+ */
+@Experimental
+public class ArchiveCache {
+
+
+  /*
+   * Static fields.
+   */
+
+
+  /**
+   * The suffix borne by the file names of the Helm chart archives
+   * managed by an {@link ArchiveCache}.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private static final String SUFFIX = ".tgz";
+
+  /**
+   * The suffix borne by the file names of partially downloaded Helm
+   * chart archives.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private static final String PARTIAL_SUFFIX = SUFFIX + ".part";
+
+  /**
+   * The suffix borne by the names of the lock files held while Helm
+   * chart archives are being downloaded.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private static final String LOCK_SUFFIX = ".lock";
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  /**
+   * The directory whose archives are managed by this {@link
+   * ArchiveCache}.
+   *
+   * <p>This field is never {@code null}.</p>
+   *
+   * @see #getDirectory()
+   */
+  private final Path directory;
+
+  /**
+   * The maximum total size, in bytes, of the archives in the {@link
+   * #directory}.
+   *
+   * @see #getMaxBytes()
+   */
+  private final long maxBytes;
+
+  /**
+   * The maximum number of archives in the {@link #directory}.
+   *
+   * @see #getMaxEntries()
+   */
+  private final int maxEntries;
+
+  /**
+   * A {@link Map} of pin counts indexed by {@linkplain
+   * #normalize(Path) normalized} archive {@link Path}.
+   *
+   * <p>This field is never {@code null}.</p>
+   *
+   * <p>This field is guarded by its own monitor, which is also held
+   * while an archive is being evicted.</p>
+   *
+   * @see #pin(Path)
+   *
+   * @see #unpin(Path)
+   */
+  private final Map<Path, Integer> pins;
+
+  /**
+   * The number of times a requested archive was present.
+   *
+   * <p>This field is never {@code null}.</p>
+   *
+   * @see #getHitCount()
+   */
+  private final LongAdder hits;
+
+  /**
+   * The number of times a requested archive was absent.
+   *
+   * <p>This field is never {@code null}.</p>
+   *
+   * @see #getMissCount()
+   */
+  private final LongAdder misses;
+
+  /**
+   * The number of archives evicted.
+   *
+   * <p>This field is never {@code null}.</p>
+   *
+   * @see #getEvictionCount()
+   */
+  private final LongAdder evictions;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link ArchiveCache}.
+   *
+   * @param directory the directory whose archives will be managed;
+   * must not be {@code null}
+   *
+   * @param maxBytes the maximum total size, in bytes, of the archives
+   * in the directory; {@link Long#MAX_VALUE} means no limit; must not
+   * be negative
+   *
+   * @param maxEntries the maximum number of archives in the
+   * directory; {@link Integer#MAX_VALUE} means no limit; must not be
+   * negative
+   *
+   * @exception NullPointerException if {@code directory} is {@code
+   * null}
+   *
+   * @exception IllegalArgumentException if {@code maxBytes} or {@code
+   * maxEntries} is negative
+   */
+  public ArchiveCache(final Path directory, final long maxBytes, final int maxEntries) {
+    super();
+    Objects.requireNonNull(directory);
+    if (maxBytes < 0L) {
+      throw new IllegalArgumentException("maxBytes < 0: " + maxBytes);
+    }
+    if (maxEntries < 0) {
+      throw new IllegalArgumentException("maxEntries < 0: " + maxEntries);
+    }
+    this.directory = directory;
+    this.maxBytes = maxBytes;
+    this.maxEntries = maxEntries;
+    this.pins = new HashMap<>();
+    this.hits = new LongAdder();
+    this.misses = new LongAdder();
+    this.evictions = new LongAdder();
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  /**
+   * Returns the directory whose archives are managed by this {@link
+   * ArchiveCache}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return the directory whose archives are managed by this {@link
+   * ArchiveCache}; never {@code null}
+   */
+  public final Path getDirectory() {
+    return this.directory;
+  }
+
+  /**
+   * Returns the maximum total size, in bytes, of the archives managed
+   * by this {@link ArchiveCache}.
+   *
+   * @return the maximum total size in bytes
+   */
+  public final long getMaxBytes() {
+    return this.maxBytes;
+  }
+
+  /**
+   * Returns the maximum number of archives managed by this {@link
+   * ArchiveCache}.
+   *
+   * @return the maximum number of archives
+   */
+  public final int getMaxEntries() {
+    return this.maxEntries;
+  }
+
+  /**
+   * Returns the number of times an archive was {@linkplain
+   * #recordHit(Path) found to be present}.
+   *
+   * @return the number of cache hits
+   */
+  public final long getHitCount() {
+    return this.hits.sum();
+  }
+
+  /**
+   * Returns the number of times an archive was {@linkplain
+   * #recordMiss(Path) found to be absent}.
+   *
+   * @return the number of cache misses
+   */
+  public final long getMissCount() {
+    return this.misses.sum();
+  }
+
+  /**
+   * Returns the number of archives that have been evicted by this
+   * {@link ArchiveCache}.
+   *
+   * @return the number of evictions
+   */
+  public final long getEvictionCount() {
+    return this.evictions.sum();
+  }
+
+  /**
+   * Records a request for the archive at the supplied {@link Path}
+   * that found it present, and {@linkplain #touch(Path) marks it} as
+   * the most recently used.
+   *
+   * @param archive the {@link Path} of the archive; must not be
+   * {@code null}
+   *
+   * @exception NullPointerException if {@code archive} is {@code
+   * null}
+   *
+   * @see #getHitCount()
+   */
+  public void recordHit(final Path archive) {
+    Objects.requireNonNull(archive);
+    this.hits.increment();
+    this.touch(archive);
+  }
+
+  /**
+   * Records a request for the archive at the supplied {@link Path}
+   * that found it absent or out of date.
+   *
+   * @param archive the {@link Path} of the archive; must not be
+   * {@code null}
+   *
+   * @exception NullPointerException if {@code archive} is {@code
+   * null}
+   *
+   * @see #getMissCount()
+   */
+  public void recordMiss(final Path archive) {
+    Objects.requireNonNull(archive);
+    this.misses.increment();
+  }
+
+  /**
+   * Marks the archive at the supplied {@link Path} as the most
+   * recently used.
+   *
+   * <p>The default implementation of this method sets the archive's
+   * last modified time to the current time, ignoring any failure to
+   * do so.  If the archive is a symbolic link, the time of the file
+   * it links to is set.</p>
+   *
+   * @param archive the {@link Path} of the archive; must not be
+   * {@code null}
+   *
+   * @exception NullPointerException if {@code archive} is {@code
+   * null}
+   */
+  public void touch(final Path archive) {
+    Objects.requireNonNull(archive);
+    try {
+      Files.setLastModifiedTime(archive, FileTime.fromMillis(System.currentTimeMillis()));
+    } catch (final IOException ignore) {
+
+    }
+  }
+
+  /**
+   * Pins the archive at the supplied {@link Path} so that it will not
+   * be evicted until it is {@linkplain #unpin(Path) unpinned} as many
+   * times as it has been pinned.
+   *
+   * <p>An archive may be pinned before it exists.</p>
+   *
+   * @param archive the {@link Path} of the archive; must not be
+   * {@code null}
+   *
+   * @exception NullPointerException if {@code archive} is {@code
+   * null}
+   *
+   * @see #unpin(Path)
+   */
+  public final void pin(final Path archive) {
+    final Path key = normalize(archive);
+    synchronized (this.pins) {
+      final Integer count = this.pins.get(key);
+      this.pins.put(key, Integer.valueOf(count == null ? 1 : count.intValue() + 1));
+    }
+  }
+
+  /**
+   * Reverses a single prior invocation of the {@link #pin(Path)}
+   * method for the archive at the supplied {@link Path}.
+   *
+   * @param archive the {@link Path} of the archive; must not be
+   * {@code null}
+   *
+   * @exception NullPointerException if {@code archive} is {@code
+   * null}
+   *
+   * @see #pin(Path)
+   */
+  public final void unpin(final Path archive) {
+    final Path key = normalize(archive);
+    synchronized (this.pins) {
+      final Integer count = this.pins.get(key);
+      if (count != null) {
+        if (count.intValue() <= 1) {
+          this.pins.remove(key);
+        } else {
+          this.pins.put(key, Integer.valueOf(count.intValue() - 1));
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns {@code true} if the archive at the supplied {@link Path}
+   * is {@linkplain #pin(Path) pinned}.
+   *
+   * @param archive the {@link Path} of the archive; must not be
+   * {@code null}
+   *
+   * @return {@code true} if the archive is pinned
+   *
+   * @exception NullPointerException if {@code archive} is {@code
+   * null}
+   */
+  public final boolean isPinned(final Path archive) {
+    final Path key = normalize(archive);
+    synchronized (this.pins) {
+      return this.pins.containsKey(key);
+    }
+  }
+
+  /**
+   * Evicts the least recently used, unpinned archives from the
+   * {@linkplain #getDirectory() directory} until the total size and
+   * number of the archives in it are within this {@link
+   * ArchiveCache}'s limits, or until only pinned archives are
+   * left, and returns the number of archives evicted.
+   *
+   * <p>Only regular files whose names end with {@code .tgz}, either
+   * in the directory itself or in one of its immediate
+   * subdirectories, are considered to be archives; symbolic links to
+   * them are not.  Several hard links to the same file are considered
+   * to be one archive, and are evicted together.  An archive is
+   * considered to be pinned if it, or a symbolic link to it, is
+   * {@linkplain #pin(Path) pinned}.</p>
+   *
+   * <p>Regular files whose names end with {@code .tgz.part}, which
+   * are partially downloaded archives, are considered to be archives
+   * as well, and their last modified times, which are updated as they
+   * are written, as their last use.  One is not evicted while the
+   * lock file that a {@link ChartRepository} holds while downloading
+   * it, in this or any other process, is {@linkplain
+   * FileChannel#tryLock() locked}.  When one is evicted, any
+   * validators recorded alongside it so that its download could be
+   * resumed are deleted too.</p>
+   *
+   * <p>Symbolic links whose names end with {@code .tgz} and whose
+   * targets no longer exist, whether because they were evicted by
+   * this invocation or by some other means, are deleted as well,
+   * unless they are pinned.  They are not counted as evictions.</p>
+   *
+   * @return the number of archives evicted
+   *
+   * @exception IOException if the directory could not be read or an
+   * archive could not be deleted
+   */
+  public int evict() throws IOException {
+    int returnValue = 0;
+    final Path directory = this.getDirectory();
+    assert directory != null;
+    if (Files.isDirectory(directory)) {
+      final Map<Object, Candidate> candidates = new LinkedHashMap<>();
+      final Collection<Path> links = new ArrayList<>();
+      long totalBytes = 0L;
+      try (final Stream<Path> stream = Files.walk(directory, 2)) {
+        final Iterator<Path> iterator = stream.iterator();
+        while (iterator.hasNext()) {
+          final Path archive = iterator.next();
+          final String fileName = archive.getFileName().toString();
+          final boolean partial = fileName.endsWith(PARTIAL_SUFFIX);
+          if (partial || fileName.endsWith(SUFFIX)) {
+            final BasicFileAttributes attributes;
+            try {
+              attributes = Files.readAttributes(archive, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            } catch (final NoSuchFileException evictedElsewhere) {
+              continue;
+            }
+            if (attributes.isRegularFile()) {
+              final Object key = attributes.fileKey() == null ? normalize(archive) : attributes.fileKey();
+              final Candidate candidate = candidates.get(key);
+              if (candidate == null) {
+                candidates.put(key, new Candidate(archive, attributes.size(), attributes.lastModifiedTime().toMillis(), partial));
+                totalBytes += attributes.size();
+              } else {
+                candidate.archives.add(archive);
+              }
+            } else if (attributes.isSymbolicLink() && !partial) {
+              links.add(archive);
+            }
+          }
+        }
+      } catch (final UncheckedIOException uncheckedIOException) {
+        throw uncheckedIOException.getCause();
+      }
+      int totalEntries = candidates.size();
+      if (totalBytes > this.getMaxBytes() || totalEntries > this.getMaxEntries()) {
+        final List<Candidate> sortedCandidates = new ArrayList<>(candidates.values());
+        sortedCandidates.sort(Comparator.comparingLong(candidate -> candidate.lastUsed));
+        for (final Candidate candidate : sortedCandidates) {
+          if (totalBytes <= this.getMaxBytes() && totalEntries <= this.getMaxEntries()) {
+            break;
+          }
+          if (candidate.partial ? this.evictPartial(candidate.archives.iterator().next()) : this.evict(candidate.archives)) {
+            totalBytes -= candidate.size;
+            totalEntries--;
+            returnValue++;
+          }
+        }
+      }
+      this.deleteDanglingLinks(links);
+    }
+    return returnValue;
+  }
+
+  /**
+   * Deletes those of the supplied symbolic links whose targets do not
+   * exist, unless they are {@linkplain #pin(Path) pinned}.
+   *
+   * @param links the {@link Path}s of the symbolic links; must not be
+   * {@code null}
+   *
+   * @exception IOException if a symbolic link could not be deleted
+   */
+  private final void deleteDanglingLinks(final Collection<? extends Path> links) throws IOException {
+    for (final Path link : links) {
+      // Holding the monitor excludes concurrent pin() invocations
+      // while the pinned status is checked and the deletion takes
+      // place.
+      synchronized (this.pins) {
+        if (!Files.exists(link) && !this.pins.containsKey(normalize(link))) {
+          Files.deleteIfExists(link);
+        }
+      }
+    }
+  }
+
+  /**
+   * Deletes the supplied {@link Path}s, all of which name the same
+   * archive, unless it is {@linkplain #pin(Path) pinned}, and returns
+   * {@code true} if it was deleted.
+   *
+   * @param archives the {@link Path}s of the archive; must not be
+   * {@code null} or empty
+   *
+   * @return {@code true} if the archive was deleted
+   *
+   * @exception IOException if the archive could not be deleted
+   */
+  private final boolean evict(final Collection<? extends Path> archives) throws IOException {
+    boolean returnValue = false;
+    // Holding the monitor excludes concurrent pin() invocations while
+    // the pinned status is checked and the deletion takes place.
+    synchronized (this.pins) {
+      if (!this.isPinned(archives)) {
+        for (final Path archive : archives) {
+          if (Files.deleteIfExists(archive)) {
+            returnValue = true;
+          }
+        }
+      }
+    }
+    if (returnValue) {
+      this.evictions.increment();
+    }
+    return returnValue;
+  }
+
+  /**
+   * Deletes the supplied partially downloaded archive, and any
+   * validators recorded alongside it, unless it is {@linkplain
+   * #pin(Path) pinned} or still being downloaded, and returns {@code
+   * true} if it was deleted.
+   *
+   * <p>The archive is considered to be still being downloaded if the
+   * lock file that a {@link ChartRepository} holds while downloading
+   * it cannot be {@linkplain FileChannel#tryLock() locked}.  That
+   * lock is held while the archive is deleted, so that no download of
+   * it can begin in the meantime, and the lock file is then deleted
+   * just as a {@link ChartRepository} deletes it after a
+   * download.</p>
+   *
+   * @param partialArchive the {@link Path} of the partially
+   * downloaded archive; must not be {@code null}
+   *
+   * @return {@code true} if the archive was deleted
+   *
+   * @exception IOException if the archive or its lock file could not
+   * be deleted
+   */
+  private final boolean evictPartial(final Path partialArchive) throws IOException {
+    Objects.requireNonNull(partialArchive);
+    boolean returnValue = false;
+    final String fileName = partialArchive.getFileName().toString();
+    final Path lockPath = partialArchive.resolveSibling(new StringBuilder(fileName.substring(0, fileName.length() - PARTIAL_SUFFIX.length() + SUFFIX.length())).append(LOCK_SUFFIX).toString());
+    assert lockPath != null;
+    try (final FileChannel lockChannel = FileChannel.open(lockPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+      FileLock lock = null;
+      try {
+        lock = lockChannel.tryLock();
+      } catch (final OverlappingFileLockException downloadingInThisProcess) {
+
+      }
+      // Closing the channel releases the lock.
+      if (lock != null) {
+        returnValue = this.evict(Arrays.asList(partialArchive, HttpValidators.getValidatorsPath(partialArchive)));
+        try {
+          Files.deleteIfExists(lockPath);
+        } catch (final IOException ignore) {
+
+        }
+      }
+    }
+    return returnValue;
+  }
+
+  /**
+   * Returns {@code true} if any of the supplied {@link Path}s, all of
+   * which name the same archive, is {@linkplain #pin(Path) pinned}
+   * or is the target of a pinned symbolic link.
+   *
+   * <p>This method must be invoked while the monitor of the {@link
+   * #pins} field is held.</p>
+   *
+   * @param archives the {@link Path}s of the archive; must not be
+   * {@code null}
+   *
+   * @return {@code true} if the archive is pinned
+   */
+  private final boolean isPinned(final Collection<? extends Path> archives) {
+    assert Thread.holdsLock(this.pins);
+    boolean returnValue = false;
+    if (!this.pins.isEmpty()) {
+      final Set<Path> normalizedArchives = new HashSet<>();
+      for (final Path archive : archives) {
+        normalizedArchives.add(normalize(archive));
+      }
+      for (final Path pinned : this.pins.keySet()) {
+        if (normalizedArchives.contains(pinned)) {
+          returnValue = true;
+          break;
+        }
+        try {
+          if (normalizedArchives.contains(normalize(pinned.toRealPath()))) {
+            returnValue = true;
+            break;
+          }
+        } catch (final IOException notYetPresent) {
+
+        }
+      }
+    }
+    return returnValue;
+  }
+
+  /**
+   * Returns a {@link String} representation of this {@link
+   * ArchiveCache}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} {@link String} representation of this
+   * {@link ArchiveCache}
+   */
+  @Override
+  public String toString() {
+    return new StringBuilder(this.getClass().getSimpleName())
+      .append("[").append(this.getDirectory())
+      .append(", hits: ").append(this.getHitCount())
+      .append(", misses: ").append(this.getMissCount())
+      .append(", evictions: ").append(this.getEvictionCount())
+      .append("]")
+      .toString();
+  }
+
+
+  /*
+   * Static methods.
+   */
+
+
+  /**
+   * Returns a {@link Path} suitable for use as a key in the {@link
+   * #pins} map.
+   *
+   * @param archive the {@link Path} to normalize; must not be {@code
+   * null}
+   *
+   * @return a normalized, absolute {@link Path}; never {@code null}
+   *
+   * @exception NullPointerException if {@code archive} is {@code
+   * null}
+   */
+  private static final Path normalize(final Path archive) {
+    return archive.toAbsolutePath().normalize();
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * An archive that may be evicted.
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class Candidate {
+
+    private final Collection<Path> archives;
+
+    private final long size;
+
+    private final long lastUsed;
+
+    private final boolean partial;
+
+    private Candidate(final Path archive, final long size, final long lastUsed, final boolean partial) {
+      super();
+      this.archives = new ArrayList<>();
+      this.archives.add(archive);
+      this.size = size;
+      this.lastUsed = lastUsed;
+      this.partial = partial;
+    }
+
+  }
+
+}
@@ -0,0 +1,118 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2017 MicroBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.helm.chart.repository;
+
+import java.io.InputStream;
+
+import java.nio.ByteBuffer;
+
+import java.util.Objects;
+
+/**
+ * An {@link InputStream} that reads from a {@link ByteBuffer}, such
+ * as a {@linkplain java.nio.MappedByteBuffer memory-mapped file},
+ * without copying it.
+ *
+ * <p>Instances of this class are not safe for concurrent use by
+ * multiple threads.</p>
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see IndexSnapshot#map(java.nio.file.Path)
+ */
+final class ByteBufferInputStream extends InputStream {
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  /**
+   * The {@link ByteBuffer} to read from, whose position advances as
+   * bytes are read.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final ByteBuffer buffer;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link ByteBufferInputStream} that reads the bytes
+   * between the supplied {@link ByteBuffer}'s position and limit.
+   *
+   * <p>The supplied {@link ByteBuffer} itself is not affected.</p>
+   *
+   * @param buffer the {@link ByteBuffer} to read from; must not be
+   * {@code null}
+   *
+   * @exception NullPointerException if {@code buffer} is {@code
+   * null}
+   */
+  ByteBufferInputStream(final ByteBuffer buffer) {
+    super();
+    this.buffer = Objects.requireNonNull(buffer).duplicate();
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  @Override
+  public final int read() {
+    return this.buffer.hasRemaining() ? this.buffer.get() & 0xFF : -1;
+  }
+
+  @Override
+  public final int read(final byte[] bytes, final int offset, final int length) {
+    Objects.requireNonNull(bytes);
+    if (offset < 0 || length < 0 || length > bytes.length - offset) {
+      throw new IndexOutOfBoundsException();
+    }
+    final int returnValue;
+    if (length == 0) {
+      returnValue = 0;
+    } else if (!this.buffer.hasRemaining()) {
+      returnValue = -1;
+    } else {
+      returnValue = Math.min(length, this.buffer.remaining());
+      this.buffer.get(bytes, offset, returnValue);
+    }
+    return returnValue;
+  }
+
+  @Override
+  public final long skip(final long n) {
+    final int returnValue = (int)Math.max(0L, Math.min(n, (long)this.buffer.remaining()));
+    this.buffer.position(this.buffer.position() + returnValue);
+    return returnValue;
+  }
+
+  @Override
+  public final int available() {
+    return this.buffer.remaining();
+  }
+
+}
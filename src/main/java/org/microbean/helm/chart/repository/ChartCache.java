@@ -0,0 +1,346 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2017 MicroBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.helm.chart.repository;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import hapi.chart.ChartOuterClass.Chart;
+
+import org.microbean.development.annotation.Experimental;
+
+/**
+ * A bounded, in-memory cache of loaded {@link Chart}s, so that a
+ * Helm chart archive that is {@linkplain
+ * ChartRepository#resolve(String, String) resolved} repeatedly need
+ * not be read and parsed each time.
+ *
+ * <p>{@link Chart}s are immutable, so a cached {@link Chart} may be
+ * shared freely; callers wishing to modify one work on a {@linkplain
+ * Chart#toBuilder() builder} made from it, which shares the cached
+ * {@link Chart}'s contents until they are changed.</p>
+ *
+ * <p>The cache is bounded by the total {@linkplain
+ * Chart#getSerializedSize() serialized size} of the {@link Chart}s it
+ * holds, which closely tracks the memory held by their templates,
+ * values and files.  When it is exceeded, the least recently used
+ * {@link Chart}s are evicted.  A single {@link ChartCache} may be
+ * shared by several {@link ChartRepository} instances.</p>
+ *
+ * <p>Instances of this class are safe for concurrent use by multiple
+ * threads.</p>
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see ChartRepository#setChartCache(ChartCache)
+ */
+@Experimental
+public class ChartCache {
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  /**
+   * The maximum total {@linkplain Chart#getSerializedSize()
+   * serialized size}, in bytes, of the {@link Chart}s in this {@link
+   * ChartCache}.
+   *
+   * @see #getMaxBytes()
+   */
+  private final long maxBytes;
+
+  /**
+   * The cached {@link Chart}s, indexed by key, in access order.
+   *
+   * <p>This field is never {@code null}.</p>
+   *
+   * <p>This field is guarded by its own monitor, which also guards
+   * the {@link #bytes} field.</p>
+   */
+  private final LinkedHashMap<String, Chart> charts;
+
+  /**
+   * The total {@linkplain Chart#getSerializedSize() serialized size},
+   * in bytes, of the {@link Chart}s in this {@link ChartCache}.
+   *
+   * <p>This field is guarded by the monitor of the {@link #charts}
+   * field.</p>
+   *
+   * @see #getBytes()
+   */
+  private long bytes;
+
+  /**
+   * The number of times a requested {@link Chart} was present.
+   *
+   * <p>This field is never {@code null}.</p>
+   *
+   * @see #getHitCount()
+   */
+  private final LongAdder hits;
+
+  /**
+   * The number of times a requested {@link Chart} was absent.
+   *
+   * <p>This field is never {@code null}.</p>
+   *
+   * @see #getMissCount()
+   */
+  private final LongAdder misses;
+
+  /**
+   * The number of {@link Chart}s evicted to stay within {@link
+   * #maxBytes}.
+   *
+   * <p>This field is never {@code null}.</p>
+   *
+   * @see #getEvictionCount()
+   */
+  private final LongAdder evictions;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link ChartCache}.
+   *
+   * @param maxBytes the maximum total {@linkplain
+   * Chart#getSerializedSize() serialized size}, in bytes, of the
+   * {@link Chart}s to cache; {@link Long#MAX_VALUE} means no limit;
+   * must not be negative
+   *
+   * @exception IllegalArgumentException if {@code maxBytes} is
+   * negative
+   */
+  public ChartCache(final long maxBytes) {
+    super();
+    if (maxBytes < 0L) {
+      throw new IllegalArgumentException("maxBytes < 0: " + maxBytes);
+    }
+    this.maxBytes = maxBytes;
+    this.charts = new LinkedHashMap<>(16, 0.75f, true);
+    this.hits = new LongAdder();
+    this.misses = new LongAdder();
+    this.evictions = new LongAdder();
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  /**
+   * Returns the maximum total {@linkplain Chart#getSerializedSize()
+   * serialized size}, in bytes, of the {@link Chart}s in this {@link
+   * ChartCache}.
+   *
+   * @return the maximum total size in bytes
+   */
+  public final long getMaxBytes() {
+    return this.maxBytes;
+  }
+
+  /**
+   * Returns the total {@linkplain Chart#getSerializedSize()
+   * serialized size}, in bytes, of the {@link Chart}s currently in
+   * this {@link ChartCache}.
+   *
+   * @return the current total size in bytes
+   */
+  public final long getBytes() {
+    synchronized (this.charts) {
+      return this.bytes;
+    }
+  }
+
+  /**
+   * Returns the number of {@link Chart}s currently in this {@link
+   * ChartCache}.
+   *
+   * @return the number of cached {@link Chart}s
+   */
+  public final int size() {
+    synchronized (this.charts) {
+      return this.charts.size();
+    }
+  }
+
+  /**
+   * Returns the number of times a requested {@link Chart} was
+   * {@linkplain #get(String) found}.
+   *
+   * @return the number of cache hits
+   */
+  public final long getHitCount() {
+    return this.hits.sum();
+  }
+
+  /**
+   * Returns the number of times a requested {@link Chart} was
+   * {@linkplain #get(String) not found}.
+   *
+   * @return the number of cache misses
+   */
+  public final long getMissCount() {
+    return this.misses.sum();
+  }
+
+  /**
+   * Returns the number of {@link Chart}s that have been evicted by
+   * this {@link ChartCache}.
+   *
+   * @return the number of evictions
+   */
+  public final long getEvictionCount() {
+    return this.evictions.sum();
+  }
+
+  /**
+   * Returns the {@link Chart} cached under the supplied key, marking
+   * it as the most recently used, or {@code null} if there is none.
+   *
+   * <p>This method may return {@code null}.</p>
+   *
+   * @param key the key; must not be {@code null}
+   *
+   * @return the cached {@link Chart}, or {@code null}
+   *
+   * @exception NullPointerException if {@code key} is {@code null}
+   */
+  public Chart get(final String key) {
+    Objects.requireNonNull(key);
+    final Chart returnValue;
+    synchronized (this.charts) {
+      returnValue = this.charts.get(key);
+    }
+    if (returnValue == null) {
+      this.misses.increment();
+    } else {
+      this.hits.increment();
+    }
+    return returnValue;
+  }
+
+  /**
+   * Caches the supplied {@link Chart} under the supplied key,
+   * evicting the least recently used {@link Chart}s as necessary to
+   * stay within the {@linkplain #getMaxBytes() maximum size}.
+   *
+   * <p>A {@link Chart} that is by itself larger than the maximum
+   * size is not cached.</p>
+   *
+   * @param key the key; must not be {@code null}; should identify the
+   * contents of the archive from which {@code chart} was loaded, such
+   * as by its digest
+   *
+   * @param chart the {@link Chart} to cache; must not be {@code
+   * null}
+   *
+   * @exception NullPointerException if either parameter is {@code
+   * null}
+   */
+  public void put(final String key, final Chart chart) {
+    Objects.requireNonNull(key);
+    Objects.requireNonNull(chart);
+    // Computed, and memoized by the Chart, outside the lock.
+    final long size = chart.getSerializedSize();
+    synchronized (this.charts) {
+      if (size > this.maxBytes) {
+        this.remove(key);
+      } else {
+        final Chart old = this.charts.put(key, chart);
+        if (old != null) {
+          this.bytes -= old.getSerializedSize();
+        }
+        this.bytes += size;
+        final Iterator<Map.Entry<String, Chart>> iterator = this.charts.entrySet().iterator();
+        while (this.bytes > this.maxBytes && iterator.hasNext()) {
+          final Chart eldest = iterator.next().getValue();
+          if (eldest != chart) {
+            iterator.remove();
+            this.bytes -= eldest.getSerializedSize();
+            this.evictions.increment();
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Removes any {@link Chart} cached under the supplied key.
+   *
+   * @param key the key; must not be {@code null}
+   *
+   * @return {@code true} if a {@link Chart} was removed
+   *
+   * @exception NullPointerException if {@code key} is {@code null}
+   */
+  public boolean remove(final String key) {
+    Objects.requireNonNull(key);
+    synchronized (this.charts) {
+      final Chart old = this.charts.remove(key);
+      if (old != null) {
+        this.bytes -= old.getSerializedSize();
+      }
+      return old != null;
+    }
+  }
+
+  /**
+   * Removes all {@link Chart}s from this {@link ChartCache}.
+   */
+  public void clear() {
+    synchronized (this.charts) {
+      this.charts.clear();
+      this.bytes = 0L;
+    }
+  }
+
+  /**
+   * Returns a {@link String} representation of this {@link
+   * ChartCache}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} {@link String} representation of this
+   * {@link ChartCache}
+   */
+  @Override
+  public String toString() {
+    return new StringBuilder(this.getClass().getSimpleName())
+      .append("[bytes: ").append(this.getBytes())
+      .append(", maxBytes: ").append(this.getMaxBytes())
+      .append(", hits: ").append(this.getHitCount())
+      .append(", misses: ").append(this.getMissCount())
+      .append(", evictions: ").append(this.getEvictionCount())
+      .append("]")
+      .toString();
+  }
+
+}
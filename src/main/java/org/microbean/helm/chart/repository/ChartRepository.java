@@ -17,31 +17,40 @@
 package org.microbean.helm.chart.repository;
 
 import java.io.BufferedInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.IOException;
 
 import java.net.URI;
+import java.net.HttpURLConnection;
 import java.net.URISyntaxException;
-import java.net.URL;
 
 import java.nio.ByteBuffer;
 
+import java.nio.channels.FileChannel;
+
 import java.nio.file.LinkOption; // for javadoc only
 import java.nio.file.StandardCopyOption;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 
+import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileAttribute; // for javadoc only
+import java.nio.file.attribute.FileTime;
 
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 
+import java.time.Duration;
+
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Objects;
 import java.util.LinkedHashSet;
 import java.util.Set;
@@ -50,6 +59,22 @@ import java.util.SortedMap;
 import java.util.TreeSet;
 import java.util.TreeMap;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import java.util.function.Consumer;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
 import java.util.zip.GZIPInputStream;
 
 import javax.xml.bind.DatatypeConverter;
@@ -57,6 +82,13 @@ import javax.xml.bind.DatatypeConverter;
 import com.github.zafarkhaja.semver.ParseException;
 import com.github.zafarkhaja.semver.Version;
 
+import com.github.zafarkhaja.semver.expr.Expression;
+import com.github.zafarkhaja.semver.expr.ExpressionParser;
+
+import com.github.zafarkhaja.semver.util.UnexpectedElementException;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+
 import hapi.chart.ChartOuterClass.Chart;
 import hapi.chart.MetadataOuterClass.Metadata;
 import hapi.chart.MetadataOuterClass.MetadataOrBuilder;
@@ -65,13 +97,15 @@ import org.kamranzafar.jtar.TarInputStream;
 
 import org.microbean.development.annotation.Experimental;
 
-import org.microbean.helm.chart.Metadatas;
+import org.microbean.helm.chart.PipelinedInputStream;
 import org.microbean.helm.chart.TapeArchiveChartLoader;
 
 import org.microbean.helm.chart.resolver.AbstractChartResolver;
 import org.microbean.helm.chart.resolver.ChartResolverException;
 
-import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.error.YAMLException;
+
+import org.yaml.snakeyaml.reader.UnicodeReader;
 
 /**
  * An {@link AbstractChartResolver} that {@linkplain #resolve(String,
@@ -90,11 +124,156 @@ import org.yaml.snakeyaml.Yaml;
 public class ChartRepository extends AbstractChartResolver {
 
 
+  /*
+   * Static fields.
+   */
+
+
+  /**
+   * A {@link ConcurrentMap} of {@link Future}s representing chart
+   * archive downloads in progress, indexed by the {@linkplain
+   * Path#normalize() normalized} {@linkplain Path#toAbsolutePath()
+   * absolute} {@link Path} each is downloading to.
+   *
+   * <p>This field is never {@code null}.</p>
+   *
+   * @see #getCachedChartPath(String, String)
+   */
+  private static final ConcurrentMap<Path, Future<Path>> inFlightDownloads = new ConcurrentHashMap<>();
+
+  /**
+   * A {@link ConcurrentMap} of {@link Future}s representing requests
+   * for chart archives that were not in an archive cache, indexed by
+   * the {@linkplain Path#normalize() normalized} {@linkplain
+   * Path#toAbsolutePath() absolute} {@link Path}, named after the
+   * chart's name and version, that each will make available.
+   *
+   * <p>Such a request may {@linkplain #getIndex(boolean) refresh the
+   * index} before anything is {@linkplain #inFlightDownloads
+   * downloaded}, so concurrent requests for the same chart are shared
+   * as well.</p>
+   *
+   * <p>This field is never {@code null}.</p>
+   *
+   * @see #getCachedChartPath(String, String)
+   */
+  private static final ConcurrentMap<Path, Future<Path>> inFlightArchiveRequests = new ConcurrentHashMap<>();
+
+  /**
+   * The name of the subdirectory of an archive cache directory in
+   * which Helm chart archives are stored under names derived from
+   * their SHA-256 digests.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private static final String CONTENT_ADDRESSED_DIRECTORY_NAME = "sha256";
+
+  /**
+   * A {@link Pattern} matching a hexadecimal SHA-256 digest.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private static final Pattern sha256Pattern = Pattern.compile("^[0-9a-fA-F]{64}$");
+
+  /**
+   * The suffix appended to the file name of a downloaded Helm chart
+   * archive to form the file name of its partial download.
+   *
+   * <p>This field is never {@code null}.</p>
+   *
+   * @see #download(Transport, URI, Path, String)
+   */
+  private static final String PARTIAL_DOWNLOAD_SUFFIX = ".part";
+
+  /**
+   * A {@link Pattern} matching the value of a {@code Content-Range}
+   * response header and capturing the offset of its first byte as
+   * group {@code 1}.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private static final Pattern contentRangePattern = Pattern.compile("^\\s*bytes\\s+(\\d+)-\\d+/(?:\\d+|\\*)\\s*$");
+
+  /**
+   * The default {@link Duration} for which a chart found to be
+   * missing from a freshly downloaded index is remembered as
+   * missing.
+   *
+   * <p>This field is never {@code null}.</p>
+   *
+   * @see #setMissingChartTimeToLive(Duration)
+   */
+  private static final Duration DEFAULT_MISSING_CHART_TIME_TO_LIVE = Duration.ofMinutes(1L);
+
+  /**
+   * The number of remembered missing charts above which expired
+   * records are purged.
+   */
+  private static final int MISSING_CHARTS_PURGE_THRESHOLD = 1024;
+
+  /**
+   * The HTTP status code indicating that a requested range could not
+   * be satisfied.
+   */
+  private static final int HTTP_REQUESTED_RANGE_NOT_SATISFIABLE = 416;
+
+  /**
+   * The {@link Transport} used by {@link ChartRepository} instances
+   * that have not been {@linkplain #setTransport(Transport) given
+   * one}, so that they all share a single pool of connections.
+   *
+   * <p>This field is never {@code null}.</p>
+   *
+   * @see #getTransport()
+   */
+  private static final Transport DEFAULT_TRANSPORT = new OkHttpTransport();
+
+
   /*
    * Instance fields.
    */
 
 
+  /**
+   * The {@link ArchiveCache} managing the {@link
+   * #archiveCacheDirectory}, if any.
+   *
+   * <p>This field may be {@code null}, in which case archives are
+   * never evicted.</p>
+   *
+   * @see #getArchiveCache()
+   *
+   * @see #setArchiveCache(ArchiveCache)
+   */
+  private volatile ArchiveCache archiveCache;
+
+  /**
+   * The {@link ChartCache} holding {@link Chart}s already loaded by
+   * {@link #resolve(String, String)}, if any.
+   *
+   * <p>This field may be {@code null}, in which case archives are
+   * loaded every time they are resolved.</p>
+   *
+   * @see #getChartCache()
+   *
+   * @see #setChartCache(ChartCache)
+   */
+  private volatile ChartCache chartCache;
+
+  /**
+   * The {@link Transport} used to download {@code index.yaml} files
+   * and Helm chart archives.
+   *
+   * <p>This field may be {@code null}, in which case a {@link
+   * Transport} shared by all {@link ChartRepository} instances is
+   * used.</p>
+   *
+   * @see #getTransport()
+   *
+   * @see #setTransport(Transport)
+   */
+  private volatile Transport transport;
+
   /**
    * An {@linkplain Path#isAbsolute() absolute} {@link Path}
    * representing a directory where Helm chart archives may be stored.
@@ -127,11 +306,62 @@ public class ChartRepository extends AbstractChartResolver {
    *
    * <p>This field may be {@code null}.</p>
    *
+   * <p>This field is only ever written while the {@link #indexLock}
+   * monitor is held, but may be read at any time.</p>
+   *
    * @see #getIndex()
    *
    * @see #downloadIndex()
    */
-  private transient Index index;
+  private transient volatile Index index;
+
+  /**
+   * An opaque {@link Object} identifying the state of the {@linkplain
+   * #getCachedIndexPath() cached <code>index.yaml</code> file} from
+   * which the {@link #index} field's value was loaded.
+   *
+   * <p>This field may be {@code null}.</p>
+   *
+   * <p>This field is guarded by the {@link #indexLock} monitor.</p>
+   *
+   * @see #getIndex(boolean)
+   */
+  private transient Object indexFileKey;
+
+  /**
+   * The monitor held while the {@link #index} field is being
+   * replaced, so that concurrent callers do not download and load
+   * the same {@link Index} more than once.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final Object indexLock;
+
+  /**
+   * The {@link Duration} after which the {@linkplain
+   * #getCachedIndexPath() cached copy} of the chart repository's
+   * {@code index.yaml} file is considered to have expired.
+   *
+   * <p>This field may be {@code null}, in which case the cached copy
+   * only expires when it does not exist.</p>
+   *
+   * @see #getIndexTimeToLive()
+   *
+   * @see #setIndexTimeToLive(Duration)
+   */
+  private volatile Duration indexTimeToLive;
+
+  /**
+   * The {@link ScheduledFuture} representing the background task, if
+   * any, that periodically {@linkplain #refreshIndex() refreshes} the
+   * {@link #index} field.
+   *
+   * <p>This field may be {@code null}.</p>
+   *
+   * @see #scheduleIndexRefresh(ScheduledExecutorService, long,
+   * TimeUnit, Consumer)
+   */
+  private volatile ScheduledFuture<?> indexRefresh;
 
   /**
    * An {@linkplain Path#isAbsolute() absolute} {@link Path}
@@ -144,6 +374,51 @@ public class ChartRepository extends AbstractChartResolver {
    */
   private final Path indexCacheDirectory;
 
+  /**
+   * The {@link ChartRepositoryListener}s notified of the work this
+   * {@link ChartRepository} does.
+   *
+   * <p>This field is never {@code null}.</p>
+   *
+   * @see #addChartRepositoryListener(ChartRepositoryListener)
+   */
+  private final CopyOnWriteArrayList<ChartRepositoryListener> listeners;
+
+  /**
+   * The {@link Interner} used to canonicalize repeated values when
+   * {@linkplain #loadIndex() loading} an {@link Index}.
+   *
+   * <p>This field may be {@code null}, in which case each load uses
+   * its own {@link Interner}.</p>
+   *
+   * @see #setInterner(Interner)
+   */
+  private volatile Interner interner;
+
+  /**
+   * A {@link ConcurrentMap} of the times, in {@linkplain
+   * System#nanoTime() nanoseconds}, until which particular charts,
+   * identified by name and version, are known to be missing from
+   * this {@link ChartRepository}.
+   *
+   * <p>This field is never {@code null}.</p>
+   *
+   * @see #isKnownMissing(String, String)
+   */
+  private final ConcurrentMap<String, Long> missingCharts;
+
+  /**
+   * The {@link Duration} for which a chart found to be missing from a
+   * freshly downloaded index is remembered as missing.
+   *
+   * <p>This field is never {@code null}.</p>
+   *
+   * @see #getMissingChartTimeToLive()
+   *
+   * @see #setMissingChartTimeToLive(Duration)
+   */
+  private volatile Duration missingChartTimeToLive;
+
   /**
    * The name of this {@link ChartRepository}.
    *
@@ -318,6 +593,10 @@ public class ChartRepository extends AbstractChartResolver {
       cachedIndexPath = Paths.get(new StringBuilder(name).append("-index.yaml").toString());
     }
     this.cachedIndexPath = cachedIndexPath;
+    this.indexLock = new Object();
+    this.missingCharts = new ConcurrentHashMap<>();
+    this.listeners = new CopyOnWriteArrayList<>();
+    this.missingChartTimeToLive = DEFAULT_MISSING_CHART_TIME_TO_LIVE;
 
     if (cachedIndexPath.isAbsolute()) {
       this.indexCacheDirectory = null;
@@ -450,6 +729,17 @@ public class ChartRepository extends AbstractChartResolver {
    * index.yaml}</a> file {@linkplain #isCachedIndexExpired() has
    * expired}, then one is {@linkplain #downloadIndex() downloaded}
    * first.</p>
+   *
+   * <p>If an {@link Index} has already been loaded, it is returned
+   * as-is unless {@code forceDownload} is {@code true}, or unless an
+   * {@linkplain #getIndexTimeToLive() index time to live} has been
+   * set and the cached copy has expired.  In the latter case, if a
+   * {@linkplain #scheduleIndexRefresh(ScheduledExecutorService, long,
+   * TimeUnit, Consumer) background refresh} is scheduled, the
+   * existing, stale, {@link Index} is returned immediately and the
+   * background refresh is relied upon to replace it; otherwise the
+   * {@link Index} is {@linkplain #refreshIndex() refreshed} on the
+   * caller's thread.</p>
    * 
    * @param forceDownload if {@code true} then no caching will happen
    *
@@ -472,294 +762,1897 @@ public class ChartRepository extends AbstractChartResolver {
    * @see #isCachedIndexExpired()
    */
   public final Index getIndex(final boolean forceDownload) throws IOException, URISyntaxException {
-    if (forceDownload || this.index == null) {
-      final Path cachedIndexPath = this.getCachedIndexPath();
-      assert cachedIndexPath != null;
-      if (forceDownload || this.isCachedIndexExpired()) {
-        this.downloadIndexTo(cachedIndexPath);
-      }
-      this.index = Index.loadFrom(cachedIndexPath);
-      assert this.index != null;
+    Index returnValue = this.index;
+    if (forceDownload ||
+        returnValue == null ||
+        (this.getIndexTimeToLive() != null && !this.isIndexRefreshScheduled() && this.isCachedIndexExpired())) {
+      returnValue = this.updateIndex(forceDownload);
     }
-    return this.index;
+    assert returnValue != null;
+    return returnValue;
   }
 
   /**
-   * Returns {@code true} if the {@linkplain #getCachedIndexPath()
-   * cached copy} of the <a
+   * Revalidates the {@linkplain #getCachedIndexPath() cached copy} of
+   * the chart repository's <a
    * href="https://docs.helm.sh/developing_charts/#the-chart-repository-structure">{@code
-   * index.yaml}</a> file is to be considered stale.
+   * index.yaml}</a> file against the chart repository, regardless of
+   * whether it {@linkplain #isCachedIndexExpired() has expired},
+   * loads a new {@link Index} if the file changed as a result, and
+   * returns the current {@link Index}.
    *
-   * <p>The default implementation of this method returns the negation
-   * of the return value of an invocation of the {@link
-   * Files#isRegularFile(Path, LinkOption...)} method on the return value of the
-   * {@link #getCachedIndexPath()} method.</p>
+   * <p>This method never returns {@code null}.</p>
    *
-   * @return {@code true} if the {@linkplain #getCachedIndexPath()
-   * cached copy} of the <a
+   * <p>Callers of the {@link #getIndex(boolean)} method on other
+   * threads continue to receive the previous {@link Index} until the
+   * new one is completely loaded, at which point it replaces the
+   * previous one atomically.</p>
+   *
+   * @return the current {@link Index}; never {@code null}
+   *
+   * @exception IOException if there was a problem either parsing an
+   * <a
    * href="https://docs.helm.sh/developing_charts/#the-chart-repository-structure">{@code
-   * index.yaml}</a> file is to be considered stale; {@code false} otherwise
+   * index.yaml}</a> file or downloading it
    *
-   * @see #getIndex(boolean)
-   */
-  public boolean isCachedIndexExpired() {
-    final Path cachedIndexPath = this.getCachedIndexPath();
-    assert cachedIndexPath != null;
-    return !Files.isRegularFile(cachedIndexPath);
-  }
-
-  /**
-   * Clears the {@link Index} stored internally by this {@link
-   * ChartRepository}, paving the way for a fresh copy to be installed
-   * by the {@link #getIndex(boolean)} method, and returns the old
-   * value.
+   * @exception URISyntaxException if one of the URIs in the <a
+   * href="https://docs.helm.sh/developing_charts/#the-chart-repository-structure">{@code
+   * index.yaml}</a> file is invalid
    *
-   * <p>This method may return {@code null} if {@code
-   * #getIndex(boolean)} has not yet been called.</p>
+   * @see #getIndex(boolean)
    *
-   * @return the {@link Index}, or {@code null}
+   * @see #scheduleIndexRefresh(ScheduledExecutorService, long,
+   * TimeUnit, Consumer)
    */
-  public final Index clearIndex() {
-    final Index returnValue = this.index;
-    this.index = null;
-    return returnValue;
+  public final Index refreshIndex() throws IOException, URISyntaxException {
+    return this.updateIndex(true);
   }
 
   /**
-   * Invokes the {@link #downloadIndexTo(Path)} method with the return
-   * value of the {@link #getCachedIndexPath()} method.
+   * Downloads the chart repository's <a
+   * href="https://docs.helm.sh/developing_charts/#the-chart-repository-structure">{@code
+   * index.yaml}</a> file if {@code forceDownload} is {@code true} or
+   * if the {@linkplain #getCachedIndexPath() cached copy} {@linkplain
+   * #isCachedIndexExpired() has expired}, loads a new {@link Index}
+   * if the cached copy is not the one the current {@link Index} was
+   * loaded from, and returns the current {@link Index}.
    *
    * <p>This method never returns {@code null}.</p>
    *
-   * @return {@link Path} the {@link Path} to which the {@code
-   * index.yaml} file was downloaded; never {@code null}
+   * @param forceDownload whether to download the {@code index.yaml}
+   * file even if the cached copy has not expired
    *
-   * @exception IOException if there was a problem downloading
+   * @return the current {@link Index}; never {@code null}
    *
-   * @see #downloadIndexTo(Path)
+   * @exception IOException if there was a problem either parsing an
+   * <a
+   * href="https://docs.helm.sh/developing_charts/#the-chart-repository-structure">{@code
+   * index.yaml}</a> file or downloading it
+   *
+   * @exception URISyntaxException if one of the URIs in the <a
+   * href="https://docs.helm.sh/developing_charts/#the-chart-repository-structure">{@code
+   * index.yaml}</a> file is invalid
    */
-  public final Path downloadIndex() throws IOException {
-    return this.downloadIndexTo(this.getCachedIndexPath());
+  private final Index updateIndex(final boolean forceDownload) throws IOException, URISyntaxException {
+    synchronized (this.indexLock) {
+      Index returnValue = this.index;
+      final boolean download = forceDownload || this.isCachedIndexExpired();
+      if (download || returnValue == null) {
+        // Listeners are checked once so that no clock is read when
+        // nobody is listening.
+        final boolean listening = !this.listeners.isEmpty();
+        long start = listening ? System.nanoTime() : 0L;
+        if (download) {
+          this.downloadIndexTo(this.getCachedIndexPath());
+        }
+        // If the download was answered with "304 Not Modified", the
+        // cached file is untouched and the Index we already have is
+        // still current.
+        final Object indexFileKey = getFileKey(this.getAbsoluteCachedIndexPath());
+        final boolean modified = indexFileKey == null || !indexFileKey.equals(this.indexFileKey);
+        if (download && listening) {
+          final long nanos = System.nanoTime() - start;
+          final long bytes = modified ? size(this.getAbsoluteCachedIndexPath()) : 0L;
+          this.fire(listener -> listener.indexDownloaded(this, modified, bytes, nanos));
+        }
+        if (returnValue == null || modified) {
+          if (listening) {
+            start = System.nanoTime();
+          }
+          returnValue = this.loadIndex();
+          assert returnValue != null;
+          if (listening) {
+            final long nanos = System.nanoTime() - start;
+            final int entryCount = getEntryCount(returnValue);
+            this.fire(listener -> listener.indexLoaded(this, entryCount, nanos));
+          }
+          this.indexFileKey = indexFileKey;
+          this.index = returnValue;
+        }
+      }
+      return returnValue;
+    }
   }
 
   /**
-   * Downloads a copy of the chart repository's <a
-   * href="https://docs.helm.sh/developing_charts/#the-chart-repository-structure">{@code
-   * index.yaml}</a> file to the {@link Path} specified and returns
-   * the canonical representation of the {@link Path} to which the
-   * file was actually downloaded.
+   * Schedules a task with the supplied {@link
+   * ScheduledExecutorService} that {@linkplain #refreshIndex()
+   * refreshes} this {@link ChartRepository}'s {@link Index}
+   * repeatedly, waiting for the supplied period between the end of
+   * one refresh and the start of the next, and returns the {@link
+   * ScheduledFuture} representing it.
    *
    * <p>This method never returns {@code null}.</p>
    *
-   * <p>Overrides of this method must not return {@code null}.</p>
+   * <p>Any background refresh previously scheduled by this method is
+   * {@linkplain ScheduledFuture#cancel(boolean) cancelled}.  While
+   * the returned {@link ScheduledFuture} is neither cancelled nor
+   * otherwise {@linkplain ScheduledFuture#isDone() done}, the {@link
+   * #getIndex(boolean)} method serves the current {@link Index} even
+   * if the cached copy of the {@code index.yaml} file has
+   * expired.</p>
    *
-   * <p>The default implementation of this method actually downloads
-   * the <a
-   * href="https://docs.helm.sh/developing_charts/#the-chart-repository-structure">{@code
-   * index.yaml}</a> file to a {@linkplain
-   * Files#createTempFile(String, String, FileAttribute...) temporary
-   * file} first, and then {@linkplain StandardCopyOption#ATOMIC_MOVE
-   * atomically renames it}.</p>
+   * <p>A failed refresh does not prevent subsequent ones.</p>
    *
-   * @param path the {@link Path} to download the <a
-   * href="https://docs.helm.sh/developing_charts/#the-chart-repository-structure">{@code
-   * index.yaml}</a> file to; may be {@code null} in which case the
-   * return value of the {@link #getCachedIndexPath()} method will be
-   * used instead
+   * @param executor the {@link ScheduledExecutorService} to schedule
+   * the refresh task with; must not be {@code null}
    *
-   * @return the {@link Path} to the file; never {@code null}
+   * @param period the period between refreshes; must be greater than
+   * zero
    *
-   * @exception IOException if there was a problem downloading
+   * @param unit the {@link TimeUnit} of the supplied {@code period};
+   * must not be {@code null}
+   *
+   * @param errorHandler a {@link Consumer} that will be notified of
+   * any {@link Exception} that causes a refresh to fail; may be
+   * {@code null}
+   *
+   * @return the {@link ScheduledFuture} representing the refresh
+   * task; never {@code null}
+   *
+   * @exception NullPointerException if {@code executor} or {@code
+   * unit} is {@code null}
+   *
+   * @exception IllegalArgumentException if {@code period} is less
+   * than or equal to zero
+   *
+   * @see #refreshIndex()
    */
-  public Path downloadIndexTo(Path path) throws IOException {
-    final URI baseUri = this.getUri();
-    if (baseUri == null) {
-      throw new IllegalStateException("getUri() == null");
+  public final ScheduledFuture<?> scheduleIndexRefresh(final ScheduledExecutorService executor, final long period, final TimeUnit unit, final Consumer<? super Exception> errorHandler) {
+    Objects.requireNonNull(executor);
+    Objects.requireNonNull(unit);
+    if (period <= 0L) {
+      throw new IllegalArgumentException("period <= 0: " + period);
     }
-    final URI indexUri = baseUri.resolve("index.yaml");
-    assert indexUri != null;
-    final URL indexUrl = indexUri.toURL();
-    assert indexUrl != null;
-    if (path == null) {
-      path = this.getCachedIndexPath();
-    }
-    assert path != null;
-    if (!path.isAbsolute()) {
-      assert this.indexCacheDirectory != null;
-      assert this.indexCacheDirectory.isAbsolute();
-      path = this.indexCacheDirectory.resolve(path);
-      assert path != null;
-      assert path.isAbsolute();
-    }
-    final Path temporaryPath = Files.createTempFile(new StringBuilder(this.getName()).append("-index-").toString(), ".yaml");
-    assert temporaryPath != null;
-    try (final BufferedInputStream stream = new BufferedInputStream(indexUrl.openStream())) {
-      Files.copy(stream, temporaryPath, StandardCopyOption.REPLACE_EXISTING);
-    } catch (final IOException throwMe) {
-      try {
-        Files.deleteIfExists(temporaryPath);
-      } catch (final IOException suppressMe) {
-        throwMe.addSuppressed(suppressMe);
-      }
-      throw throwMe;
+    final ScheduledFuture<?> returnValue = executor.scheduleWithFixedDelay(() -> {
+        try {
+          this.refreshIndex();
+        } catch (final IOException | URISyntaxException | RuntimeException exception) {
+          if (errorHandler != null) {
+            errorHandler.accept(exception);
+          }
+        }
+      }, period, period, unit);
+    assert returnValue != null;
+    final ScheduledFuture<?> old = this.indexRefresh;
+    this.indexRefresh = returnValue;
+    if (old != null) {
+      old.cancel(false);
     }
-    return Files.move(temporaryPath, path, StandardCopyOption.ATOMIC_MOVE);
+    return returnValue;
   }
 
   /**
-   * Creates a new {@link Index} from the contents of the {@linkplain
-   * #getCachedIndexPath() cached copy of the chart repository's
-   * <code>index.yaml</code> file} and returns it.
-   *
-   * <p>This method never returns {@code null}.</p>
-   *
-   * <p>Overrides of this method must not return {@code null}.</p>
+   * Returns {@code true} if a background refresh of this {@link
+   * ChartRepository}'s {@link Index} is currently scheduled.
    *
-   * @return a new {@link Index}; never {@code null}
+   * @return {@code true} if a background refresh is scheduled
+   *
+   * @see #scheduleIndexRefresh(ScheduledExecutorService, long,
+   * TimeUnit, Consumer)
+   */
+  private final boolean isIndexRefreshScheduled() {
+    final ScheduledFuture<?> indexRefresh = this.indexRefresh;
+    return indexRefresh != null && !indexRefresh.isDone();
+  }
+
+  /**
+   * Returns the {@link Duration} after which the {@linkplain
+   * #getCachedIndexPath() cached copy} of the chart repository's <a
+   * href="https://docs.helm.sh/developing_charts/#the-chart-repository-structure">{@code
+   * index.yaml}</a> file will be considered to have {@linkplain
+   * #isCachedIndexExpired() expired}.
+   *
+   * <p>This method may return {@code null}, in which case the cached
+   * copy expires only when it does not exist.</p>
+   *
+   * @return the time to live of the cached copy of the {@code
+   * index.yaml} file, or {@code null}
+   *
+   * @see #setIndexTimeToLive(Duration)
+   */
+  public final Duration getIndexTimeToLive() {
+    return this.indexTimeToLive;
+  }
+
+  /**
+   * Sets the {@link Duration} after which the {@linkplain
+   * #getCachedIndexPath() cached copy} of the chart repository's <a
+   * href="https://docs.helm.sh/developing_charts/#the-chart-repository-structure">{@code
+   * index.yaml}</a> file will be considered to have {@linkplain
+   * #isCachedIndexExpired() expired}.
+   *
+   * @param indexTimeToLive the time to live; may be {@code null}, in
+   * which case the cached copy expires only when it does not exist
+   *
+   * @exception IllegalArgumentException if {@code indexTimeToLive}
+   * is {@linkplain Duration#isNegative() negative}
+   *
+   * @see #getIndexTimeToLive()
+   */
+  public final void setIndexTimeToLive(final Duration indexTimeToLive) {
+    if (indexTimeToLive != null && indexTimeToLive.isNegative()) {
+      throw new IllegalArgumentException("indexTimeToLive.isNegative(): " + indexTimeToLive);
+    }
+    this.indexTimeToLive = indexTimeToLive;
+  }
+
+  /**
+   * Returns the {@link Duration} for which a chart, identified by
+   * name and version, that was found to be missing from a freshly
+   * downloaded index is remembered as missing.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return the time to live of a missing chart record; never {@code
+   * null}
+   *
+   * @see #setMissingChartTimeToLive(Duration)
+   */
+  public final Duration getMissingChartTimeToLive() {
+    return this.missingChartTimeToLive;
+  }
+
+  /**
+   * Sets the {@link Duration} for which a chart, identified by name
+   * and version, that was found to be missing from a freshly
+   * downloaded index is remembered as missing.
+   *
+   * <p>Asking for an archive that is not in the {@linkplain
+   * #getIndex() current index} normally causes the index to be
+   * {@linkplain #getIndex(boolean) downloaded again}, in case the
+   * chart has been published since.  While a chart is remembered as
+   * missing, requests for it are instead answered from the index
+   * already in memory, without any network traffic.  A chart that
+   * later appears in the index is no longer considered
+   * missing.</p>
+   *
+   * <p>The default time to live is one minute.</p>
+   *
+   * @param missingChartTimeToLive the time to live; must not be
+   * {@code null}; {@link Duration#ZERO} disables the remembering of
+   * missing charts
+   *
+   * @exception NullPointerException if {@code missingChartTimeToLive}
+   * is {@code null}
+   *
+   * @exception IllegalArgumentException if {@code
+   * missingChartTimeToLive} is {@linkplain Duration#isNegative()
+   * negative}
+   *
+   * @see #getMissingChartTimeToLive()
+   */
+  public final void setMissingChartTimeToLive(final Duration missingChartTimeToLive) {
+    Objects.requireNonNull(missingChartTimeToLive);
+    if (missingChartTimeToLive.isNegative()) {
+      throw new IllegalArgumentException("missingChartTimeToLive.isNegative(): " + missingChartTimeToLive);
+    }
+    this.missingChartTimeToLive = missingChartTimeToLive;
+    if (missingChartTimeToLive.isZero()) {
+      this.missingCharts.clear();
+    }
+  }
+
+  /**
+   * Adds the supplied {@link ChartRepositoryListener} so that it is
+   * notified of the work this {@link ChartRepository} does from now
+   * on.
+   *
+   * <p>While no {@link ChartRepositoryListener} is added, no timing
+   * information is gathered at all.</p>
+   *
+   * @param listener the {@link ChartRepositoryListener} to add; must
+   * not be {@code null}
+   *
+   * @exception NullPointerException if {@code listener} is {@code
+   * null}
+   *
+   * @see #removeChartRepositoryListener(ChartRepositoryListener)
+   *
+   * @see ChartRepositoryMetrics
+   */
+  @Experimental
+  public final void addChartRepositoryListener(final ChartRepositoryListener listener) {
+    Objects.requireNonNull(listener);
+    this.listeners.add(listener);
+  }
+
+  /**
+   * Removes the supplied {@link ChartRepositoryListener} so that it
+   * is no longer notified of the work this {@link ChartRepository}
+   * does.
+   *
+   * @param listener the {@link ChartRepositoryListener} to remove;
+   * may be {@code null} in which case no action will be taken
+   *
+   * @see #addChartRepositoryListener(ChartRepositoryListener)
+   */
+  @Experimental
+  public final void removeChartRepositoryListener(final ChartRepositoryListener listener) {
+    if (listener != null) {
+      this.listeners.remove(listener);
+    }
+  }
+
+  /**
+   * Notifies each {@linkplain
+   * #addChartRepositoryListener(ChartRepositoryListener) added}
+   * {@link ChartRepositoryListener} by passing it to the supplied
+   * {@link Consumer}.
+   *
+   * <p>A {@link RuntimeException} thrown by a listener is ignored so
+   * that it cannot interfere with the operation being reported.</p>
+   *
+   * @param notification the {@link Consumer} that notifies a
+   * listener; must not be {@code null}
+   */
+  private final void fire(final Consumer<? super ChartRepositoryListener> notification) {
+    assert notification != null;
+    for (final ChartRepositoryListener listener : this.listeners) {
+      try {
+        notification.accept(listener);
+      } catch (final RuntimeException ignore) {
+
+      }
+    }
+  }
+
+  /**
+   * Returns the {@link ArchiveCache} that keeps the directory where
+   * this {@link ChartRepository} stores Helm chart archives within
+   * its limits.
+   *
+   * <p>This method may return {@code null}, in which case archives
+   * are never evicted.</p>
+   *
+   * @return the {@link ArchiveCache} in use, or {@code null}
+   *
+   * @see #setArchiveCache(ArchiveCache)
+   */
+  public final ArchiveCache getArchiveCache() {
+    return this.archiveCache;
+  }
+
+  /**
+   * Sets the {@link ArchiveCache} that will keep the directory where
+   * this {@link ChartRepository} stores Helm chart archives within
+   * its limits.
+   *
+   * <p>The supplied {@link ArchiveCache} may be shared with other
+   * {@link ChartRepository} instances using the same archive cache
+   * directory.</p>
+   *
+   * @param archiveCache the {@link ArchiveCache} to use; may be
+   * {@code null}, in which case archives are never evicted
+   *
+   * @see #getArchiveCache()
+   */
+  public final void setArchiveCache(final ArchiveCache archiveCache) {
+    this.archiveCache = archiveCache;
+  }
+
+  /**
+   * Returns the {@link ChartCache} holding {@link Chart}s already
+   * loaded by the {@link #resolve(String, String)} method.
+   *
+   * <p>This method may return {@code null}, in which case archives
+   * are loaded every time they are resolved.</p>
+   *
+   * @return the {@link ChartCache} in use, or {@code null}
+   *
+   * @see #setChartCache(ChartCache)
+   */
+  @Experimental
+  public final ChartCache getChartCache() {
+    return this.chartCache;
+  }
+
+  /**
+   * Sets the {@link ChartCache} that will hold {@link Chart}s loaded
+   * by the {@link #resolve(String, String)} method, so that resolving
+   * the same chart again returns a {@linkplain Chart#toBuilder()
+   * builder} made from the cached {@link Chart} instead of reading
+   * its archive again.
+   *
+   * <p>The supplied {@link ChartCache} may be shared with other
+   * {@link ChartRepository} instances.</p>
+   *
+   * @param chartCache the {@link ChartCache} to use; may be {@code
+   * null}, in which case archives are loaded every time they are
+   * resolved
+   *
+   * @see #getChartCache()
+   */
+  @Experimental
+  public final void setChartCache(final ChartCache chartCache) {
+    this.chartCache = chartCache;
+  }
+
+  /**
+   * Returns the {@link Transport} used to download {@code
+   * index.yaml} files and Helm chart archives.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * <p>Unless another has been {@linkplain #setTransport(Transport)
+   * set}, an {@link OkHttpTransport} shared by all {@link
+   * ChartRepository} instances is returned, so that connections to
+   * the same host are reused across downloads and across
+   * repositories.</p>
+   *
+   * @return the non-{@code null} {@link Transport} in use
+   *
+   * @see #setTransport(Transport)
+   */
+  @Experimental
+  public final Transport getTransport() {
+    final Transport transport = this.transport;
+    return transport == null ? DEFAULT_TRANSPORT : transport;
+  }
+
+  /**
+   * Sets the {@link Transport} used to download {@code index.yaml}
+   * files and Helm chart archives.
+   *
+   * @param transport the {@link Transport} to use; may be {@code
+   * null}, in which case a {@link Transport} shared by all {@link
+   * ChartRepository} instances will be used
+   *
+   * @see #getTransport()
+   */
+  @Experimental
+  public final void setTransport(final Transport transport) {
+    this.transport = transport;
+  }
+
+  /**
+   * Returns the {@link Interner} used to canonicalize repeated
+   * values when {@linkplain #loadIndex() loading} an {@link Index}.
+   *
+   * <p>This method may return {@code null}, in which case each load
+   * uses its own {@link Interner}.</p>
+   *
+   * @return the {@link Interner} in use, or {@code null}
+   *
+   * @see #setInterner(Interner)
+   */
+  final Interner getInterner() {
+    return this.interner;
+  }
+
+  /**
+   * Sets the {@link Interner} used to canonicalize repeated values
+   * when {@linkplain #loadIndex() loading} an {@link Index}.
+   *
+   * <p>Sharing an {@link Interner} between {@link ChartRepository}
+   * instances lets their indices share instances of the chart names,
+   * versions and URLs they have in common.</p>
+   *
+   * @param interner the {@link Interner} to use; may be {@code
+   * null}, in which case each load uses its own {@link Interner}
+   *
+   * @see #getInterner()
+   *
+   * @see ChartRepositoryRepository#ChartRepositoryRepository(Set)
+   */
+  final void setInterner(final Interner interner) {
+    this.interner = interner;
+  }
+
+  /**
+   * Returns {@code true} if the {@linkplain #getCachedIndexPath()
+   * cached copy} of the <a
+   * href="https://docs.helm.sh/developing_charts/#the-chart-repository-structure">{@code
+   * index.yaml}</a> file is to be considered stale.
+   *
+   * <p>The default implementation of this method returns {@code
+   * true} if an invocation of the {@link Files#isRegularFile(Path,
+   * LinkOption...)} method on the return value of the {@link
+   * #getCachedIndexPath()} method returns {@code false}.  Otherwise,
+   * if an {@linkplain #getIndexTimeToLive() index time to live} has
+   * been set, it returns {@code true} if more than that amount of
+   * time has passed since the cached copy was last downloaded or
+   * {@linkplain #downloadIndexTo(Path) revalidated}.</p>
+   *
+   * @return {@code true} if the {@linkplain #getCachedIndexPath()
+   * cached copy} of the <a
+   * href="https://docs.helm.sh/developing_charts/#the-chart-repository-structure">{@code
+   * index.yaml}</a> file is to be considered stale; {@code false} otherwise
+   *
+   * @see #getIndex(boolean)
+   */
+  public boolean isCachedIndexExpired() {
+    final Path cachedIndexPath = this.getAbsoluteCachedIndexPath();
+    assert cachedIndexPath != null;
+    boolean returnValue = !Files.isRegularFile(cachedIndexPath);
+    if (!returnValue) {
+      final Duration indexTimeToLive = this.getIndexTimeToLive();
+      if (indexTimeToLive != null) {
+        try {
+          // Validators, when present, are written after the file they
+          // describe and touched whenever it is revalidated.
+          final Path validatorsPath = HttpValidators.getValidatorsPath(cachedIndexPath);
+          assert validatorsPath != null;
+          final long lastValidated;
+          if (Files.isRegularFile(validatorsPath)) {
+            lastValidated = Files.getLastModifiedTime(validatorsPath).toMillis();
+          } else {
+            lastValidated = Files.getLastModifiedTime(cachedIndexPath).toMillis();
+          }
+          returnValue = indexTimeToLive.compareTo(Duration.ofMillis(System.currentTimeMillis() - lastValidated)) <= 0;
+        } catch (final IOException ioException) {
+          returnValue = true;
+        }
+      }
+    }
+    return returnValue;
+  }
+
+  /**
+   * Clears the {@link Index} stored internally by this {@link
+   * ChartRepository}, paving the way for a fresh copy to be installed
+   * by the {@link #getIndex(boolean)} method, and returns the old
+   * value.
+   *
+   * <p>This method may return {@code null} if {@code
+   * #getIndex(boolean)} has not yet been called.</p>
+   *
+   * @return the {@link Index}, or {@code null}
+   */
+  public final Index clearIndex() {
+    synchronized (this.indexLock) {
+      final Index returnValue = this.index;
+      this.index = null;
+      this.indexFileKey = null;
+      return returnValue;
+    }
+  }
+
+  /**
+   * Invokes the {@link #downloadIndexTo(Path)} method with the return
+   * value of the {@link #getCachedIndexPath()} method.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return {@link Path} the {@link Path} to which the {@code
+   * index.yaml} file was downloaded; never {@code null}
+   *
+   * @exception IOException if there was a problem downloading
+   *
+   * @see #downloadIndexTo(Path)
+   */
+  public final Path downloadIndex() throws IOException {
+    return this.downloadIndexTo(this.getCachedIndexPath());
+  }
+
+  /**
+   * Downloads a copy of the chart repository's <a
+   * href="https://docs.helm.sh/developing_charts/#the-chart-repository-structure">{@code
+   * index.yaml}</a> file to the {@link Path} specified and returns
+   * the canonical representation of the {@link Path} to which the
+   * file was actually downloaded.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * <p>Overrides of this method must not return {@code null}.</p>
+   *
+   * <p>The default implementation of this method actually downloads
+   * the <a
+   * href="https://docs.helm.sh/developing_charts/#the-chart-repository-structure">{@code
+   * index.yaml}</a> file to a {@linkplain
+   * Files#createTempFile(String, String, FileAttribute...) temporary
+   * file} first, and then {@linkplain StandardCopyOption#ATOMIC_MOVE
+   * atomically renames it}.</p>
+   *
+   * <p>The file is downloaded using this {@link ChartRepository}'s
+   * {@linkplain #getTransport() <code>Transport</code>}, which is
+   * asked to {@code gzip}-compress it in transit.</p>
+   *
+   * <p>When the chart repository is served over HTTP, the {@code
+   * ETag} and {@code Last-Modified} response headers are stored next
+   * to the downloaded file, and are sent back as {@code
+   * If-None-Match} and {@code If-Modified-Since} request headers the
+   * next time this method is invoked with the same {@link Path}.  If
+   * the server responds with {@code 304 Not Modified}, the file at
+   * the supplied {@link Path} is left untouched, and the stored
+   * validators' modification time is updated to record the
+   * successful revalidation.</p>
+   *
+   * @param path the {@link Path} to download the <a
+   * href="https://docs.helm.sh/developing_charts/#the-chart-repository-structure">{@code
+   * index.yaml}</a> file to; may be {@code null} in which case the
+   * return value of the {@link #getCachedIndexPath()} method will be
+   * used instead
+   *
+   * @return the {@link Path} to the file; never {@code null}
+   *
+   * @exception IOException if there was a problem downloading
+   */
+  public Path downloadIndexTo(Path path) throws IOException {
+    final URI baseUri = this.getUri();
+    if (baseUri == null) {
+      throw new IllegalStateException("getUri() == null");
+    }
+    final URI indexUri = baseUri.resolve("index.yaml");
+    assert indexUri != null;
+    if (path == null) {
+      path = this.getCachedIndexPath();
+    }
+    assert path != null;
+    if (!path.isAbsolute()) {
+      assert this.indexCacheDirectory != null;
+      assert this.indexCacheDirectory.isAbsolute();
+      path = this.indexCacheDirectory.resolve(path);
+      assert path != null;
+      assert path.isAbsolute();
+    }
+    final Path validatorsPath = HttpValidators.getValidatorsPath(path);
+    assert validatorsPath != null;
+    final boolean http = "http".equalsIgnoreCase(indexUri.getScheme()) || "https".equalsIgnoreCase(indexUri.getScheme());
+    final Map<String, String> requestHeaders = new HashMap<>();
+    requestHeaders.put("Accept-Encoding", "gzip");
+    if (http && Files.isRegularFile(path)) {
+      final HttpValidators validators = HttpValidators.load(validatorsPath);
+      if (validators != null) {
+        validators.applyTo(requestHeaders);
+      }
+    }
+    final Path returnValue;
+    try (final Transport.Response response = this.getTransport().get(indexUri, requestHeaders)) {
+      assert response != null;
+      if (http && response.getStatusCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+        try {
+          Files.setLastModifiedTime(validatorsPath, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (final IOException ignore) {
+
+        }
+        returnValue = path;
+      } else {
+        final Path temporaryPath = Files.createTempFile(new StringBuilder(this.getName()).append("-index-").toString(), ".yaml");
+        assert temporaryPath != null;
+        try (final BufferedInputStream stream = new BufferedInputStream(response.getInputStream())) {
+          Files.copy(stream, temporaryPath, StandardCopyOption.REPLACE_EXISTING);
+        } catch (final IOException throwMe) {
+          try {
+            Files.deleteIfExists(temporaryPath);
+          } catch (final IOException suppressMe) {
+            throwMe.addSuppressed(suppressMe);
+          }
+          throw throwMe;
+        }
+        // Never leave validators describing an older representation
+        // next to a newer one.
+        Files.deleteIfExists(validatorsPath);
+        returnValue = Files.move(temporaryPath, path, StandardCopyOption.ATOMIC_MOVE);
+        if (http) {
+          HttpValidators.from(response).store(validatorsPath);
+        }
+      }
+    }
+    return returnValue;
+  }
+
+  /**
+   * Creates a new {@link Index} from the contents of the {@linkplain
+   * #getCachedIndexPath() cached copy of the chart repository's
+   * <code>index.yaml</code> file} and returns it.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * <p>Overrides of this method must not return {@code null}.</p>
+   *
+   * <p>The default implementation of this method reads a compact
+   * binary snapshot of the {@link Index}, stored next to the cached
+   * {@code index.yaml} file, if that snapshot is still valid for the
+   * file's current contents.  Otherwise it parses the file and
+   * writes a new snapshot for use by subsequent invocations, possibly
+   * in other processes.</p>
+   *
+   * @return a new {@link Index}; never {@code null}
    *
    * @exception IOException if there was a problem reading the file
    *
-   * @exception URISyntaxException if a URI in the file was invalid
+   * @exception URISyntaxException if a URI in the file was invalid
+   *
+   * @see Index#loadFrom(Path)
+   *
+   * @see #getIndex(boolean)
+   */
+  public Index loadIndex() throws IOException, URISyntaxException {
+    return IndexSnapshot.load(this.getAbsoluteCachedIndexPath(), this.getInterner());
+  }
+
+  /**
+   * Returns the {@linkplain #getCachedIndexPath() cached index path}
+   * resolved, if necessary, against the directory supplied at
+   * construction time.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return an absolute {@link Path}; never {@code null}
+   */
+  private final Path getAbsoluteCachedIndexPath() {
+    Path path = this.getCachedIndexPath();
+    assert path != null;
+    if (!path.isAbsolute()) {
+      assert this.indexCacheDirectory != null;
+      assert this.indexCacheDirectory.isAbsolute();
+      path = this.indexCacheDirectory.resolve(path);
+      assert path != null;
+      assert path.isAbsolute();
+    }
+    return path;
+  }
+
+  /**
+   * Given a Helm chart name and its version, returns the local {@link
+   * Path}, representing a local copy of the Helm chart as downloaded
+   * from the chart repository represented by this {@link
+   * ChartRepository}, downloading the archive if necessary.
+   *
+   * <p>This method may return {@code null}.  It returns {@code null}
+   * whenever no archive is available locally once it is done, for
+   * example because the chart repository's {@link Index} does not
+   * list the chart, or lists it without any URLs.  Any {@link Path}
+   * it returns denotes an existing archive.</p>
+   *
+   * <p>Concurrent invocations of this method that need to download
+   * the same archive into the same archive cache directory share a
+   * single download (and, if they also ask for the same chart name
+   * and version, a single {@linkplain #getIndex(boolean) index
+   * refresh}).  Across processes, downloads of the same archive
+   * are serialized using a {@linkplain FileChannel#lock() file lock}
+   * on a lock file next to the archive.  An archive whose {@link
+   * Index.Entry} has a {@linkplain Index.Entry#getDigest() digest} is
+   * the same archive as any other with that digest, whatever its
+   * chart name, version or repository.</p>
+   *
+   * <p>A download that fails part of the way through is, where the
+   * server permits it, resumed from where it left off by the next
+   * invocation of this method for the same chart.</p>
+   *
+   * <p>If the chart was recently found to be missing even from a
+   * freshly downloaded index, {@code null} is returned without
+   * downloading the index again.</p>
+   *
+   * @see #setMissingChartTimeToLive(Duration)
+   *
+   * @param chartName the name of the chart whose local {@link Path}
+   * should be returned; must not be {@code null}
+   *
+   * @param chartVersion the version of the chart to select; may be
+   * {@code null} in which case "latest" semantics are implied
+   *
+   * @return the {@link Path} to an existing chart archive, or {@code
+   * null}
+   *
+   * @exception IOException if there was a problem downloading
+   *
+   * @exception URISyntaxException if this {@link ChartRepository}'s
+   * {@linkplain #getIndex() associated <code>Index</code>} could not
+   * be parsed
+   *
+   * @exception NullPointerException if {@code chartName} is {@code
+   * null}
+   */
+  public final Path getCachedChartPath(final String chartName, String chartVersion) throws IOException, URISyntaxException {
+    Objects.requireNonNull(chartName);
+    Path returnValue = null;
+    if (chartVersion == null) {
+      chartVersion = this.getLatestVersion(chartName);
+    }
+    if (chartVersion != null) {
+      final Path cachedChartPath = this.getArchivePath(chartName, chartVersion);
+      assert cachedChartPath != null;
+      final ArchiveCache archiveCache = this.getArchiveCache();
+      final boolean hit = Files.isRegularFile(cachedChartPath) && this.isCurrentArchive(chartName, chartVersion, cachedChartPath);
+      if (archiveCache != null) {
+        if (hit) {
+          archiveCache.recordHit(cachedChartPath);
+        } else {
+          archiveCache.recordMiss(cachedChartPath);
+        }
+      }
+      if (!this.listeners.isEmpty()) {
+        final String finalChartVersion = chartVersion;
+        if (hit) {
+          this.fire(listener -> listener.archiveCacheHit(this, chartName, finalChartVersion));
+        } else {
+          this.fire(listener -> listener.archiveCacheMiss(this, chartName, finalChartVersion));
+        }
+      }
+      if (hit) {
+        returnValue = cachedChartPath;
+      } else if (!this.isKnownMissing(chartName, chartVersion)) {
+        final String finalChartVersion = chartVersion;
+        final FutureTask<Path> request = new FutureTask<>(() -> this.downloadChart(chartName, finalChartVersion, cachedChartPath));
+        final Path key = cachedChartPath.toAbsolutePath().normalize();
+        assert key != null;
+        final Future<Path> inFlightRequest = inFlightArchiveRequests.putIfAbsent(key, request);
+        if (inFlightRequest == null) {
+          try {
+            request.run();
+          } finally {
+            inFlightArchiveRequests.remove(key, request);
+          }
+          awaitDownload(request);
+          if (archiveCache != null) {
+            archiveCache.evict();
+          }
+        } else {
+          awaitDownload(inFlightRequest);
+        }
+        if (Files.isRegularFile(cachedChartPath)) {
+          returnValue = cachedChartPath;
+        }
+      }
+    }
+    return returnValue;
+  }
+
+  /**
+   * Returns the version of the latest {@link Index.Entry} with the
+   * supplied chart name in this {@link ChartRepository}'s {@link
+   * Index}, or {@code null} if there is no such entry.
+   *
+   * <p>This method may return {@code null}.</p>
+   *
+   * @param chartName the name of the chart; must not be {@code null}
+   *
+   * @return the latest version of the chart, or {@code null}
+   *
+   * @exception IOException if the {@link Index} could not be
+   * {@linkplain #getIndex(boolean) obtained}
+   *
+   * @exception URISyntaxException if this {@link ChartRepository}'s
+   * {@linkplain #getIndex() associated <code>Index</code>} could not
+   * be parsed
+   */
+  private final String getLatestVersion(final String chartName) throws IOException, URISyntaxException {
+    Objects.requireNonNull(chartName);
+    String returnValue = null;
+    final Index index = this.getIndex(false);
+    assert index != null;
+    final Index.Entry entry = index.getEntry(chartName, null /* latest */);
+    if (entry != null) {
+      returnValue = entry.getVersion();
+    }
+    return returnValue;
+  }
+
+  /**
+   * Returns {@code true} if the chart with the supplied name and
+   * version was found to be missing from a freshly downloaded index
+   * no longer ago than the {@linkplain #getMissingChartTimeToLive()
+   * missing chart time to live}, and is still missing from the
+   * {@linkplain #getIndex() current index}.
+   *
+   * <p>This method performs no input or output.</p>
+   *
+   * @param chartName the name of the chart; must not be {@code null}
+   *
+   * @param chartVersion the version of the chart; must not be {@code
+   * null}
+   *
+   * @return {@code true} if the chart is known to be missing
+   *
+   * @see #recordMissing(String, String)
+   */
+  private final boolean isKnownMissing(final String chartName, final String chartVersion) {
+    Objects.requireNonNull(chartName);
+    Objects.requireNonNull(chartVersion);
+    boolean returnValue = false;
+    if (!this.missingCharts.isEmpty()) {
+      final String key = getMissingChartKey(chartName, chartVersion);
+      final Long expiry = this.missingCharts.get(key);
+      if (expiry != null) {
+        final Index currentIndex = this.index;
+        if (System.nanoTime() - expiry.longValue() < 0L && (currentIndex == null || currentIndex.getEntry(chartName, chartVersion) == null)) {
+          returnValue = true;
+        } else {
+          this.missingCharts.remove(key, expiry);
+        }
+      }
+    }
+    return returnValue;
+  }
+
+  /**
+   * Records that the chart with the supplied name and version is
+   * missing from a freshly downloaded index, so that for the
+   * {@linkplain #getMissingChartTimeToLive() missing chart time to
+   * live} requests for it do not cause the index to be downloaded
+   * again.
+   *
+   * @param chartName the name of the chart; must not be {@code null}
+   *
+   * @param chartVersion the version of the chart; must not be {@code
+   * null}
+   *
+   * @see #isKnownMissing(String, String)
+   */
+  private final void recordMissing(final String chartName, final String chartVersion) {
+    Objects.requireNonNull(chartName);
+    Objects.requireNonNull(chartVersion);
+    final Duration timeToLive = this.getMissingChartTimeToLive();
+    if (timeToLive != null && !timeToLive.isZero()) {
+      final long now = System.nanoTime();
+      if (this.missingCharts.size() >= MISSING_CHARTS_PURGE_THRESHOLD) {
+        this.missingCharts.values().removeIf(expiry -> now - expiry.longValue() >= 0L);
+      }
+      this.missingCharts.put(getMissingChartKey(chartName, chartVersion), Long.valueOf(now + timeToLive.toNanos()));
+    }
+  }
+
+  /**
+   * Returns the {@link Path} in the archive cache directory at which
+   * the Helm chart archive with the supplied name and version is, or
+   * would be, stored.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param chartName the name of the chart; must not be {@code null}
+   *
+   * @param chartVersion the version of the chart; must not be {@code
+   * null}
+   *
+   * @return the {@link Path} of the archive; never {@code null}
+   */
+  final Path getArchivePath(final String chartName, final String chartVersion) {
+    Objects.requireNonNull(chartName);
+    Objects.requireNonNull(chartVersion);
+    assert this.archiveCacheDirectory != null;
+    return this.archiveCacheDirectory.resolve(new StringBuilder(chartName).append("-").append(chartVersion).append(".tgz").toString());
+  }
+
+  /**
+   * Returns {@code true} if the existing archive at the supplied
+   * {@link Path} is the one currently described by this {@link
+   * ChartRepository}'s {@link Index}.
+   *
+   * <p>If no {@link Index} has been loaded yet, the archive is
+   * assumed to be current, so that an archive that is already cached
+   * can be used without the {@link Index} being loaded or
+   * downloaded.  Otherwise, if the {@link Index.Entry} for the
+   * supplied chart name and version has a usable {@linkplain
+   * Index.Entry#getDigest() digest}, the archive is current if it is
+   * {@linkplain Files#isSameFile(Path, Path) the same file} as the
+   * content-addressed copy named by that digest or, where it had to
+   * be a copy of it rather than a link to it, has the same contents.
+   * Otherwise the archive is assumed to be current.  In no case is
+   * the archive hashed.</p>
+   *
+   * @param chartName the name of the chart; must not be {@code null}
+   *
+   * @param chartVersion the version of the chart; must not be {@code
+   * null}
+   *
+   * @param cachedChartPath the {@link Path} of the existing archive;
+   * must not be {@code null}
+   *
+   * @return {@code true} if the archive is current
+   *
+   * @exception IOException if the archive could not be compared with
+   * the content-addressed copy
+   */
+  private final boolean isCurrentArchive(final String chartName, final String chartVersion, final Path cachedChartPath) throws IOException {
+    Objects.requireNonNull(chartName);
+    Objects.requireNonNull(chartVersion);
+    Objects.requireNonNull(cachedChartPath);
+    boolean returnValue = true;
+    final Index index = this.index;
+    if (index != null) {
+      final Index.Entry entry = index.getEntry(chartName, chartVersion);
+      if (entry != null) {
+        final Path blobPath = this.getBlobPath(entry.getDigest());
+        if (blobPath != null) {
+          if (!Files.isRegularFile(blobPath)) {
+            returnValue = false;
+          } else if (!Files.isSameFile(cachedChartPath, blobPath)) {
+            // A symbolic or hard link to any other file is stale; a
+            // copy is current if it is a copy of the right file.
+            returnValue = !Files.isSymbolicLink(cachedChartPath) && contentEquals(cachedChartPath, blobPath);
+          }
+        }
+      }
+    }
+    return returnValue;
+  }
+
+  /**
+   * Returns the key under which the {@link Chart} loaded from the
+   * supplied archive is stored in a {@link ChartCache}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * <p>This method performs no network input or output, and never
+   * loads the {@link Index}.</p>
+   *
+   * <p>If the {@link Index} that is already loaded records a SHA-256
+   * digest for the chart, and the supplied archive is {@linkplain
+   * Files#isSameFile(Path, Path) the same file} as the
+   * content-addressed copy named by that digest, which was verified
+   * against it when it was downloaded, the key is that digest; charts
+   * with the same contents then share an entry regardless of where
+   * they came from.  Otherwise, for example because no {@link Index}
+   * has been loaded yet and the archive may be stale, the key is made
+   * from the archive's absolute path, {@linkplain
+   * BasicFileAttributes#fileKey() file key} and size, which change
+   * whenever the archive is replaced.  Its last modified time is not
+   * used unless there is no file key, because an {@link ArchiveCache}
+   * updates it whenever the archive is used.</p>
+   *
+   * @param chartName the name of the chart; must not be {@code null}
+   *
+   * @param chartVersion the version of the chart; must not be {@code
+   * null}
+   *
+   * @param cachedChartPath the {@link Path} of the archive; must not
+   * be {@code null}
+   *
+   * @return a non-{@code null} key
+   *
+   * @exception IOException if the archive's attributes could not be
+   * read
+   */
+  private final String getChartCacheKey(final String chartName, final String chartVersion, final Path cachedChartPath) throws IOException {
+    Objects.requireNonNull(chartName);
+    Objects.requireNonNull(chartVersion);
+    Objects.requireNonNull(cachedChartPath);
+    String returnValue = null;
+    final Index index = this.index;
+    if (index != null) {
+      final Index.Entry entry = index.getEntry(chartName, chartVersion);
+      if (entry != null) {
+        final String digest = entry.getDigest();
+        final Path blobPath = this.getBlobPath(digest);
+        if (blobPath != null && Files.isRegularFile(blobPath) && Files.isSameFile(cachedChartPath, blobPath)) {
+          returnValue = new StringBuilder("sha256:").append(digest.toLowerCase()).toString();
+        }
+      }
+    }
+    if (returnValue == null) {
+      final BasicFileAttributes attributes = Files.readAttributes(cachedChartPath, BasicFileAttributes.class);
+      assert attributes != null;
+      final Object fileKey = attributes.fileKey();
+      returnValue = new StringBuilder(cachedChartPath.toAbsolutePath().normalize().toString())
+        .append('|').append(fileKey == null ? attributes.lastModifiedTime() : fileKey)
+        .append('|').append(attributes.size())
+        .toString();
+    }
+    return returnValue;
+  }
+
+  /**
+   * Returns the {@link Path} at which the Helm chart archive with the
+   * supplied SHA-256 digest is, or would be, stored in the
+   * content-addressed area of the archive cache directory, or {@code
+   * null} if the supplied digest is not a well-formed, hexadecimal,
+   * SHA-256 digest.
+   *
+   * <p>This method may return {@code null}.</p>
+   *
+   * @param digest the digest; may be {@code null}
+   *
+   * @return the {@link Path} of the content-addressed archive, or
+   * {@code null}
+   */
+  private final Path getBlobPath(final String digest) {
+    Path returnValue = null;
+    if (digest != null && sha256Pattern.matcher(digest).matches()) {
+      assert this.archiveCacheDirectory != null;
+      returnValue = this.archiveCacheDirectory.resolve(CONTENT_ADDRESSED_DIRECTORY_NAME).resolve(new StringBuilder(digest.toLowerCase()).append(".tgz").toString());
+    }
+    return returnValue;
+  }
+
+  /**
+   * Makes the Helm chart archive with the supplied name and version
+   * available at the supplied {@link Path}, downloading it if
+   * necessary, and returns the supplied {@link Path}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * <p>If the chart's {@link Index.Entry} has a {@linkplain
+   * Index.Entry#getDigest() digest}, the archive is stored once, in
+   * the content-addressed area of the archive cache directory, under
+   * a name derived from that digest, and the supplied {@link Path}
+   * becomes a relative symbolic link to it (or, where symbolic links
+   * are not supported, a hard link or, failing that, a copy).  An
+   * archive with the same digest that is already stored there, for
+   * example because another chart repository serves it too, is
+   * reused without being downloaded.  A downloaded archive is
+   * verified against the digest while it is being written, and
+   * rejected if it does not match.</p>
+   *
+   * <p>The {@link Index} is downloaded again only if no {@link
+   * Index} is loaded yet, or if the loaded one does not list the
+   * chart, or lists it without a {@link URI} and without a stored
+   * archive.  Otherwise the archive is downloaded directly from the
+   * {@linkplain Index.Entry#getFirstUri() first <code>URI</code>}
+   * recorded in the loaded {@link Index}.</p>
+   *
+   * <p>The download itself is performed by the {@link
+   * #fetchArchive(String, String, URI, Path, String)} method, and so
+   * is shared with, or serialized against, any other download to the
+   * same content-addressed or, failing a digest, supplied {@link
+   * Path}.</p>
+   *
+   * @param chartName the name of the chart; must not be {@code null}
+   *
+   * @param chartVersion the version of the chart; must not be {@code
+   * null}
+   *
+   * @param cachedChartPath the {@link Path} to download to; must not
+   * be {@code null}
+   *
+   * @return {@code cachedChartPath}; never {@code null}
+   *
+   * @exception IOException if there was a problem downloading, or
+   * if the downloaded archive did not match its digest
+   *
+   * @exception URISyntaxException if this {@link ChartRepository}'s
+   * {@linkplain #getIndex() associated <code>Index</code>} could not
+   * be parsed
+   *
+   * @see #getCachedChartPath(String, String)
+   */
+  private final Path downloadChart(final String chartName, final String chartVersion, final Path cachedChartPath) throws IOException, URISyntaxException {
+    Objects.requireNonNull(chartName);
+    Objects.requireNonNull(chartVersion);
+    Objects.requireNonNull(cachedChartPath);
+    // If an Index is already loaded and knows about the chart, it
+    // says where to find the archive, and, if it has a digest,
+    // whether an archive with that digest is already stored; the
+    // index need not be downloaded again.
+    final Index currentIndex = this.index;
+    Index.Entry entry = currentIndex == null ? null : currentIndex.getEntry(chartName, chartVersion);
+    Path blobPath = entry == null ? null : this.getBlobPath(entry.getDigest());
+    if (entry == null || (entry.getFirstUri() == null && (blobPath == null || !Files.isRegularFile(blobPath)))) {
+      entry = this.getIndex(true).getEntry(chartName, chartVersion);
+      if (entry == null) {
+        this.recordMissing(chartName, chartVersion);
+        blobPath = null;
+      } else {
+        blobPath = this.getBlobPath(entry.getDigest());
+      }
+    }
+    if (entry != null) {
+      final URI chartUri = entry.getFirstUri();
+      if (blobPath == null) {
+        if (chartUri != null) {
+          this.fetchArchive(chartName, chartVersion, chartUri, cachedChartPath, null);
+        }
+      } else {
+        if (chartUri != null && !Files.isRegularFile(blobPath)) {
+          Files.createDirectories(blobPath.getParent());
+          this.fetchArchive(chartName, chartVersion, chartUri, blobPath, entry.getDigest());
+        }
+        if (Files.isRegularFile(blobPath)) {
+          link(cachedChartPath, blobPath);
+        }
+      }
+    }
+    return cachedChartPath;
+  }
+
+  /**
+   * {@linkplain #downloadArchive(String, String, URI, Path, String)
+   * Downloads} the Helm chart archive identified by the supplied
+   * chart name and version from the supplied {@link URI} to the
+   * supplied {@link Path}, unless, once a lock file next to that
+   * {@link Path} has been {@linkplain FileChannel#lock() locked}, an
+   * archive already exists there.
+   *
+   * <p>Concurrent invocations of this method in this process for the
+   * same {@link Path} share a single download, even when they were
+   * made on behalf of different charts or chart repositories.  This also keeps them
+   * from {@linkplain FileChannel#lock() locking} the same lock file
+   * twice, which a Java virtual machine does not permit.</p>
+   *
+   * @param chartName the name of the chart; must not be {@code null}
+   *
+   * @param chartVersion the version of the chart; must not be {@code
+   * null}
+   *
+   * @param chartUri the {@link URI} of the archive; must not be
+   * {@code null}
+   *
+   * @param path the {@link Path} to download to; must not be {@code
+   * null}
+   *
+   * @param digest the expected SHA-256 digest of the archive; may be
+   * {@code null}
+   *
+   * @exception IOException if the archive could not be downloaded
+   *
+   * @exception InterruptedIOException if the calling thread was
+   * interrupted while waiting for another thread's download
+   *
+   * @exception URISyntaxException if a URI encountered during the
+   * download was invalid
+   *
+   * @see #downloadChart(String, String, Path)
+   */
+  private final void fetchArchive(final String chartName, final String chartVersion, final URI chartUri, final Path path, final String digest) throws IOException, URISyntaxException {
+    Objects.requireNonNull(path);
+    final FutureTask<Path> download = new FutureTask<>(() -> {
+        final Path lockPath = path.resolveSibling(new StringBuilder(path.getFileName().toString()).append(".lock").toString());
+        assert lockPath != null;
+        try (final FileChannel lockChannel = FileChannel.open(lockPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+          // Closing the channel releases the lock.
+          lockChannel.lock();
+          // Another process may have finished the download while we
+          // were waiting for the lock.
+          if (!Files.isRegularFile(path)) {
+            this.downloadArchive(chartName, chartVersion, chartUri, path, digest);
+          }
+          // Anyone still waiting on this lock file will find the
+          // archive in place once they acquire it, as will anyone who
+          // creates a new one.
+          try {
+            Files.deleteIfExists(lockPath);
+          } catch (final IOException ignore) {
+
+          }
+        }
+        return path;
+      });
+    final Path key = path.toAbsolutePath().normalize();
+    assert key != null;
+    final Future<Path> inFlightDownload = inFlightDownloads.putIfAbsent(key, download);
+    if (inFlightDownload == null) {
+      try {
+        download.run();
+      } finally {
+        inFlightDownloads.remove(key, download);
+      }
+      awaitDownload(download);
+    } else {
+      awaitDownload(inFlightDownload);
+    }
+  }
+
+  /**
+   * {@linkplain #download(Transport, URI, Path, String) Downloads}
+   * the Helm chart archive identified by the supplied chart name and
+   * version from the supplied {@link URI} to the supplied {@link
+   * Path}, notifying any {@linkplain
+   * #addChartRepositoryListener(ChartRepositoryListener) listeners}
+   * of its size and of the time it took.
+   *
+   * @param chartName the name of the chart; must not be {@code null}
+   *
+   * @param chartVersion the version of the chart; must not be {@code
+   * null}
+   *
+   * @param chartUri the {@link URI} of the archive; must not be
+   * {@code null}
+   *
+   * @param path the {@link Path} to download to; must not be {@code
+   * null}
+   *
+   * @param digest the expected SHA-256 digest of the archive; may be
+   * {@code null}
+   *
+   * @exception IOException if the archive could not be downloaded
+   */
+  private final void downloadArchive(final String chartName, final String chartVersion, final URI chartUri, final Path path, final String digest) throws IOException {
+    final boolean listening = !this.listeners.isEmpty();
+    final long start = listening ? System.nanoTime() : 0L;
+    download(this.getTransport(), chartUri, path, digest);
+    if (listening) {
+      final long nanos = System.nanoTime() - start;
+      final long bytes = size(path);
+      this.fire(listener -> listener.archiveDownloaded(this, chartName, chartVersion, bytes, nanos));
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>This implementation calls the {@link
+   * #getCachedChartPath(String, String)} method with the supplied
+   * arguments and uses a {@link TapeArchiveChartLoader} to load the
+   * resulting archive into a {@link Chart.Builder} object.  The
+   * archive is inflated by a {@link PipelinedInputStream}, on a
+   * thread other than the calling thread.</p>
+   *
+   * <p>If an {@linkplain #getArchiveCache() archive cache} is in use,
+   * the archive is {@linkplain ArchiveCache#pin(Path) pinned} until
+   * it has been loaded.</p>
+   *
+   * <p>If a {@linkplain #getChartCache() chart cache} is in use and
+   * already holds the {@link Chart} loaded from the same archive, a
+   * {@linkplain Chart#toBuilder() builder} made from it is returned
+   * instead, and the archive is not read.</p>
+   */
+  @Override
+  public Chart.Builder resolve(final String chartName, String chartVersion) throws ChartResolverException {
+    Objects.requireNonNull(chartName);
+    Chart.Builder returnValue = null;
+    final ArchiveCache archiveCache = this.getArchiveCache();
+    Path pinnedPath = null;
+    try {
+      Path cachedChartPath = null;
+      try {
+        if (chartVersion == null) {
+          chartVersion = this.getLatestVersion(chartName);
+        }
+        if (archiveCache != null && chartVersion != null) {
+          // Pin the archive before it is looked up or downloaded so
+          // that it cannot be evicted before it has been read.
+          pinnedPath = this.getArchivePath(chartName, chartVersion);
+          archiveCache.pin(pinnedPath);
+        }
+        cachedChartPath = this.getCachedChartPath(chartName, chartVersion);
+      } catch (final IOException | URISyntaxException exception) {
+        throw new ChartResolverException(exception.getMessage(), exception);
+      }
+      if (cachedChartPath != null && Files.isRegularFile(cachedChartPath)) {
+        final ChartCache chartCache = this.getChartCache();
+        String chartCacheKey = null;
+        if (chartCache != null) {
+          try {
+            chartCacheKey = this.getChartCacheKey(chartName, chartVersion, cachedChartPath);
+          } catch (final IOException exception) {
+            throw new ChartResolverException(exception.getMessage(), exception);
+          }
+          final Chart chart = chartCache.get(chartCacheKey);
+          if (chart != null) {
+            returnValue = chart.toBuilder();
+          }
+        }
+        if (returnValue == null) {
+          final boolean listening = !this.listeners.isEmpty();
+          final long start = listening ? System.nanoTime() : 0L;
+          // Inflate on another thread while this one parses the
+          // archive and builds the chart.
+          try (final TapeArchiveChartLoader loader = new TapeArchiveChartLoader();
+               final TarInputStream stream = new TarInputStream(new PipelinedInputStream(new GZIPInputStream(new BufferedInputStream(Files.newInputStream(cachedChartPath)))))) {
+            returnValue = loader.load(stream);
+          } catch (final IOException exception) {
+            throw new ChartResolverException(exception.getMessage(), exception);
+          }
+          if (listening) {
+            final long nanos = System.nanoTime() - start;
+            final String finalChartVersion = chartVersion;
+            this.fire(listener -> listener.chartLoaded(this, chartName, finalChartVersion, nanos));
+          }
+          if (chartCache != null && returnValue != null) {
+            // Cache an immutable copy; the caller is free to modify
+            // the builder being returned.
+            chartCache.put(chartCacheKey, returnValue.build());
+          }
+        }
+      }
+    } finally {
+      if (pinnedPath != null) {
+        archiveCache.unpin(pinnedPath);
+      }
+    }
+    return returnValue;
+  }
+
+  /**
+   * Returns a {@link Path} representing "Helm home": the root
+   * directory for various Helm-related metadata as specified by
+   * either the {@code helm.home} system property or the {@code
+   * HELM_HOME} environment variable.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * <p>No guarantee is made by this method regarding whether the
+   * returned {@link Path} actually denotes a directory.</p>
+   *
+   * @return a {@link Path} representing "Helm home"; never {@code
+   * null}
+   *
+   * @exception SecurityException if there are not sufficient
+   * permissions to read system properties or environment variables
+   */
+  static final Path getHelmHome() {
+    String helmHome = System.getProperty("helm.home", System.getenv("HELM_HOME"));
+    if (helmHome == null) {
+      helmHome = Paths.get(System.getProperty("user.home")).resolve(".helm").toString();
+      assert helmHome != null;
+    }
+    return Paths.get(helmHome);
+  }
+
+  /**
+   * Downloads the resource at the supplied {@link URI}, using the
+   * supplied {@link Transport}, to a partial download file next to
+   * the supplied {@link Path}, verifies it against the supplied
+   * SHA-256 digest, if any, and then {@linkplain
+   * StandardCopyOption#ATOMIC_MOVE atomically renames} the partial
+   * download file to the supplied {@link Path}.
+   *
+   * <p>If a download fails part of the way through, and the server
+   * supplied a strong {@code ETag} or a {@code Last-Modified} date
+   * for the resource, the partial download file is kept, together
+   * with those validators.  The next download of the same resource
+   * to the same {@link Path} then asks only for the remaining bytes,
+   * using a {@code Range} request made conditional on the resource
+   * being unchanged by an {@code If-Range} header.  If the server
+   * sends the whole resource instead, the partial download file is
+   * overwritten.  Because the result of a resumed download is only
+   * as good as the validators that permitted it, a partial download
+   * file whose completed contents do not match the supplied digest
+   * is discarded.  A partial download file that is never resumed is
+   * eventually {@linkplain ArchiveCache#evict() evicted} by any
+   * {@link ArchiveCache} managing its directory.</p>
+   *
+   * <p>The digest is computed from the bytes as they are written, so
+   * the downloaded file is not read again to verify it.  Only the
+   * bytes already present when a partial download is resumed are
+   * read back, to seed the computation.</p>
+   *
+   * @param transport the {@link Transport} to download with; must
+   * not be {@code null}
+   *
+   * @param uri the {@link URI} to download; must not be {@code null}
+   *
+   * @param path the {@link Path} to download to; must not be {@code
+   * null}
+   *
+   * @param digest the expected hexadecimal SHA-256 digest of the
+   * resource; may be {@code null} in which case no verification is
+   * performed
+   *
+   * @exception IOException if there was a problem downloading, or if
+   * the resource did not match the supplied digest
+   */
+  private static final void download(final Transport transport, final URI uri, final Path path, final String digest) throws IOException {
+    Objects.requireNonNull(transport);
+    Objects.requireNonNull(uri);
+    Objects.requireNonNull(path);
+    final Path partialPath = path.resolveSibling(new StringBuilder(path.getFileName().toString()).append(PARTIAL_DOWNLOAD_SUFFIX).toString());
+    assert partialPath != null;
+    final Path validatorsPath = HttpValidators.getValidatorsPath(partialPath);
+    assert validatorsPath != null;
+    final MessageDigest md = digest == null ? null : DigestVerifyingInputStream.newSha256MessageDigest();
+    try {
+      // A second attempt is made only when the partial download
+      // turned out to be unusable, and it always starts from scratch.
+      if (!downloadPart(transport, uri, partialPath, validatorsPath, md) && !downloadPart(transport, uri, partialPath, validatorsPath, md)) {
+        throw new IOException("Could not download " + uri);
+      }
+    } catch (final IOException throwMe) {
+      final HttpValidators validators = HttpValidators.load(validatorsPath);
+      if (validators == null || validators.getIfRangeValue() == null) {
+        // The partial download can never be resumed.
+        try {
+          discard(partialPath, validatorsPath);
+        } catch (final IOException suppressMe) {
+          throwMe.addSuppressed(suppressMe);
+        }
+      }
+      throw throwMe;
+    }
+    if (md != null) {
+      final String actualDigest = DatatypeConverter.printHexBinary(md.digest());
+      if (!digest.equalsIgnoreCase(actualDigest)) {
+        final IOException throwMe = new IOException("Digest mismatch for " + uri + "; expected: " + digest + "; actual: " + actualDigest);
+        try {
+          discard(partialPath, validatorsPath);
+        } catch (final IOException suppressMe) {
+          throwMe.addSuppressed(suppressMe);
+        }
+        throw throwMe;
+      }
+    }
+    Files.move(partialPath, path, StandardCopyOption.ATOMIC_MOVE);
+    Files.deleteIfExists(validatorsPath);
+  }
+
+  /**
+   * Downloads the resource at the supplied {@link URI}, or, if there
+   * is a resumable partial download of it at the supplied {@code
+   * partialPath}, the remainder of it, into the file at {@code
+   * partialPath}, and returns {@code true} if the file then holds
+   * the whole resource.
+   *
+   * <p>This method returns {@code false} if the server rejected the
+   * range requested to resume a partial download, in which case the
+   * partial download has been discarded.</p>
+   *
+   * @param transport the {@link Transport} to download with; must
+   * not be {@code null}
+   *
+   * @param uri the {@link URI} to download; must not be {@code null}
+   *
+   * @param partialPath the {@link Path} of the partial download file;
+   * must not be {@code null}
+   *
+   * @param validatorsPath the {@link Path} of the file holding the
+   * {@link HttpValidators} describing the partial download; must not
+   * be {@code null}
+   *
+   * @param md a {@link MessageDigest} that, if this method returns
+   * {@code true}, will have been updated with every byte of the file
+   * at {@code partialPath} and nothing else; may be {@code null}
+   *
+   * @return {@code true} if the file at {@code partialPath} holds the
+   * whole resource; {@code false} if the download should be
+   * restarted
+   *
+   * @exception IOException if there was a problem downloading
+   */
+  private static final boolean downloadPart(final Transport transport, final URI uri, final Path partialPath, final Path validatorsPath, final MessageDigest md) throws IOException {
+    Objects.requireNonNull(transport);
+    Objects.requireNonNull(uri);
+    Objects.requireNonNull(partialPath);
+    Objects.requireNonNull(validatorsPath);
+    long offset = 0L;
+    final Map<String, String> requestHeaders = new HashMap<>();
+    if (Files.isRegularFile(partialPath)) {
+      final HttpValidators validators = HttpValidators.load(validatorsPath);
+      final String ifRange = validators == null ? null : validators.getIfRangeValue();
+      if (ifRange != null) {
+        offset = Files.size(partialPath);
+        if (offset > 0L) {
+          requestHeaders.put("Range", new StringBuilder("bytes=").append(offset).append('-').toString());
+          requestHeaders.put("If-Range", ifRange);
+        }
+      }
+    }
+    boolean returnValue = false;
+    try (final Transport.Response response = transport.get(uri, requestHeaders)) {
+      assert response != null;
+      final int statusCode = response.getStatusCode();
+      if (statusCode == HttpURLConnection.HTTP_PARTIAL && (offset <= 0L || offset != getContentRangeStart(response.getHeader("Content-Range")))) {
+        // Not the range that was asked for.
+        discard(partialPath, validatorsPath);
+      } else if (statusCode == HTTP_REQUESTED_RANGE_NOT_SATISFIABLE && offset > 0L) {
+        // The partial download is at least as long as the resource
+        // now is, so it cannot be a prefix of it.
+        discard(partialPath, validatorsPath);
+      } else {
+        final boolean resume = statusCode == HttpURLConnection.HTTP_PARTIAL;
+        try (final InputStream stream = response.getInputStream();
+             final FileChannel channel = FileChannel.open(partialPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+          long position = offset;
+          if (resume) {
+            if (md != null) {
+              md.reset();
+              update(md, channel, offset);
+            }
+          } else {
+            // Never leave validators describing an older
+            // representation next to the start of a newer one.
+            Files.deleteIfExists(validatorsPath);
+            channel.truncate(0L);
+            position = 0L;
+            HttpValidators.from(response).store(validatorsPath);
+            if (md != null) {
+              md.reset();
+            }
+          }
+          final byte[] bytes = new byte[8192];
+          final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+          int bytesRead;
+          while ((bytesRead = stream.read(bytes, 0, bytes.length)) != -1) {
+            if (md != null) {
+              md.update(bytes, 0, bytesRead);
+            }
+            buffer.clear().limit(bytesRead);
+            while (buffer.hasRemaining()) {
+              position += channel.write(buffer, position);
+            }
+          }
+        }
+        returnValue = true;
+      }
+    }
+    return returnValue;
+  }
+
+  /**
+   * Updates the supplied {@link MessageDigest} with the first {@code
+   * length} bytes readable from the supplied {@link FileChannel},
+   * without changing its position.
+   *
+   * @param md the {@link MessageDigest} to update; must not be {@code
+   * null}
+   *
+   * @param channel the {@link FileChannel} to read; must not be
+   * {@code null}
    *
-   * @see Index#loadFrom(Path)
+   * @param length the number of bytes to read
+   *
+   * @exception IOException if the bytes could not be read, or if
+   * there were fewer than {@code length} of them
    */
-  public Index loadIndex() throws IOException, URISyntaxException {
-    Path path = this.getCachedIndexPath();
-    assert path != null;
-    if (!path.isAbsolute()) {
-      assert this.indexCacheDirectory != null;
-      assert this.indexCacheDirectory.isAbsolute();
-      path = this.indexCacheDirectory.resolve(path);
-      assert path != null;
-      assert path.isAbsolute();
+  private static final void update(final MessageDigest md, final FileChannel channel, final long length) throws IOException {
+    Objects.requireNonNull(md);
+    Objects.requireNonNull(channel);
+    final ByteBuffer buffer = ByteBuffer.allocate((int)Math.min(65536L, Math.max(1L, length)));
+    long position = 0L;
+    while (position < length) {
+      buffer.clear().limit((int)Math.min(buffer.capacity(), length - position));
+      final int bytesRead = channel.read(buffer, position);
+      if (bytesRead < 0) {
+        throw new IOException("Expected " + length + " bytes; read " + position);
+      }
+      buffer.flip();
+      md.update(buffer);
+      position += bytesRead;
     }
-    return Index.loadFrom(path);
   }
 
   /**
-   * Given a Helm chart name and its version, returns the local {@link
-   * Path}, representing a local copy of the Helm chart as downloaded
-   * from the chart repository represented by this {@link
-   * ChartRepository}, downloading the archive if necessary.
+   * Deletes the supplied partial download file and the file holding
+   * the {@link HttpValidators} that describe it.
    *
-   * <p>This method may return {@code null}.</p>
+   * @param partialPath the {@link Path} of the partial download file;
+   * must not be {@code null}
    *
-   * @param chartName the name of the chart whose local {@link Path}
-   * should be returned; must not be {@code null}
+   * @param validatorsPath the {@link Path} of the file holding its
+   * {@link HttpValidators}; must not be {@code null}
    *
-   * @param chartVersion the version of the chart to select; may be
-   * {@code null} in which case "latest" semantics are implied
+   * @exception IOException if either file could not be deleted
+   */
+  private static final void discard(final Path partialPath, final Path validatorsPath) throws IOException {
+    Objects.requireNonNull(partialPath);
+    Objects.requireNonNull(validatorsPath);
+    Files.deleteIfExists(validatorsPath);
+    Files.deleteIfExists(partialPath);
+  }
+
+  /**
+   * Returns the offset of the first byte described by the supplied
+   * {@code Content-Range} response header value, or {@code -1L} if it
+   * cannot be parsed.
    *
-   * @return the {@link Path} to the chart archive, or {@code null}
+   * @param contentRange the value of a {@code Content-Range} header;
+   * may be {@code null}
    *
-   * @exception IOException if there was a problem downloading
+   * @return the offset of the first byte of the range, or {@code -1L}
+   */
+  private static final long getContentRangeStart(final String contentRange) {
+    long returnValue = -1L;
+    if (contentRange != null) {
+      final Matcher matcher = contentRangePattern.matcher(contentRange);
+      if (matcher.matches()) {
+        try {
+          returnValue = Long.parseLong(matcher.group(1));
+        } catch (final NumberFormatException ignore) {
+          returnValue = -1L;
+        }
+      }
+    }
+    return returnValue;
+  }
+
+  /**
+   * Atomically replaces whatever is at the supplied {@code linkPath}
+   * with a relative symbolic link to the supplied {@code target}, or,
+   * if symbolic links are not supported, with a hard link to it, or,
+   * failing that, with a copy of it.
    *
-   * @exception URISyntaxException if this {@link ChartRepository}'s
-   * {@linkplain #getIndex() associated <code>Index</code>} could not
-   * be parsed
+   * @param linkPath the {@link Path} of the link; must not be {@code
+   * null}
    *
-   * @exception NullPointerException if {@code chartName} is {@code
+   * @param target the {@link Path} to link to; must not be {@code
    * null}
+   *
+   * @exception IOException if neither a link nor a copy could be
+   * created
    */
-  public final Path getCachedChartPath(final String chartName, String chartVersion) throws IOException, URISyntaxException {
-    Objects.requireNonNull(chartName);
-    Path returnValue = null;
-    if (chartVersion == null) {
-      final Index index = this.getIndex(false);
-      assert index != null;
-      final Index.Entry entry = index.getEntry(chartName, null /* latest */);
-      if (entry != null) {
-        chartVersion = entry.getVersion();
+  private static final void link(final Path linkPath, final Path target) throws IOException {
+    Objects.requireNonNull(linkPath);
+    Objects.requireNonNull(target);
+    final Path absoluteLinkPath = linkPath.toAbsolutePath();
+    // The temporary name is unique so that concurrent linkers of the
+    // same archive, which are not otherwise serialized, do not trip
+    // over one another.
+    final Path temporaryPath = absoluteLinkPath.resolveSibling(new StringBuilder(absoluteLinkPath.getFileName().toString()).append('.').append(Long.toHexString(ThreadLocalRandom.current().nextLong())).append(".link").toString());
+    try {
+      try {
+        Files.createSymbolicLink(temporaryPath, absoluteLinkPath.getParent().relativize(target.toAbsolutePath()));
+      } catch (final IOException | UnsupportedOperationException symbolicLinkException) {
+        try {
+          Files.createLink(temporaryPath, target);
+        } catch (final IOException | UnsupportedOperationException hardLinkException) {
+          Files.copy(target, temporaryPath, StandardCopyOption.REPLACE_EXISTING);
+        }
+      }
+      Files.move(temporaryPath, linkPath, StandardCopyOption.ATOMIC_MOVE);
+    } catch (final IOException throwMe) {
+      try {
+        Files.deleteIfExists(temporaryPath);
+      } catch (final IOException suppressMe) {
+        throwMe.addSuppressed(suppressMe);
       }
+      throw throwMe;
     }
-    if (chartVersion != null) {
-      assert this.archiveCacheDirectory != null;
-      final StringBuilder chartKey = new StringBuilder(chartName).append("-").append(chartVersion);
-      final String chartFilename = new StringBuilder(chartKey).append(".tgz").toString();
-      final Path cachedChartPath = this.archiveCacheDirectory.resolve(chartFilename);
-      assert cachedChartPath != null;
-      if (!Files.isRegularFile(cachedChartPath)) {
-        final Index index = this.getIndex(true);
-        assert index != null;
-        final Index.Entry entry = index.getEntry(chartName, chartVersion);
-        if (entry != null) {
-          final URI chartUri = entry.getFirstUri();
-          if (chartUri != null) {
-            final URL chartUrl = chartUri.toURL();
-            assert chartUrl != null;
-            final Path temporaryPath = Files.createTempFile(chartKey.append("-").toString(), ".tgz");
-            assert temporaryPath != null;
-            try (final InputStream stream = new BufferedInputStream(chartUrl.openStream())) {
-              Files.copy(stream, temporaryPath, StandardCopyOption.REPLACE_EXISTING);
-            } catch (final IOException throwMe) {
-              try {
-                Files.deleteIfExists(temporaryPath);
-              } catch (final IOException suppressMe) {
-                throwMe.addSuppressed(suppressMe);
-              }
-              throw throwMe;
-            }
-            Files.move(temporaryPath, cachedChartPath, StandardCopyOption.ATOMIC_MOVE);
-          }
-        }
+  }
+
+  /**
+   * Returns {@code true} if the files at the supplied {@link Path}s
+   * have the same contents.
+   *
+   * @param a the first {@link Path}; must not be {@code null}
+   *
+   * @param b the second {@link Path}; must not be {@code null}
+   *
+   * @return {@code true} if the files have the same contents
+   *
+   * @exception IOException if either file could not be read
+   */
+  private static final boolean contentEquals(final Path a, final Path b) throws IOException {
+    Objects.requireNonNull(a);
+    Objects.requireNonNull(b);
+    boolean returnValue = Files.size(a) == Files.size(b);
+    if (returnValue) {
+      try (final InputStream aStream = new BufferedInputStream(Files.newInputStream(a));
+           final InputStream bStream = new BufferedInputStream(Files.newInputStream(b))) {
+        int aByte;
+        do {
+          aByte = aStream.read();
+          returnValue = aByte == bStream.read();
+        } while (returnValue && aByte >= 0);
       }
-      returnValue = cachedChartPath;
     }
     return returnValue;
   }
 
   /**
-   * {@inheritDoc}
+   * Waits for the supplied {@link Future} representing a chart
+   * archive download to complete, rethrowing whatever it threw.
    *
-   * <p>This implementation calls the {@link
-   * #getCachedChartPath(String, String)} method with the supplied
-   * arguments and uses a {@link TapeArchiveChartLoader} to load the
-   * resulting archive into a {@link Chart.Builder} object.</p>
+   * @param download the {@link Future} to wait for; must not be
+   * {@code null}
+   *
+   * @exception IOException if the download failed
+   *
+   * @exception InterruptedIOException if the calling thread was
+   * interrupted while waiting
+   *
+   * @exception URISyntaxException if a URI encountered during the
+   * download was invalid
+   *
+   * @exception NullPointerException if {@code download} is {@code
+   * null}
+   *
+   * @see #getCachedChartPath(String, String)
    */
-  @Override
-  public Chart.Builder resolve(final String chartName, String chartVersion) throws ChartResolverException {
-    Objects.requireNonNull(chartName);
-    Chart.Builder returnValue = null;
-    Path cachedChartPath = null;
+  private static final void awaitDownload(final Future<?> download) throws IOException, URISyntaxException {
+    Objects.requireNonNull(download);
     try {
-      cachedChartPath = this.getCachedChartPath(chartName, chartVersion);
-    } catch (final IOException | URISyntaxException exception) {
-      throw new ChartResolverException(exception.getMessage(), exception);
-    }
-    if (cachedChartPath != null && Files.isRegularFile(cachedChartPath)) {
-      try (final TapeArchiveChartLoader loader = new TapeArchiveChartLoader()) {
-        returnValue = loader.load(new TarInputStream(new GZIPInputStream(new BufferedInputStream(Files.newInputStream(cachedChartPath)))));
-      } catch (final IOException exception) {
-        throw new ChartResolverException(exception.getMessage(), exception);
+      download.get();
+    } catch (final ExecutionException executionException) {
+      final Throwable cause = executionException.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException)cause;
+      } else if (cause instanceof URISyntaxException) {
+        throw (URISyntaxException)cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException)cause;
+      } else if (cause instanceof Error) {
+        throw (Error)cause;
+      } else {
+        throw new IOException(cause);
       }
+    } catch (final InterruptedException interruptedException) {
+      Thread.currentThread().interrupt();
+      final InterruptedIOException throwMe = new InterruptedIOException();
+      throwMe.initCause(interruptedException);
+      throw throwMe;
     }
-    return returnValue;
   }
 
   /**
-   * Returns a {@link Path} representing "Helm home": the root
-   * directory for various Helm-related metadata as specified by
-   * either the {@code helm.home} system property or the {@code
-   * HELM_HOME} environment variable.
+   * Returns the key under which the chart with the supplied name and
+   * version is recorded as missing.
    *
    * <p>This method never returns {@code null}.</p>
    *
-   * <p>No guarantee is made by this method regarding whether the
-   * returned {@link Path} actually denotes a directory.</p>
+   * @param chartName the name of the chart; must not be {@code null}
    *
-   * @return a {@link Path} representing "Helm home"; never {@code
+   * @param chartVersion the version of the chart; must not be {@code
    * null}
    *
-   * @exception SecurityException if there are not sufficient
-   * permissions to read system properties or environment variables
+   * @return a non-{@code null} key
    */
-  static final Path getHelmHome() {
-    String helmHome = System.getProperty("helm.home", System.getenv("HELM_HOME"));
-    if (helmHome == null) {
-      helmHome = Paths.get(System.getProperty("user.home")).resolve(".helm").toString();
-      assert helmHome != null;
+  private static final String getMissingChartKey(final String chartName, final String chartVersion) {
+    // Chart names may not contain a solidus.
+    return new StringBuilder(chartName).append('/').append(chartVersion).toString();
+  }
+
+  /**
+   * Returns the {@linkplain Files#size(Path) size} of the file
+   * represented by the supplied {@link Path}, or {@code 0L} if it
+   * cannot be determined.
+   *
+   * @param path the {@link Path} whose size should be returned; must
+   * not be {@code null}
+   *
+   * @return the size of the file, or {@code 0L}
+   */
+  private static final long size(final Path path) {
+    Objects.requireNonNull(path);
+    long returnValue = 0L;
+    try {
+      returnValue = Files.size(path);
+    } catch (final IOException ignore) {
+
     }
-    return Paths.get(helmHome);
+    return returnValue;
+  }
+
+  /**
+   * Returns the total number of {@link Index.Entry} instances in the
+   * supplied {@link Index}.
+   *
+   * @param index the {@link Index} to count; must not be {@code null}
+   *
+   * @return the number of entries in the supplied {@link Index}
+   */
+  private static final int getEntryCount(final Index index) {
+    Objects.requireNonNull(index);
+    int returnValue = 0;
+    for (final SortedSet<Index.Entry> entries : index.getEntries().values()) {
+      if (entries != null) {
+        returnValue += entries.size();
+      }
+    }
+    return returnValue;
+  }
+
+  /**
+   * Returns an opaque {@link Object} identifying the current state of
+   * the file at the supplied {@link Path}—its size, last modified
+   * time and, where supported, its {@linkplain
+   * BasicFileAttributes#fileKey() file key}—or {@code null} if there
+   * is no such file.
+   *
+   * <p>Two such {@link Object}s are {@linkplain Object#equals(Object)
+   * equal} if the file has not been replaced or modified in between
+   * their creation.</p>
+   *
+   * <p>This method may return {@code null}.</p>
+   *
+   * @param path the {@link Path} to inspect; must not be {@code null}
+   *
+   * @return an opaque {@link Object}, or {@code null}
+   *
+   * @exception NullPointerException if {@code path} is {@code null}
+   */
+  private static final Object getFileKey(final Path path) {
+    Objects.requireNonNull(path);
+    Object returnValue = null;
+    try {
+      final BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+      assert attributes != null;
+      if (attributes.isRegularFile()) {
+        returnValue = Arrays.asList(attributes.size(), attributes.lastModifiedTime(), attributes.fileKey());
+      }
+    } catch (final IOException ignore) {
+      returnValue = null;
+    }
+    return returnValue;
   }
 
 
@@ -787,14 +2680,45 @@ public class ChartRepository extends AbstractChartResolver {
 
     /**
      * An {@linkplain Collections#unmodifiableSortedMap(SortedMap)
-     * immutable} {@link SortedMap} of {@link SortedSet}s of {@link
-     * Entry} objects whose values represent enough information to
-     * derive a URI to a Helm chart.
+     * immutable} {@link SortedMap} of {@linkplain
+     * Collections#unmodifiableSortedSet(SortedSet) immutable} {@link
+     * SortedSet}s of {@link Entry} objects whose values represent
+     * enough information to derive a URI to a Helm chart.
+     *
+     * <p>Because neither the map nor its values can change, values
+     * are freely shared between {@link Index} instances {@linkplain
+     * #mergeAll(Collection) merged} from one another.</p>
      *
      * <p>This field is never {@code null}.</p>
      */
     private final SortedMap<String, SortedSet<Entry>> entries;
 
+    /**
+     * The {@link SearchIndex} over this {@link Index}'s {@linkplain
+     * #getEntries() entries}, built lazily.
+     *
+     * <p>This field may be {@code null}.</p>
+     *
+     * @see #getSearchIndex()
+     */
+    private volatile SearchIndex searchIndex;
+
+    /**
+     * A {@link ConcurrentMap} of {@link NavigableMap}s, indexed by
+     * chart name, each of which maps the {@linkplain
+     * Entry#getSemanticVersion() parsed versions} of a chart's {@link
+     * Entry} objects to those {@link Entry} objects, in ascending
+     * version order.
+     *
+     * <p>Version indices are built lazily, the first time a chart is
+     * {@linkplain #getEntry(String, String) looked up}.</p>
+     *
+     * <p>This field is never {@code null}.</p>
+     *
+     * @see #getVersionIndex(String)
+     */
+    private final ConcurrentMap<String, NavigableMap<Version, Entry>> versionIndices;
+
 
     /*
      * Constructors.
@@ -809,11 +2733,40 @@ public class ChartRepository extends AbstractChartResolver {
      * describe; may be {@code null}; copied by value
      */
     Index(final Map<? extends String, ? extends SortedSet<Entry>> entries) {
+      this(deepCopy(entries), null);
+    }
+
+    /**
+     * Creates a new {@link Index} that adopts, rather than copies, the
+     * supplied {@link SortedMap}, along with any already-built
+     * {@linkplain #getVersionIndex(String) version indices} that
+     * apply to it.
+     *
+     * @param entries an {@linkplain
+     * Collections#unmodifiableSortedMap(SortedMap) immutable} {@link
+     * SortedMap} whose values are {@linkplain
+     * Collections#unmodifiableSortedSet(SortedSet) immutable} {@link
+     * SortedSet}s of {@link Entry} objects; may be {@code null}; not
+     * copied
+     *
+     * @param versionIndices a {@link Map} of version indices, indexed
+     * by chart name, each of which was built from the very {@link
+     * SortedSet} that {@code entries} holds for that name; may be
+     * {@code null}
+     *
+     * @see #mergeAll(Collection)
+     */
+    private Index(final SortedMap<String, SortedSet<Entry>> entries, final Map<? extends String, ? extends NavigableMap<Version, Entry>> versionIndices) {
       super();
       if (entries == null || entries.isEmpty()) {
         this.entries = Collections.emptySortedMap();
       } else {
-        this.entries = Collections.unmodifiableSortedMap(deepCopy(entries));
+        this.entries = entries;
+      }
+      if (versionIndices == null || versionIndices.isEmpty()) {
+        this.versionIndices = new ConcurrentHashMap<>();
+      } else {
+        this.versionIndices = new ConcurrentHashMap<>(versionIndices);
       }
     }
 
@@ -832,78 +2785,73 @@ public class ChartRepository extends AbstractChartResolver {
      * @param other the {@link Index} to merge in; may be {@code null}
      *
      * @return a new {@link Index} reflecting the merge operation
+     *
+     * @see #mergeAll(Collection)
      */
     @Experimental
     public final Index merge(final Index other) {
-      final Index returnValue;
-      final Map<String, SortedSet<Entry>> myEntries = this.getEntries();
-      final Map<String, SortedSet<Entry>> otherEntries;
-      if (other == null) {
-        otherEntries = null;
-      } else {
-        otherEntries = other.getEntries();
-      }
-      if (otherEntries == null || otherEntries.isEmpty()) {
-        if (myEntries == null || myEntries.isEmpty()) {
-          returnValue = new Index(null);
-        } else {
-          returnValue = new Index(myEntries);
-        }
-      } else if (myEntries == null || myEntries.isEmpty()) {
-        returnValue = new Index(otherEntries);
-      } else {
-        final Map<String, SortedSet<Entry>> mergedEntries = deepCopy(myEntries);
-        final Set<Map.Entry<String, SortedSet<Entry>>> otherEntrySet = otherEntries.entrySet();
-        if (otherEntrySet != null && !otherEntrySet.isEmpty()) {
-          for (final Map.Entry<? extends String, ? extends SortedSet<Entry>> otherEntrySetElement : otherEntrySet) {
-            if (otherEntrySetElement != null) {
-              final SortedSet<Entry> otherValues = otherEntrySetElement.getValue();
-              if (otherValues != null && !otherValues.isEmpty()) {
-                for (final Entry otherEntry : otherValues) {
-                  if (otherEntry != null) {
-                    final String otherEntryName = otherEntry.getName();
-                    final Entry myCorrespondingEntry = this.getEntry(otherEntryName, otherEntry.getVersion());
-                    if (myCorrespondingEntry == null) {
-                      SortedSet<Entry> myRelatedEntries = mergedEntries.get(otherEntryName);
-                      if (myRelatedEntries == null) {
-                        myRelatedEntries = new TreeSet<>(Collections.reverseOrder());
-                        mergedEntries.put(otherEntryName, myRelatedEntries);
-                      }
-                      assert !myRelatedEntries.contains(otherEntry);
-                      myRelatedEntries.add(otherEntry);
-                    }
-                  }
-                }
-              }
-            }
-          }
-        }
-        returnValue = new Index(mergedEntries);
-      }
-      return returnValue;
+      return mergeAll(Arrays.asList(this, other));
     }
 
     /**
      * Returns a non-{@code null}, {@linkplain
      * Collections#unmodifiableMap(Map) immutable} {@link Map} of
-     * {@link SortedSet}s of {@link Entry} objects, indexed by the
-     * name of the Helm chart they describe.
+     * {@linkplain Collections#unmodifiableSortedSet(SortedSet)
+     * immutable} {@link SortedSet}s of {@link Entry} objects, indexed
+     * by the name of the Helm chart they describe.
      *
      * @return a non-{@code null}, {@linkplain
      * Collections#unmodifiableMap(Map) immutable} {@link Map} of
-     * {@link SortedSet}s of {@link Entry} objects, indexed by the
-     * name of the Helm chart they describe
+     * {@linkplain Collections#unmodifiableSortedSet(SortedSet)
+     * immutable} {@link SortedSet}s of {@link Entry} objects, indexed
+     * by the name of the Helm chart they describe
      */
     public final Map<String, SortedSet<Entry>> getEntries() {
       return this.entries;
     }
 
+    /**
+     * Returns the {@link SearchIndex} over this {@link Index}'s
+     * {@linkplain #getEntries() entries}, building it first if
+     * necessary.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * <p>The {@link SearchIndex} is built at most once per {@link
+     * Index} under normal circumstances; concurrent first calls may
+     * each build one, in which case all but one are discarded.</p>
+     *
+     * @return a {@link SearchIndex}; never {@code null}
+     *
+     * @see SearchIndex#search(String, boolean)
+     */
+    @Experimental
+    public final SearchIndex getSearchIndex() {
+      SearchIndex returnValue = this.searchIndex;
+      if (returnValue == null) {
+        returnValue = new SearchIndex(this);
+        this.searchIndex = returnValue;
+      }
+      return returnValue;
+    }
+
     /**
      * Returns an {@link Entry} identified by the supplied {@code
      * name} and {@code version}, if there is one.
      *
      * <p>This method may return {@code null}.</p>
      *
+     * <p>If {@code versionString} is {@code null}, the {@link Entry}
+     * with the highest version is returned.  Otherwise the {@link
+     * Entry} whose {@linkplain Entry#getVersion() version} is exactly
+     * equal to {@code versionString} is returned, if there is one.
+     * Version constraints are not interpreted by this method; use
+     * {@link #getEntryMatching(String, String)} for that.</p>
+     *
+     * <p>Exact lookups of valid semantic versions take time
+     * proportional to the logarithm of the number of versions of the
+     * named chart.</p>
+     *
      * @param name the name of the Helm chart whose related {@link
      * Entry} is desired; must not be {@code null}
      *
@@ -914,6 +2862,8 @@ public class ChartRepository extends AbstractChartResolver {
      * @return an {@link Entry}, or {@code null}
      *
      * @exception NullPointerException if {@code name} is {@code null}
+     *
+     * @see #getEntryMatching(String, String)
      */
     public final Entry getEntry(final String name, final String versionString) {
       Objects.requireNonNull(name);
@@ -925,32 +2875,229 @@ public class ChartRepository extends AbstractChartResolver {
           if (versionString == null) {
             returnValue = entrySet.first();
           } else {
+            final Version version = Entry.parseVersion(versionString);
+            if (version != null) {
+              returnValue = this.getVersionIndex(name).get(version);
+            }
+            if (returnValue == null || !versionString.equals(returnValue.getVersion())) {
+              // Either the version is not a valid semantic version,
+              // or it differs from the one we found only in build
+              // metadata, or there is no such version at all.  The
+              // first two cases are rare, so fall back on an
+              // equality scan.
+              returnValue = null;
+              for (final Entry entry : entrySet) {
+                if (entry != null && versionString.equals(entry.getVersion())) {
+                  returnValue = entry;
+                  break;
+                }
+              }
+            }
+          }
+        }
+      }
+      return returnValue;
+    }
+
+    /**
+     * Returns the {@link Entry} with the highest version that is
+     * identified by the supplied {@code name} and that satisfies the
+     * supplied version constraint, if there is one.
+     *
+     * <p>This method may return {@code null}.</p>
+     *
+     * <p>Constraints may be expressed in the syntax understood by
+     * the <a href="https://github.com/zafarkhaja/jsemver">Java
+     * SemVer</a> library (for example, {@code >=2.0.0&<3.0.0}) or in
+     * the space-separated syntax used by Helm requirements files
+     * (for example, {@code ^1.2}, {@code ~3.4}, {@code >=2 <3} or
+     * {@code >=1.0.0, <2.0.0 || >=3.0.0}).</p>
+     *
+     * <p>Versions are never parsed by this method; candidates are
+     * visited from highest to lowest version, so constraints that
+     * admit recent versions are satisfied quickly.  {@link Entry}
+     * objects whose versions are not valid semantic versions never
+     * match.</p>
+     *
+     * @param name the name of the Helm chart whose related {@link
+     * Entry} is desired; must not be {@code null}
+     *
+     * @param constraint the version constraint; must not be {@code
+     * null}
+     *
+     * @return an {@link Entry}, or {@code null}
+     *
+     * @exception NullPointerException if either parameter is {@code
+     * null}
+     *
+     * @exception IllegalArgumentException if {@code constraint} is
+     * not a valid version constraint
+     */
+    @Experimental
+    public final Entry getEntryMatching(final String name, final String constraint) {
+      Objects.requireNonNull(name);
+      Objects.requireNonNull(constraint);
+      final Expression expression;
+      try {
+        expression = ExpressionParser.newInstance().parse(normalizeConstraint(constraint));
+      } catch (final ParseException | UnexpectedElementException badConstraint) {
+        throw new IllegalArgumentException("Invalid version constraint: " + constraint, badConstraint);
+      }
+      assert expression != null;
+      Entry returnValue = null;
+      final NavigableMap<Version, Entry> versionIndex = this.getVersionIndex(name);
+      assert versionIndex != null;
+      for (final Map.Entry<Version, Entry> entry : versionIndex.descendingMap().entrySet()) {
+        if (expression.interpret(entry.getKey())) {
+          returnValue = entry.getValue();
+          break;
+        }
+      }
+      return returnValue;
+    }
+
+    /**
+     * Returns a {@link NavigableMap} of the {@link Entry} objects
+     * describing the Helm chart with the supplied name, indexed by
+     * their {@linkplain Entry#getSemanticVersion() parsed versions}
+     * in ascending order, building it first if necessary.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * <p>{@link Entry} objects whose versions are not valid semantic
+     * versions are not included.  Where two versions differ only in
+     * build metadata, only the {@link Entry} that sorts first in
+     * this {@link Index} is included.</p>
+     *
+     * @param name the name of the Helm chart; must not be {@code
+     * null}
+     *
+     * @return an {@linkplain
+     * Collections#unmodifiableNavigableMap(NavigableMap) immutable}
+     * {@link NavigableMap}; never {@code null}
+     *
+     * @exception NullPointerException if {@code name} is {@code null}
+     */
+    private final NavigableMap<Version, Entry> getVersionIndex(final String name) {
+      Objects.requireNonNull(name);
+      return this.versionIndices.computeIfAbsent(name, n -> {
+          final NavigableMap<Version, Entry> versionIndex = new TreeMap<>();
+          final SortedSet<Entry> entrySet = this.getEntries().get(n);
+          if (entrySet != null) {
             for (final Entry entry : entrySet) {
-              // XXX TODO FIXME: probably want to make this a
-              // constraint match, not just an equality comparison
-              if (entry != null && versionString.equals(entry.getVersion())) {
-                returnValue = entry;
-                break;
+              if (entry != null) {
+                final Version version = entry.getSemanticVersion();
+                if (version != null) {
+                  versionIndex.putIfAbsent(version, entry);
+                }
+              }
+            }
+          }
+          return Collections.unmodifiableNavigableMap(versionIndex);
+        });
+    }
+
+
+    /*
+     * Static methods.
+     */
+
+
+    /**
+     * Creates and returns a new {@link Index} consisting of all the
+     * {@linkplain #getEntries() entries} of the supplied {@link
+     * Index} instances, where an entry from an earlier {@link Index}
+     * takes precedence over an entry with the same chart name and
+     * version from a later one.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * <p>Because the {@link SortedSet}s of entries held by an {@link
+     * Index} are immutable, a chart described by only one of the
+     * supplied {@link Index} instances, or described identically by
+     * several, has its {@link SortedSet} shared, not copied, by the
+     * new {@link Index}, along with any {@linkplain
+     * #getEntry(String, String) version index} already built for it.
+     * A chart whose versions differ between {@link Index} instances
+     * is copied once, when the first difference is found, and each
+     * subsequent entry is added to the copy by a keyed lookup.  The
+     * cost of a merge is therefore proportional to the number of
+     * charts, plus the number of versions of those charts that
+     * actually differ.</p>
+     *
+     * @param indices the {@link Index} instances to merge, in order
+     * of precedence; may be {@code null}; {@code null} elements are
+     * ignored
+     *
+     * @return a new {@link Index} reflecting the merge operation;
+     * never {@code null}
+     *
+     * @see #merge(ChartRepository.Index)
+     */
+    @Experimental
+    public static final Index mergeAll(final Collection<? extends Index> indices) {
+      final SortedMap<String, SortedSet<Entry>> mergedEntries = new TreeMap<>();
+      final Map<String, Index> sources = new HashMap<>();
+      final Map<String, SortedSet<Entry>> copies = new HashMap<>();
+      if (indices != null && !indices.isEmpty()) {
+        for (final Index index : indices) {
+          if (index != null) {
+            for (final Map.Entry<String, SortedSet<Entry>> entry : index.getEntries().entrySet()) {
+              final String name = entry.getKey();
+              final SortedSet<Entry> entrySet = entry.getValue();
+              if (entrySet != null && !entrySet.isEmpty()) {
+                final SortedSet<Entry> mergedEntrySet = mergedEntries.get(name);
+                if (mergedEntrySet == null) {
+                  // Share.
+                  mergedEntries.put(name, entrySet);
+                  sources.put(name, index);
+                } else if (mergedEntrySet != entrySet) {
+                  SortedSet<Entry> copy = copies.get(name);
+                  for (final Entry e : entrySet) {
+                    if (e != null && !mergedEntrySet.contains(e)) {
+                      if (copy == null) {
+                        // Copy on first write.
+                        copy = new TreeSet<>(mergedEntrySet);
+                        copies.put(name, copy);
+                        mergedEntries.put(name, copy);
+                        sources.remove(name);
+                      }
+                      copy.add(e);
+                    }
+                  }
+                }
               }
             }
           }
         }
       }
-      return returnValue;
+      for (final Map.Entry<String, SortedSet<Entry>> copy : copies.entrySet()) {
+        mergedEntries.put(copy.getKey(), Collections.unmodifiableSortedSet(copy.getValue()));
+      }
+      final Map<String, NavigableMap<Version, Entry>> versionIndices = new HashMap<>();
+      for (final Map.Entry<String, Index> source : sources.entrySet()) {
+        final NavigableMap<Version, Entry> versionIndex = source.getValue().versionIndices.get(source.getKey());
+        if (versionIndex != null) {
+          versionIndices.put(source.getKey(), versionIndex);
+        }
+      }
+      return new Index(Collections.unmodifiableSortedMap(mergedEntries), versionIndices);
     }
 
-
-    /*
-     * Static methods.
-     */
-
-
     /**
      * Creates a new {@link Index} whose contents are sourced from the
      * YAML file located at the supplied {@link Path}.
      *
      * <p>This method never returns {@code null}.</p>
      *
+     * <p>Where the file system permits a mapped file to be replaced,
+     * the file is {@linkplain FileChannel#map(FileChannel.MapMode,
+     * long, long) memory-mapped} and parsed directly from the mapped
+     * pages, so it must not be truncated while this method is
+     * running.  Elsewhere, notably on Windows, it is read onto the
+     * Java heap instead, so that no lingering mapping prevents the
+     * file from later being replaced.</p>
+     *
      * @param path the {@link Path} to a YAML file whose contents are
      * those of a <a
      * href="https://docs.helm.sh/developing_charts/#the-index-file">Helm
@@ -969,11 +3116,7 @@ public class ChartRepository extends AbstractChartResolver {
      */
     public static final Index loadFrom(final Path path) throws IOException, URISyntaxException {
       Objects.requireNonNull(path);
-      final Index returnValue;
-      try (final BufferedInputStream stream = new BufferedInputStream(Files.newInputStream(path))) {
-        returnValue = loadFrom(stream);
-      }
-      return returnValue;
+      return loadFrom(new ByteBufferInputStream(IndexSnapshot.map(path)));
     }
 
     /**
@@ -985,6 +3128,10 @@ public class ChartRepository extends AbstractChartResolver {
      *
      * <p>This method never returns {@code null}.</p>
      *
+     * <p>The YAML contents are parsed in a streaming fashion: only
+     * the raw representation of a single chart version is held in
+     * memory at any one time, rather than the whole document.</p>
+     *
      * @param stream the {@link InputStream} to a YAML file whose contents are
      * those of a <a
      * href="https://docs.helm.sh/developing_charts/#the-index-file">Helm
@@ -1000,74 +3147,127 @@ public class ChartRepository extends AbstractChartResolver {
      * @exception NullPointerException if {@code path} is {@code null}
      */
     public static final Index loadFrom(final InputStream stream) throws IOException, URISyntaxException {
+      return loadFrom(stream, null);
+    }
+
+    /**
+     * Creates a new {@link Index} whose contents are sourced from the
+     * <a
+     * href="https://docs.helm.sh/developing_charts/#the-index-file">Helm
+     * chart repository index</a> YAML contents represented by the
+     * supplied {@link InputStream}, canonicalizing repeated values
+     * with the supplied {@link Interner}.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @param stream the {@link InputStream} to a YAML file whose
+     * contents are those of a <a
+     * href="https://docs.helm.sh/developing_charts/#the-index-file">Helm
+     * chart repository index</a>; must not be {@code null}
+     *
+     * @param interner the {@link Interner} to use; may be {@code
+     * null} in which case a new {@link Interner} will be used
+     *
+     * @return a new {@link Index}; never {@code null}
+     *
+     * @exception IOException if there was a problem reading the file
+     *
+     * @exception URISyntaxException if one of the URIs in the file
+     * was invalid
+     *
+     * @exception NullPointerException if {@code stream} is {@code
+     * null}
+     *
+     * @see #loadFrom(InputStream)
+     */
+    static final Index loadFrom(final InputStream stream, final Interner interner) throws IOException, URISyntaxException {
       Objects.requireNonNull(stream);
       final Index returnValue;
-      final Map<?, ?> yamlMap = new Yaml().loadAs(stream, Map.class);
-      if (yamlMap == null || yamlMap.isEmpty()) {
-        returnValue = new Index(null);
-      } else {
-        final SortedMap<String, SortedSet<Index.Entry>> sortedEntryMap = new TreeMap<>();
-        @SuppressWarnings("unchecked")
-        final Map<? extends String, ? extends Collection<? extends Map<?, ?>>> entriesMap = (Map<? extends String, ? extends Collection<? extends Map<?, ?>>>)yamlMap.get("entries");
-        if (entriesMap != null && !entriesMap.isEmpty()) {
-          final Collection<? extends Map.Entry<? extends String, ? extends Collection<? extends Map<?, ?>>>> entries = entriesMap.entrySet();
-          if (entries != null && !entries.isEmpty()) {
-            for (final Map.Entry<? extends String, ? extends Collection<? extends Map<?, ?>>> mapEntry : entries) {
-              if (mapEntry != null) {
-                final String entryName = mapEntry.getKey();
-                if (entryName != null) {
-                  final Collection<? extends Map<?, ?>> entryContents = mapEntry.getValue();
-                  if (entryContents != null && !entryContents.isEmpty()) {
-                    for (final Map<?, ?> entryMap : entryContents) {
-                      if (entryMap != null && !entryMap.isEmpty()) {
-                        final Metadata.Builder metadataBuilder = Metadata.newBuilder();
-                        assert metadataBuilder != null;
-                        Metadatas.populateMetadataBuilder(metadataBuilder, entryMap);
-                        @SuppressWarnings("unchecked")
-                        final Collection<? extends String> uriStrings = (Collection<? extends String>)entryMap.get("urls");
-                        Set<URI> uris = new LinkedHashSet<>();
-                        if (uriStrings != null && !uriStrings.isEmpty()) {
-                          for (final String uriString : uriStrings) {
-                            if (uriString != null && !uriString.isEmpty()) {
-                              uris.add(new URI(uriString));
-                            }
-                          }
-                        }
-                        final String digest = (String)entryMap.get("digest");
-                        SortedSet<Index.Entry> entryObjects = sortedEntryMap.get(entryName);
-                        if (entryObjects == null) {
-                          entryObjects = new TreeSet<>(Collections.reverseOrder());
-                          sortedEntryMap.put(entryName, entryObjects);
-                        }
-                        entryObjects.add(new Index.Entry(metadataBuilder, uris, digest));
-                      }
-                    }
-                  }
-                }
-              }
-            }
-          }      
+      try {
+        returnValue = new IndexParser(new UnicodeReader(stream), interner).parse();
+      } catch (final YAMLException yamlException) {
+        final Throwable cause = yamlException.getCause();
+        if (cause instanceof IOException) {
+          throw (IOException)cause;
         }
-        returnValue = new Index(sortedEntryMap);
+        throw yamlException;
       }
       return returnValue;
     }
 
+    /**
+     * Converts a version constraint expressed in the space-separated
+     * syntax used by Helm requirements files into the syntax
+     * understood by the {@link ExpressionParser} class, and returns
+     * the result.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * <p>Comparators separated by whitespace or commas are joined
+     * with {@code &}, {@code ||} becomes {@code |}, whitespace
+     * following an operator is removed and hyphen ranges such as
+     * {@code 1.0.0 - 2.0.0} are preserved.  Constraints already in
+     * {@link ExpressionParser} syntax are returned unchanged.</p>
+     *
+     * @param constraint the constraint to normalize; must not be
+     * {@code null}
+     *
+     * @return the normalized constraint; never {@code null}
+     *
+     * @exception NullPointerException if {@code constraint} is {@code
+     * null}
+     */
+    static final String normalizeConstraint(final String constraint) {
+      Objects.requireNonNull(constraint);
+      final String[] tokens = constraint.replace("||", " | ").replace(',', ' ').replaceAll("([<>=!~^]+)\\s+", "$1").trim().split("\\s+");
+      final StringBuilder sb = new StringBuilder();
+      String previousToken = null;
+      for (final String token : tokens) {
+        if (previousToken != null) {
+          if (token.equals("-") || previousToken.equals("-")) {
+            sb.append(' ');
+          } else if (!isOperator(token) && !isOperator(previousToken)) {
+            sb.append('&');
+          }
+        }
+        sb.append(token);
+        previousToken = token;
+      }
+      return sb.toString();
+    }
+
+    /**
+     * Returns {@code true} if the supplied token, produced during
+     * {@linkplain #normalizeConstraint(String) constraint
+     * normalization}, is a logical operator or consists entirely of
+     * one.
+     *
+     * @param token the token to test; must not be {@code null}
+     *
+     * @return {@code true} if {@code token} is {@code |} or {@code
+     * &}, or begins or ends with one
+     */
+    private static final boolean isOperator(final String token) {
+      return token.startsWith("|") || token.startsWith("&") || token.endsWith("|") || token.endsWith("&");
+    }
+
     /**
      * Performs a deep copy of the supplied {@link Map} such that the
-     * {@link SortedMap} returned has copies of the supplied {@link
-     * Map}'s {@linkplain Map#values() values}.
+     * {@link SortedMap} returned has {@linkplain
+     * Collections#unmodifiableSortedSet(SortedSet) immutable} copies
+     * of the supplied {@link Map}'s {@linkplain Map#values() values}.
      *
      * <p>This method may return {@code null} if {@code source} is
      * {@code null}.</p>
      *
      * <p>The {@link SortedMap} returned by this method is
-     * mutable.</p>
+     * {@linkplain Collections#unmodifiableSortedMap(SortedMap)
+     * immutable}.  {@code null} and empty values are omitted.</p>
      *
      * @param source the {@link Map} to copy; may be {@code null} in
      * which case {@code null} will be returned
      *
-     * @return a mutable {@link SortedMap}, or {@code null}
+     * @return an immutable {@link SortedMap}, or {@code null}
      */
     private static final SortedMap<String, SortedSet<Entry>> deepCopy(final Map<? extends String, ? extends SortedSet<Entry>> source) {
       final SortedMap<String, SortedSet<Entry>> returnValue;
@@ -1076,21 +3276,20 @@ public class ChartRepository extends AbstractChartResolver {
       } else if (source.isEmpty()) {
         returnValue = Collections.emptySortedMap();
       } else {
-        returnValue = new TreeMap<>();
+        final SortedMap<String, SortedSet<Entry>> copy = new TreeMap<>();
         final Collection<? extends Map.Entry<? extends String, ? extends SortedSet<Entry>>> entrySet = source.entrySet();
         if (entrySet != null && !entrySet.isEmpty()) {
           for (final Map.Entry<? extends String, ? extends SortedSet<Entry>> entry : entrySet) {
             final String key = entry.getKey();
             final SortedSet<Entry> value = entry.getValue();
-            if (value == null) {
-              returnValue.put(key, null);
-            } else {
+            if (value != null && !value.isEmpty()) {
               final SortedSet<Entry> newValue = new TreeSet<>(value.comparator());
               newValue.addAll(value);
-              returnValue.put(key, newValue);
+              copy.put(key, Collections.unmodifiableSortedSet(newValue));
             }
           }
         }
+        returnValue = Collections.unmodifiableSortedMap(copy);
       }
       return returnValue;
     }
@@ -1113,32 +3312,86 @@ public class ChartRepository extends AbstractChartResolver {
     public static final class Entry implements Comparable<Entry> {
 
 
+      /*
+       * Static fields.
+       */
+
+
+      /**
+       * A zero-length array of {@link String}s shared by all {@link
+       * Entry} instances that have no {@link URI}s.
+       *
+       * <p>This field is never {@code null}.</p>
+       */
+      static final String[] NO_URIS = new String[0];
+
+
       /*
        * Instance fields.
        */
 
 
       /**
-       * A {@link MetadataOrBuilder} representing most of the contents
-       * of the entry.
+       * The name of the Helm chart described by this {@link Entry}.
        *
        * <p>This field is never {@code null}.</p>
        */
-      private final MetadataOrBuilder metadata;
+      private final String name;
 
       /**
-       * An {@linkplain Collections#unmodifiableSet(Set) immutable}
-       * {@link Set} of {@link URI}s describing where the particular
-       * Helm chart described by this {@link Entry} may be downloaded
-       * from.
+       * The version of the Helm chart described by this {@link
+       * Entry}.
        *
        * <p>This field is never {@code null}.</p>
        */
-      private final Set<URI> uris;
+      private final String version;
 
-      
+      /**
+       * The protocol-buffers-serialized form of the {@link Metadata}
+       * representing most of the contents of the entry.
+       *
+       * <p>A serialized {@link Metadata} occupies a small fraction of
+       * the memory of a {@link Metadata} or {@link Metadata.Builder},
+       * and most uses of an {@link Entry} never need the full
+       * metadata, so it is only {@linkplain #getMetadataOrBuilder()
+       * deserialized on demand}.</p>
+       *
+       * <p>This field is never {@code null}.</p>
+       */
+      private final byte[] metadataBytes;
+
+      /**
+       * The {@link String} forms of the {@link URI}s describing where
+       * the particular Helm chart described by this {@link Entry} may
+       * be downloaded from, in order and without duplicates.
+       *
+       * <p>This field is never {@code null}.</p>
+       *
+       * @see #getUris()
+       */
+      private final String[] uris;
+
+      /**
+       * The SHA-256 message digest of the Helm chart archive
+       * described by this {@link Entry}, in hexadecimal form.
+       *
+       * <p>This field may be {@code null}.</p>
+       */
       private final String digest;
 
+      /**
+       * The {@linkplain #getVersion() version} of this {@link Entry}
+       * parsed as a {@link Version}, or {@code null} if it could not
+       * be parsed.
+       *
+       * <p>Versions are parsed exactly once, here, so that sorting and
+       * {@linkplain Index#getEntry(String, String) looking up}
+       * entries does not repeatedly incur the cost of parsing.</p>
+       *
+       * <p>This field may be {@code null}.</p>
+       */
+      private final Version semanticVersion;
+
       /*
        * Constructors.
        */
@@ -1182,14 +3435,68 @@ public class ChartRepository extends AbstractChartResolver {
        * null}
        */
       Entry(final MetadataOrBuilder metadata, final Collection<? extends URI> uris, final String digest) {
+        this(toMetadata(metadata), toStrings(uris), digest);
+      }
+
+      /**
+       * Creates a new {@link Entry}.
+       *
+       * @param metadata a {@link Metadata} representing most of the
+       * contents of the entry; must not be {@code null}
+       *
+       * @param uris the {@link String} forms of valid {@link URI}s,
+       * without duplicates, describing where the particular Helm chart
+       * described by this {@link Entry} may be downloaded from; must
+       * not be {@code null}; not copied
+       *
+       * @param digest a SHA-256 message digest to be associated with
+       * this {@link Entry}; may be {@code null}
+       *
+       * @exception NullPointerException if {@code metadata} or {@code
+       * uris} is {@code null}
+       */
+      private Entry(final Metadata metadata, final String[] uris, final String digest) {
+        this(metadata.getName(), metadata.getVersion(), metadata.toByteArray(), uris, digest);
+      }
+
+      /**
+       * Creates a new {@link Entry} from its constituent parts
+       * without interpreting them.
+       *
+       * @param name the name of the Helm chart described by this
+       * {@link Entry}; must not be {@code null}; must be equal to the
+       * name stored in {@code metadataBytes}
+       *
+       * @param version the version of the Helm chart described by this
+       * {@link Entry}; must not be {@code null}; must be equal to the
+       * version stored in {@code metadataBytes}
+       *
+       * @param metadataBytes the protocol-buffers-serialized form of a
+       * {@link Metadata} representing most of the contents of the
+       * entry; must not be {@code null}; not copied
+       *
+       * @param uris the {@link String} forms of valid {@link URI}s,
+       * without duplicates, describing where the particular Helm chart
+       * described by this {@link Entry} may be downloaded from; must
+       * not be {@code null}; not copied
+       *
+       * @param digest a SHA-256 message digest to be associated with
+       * this {@link Entry}; may be {@code null}
+       *
+       * @exception NullPointerException if {@code name}, {@code
+       * version}, {@code metadataBytes} or {@code uris} is {@code
+       * null}
+       *
+       * @see IndexSnapshot
+       */
+      Entry(final String name, final String version, final byte[] metadataBytes, final String[] uris, final String digest) {
         super();
-        this.metadata = Objects.requireNonNull(metadata);
-        if (uris == null || uris.isEmpty()) {
-          this.uris = Collections.emptySet();
-        } else {
-          this.uris = new LinkedHashSet<>(uris);
-        }
+        this.name = Objects.requireNonNull(name);
+        this.version = Objects.requireNonNull(version);
+        this.metadataBytes = Objects.requireNonNull(metadataBytes);
+        this.uris = Objects.requireNonNull(uris);
         this.digest = digest;
+        this.semanticVersion = parseVersion(version);
       }
 
 
@@ -1253,18 +3560,8 @@ public class ChartRepository extends AbstractChartResolver {
         } else if (herVersionString == null) {
           return 1;
         } else {
-          Version myVersion = null;
-          try {
-            myVersion = Version.valueOf(myVersionString);
-          } catch (final IllegalArgumentException | ParseException badVersion) {
-            myVersion = null;
-          }
-          Version herVersion = null;
-          try {
-            herVersion = Version.valueOf(herVersionString);
-          } catch (final IllegalArgumentException | ParseException badVersion) {
-            herVersion = null;
-          }
+          final Version myVersion = this.getSemanticVersion();
+          final Version herVersion = her.getSemanticVersion();
           if (myVersion == null) {
             if (herVersion != null) {
               return -1;
@@ -1366,47 +3663,88 @@ public class ChartRepository extends AbstractChartResolver {
        *
        * <p>This method never returns {@code null}.</p>
        *
+       * <p>The metadata is stored in serialized form, so each
+       * invocation of this method deserializes and returns a new,
+       * immutable {@link Metadata}.  Callers needing only the
+       * {@linkplain #getName() name}, {@linkplain #getVersion()
+       * version}, {@linkplain #getDigest() digest} or {@linkplain
+       * #getFirstUri() URI} of this {@link Entry} should use the
+       * corresponding methods instead, which do not.</p>
+       *
        * @return the {@link MetadataOrBuilder} that comprises most of
        * the contents of this {@link Entry}; never {@code null}
        */
       public final MetadataOrBuilder getMetadataOrBuilder() {
-        return this.metadata;
+        try {
+          return Metadata.parseFrom(this.metadataBytes);
+        } catch (final InvalidProtocolBufferException invalidProtocolBufferException) {
+          // The bytes were produced by Metadata#toByteArray().
+          throw new IllegalStateException(invalidProtocolBufferException);
+        }
+      }
+
+      /**
+       * Returns the protocol-buffers-serialized form of the {@link
+       * Metadata} that comprises most of the contents of this {@link
+       * Entry}.
+       *
+       * <p>This method never returns {@code null}.</p>
+       *
+       * <p>The returned array is not a copy and must not be
+       * modified.</p>
+       *
+       * @return the serialized metadata; never {@code null}
+       */
+      final byte[] getMetadataBytes() {
+        return this.metadataBytes;
       }
 
       /**
-       * Returns the return value of invoking the {@link
-       * MetadataOrBuilder#getName()} method on the {@link
+       * Returns the name of the Helm chart described by this {@link
+       * Entry}, which is the same as the return value of invoking the
+       * {@link MetadataOrBuilder#getName()} method on the {@link
        * MetadataOrBuilder} returned by this {@link Entry}'s {@link
        * #getMetadataOrBuilder()} method.
        *
-       * <p>This method may return {@code null}.</p>
+       * <p>This method never returns {@code null}.</p>
        *
-       * @return this {@link Entry}'s name, or {@code null}
+       * @return this {@link Entry}'s name; never {@code null}
        *
        * @see MetadataOrBuilder#getName()
        */
       public final String getName() {
-        final MetadataOrBuilder metadata = this.getMetadataOrBuilder();
-        assert metadata != null;
-        return metadata.getName();
+        return this.name;
       }
 
       /**
-       * Returns the return value of invoking the {@link
-       * MetadataOrBuilder#getVersion()} method on the {@link
+       * Returns the version of the Helm chart described by this {@link
+       * Entry}, which is the same as the return value of invoking the
+       * {@link MetadataOrBuilder#getVersion()} method on the {@link
        * MetadataOrBuilder} returned by this {@link Entry}'s {@link
        * #getMetadataOrBuilder()} method.
        *
-       * <p>This method may return {@code null}.</p>
+       * <p>This method never returns {@code null}.</p>
        *
-       * @return this {@link Entry}'s version, or {@code null}
+       * @return this {@link Entry}'s version; never {@code null}
        *
        * @see MetadataOrBuilder#getVersion()
        */
       public final String getVersion() {
-        final MetadataOrBuilder metadata = this.getMetadataOrBuilder();
-        assert metadata != null;
-        return metadata.getVersion();
+        return this.version;
+      }
+
+      /**
+       * Returns the {@linkplain #getVersion() version} of this {@link
+       * Entry} as a {@link Version}, or {@code null} if it is not a
+       * valid semantic version.
+       *
+       * <p>This method may return {@code null}.</p>
+       *
+       * @return the {@link Version} of this {@link Entry}, or {@code
+       * null}
+       */
+      final Version getSemanticVersion() {
+        return this.semanticVersion;
       }
 
       /**
@@ -1417,6 +3755,10 @@ public class ChartRepository extends AbstractChartResolver {
        *
        * <p>This method never returns {@code null}.</p>
        *
+       * <p>The {@link URI}s are stored in {@link String} form and
+       * each invocation of this method creates new {@link URI}
+       * objects.</p>
+       *
        * @return a non-{@code null}, {@linkplain
        * Collections#unmodifiableSet(Set) immutable} {@link Set} of
        * {@link URI}s representing the URIs from which the Helm chart
@@ -1425,6 +3767,34 @@ public class ChartRepository extends AbstractChartResolver {
        * @see #getFirstUri()
        */
       public final Set<URI> getUris() {
+        final Set<URI> returnValue;
+        if (this.uris.length == 0) {
+          returnValue = Collections.emptySet();
+        } else {
+          final Set<URI> uris = new LinkedHashSet<>();
+          for (final String uri : this.uris) {
+            uris.add(URI.create(uri));
+          }
+          returnValue = Collections.unmodifiableSet(uris);
+        }
+        return returnValue;
+      }
+
+      /**
+       * Returns the {@link String} forms of the {@link URI}s from
+       * which the Helm chart described by this {@link Entry} may be
+       * downloaded.
+       *
+       * <p>This method never returns {@code null}.</p>
+       *
+       * <p>The returned array is not a copy and must not be
+       * modified.</p>
+       *
+       * @return an array of {@link String}s; never {@code null}
+       *
+       * @see #getUris()
+       */
+      final String[] getUriStrings() {
         return this.uris;
       }
 
@@ -1435,26 +3805,16 @@ public class ChartRepository extends AbstractChartResolver {
        *
        * <p>This method may return {@code null}.</p>
        *
-       * @return the {@linkplain SortedSet#first() first} {@link URI}
-       * in the {@link Set} of {@link URI}s returned by the {@link
-       * #getUris()} method, or {@code null}
+       * <p>Only the first {@link URI} is created.</p>
+       *
+       * @return the first {@link URI} in the {@link Set} of {@link
+       * URI}s returned by the {@link #getUris()} method, or {@code
+       * null}
        *
        * @see #getUris()
        */
       public final URI getFirstUri() {
-        final Set<URI> uris = this.getUris();
-        final URI returnValue;
-        if (uris == null || uris.isEmpty()) {
-          returnValue = null;
-        } else {
-          final Iterator<URI> iterator = uris.iterator();
-          if (iterator == null || !iterator.hasNext()) {
-            returnValue = null;
-          } else {
-            returnValue = iterator.next();
-          }
-        }
-        return returnValue;
+        return this.uris.length == 0 ? null : URI.create(this.uris[0]);
       }
 
       /**
@@ -1495,6 +3855,11 @@ public class ChartRepository extends AbstractChartResolver {
        *
        * <p>This method never returns {@code null}.</p>
        *
+       * <p>The bytes are hashed as they are read, using a small,
+       * fixed-size buffer, so the memory used does not depend on the
+       * number of bytes readable from the supplied {@link
+       * InputStream}.</p>
+       *
        * @param inputStream the {@link InputStream} to read from; must
        * not be {@code null}
        *
@@ -1510,69 +3875,172 @@ public class ChartRepository extends AbstractChartResolver {
       @Experimental
       public static final String getDigest(final InputStream inputStream) throws IOException {
         Objects.requireNonNull(inputStream);
-        MessageDigest md = null;
-        try {
-          md = MessageDigest.getInstance("SHA-256");
-        } catch (final NoSuchAlgorithmException noSuchAlgorithmException) {
-          // SHA-256 is guaranteed to exist.
-          throw new InternalError(noSuchAlgorithmException);
-        }
+        final MessageDigest md = DigestVerifyingInputStream.newSha256MessageDigest();
         assert md != null;
-        final ByteBuffer buffer = toByteBuffer(inputStream);
-        assert buffer != null;
-        md.update(buffer);
+        final byte[] buffer = new byte[8192];
+        int bytesRead;
+        while ((bytesRead = inputStream.read(buffer, 0, buffer.length)) != -1) {
+          md.update(buffer, 0, bytesRead);
+        }
         return DatatypeConverter.printHexBinary(md.digest());
       }
 
       /**
-       * Returns a {@link ByteBuffer} representing the supplied {@link
-       * InputStream}.
+       * Computes a SHA-256 message digest of the contents of the file
+       * at the supplied {@link Path} and returns the result of
+       * {@linkplain DatatypeConverter#printHexBinary(byte[])
+       * hexadecimal-encoding it}.
        *
        * <p>This method never returns {@code null}.</p>
        *
-       * @param stream the {@link InputStream} to represent; may be
+       * <p>The file is read through a {@link FileChannel} into a
+       * fixed-size, direct {@link ByteBuffer}, so its contents are
+       * never copied onto the Java heap as a whole.</p>
+       *
+       * @param path the {@link Path} of the file to read; must not be
        * {@code null}
        *
-       * @return a non-{@code null} {@link ByteBuffer}
+       * @return a {@linkplain
+       * DatatypeConverter#printHexBinary(byte[]) hexadecimal-encoded}
+       * SHA-256 message digest; never {@code null}
+       *
+       * @exception NullPointerException if {@code path} is {@code
+       * null}
        *
        * @exception IOException if an input or output error occurs
        */
-      private static final ByteBuffer toByteBuffer(final InputStream stream) throws IOException {
-        return ByteBuffer.wrap(read(stream));
+      @Experimental
+      public static final String getDigest(final Path path) throws IOException {
+        Objects.requireNonNull(path);
+        final MessageDigest md = DigestVerifyingInputStream.newSha256MessageDigest();
+        assert md != null;
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+          final ByteBuffer buffer = ByteBuffer.allocateDirect(65536);
+          while (channel.read(buffer) != -1) {
+            buffer.flip();
+            md.update(buffer);
+            buffer.clear();
+          }
+        }
+        return DatatypeConverter.printHexBinary(md.digest());
+      }
+
+      /**
+       * Returns an {@link InputStream} that reads from the supplied
+       * {@link InputStream} and, once its end has been reached,
+       * throws an {@link IOException} if the bytes read did not match
+       * this {@link Entry}'s {@linkplain #getDigest() digest}.
+       *
+       * <p>This method never returns {@code null}.</p>
+       *
+       * <p>If this {@link Entry} has no digest, the supplied {@link
+       * InputStream} is returned.</p>
+       *
+       * <p>The returned {@link InputStream} lets a caller verify an
+       * archive in the same pass that, for example, writes it to
+       * disk.</p>
+       *
+       * @param inputStream the {@link InputStream} to read from; must
+       * not be {@code null}
+       *
+       * @return a verifying {@link InputStream}; never {@code null}
+       *
+       * @exception NullPointerException if {@code inputStream} is
+       * {@code null}
+       */
+      @Experimental
+      public final InputStream newVerifyingInputStream(final InputStream inputStream) {
+        Objects.requireNonNull(inputStream);
+        final String digest = this.getDigest();
+        final InputStream returnValue;
+        if (digest == null || digest.isEmpty()) {
+          returnValue = inputStream;
+        } else {
+          returnValue = new DigestVerifyingInputStream(inputStream, digest);
+        }
+        return returnValue;
       }
 
       /**
-       * Fully reads the supplied {@link InputStream} into a {@code
-       * byte} array and returns it.
+       * Returns a {@link Metadata} representing the supplied {@link
+       * MetadataOrBuilder}.
        *
        * <p>This method never returns {@code null}.</p>
        *
-       * @param stream the {@link InputStream} to read; may be {@code
+       * @param metadata the {@link MetadataOrBuilder} to convert; must
+       * not be {@code null}
+       *
+       * @return a {@link Metadata}; never {@code null}
+       *
+       * @exception NullPointerException if {@code metadata} is {@code
        * null}
        *
-       * @return a non-{@code null} {@code byte} array containing the
-       * readable contents of the supplied {@link InputStream}
+       * @exception IllegalArgumentException if {@code metadata} is
+       * neither a {@link Metadata} nor a {@link Metadata.Builder}
+       */
+      private static final Metadata toMetadata(final MetadataOrBuilder metadata) {
+        Objects.requireNonNull(metadata);
+        final Metadata returnValue;
+        if (metadata instanceof Metadata) {
+          returnValue = (Metadata)metadata;
+        } else if (metadata instanceof Metadata.Builder) {
+          returnValue = ((Metadata.Builder)metadata).build();
+        } else {
+          throw new IllegalArgumentException("Unexpected MetadataOrBuilder: " + metadata);
+        }
+        return returnValue;
+      }
+
+      /**
+       * Returns the distinct {@link String} forms of the supplied
+       * {@link URI}s, in iteration order.
+       *
+       * <p>This method never returns {@code null}.</p>
        *
-       * @exception IOException if an input or output error occurs
+       * @param uris a {@link Collection} of {@link URI}s; may be
+       * {@code null}
+       *
+       * @return an array of {@link String}s; never {@code null}
        */
-      private static final byte[] read(final InputStream stream) throws IOException {
-        byte[] returnValue = null;
-        if (stream == null) {
-          returnValue = new byte[0];
+      private static final String[] toStrings(final Collection<? extends URI> uris) {
+        final String[] returnValue;
+        if (uris == null || uris.isEmpty()) {
+          returnValue = NO_URIS;
         } else {
-          try (final ByteArrayOutputStream buffer = new ByteArrayOutputStream()) {
-            int bytesRead;
-            final byte[] byteArray = new byte[4096];
-            while ((bytesRead = stream.read(byteArray, 0, byteArray.length)) != -1) {
-              buffer.write(byteArray, 0, bytesRead);
+          final Set<String> uriStrings = new LinkedHashSet<>();
+          for (final URI uri : uris) {
+            if (uri != null) {
+              uriStrings.add(uri.toString());
             }
-            buffer.flush();
-            returnValue = buffer.toByteArray();
+          }
+          returnValue = uriStrings.toArray(new String[uriStrings.size()]);
+        }
+        return returnValue;
+      }
+
+      /**
+       * Parses the supplied {@link String} as a {@link Version} and
+       * returns the result, or returns {@code null} if it could not
+       * be parsed.
+       *
+       * <p>This method may return {@code null}.</p>
+       *
+       * @param versionString the {@link String} to parse; may be
+       * {@code null} in which case {@code null} will be returned
+       *
+       * @return a {@link Version}, or {@code null}
+       */
+      static final Version parseVersion(final String versionString) {
+        Version returnValue = null;
+        if (versionString != null && !versionString.isEmpty()) {
+          try {
+            returnValue = Version.valueOf(versionString);
+          } catch (final IllegalArgumentException | ParseException badVersion) {
+            returnValue = null;
           }
         }
         return returnValue;
       }
-  
       
     }
     
@@ -0,0 +1,165 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2017 MicroBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.helm.chart.repository;
+
+import java.util.EventListener;
+
+import org.microbean.development.annotation.Experimental;
+
+/**
+ * An {@link EventListener} notified of the work a {@link
+ * ChartRepository} does, and of how long it took, so that time spent
+ * downloading indices, parsing them, downloading archives and loading
+ * charts can be told apart.
+ *
+ * <p>All methods of this interface do nothing by default.</p>
+ *
+ * <p>Methods of this interface are invoked synchronously, on the
+ * thread doing the work, and possibly by many threads at once, so
+ * implementations must be safe for concurrent use and should return
+ * quickly.  {@link RuntimeException}s thrown by them are
+ * ignored.</p>
+ *
+ * <p>A {@link ChartRepository} with no listeners does not read the
+ * clock, or compute any of the quantities reported to listeners, at
+ * all.</p>
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see ChartRepository#addChartRepositoryListener(ChartRepositoryListener)
+ *
+ * @see ChartRepositoryMetrics
+ */
+@Experimental
+public interface ChartRepositoryListener extends EventListener {
+
+  /**
+   * Called when a {@link ChartRepository} has downloaded, or
+   * revalidated, its {@code index.yaml} file.
+   *
+   * @param source the {@link ChartRepository} concerned; never
+   * {@code null}
+   *
+   * @param modified {@code false} if the server reported that the
+   * cached copy was still current, in which case nothing was
+   * transferred
+   *
+   * @param bytes the size, in bytes, of the downloaded file, or
+   * {@code 0L} if it was not {@code modified}
+   *
+   * @param nanos the time taken, in nanoseconds
+   *
+   * @see ChartRepository#downloadIndexTo(java.nio.file.Path)
+   */
+  default void indexDownloaded(final ChartRepository source, final boolean modified, final long bytes, final long nanos) {
+
+  }
+
+  /**
+   * Called when a {@link ChartRepository} has loaded its {@link
+   * ChartRepository.Index}, from a snapshot or by parsing its
+   * {@code index.yaml} file.
+   *
+   * @param source the {@link ChartRepository} concerned; never
+   * {@code null}
+   *
+   * @param entryCount the number of {@link
+   * ChartRepository.Index.Entry} instances in the loaded {@link
+   * ChartRepository.Index}
+   *
+   * @param nanos the time taken, in nanoseconds
+   *
+   * @see ChartRepository#loadIndex()
+   */
+  default void indexLoaded(final ChartRepository source, final int entryCount, final long nanos) {
+
+  }
+
+  /**
+   * Called when a {@link ChartRepository} has found a current copy of
+   * a chart archive in its archive cache directory.
+   *
+   * @param source the {@link ChartRepository} concerned; never
+   * {@code null}
+   *
+   * @param chartName the name of the chart; never {@code null}
+   *
+   * @param chartVersion the version of the chart; never {@code null}
+   *
+   * @see ChartRepository#getCachedChartPath(String, String)
+   */
+  default void archiveCacheHit(final ChartRepository source, final String chartName, final String chartVersion) {
+
+  }
+
+  /**
+   * Called when a {@link ChartRepository} has not found a current
+   * copy of a chart archive in its archive cache directory.
+   *
+   * @param source the {@link ChartRepository} concerned; never
+   * {@code null}
+   *
+   * @param chartName the name of the chart; never {@code null}
+   *
+   * @param chartVersion the version of the chart; never {@code null}
+   *
+   * @see ChartRepository#getCachedChartPath(String, String)
+   */
+  default void archiveCacheMiss(final ChartRepository source, final String chartName, final String chartVersion) {
+
+  }
+
+  /**
+   * Called when a {@link ChartRepository} has downloaded a chart
+   * archive.
+   *
+   * @param source the {@link ChartRepository} concerned; never
+   * {@code null}
+   *
+   * @param chartName the name of the chart; never {@code null}
+   *
+   * @param chartVersion the version of the chart; never {@code null}
+   *
+   * @param bytes the size, in bytes, of the archive
+   *
+   * @param nanos the time taken, in nanoseconds
+   */
+  default void archiveDownloaded(final ChartRepository source, final String chartName, final String chartVersion, final long bytes, final long nanos) {
+
+  }
+
+  /**
+   * Called when a {@link ChartRepository} has loaded a chart from
+   * its archive.
+   *
+   * @param source the {@link ChartRepository} concerned; never
+   * {@code null}
+   *
+   * @param chartName the name of the chart; never {@code null}
+   *
+   * @param chartVersion the version of the chart; never {@code null}
+   *
+   * @param nanos the time taken, in nanoseconds
+   *
+   * @see ChartRepository#resolve(String, String)
+   */
+  default void chartLoaded(final ChartRepository source, final String chartName, final String chartVersion, final long nanos) {
+
+  }
+
+}
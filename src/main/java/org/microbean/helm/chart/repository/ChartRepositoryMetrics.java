@@ -0,0 +1,592 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2017 MicroBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.helm.chart.repository;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.microbean.development.annotation.Experimental;
+
+/**
+ * A {@link ChartRepositoryListener} that keeps counters and latency
+ * histograms for each {@link ChartRepository} it {@linkplain
+ * ChartRepository#addChartRepositoryListener(ChartRepositoryListener)
+ * listens to}, indexed by {@linkplain ChartRepository#getName()
+ * chart repository name}.
+ *
+ * <p>Instances of this class are safe for concurrent use by multiple
+ * threads.  Recording never blocks.</p>
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see #getStatistics(String)
+ */
+@Experimental
+public class ChartRepositoryMetrics implements ChartRepositoryListener {
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  /**
+   * The {@link Statistics} kept for each {@link ChartRepository},
+   * indexed by {@linkplain ChartRepository#getName() name}.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final ConcurrentMap<String, Statistics> statistics;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new, empty {@link ChartRepositoryMetrics}.
+   */
+  public ChartRepositoryMetrics() {
+    super();
+    this.statistics = new ConcurrentHashMap<>();
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  /**
+   * Returns the {@link Statistics} kept for the {@link
+   * ChartRepository} with the supplied name, or {@code null} if
+   * nothing has been recorded for it.
+   *
+   * <p>This method may return {@code null}.</p>
+   *
+   * @param chartRepositoryName the {@linkplain
+   * ChartRepository#getName() name} of a {@link ChartRepository};
+   * must not be {@code null}
+   *
+   * @return the live {@link Statistics} for the named {@link
+   * ChartRepository}, or {@code null}
+   *
+   * @exception NullPointerException if {@code chartRepositoryName}
+   * is {@code null}
+   */
+  public final Statistics getStatistics(final String chartRepositoryName) {
+    Objects.requireNonNull(chartRepositoryName);
+    return this.statistics.get(chartRepositoryName);
+  }
+
+  /**
+   * Returns an {@linkplain Collections#unmodifiableMap(Map)
+   * unmodifiable} live view of the {@link Statistics} kept for each
+   * {@link ChartRepository}, indexed by {@linkplain
+   * ChartRepository#getName() name}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} {@link Map} of {@link Statistics}
+   */
+  public final Map<String, Statistics> getStatistics() {
+    return Collections.unmodifiableMap(this.statistics);
+  }
+
+  /**
+   * Returns the {@link Statistics} for the supplied {@link
+   * ChartRepository}, creating them if necessary.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param source the {@link ChartRepository}; must not be {@code
+   * null}
+   *
+   * @return the non-{@code null} {@link Statistics} for the supplied
+   * {@link ChartRepository}
+   */
+  private final Statistics statisticsFor(final ChartRepository source) {
+    Objects.requireNonNull(source);
+    final String name = source.getName();
+    Statistics returnValue = this.statistics.get(name);
+    if (returnValue == null) {
+      returnValue = this.statistics.computeIfAbsent(name, n -> new Statistics());
+    }
+    return returnValue;
+  }
+
+  @Override
+  public void indexDownloaded(final ChartRepository source, final boolean modified, final long bytes, final long nanos) {
+    final Statistics statistics = this.statisticsFor(source);
+    if (modified) {
+      statistics.indexDownloads.increment();
+      statistics.indexDownloadBytes.add(bytes);
+    } else {
+      statistics.indexRevalidations.increment();
+    }
+    statistics.indexDownloadTime.record(nanos);
+  }
+
+  @Override
+  public void indexLoaded(final ChartRepository source, final int entryCount, final long nanos) {
+    final Statistics statistics = this.statisticsFor(source);
+    statistics.indexEntryCount = entryCount;
+    statistics.indexLoadTime.record(nanos);
+  }
+
+  @Override
+  public void archiveCacheHit(final ChartRepository source, final String chartName, final String chartVersion) {
+    this.statisticsFor(source).archiveCacheHits.increment();
+  }
+
+  @Override
+  public void archiveCacheMiss(final ChartRepository source, final String chartName, final String chartVersion) {
+    this.statisticsFor(source).archiveCacheMisses.increment();
+  }
+
+  @Override
+  public void archiveDownloaded(final ChartRepository source, final String chartName, final String chartVersion, final long bytes, final long nanos) {
+    final Statistics statistics = this.statisticsFor(source);
+    statistics.archiveDownloadBytes.add(bytes);
+    statistics.archiveDownloadTime.record(nanos);
+  }
+
+  @Override
+  public void chartLoaded(final ChartRepository source, final String chartName, final String chartVersion, final long nanos) {
+    this.statisticsFor(source).chartLoadTime.record(nanos);
+  }
+
+  /**
+   * Returns a {@link String} representation of this {@link
+   * ChartRepositoryMetrics}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} {@link String} representation of this
+   * {@link ChartRepositoryMetrics}
+   */
+  @Override
+  public String toString() {
+    return this.statistics.toString();
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * Counters and latency histograms describing the work done by a
+   * single {@link ChartRepository}.
+   *
+   * <p>Instances of this class are live: their values change as
+   * work is recorded.</p>
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  @Experimental
+  public static final class Statistics {
+
+    private final LongAdder indexDownloads;
+
+    private final LongAdder indexRevalidations;
+
+    private final LongAdder indexDownloadBytes;
+
+    private final Histogram indexDownloadTime;
+
+    private final Histogram indexLoadTime;
+
+    private volatile int indexEntryCount;
+
+    private final LongAdder archiveCacheHits;
+
+    private final LongAdder archiveCacheMisses;
+
+    private final LongAdder archiveDownloadBytes;
+
+    private final Histogram archiveDownloadTime;
+
+    private final Histogram chartLoadTime;
+
+    /**
+     * Creates a new {@link Statistics}.
+     */
+    private Statistics() {
+      super();
+      this.indexDownloads = new LongAdder();
+      this.indexRevalidations = new LongAdder();
+      this.indexDownloadBytes = new LongAdder();
+      this.indexDownloadTime = new Histogram();
+      this.indexLoadTime = new Histogram();
+      this.archiveCacheHits = new LongAdder();
+      this.archiveCacheMisses = new LongAdder();
+      this.archiveDownloadBytes = new LongAdder();
+      this.archiveDownloadTime = new Histogram();
+      this.chartLoadTime = new Histogram();
+    }
+
+    /**
+     * Returns the number of times the {@code index.yaml} file was
+     * downloaded in full.
+     *
+     * @return the number of full index downloads
+     */
+    public final long getIndexDownloadCount() {
+      return this.indexDownloads.sum();
+    }
+
+    /**
+     * Returns the number of times the cached {@code index.yaml} file
+     * was found to be current by the server, so that nothing was
+     * downloaded.
+     *
+     * @return the number of index revalidations
+     */
+    public final long getIndexRevalidationCount() {
+      return this.indexRevalidations.sum();
+    }
+
+    /**
+     * Returns the total number of bytes of {@code index.yaml} files
+     * downloaded.
+     *
+     * @return the total number of index bytes downloaded
+     */
+    public final long getIndexDownloadBytes() {
+      return this.indexDownloadBytes.sum();
+    }
+
+    /**
+     * Returns the {@link Histogram} of the times, in nanoseconds,
+     * taken to download or revalidate the {@code index.yaml} file.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @return a non-{@code null} {@link Histogram}
+     */
+    public final Histogram getIndexDownloadTime() {
+      return this.indexDownloadTime;
+    }
+
+    /**
+     * Returns the {@link Histogram} of the times, in nanoseconds,
+     * taken to load an {@link ChartRepository.Index}.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @return a non-{@code null} {@link Histogram}
+     */
+    public final Histogram getIndexLoadTime() {
+      return this.indexLoadTime;
+    }
+
+    /**
+     * Returns the number of {@link ChartRepository.Index.Entry}
+     * instances in the most recently loaded {@link
+     * ChartRepository.Index}.
+     *
+     * @return the number of entries in the most recently loaded
+     * index, or {@code 0}
+     */
+    public final int getIndexEntryCount() {
+      return this.indexEntryCount;
+    }
+
+    /**
+     * Returns the number of times a current chart archive was found in
+     * the archive cache directory.
+     *
+     * @return the number of archive cache hits
+     */
+    public final long getArchiveCacheHitCount() {
+      return this.archiveCacheHits.sum();
+    }
+
+    /**
+     * Returns the number of times a current chart archive was not
+     * found in the archive cache directory.
+     *
+     * @return the number of archive cache misses
+     */
+    public final long getArchiveCacheMissCount() {
+      return this.archiveCacheMisses.sum();
+    }
+
+    /**
+     * Returns the total number of bytes of chart archives
+     * downloaded.
+     *
+     * @return the total number of archive bytes downloaded
+     */
+    public final long getArchiveDownloadBytes() {
+      return this.archiveDownloadBytes.sum();
+    }
+
+    /**
+     * Returns the {@link Histogram} of the times, in nanoseconds,
+     * taken to download chart archives; its {@linkplain
+     * Histogram#getCount() count} is the number of archives
+     * downloaded.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @return a non-{@code null} {@link Histogram}
+     */
+    public final Histogram getArchiveDownloadTime() {
+      return this.archiveDownloadTime;
+    }
+
+    /**
+     * Returns the average rate, in bytes per second, at which chart
+     * archives have been downloaded, or {@code 0.0} if none have
+     * been.
+     *
+     * @return the average archive download throughput in bytes per
+     * second
+     */
+    public final double getArchiveDownloadThroughput() {
+      final long nanos = this.archiveDownloadTime.getSum();
+      return nanos <= 0L ? 0.0 : this.archiveDownloadBytes.sum() * (double)TimeUnit.SECONDS.toNanos(1L) / nanos;
+    }
+
+    /**
+     * Returns the {@link Histogram} of the times, in nanoseconds,
+     * taken to load charts from their archives.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @return a non-{@code null} {@link Histogram}
+     */
+    public final Histogram getChartLoadTime() {
+      return this.chartLoadTime;
+    }
+
+    /**
+     * Returns a {@link String} representation of this {@link
+     * Statistics}.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @return a non-{@code null} {@link String} representation of
+     * this {@link Statistics}
+     */
+    @Override
+    public final String toString() {
+      return new StringBuilder("indexDownloads: ").append(this.getIndexDownloadCount())
+        .append(", indexRevalidations: ").append(this.getIndexRevalidationCount())
+        .append(", indexDownloadBytes: ").append(this.getIndexDownloadBytes())
+        .append(", indexDownloadTime: {").append(this.indexDownloadTime).append('}')
+        .append(", indexLoadTime: {").append(this.indexLoadTime).append('}')
+        .append(", indexEntries: ").append(this.getIndexEntryCount())
+        .append(", archiveCacheHits: ").append(this.getArchiveCacheHitCount())
+        .append(", archiveCacheMisses: ").append(this.getArchiveCacheMissCount())
+        .append(", archiveDownloadBytes: ").append(this.getArchiveDownloadBytes())
+        .append(", archiveDownloadTime: {").append(this.archiveDownloadTime).append('}')
+        .append(", chartLoadTime: {").append(this.chartLoadTime).append('}')
+        .toString();
+    }
+
+  }
+
+  /**
+   * A histogram of non-negative {@code long} values, such as
+   * latencies in nanoseconds, with one bucket per power of two.
+   *
+   * <p>Recorded values are bucketed, so {@linkplain
+   * #getValueAtPercentile(double) percentiles} are accurate to within
+   * a factor of two, which is enough to tell milliseconds from
+   * seconds without any per-value storage.</p>
+   *
+   * <p>Instances of this class are safe for concurrent use by
+   * multiple threads.  Recording never blocks.</p>
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  @Experimental
+  public static final class Histogram {
+
+    /**
+     * The counts of recorded values; bucket {@code 0} counts zeros,
+     * and bucket {@code i} counts values from {@code 2}<sup>{@code
+     * i-1}</sup> to {@code 2}<sup>{@code i}</sup>{@code -1}.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final LongAdder[] buckets;
+
+    /**
+     * The sum of all recorded values.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final LongAdder sum;
+
+    /**
+     * The largest recorded value.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final LongAccumulator max;
+
+    /**
+     * Creates a new, empty {@link Histogram}.
+     */
+    public Histogram() {
+      super();
+      this.buckets = new LongAdder[Long.SIZE];
+      for (int i = 0; i < this.buckets.length; i++) {
+        this.buckets[i] = new LongAdder();
+      }
+      this.sum = new LongAdder();
+      this.max = new LongAccumulator(Math::max, 0L);
+    }
+
+    /**
+     * Records the supplied value.
+     *
+     * <p>Negative values are recorded as {@code 0L}.</p>
+     *
+     * @param value the value to record
+     */
+    public final void record(final long value) {
+      final long v = Math.max(0L, value);
+      // Long.SIZE - numberOfLeadingZeros(v) is in [0, 63] for
+      // non-negative v.
+      this.buckets[Long.SIZE - Long.numberOfLeadingZeros(v)].increment();
+      this.sum.add(v);
+      this.max.accumulate(v);
+    }
+
+    /**
+     * Returns the number of values recorded.
+     *
+     * @return the number of values recorded
+     */
+    public final long getCount() {
+      long returnValue = 0L;
+      for (final LongAdder bucket : this.buckets) {
+        returnValue += bucket.sum();
+      }
+      return returnValue;
+    }
+
+    /**
+     * Returns the sum of the values recorded.
+     *
+     * @return the sum of the values recorded
+     */
+    public final long getSum() {
+      return this.sum.sum();
+    }
+
+    /**
+     * Returns the largest value recorded, or {@code 0L} if none has
+     * been.
+     *
+     * @return the largest value recorded, or {@code 0L}
+     */
+    public final long getMax() {
+      return this.max.get();
+    }
+
+    /**
+     * Returns the mean of the values recorded, or {@code 0.0} if none
+     * has been.
+     *
+     * @return the mean of the values recorded, or {@code 0.0}
+     */
+    public final double getMean() {
+      final long count = this.getCount();
+      return count == 0L ? 0.0 : (double)this.getSum() / count;
+    }
+
+    /**
+     * Returns an upper bound on the value below which the supplied
+     * percentage of recorded values fall, or {@code 0L} if no value
+     * has been recorded.
+     *
+     * @param percentile the percentile, from {@code 0.0} to {@code
+     * 100.0} inclusive
+     *
+     * @return an upper bound, accurate to within a factor of two and
+     * never more than the {@linkplain #getMax() largest recorded
+     * value}, on the value at the supplied percentile
+     *
+     * @exception IllegalArgumentException if {@code percentile} is
+     * less than {@code 0.0} or greater than {@code 100.0}
+     */
+    public final long getValueAtPercentile(final double percentile) {
+      if (percentile < 0.0 || percentile > 100.0) {
+        throw new IllegalArgumentException("percentile: " + percentile);
+      }
+      final long[] counts = new long[this.buckets.length];
+      long count = 0L;
+      for (int i = 0; i < counts.length; i++) {
+        counts[i] = this.buckets[i].sum();
+        count += counts[i];
+      }
+      long returnValue = 0L;
+      if (count > 0L) {
+        final long rank = Math.max(1L, (long)Math.ceil(percentile / 100.0 * count));
+        long seen = 0L;
+        for (int i = 0; i < counts.length; i++) {
+          seen += counts[i];
+          if (seen >= rank) {
+            returnValue = i == 0 ? 0L : Math.min(this.getMax(), (1L << i) - 1L);
+            break;
+          }
+        }
+      }
+      return returnValue;
+    }
+
+    /**
+     * Returns a {@link String} representation of this {@link
+     * Histogram}.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @return a non-{@code null} {@link String} representation of
+     * this {@link Histogram}
+     */
+    @Override
+    public final String toString() {
+      return new StringBuilder("count: ").append(this.getCount())
+        .append(", mean: ").append(this.getMean())
+        .append(", p50: ").append(this.getValueAtPercentile(50.0))
+        .append(", p99: ").append(this.getValueAtPercentile(99.0))
+        .append(", max: ").append(this.getMax())
+        .toString();
+    }
+
+  }
+
+}
@@ -17,34 +17,66 @@
 package org.microbean.helm.chart.repository;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 
 import java.net.URI;
 import java.net.URISyntaxException;
 
+import java.nio.charset.StandardCharsets;
+
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 
 import java.time.Instant;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.TimeUnit;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import java.util.function.Consumer;
+
 import java.util.regex.Pattern;
 
+import java.util.zip.GZIPInputStream;
+
 import hapi.chart.ChartOuterClass.Chart;
+import hapi.chart.ChartOuterClass.ChartOrBuilder;
+import hapi.chart.MetadataOuterClass.MetadataOrBuilder;
+
+import org.kamranzafar.jtar.TarEntry;
+import org.kamranzafar.jtar.TarInputStream;
 
 import org.microbean.development.annotation.Experimental;
 
 import org.yaml.snakeyaml.Yaml;
 
+import org.microbean.helm.chart.Requirements;
+
 import org.microbean.helm.chart.resolver.AbstractChartResolver;
 import org.microbean.helm.chart.resolver.ChartResolverException;
 
@@ -71,6 +103,13 @@ public class ChartRepositoryRepository extends AbstractChartResolver {
    */
   private static final Pattern slashPattern = Pattern.compile("/");
 
+  /**
+   * The maximum number of {@link ChartRepository} indices that the
+   * {@link #refreshIndices(boolean, long, TimeUnit)} method will
+   * download and load at the same time.
+   */
+  private static final int DEFAULT_REFRESH_PARALLELISM = 8;
+
 
   /*
    * Instance fields.
@@ -90,6 +129,29 @@ public class ChartRepositoryRepository extends AbstractChartResolver {
    */
   private final Set<ChartRepository> chartRepositories;
 
+  /**
+   * The {@link ExecutorService} used to prefetch the dependencies of
+   * {@linkplain #resolve(String, String, String) resolved} charts.
+   *
+   * <p>This field may be {@code null}, in which case dependencies are
+   * not prefetched.</p>
+   *
+   * @see #setDependencyPrefetchExecutor(ExecutorService)
+   */
+  private volatile ExecutorService dependencyPrefetchExecutor;
+
+  /**
+   * A {@link Consumer} notified of failures to prefetch the
+   * dependencies of {@linkplain #resolve(String, String, String)
+   * resolved} charts.
+   *
+   * <p>This field may be {@code null}, in which case such failures
+   * are ignored.</p>
+   *
+   * @see #setDependencyPrefetchErrorHandler(Consumer)
+   */
+  private volatile Consumer<? super Exception> dependencyPrefetchErrorHandler;
+
 
   /*
    * Constructors.
@@ -103,6 +165,12 @@ public class ChartRepositoryRepository extends AbstractChartResolver {
    * ChartRepository} instances to be managed by this {@link
    * ChartRepositoryRepository}; may be {@code null}; copied by value
    *
+   * <p>Those {@link ChartRepository} instances that do not already
+   * share a table of canonical strings with other {@link
+   * ChartRepository} instances are made to share one with each
+   * other, so that the indices they load share instances of the
+   * chart names, versions and URLs they have in common.</p>
+   *
    * @see #getChartRepositories()
    */
   public ChartRepositoryRepository(final Set<? extends ChartRepository> chartRepositories) {
@@ -111,6 +179,12 @@ public class ChartRepositoryRepository extends AbstractChartResolver {
       this.chartRepositories = Collections.emptySet();
     } else {
       this.chartRepositories = Collections.unmodifiableSet(new LinkedHashSet<>(chartRepositories));
+      final Interner interner = new Interner();
+      for (final ChartRepository chartRepository : this.chartRepositories) {
+        if (chartRepository != null && chartRepository.getInterner() == null) {
+          chartRepository.setInterner(interner);
+        }
+      }
     }
   }
 
@@ -163,6 +237,79 @@ public class ChartRepositoryRepository extends AbstractChartResolver {
     return returnValue;
   }
 
+  /**
+   * Returns the {@link ExecutorService} used to prefetch the
+   * dependencies of {@linkplain #resolve(String, String, String)
+   * resolved} charts.
+   *
+   * <p>This method may return {@code null}, in which case
+   * dependencies are not prefetched.</p>
+   *
+   * @return the {@link ExecutorService} used to prefetch
+   * dependencies, or {@code null}
+   *
+   * @see #setDependencyPrefetchExecutor(ExecutorService)
+   */
+  @Experimental
+  public final ExecutorService getDependencyPrefetchExecutor() {
+    return this.dependencyPrefetchExecutor;
+  }
+
+  /**
+   * Sets the {@link ExecutorService} used to prefetch the
+   * dependencies of {@linkplain #resolve(String, String, String)
+   * resolved} charts.
+   *
+   * <p>The supplied {@link ExecutorService} is not shut down by this
+   * {@link ChartRepositoryRepository}.</p>
+   *
+   * @param dependencyPrefetchExecutor the {@link ExecutorService} to
+   * use; may be {@code null}, in which case dependencies will not be
+   * prefetched
+   *
+   * @see #prefetchDependencies(ChartOrBuilder, ExecutorService)
+   */
+  @Experimental
+  public final void setDependencyPrefetchExecutor(final ExecutorService dependencyPrefetchExecutor) {
+    this.dependencyPrefetchExecutor = dependencyPrefetchExecutor;
+  }
+
+  /**
+   * Returns the {@link Consumer} notified of failures to prefetch the
+   * dependencies of {@linkplain #resolve(String, String, String)
+   * resolved} charts.
+   *
+   * <p>This method may return {@code null}.</p>
+   *
+   * @return the {@link Consumer} notified of prefetch failures, or
+   * {@code null}
+   *
+   * @see #setDependencyPrefetchErrorHandler(Consumer)
+   */
+  @Experimental
+  public final Consumer<? super Exception> getDependencyPrefetchErrorHandler() {
+    return this.dependencyPrefetchErrorHandler;
+  }
+
+  /**
+   * Sets the {@link Consumer} notified of failures to prefetch the
+   * dependencies of {@linkplain #resolve(String, String, String)
+   * resolved} charts.
+   *
+   * <p>Such failures never cause resolution itself to fail.</p>
+   *
+   * @param dependencyPrefetchErrorHandler a {@link Consumer} that
+   * will be notified of any {@link Exception} that causes a prefetch
+   * to fail; may be {@code null}, in which case such failures are
+   * ignored
+   *
+   * @see #setDependencyPrefetchExecutor(ExecutorService)
+   */
+  @Experimental
+  public final void setDependencyPrefetchErrorHandler(final Consumer<? super Exception> dependencyPrefetchErrorHandler) {
+    this.dependencyPrefetchErrorHandler = dependencyPrefetchErrorHandler;
+  }
+
   /**
    * {@inheritDoc}
    *
@@ -208,6 +355,18 @@ public class ChartRepositoryRepository extends AbstractChartResolver {
    * ChartRepository#resolve(String, String)} with the chart name and
    * the supplied {@code chartVersion}, and returns the result.</p>
    *
+   * <p>If a {@linkplain #setDependencyPrefetchExecutor(ExecutorService)
+   * dependency prefetch <code>ExecutorService</code>} has been set,
+   * then the {@linkplain #prefetchDependencies(ChartOrBuilder,
+   * ExecutorService) prefetching} of the result's dependencies into
+   * the archive caches of the {@link ChartRepository} instances that
+   * hold them is started before the result is returned, but is not
+   * waited for.  A failure to prefetch them does not cause this
+   * method to fail; it is instead reported to the {@linkplain
+   * #setDependencyPrefetchErrorHandler(Consumer) dependency prefetch
+   * error handler}, if there is one, on whatever thread it
+   * occurred.</p>
+   *
    * @param repositoryName a {@linkplain ChartRepository#getName()
    * chart repository name}; must not be {@code null}
    *
@@ -229,6 +388,8 @@ public class ChartRepositoryRepository extends AbstractChartResolver {
    * @see ChartRepository#getName()
    *
    * @see ChartRepository#resolve(String, String)
+   *
+   * @see #setDependencyPrefetchExecutor(ExecutorService)
    */
   public Chart.Builder resolve(final String repositoryName, final String chartName, final String chartVersion) throws ChartResolverException {
     Objects.requireNonNull(repositoryName);
@@ -238,17 +399,456 @@ public class ChartRepositoryRepository extends AbstractChartResolver {
     if (repo != null) {
       final Chart.Builder candidate = repo.resolve(chartName, chartVersion);
       if (candidate != null) {
+        final ExecutorService executor = this.getDependencyPrefetchExecutor();
+        if (executor != null) {
+          // Prefetching is only an optimization, so it is not waited
+          // for; the dependencies will simply be downloaded when they
+          // are resolved if it has not finished or has failed.
+          new DependencyPrefetch(executor, this.getDependencyPrefetchErrorHandler()).start(candidate);
+        }
         returnValue = candidate;
       }
     }
     return returnValue;
   }
 
+  /**
+   * Downloads, concurrently, the chart archives named by the
+   * dependencies listed in the supplied chart's {@code
+   * requirements.yaml} resource, and then those named by their
+   * dependencies, and so on, into the archive caches of the {@link
+   * ChartRepository} instances managed by this {@link
+   * ChartRepositoryRepository}, so that later resolution of those
+   * dependencies does not have to wait on the network.
+   *
+   * <p>A dependency's archive is {@linkplain
+   * ChartRepository#getCachedChartPath(String, String) downloaded}
+   * but not loaded; only its {@code requirements.yaml} resource is
+   * read, and the download of each of the dependencies it lists is
+   * submitted to the supplied {@link ExecutorService} as soon as it
+   * has been, without waiting for any other download.  A dependency
+   * whose repository is not managed by this {@link
+   * ChartRepositoryRepository}, or that is already present in its
+   * parent chart's {@code charts} directory, is skipped.  A
+   * dependency's repository may be designated by {@linkplain
+   * ChartRepository#getUri() URI}, or by {@linkplain
+   * ChartRepository#getName() name} using the {@code @name} or {@code
+   * alias:name} forms.  Its version may be a version constraint, in
+   * which case the latest matching version is fetched.</p>
+   *
+   * <p>This method waits for every prefetch to complete.  Prefetches
+   * that fail do not prevent others from proceeding.  The {@link
+   * #resolve(String, String, String)} method, by contrast, starts
+   * the same work but does not wait for it.</p>
+   *
+   * @param chart the {@link ChartOrBuilder} whose dependencies should
+   * be prefetched; must not be {@code null}
+   *
+   * @param executor the {@link ExecutorService} that will perform
+   * the prefetches; must not be {@code null}
+   *
+   * @return the number of dependency charts that were found and are
+   * now present in their respective archive caches
+   *
+   * @exception IOException if any dependency could not be
+   * prefetched; each individual failure is {@linkplain
+   * Throwable#getSuppressed() suppressed} by it
+   *
+   * @exception InterruptedIOException if the calling thread was
+   * interrupted while waiting
+   *
+   * @exception NullPointerException if {@code chart} or {@code
+   * executor} is {@code null}
+   *
+   * @see Requirements#fromChartOrBuilder(ChartOrBuilder)
+   */
+  @Experimental
+  public final int prefetchDependencies(final ChartOrBuilder chart, final ExecutorService executor) throws IOException {
+    Objects.requireNonNull(chart);
+    Objects.requireNonNull(executor);
+    final DependencyPrefetch prefetch = new DependencyPrefetch(executor, null);
+    prefetch.start(chart);
+    return prefetch.await();
+  }
+
+  /**
+   * Returns the {@link ChartRepository} managed by this {@link
+   * ChartRepositoryRepository} that is designated by the supplied
+   * {@link Requirements.Dependency}'s {@linkplain
+   * Requirements.Dependency#getRepository() repository}, or {@code
+   * null} if there is no such {@link ChartRepository}.
+   *
+   * <p>This method may return {@code null}.</p>
+   *
+   * @param dependency the {@link Requirements.Dependency} in question;
+   * must not be {@code null}
+   *
+   * @return a {@link ChartRepository}, or {@code null}
+   */
+  private final ChartRepository getChartRepository(final Requirements.Dependency dependency) {
+    Objects.requireNonNull(dependency);
+    ChartRepository returnValue = null;
+    final String repository = dependency.getRepository();
+    if (repository != null && !repository.isEmpty()) {
+      if (repository.startsWith("@")) {
+        returnValue = this.getChartRepository(repository.substring(1));
+      } else if (repository.startsWith("alias:")) {
+        returnValue = this.getChartRepository(repository.substring("alias:".length()));
+      } else {
+        final String uri = stripTrailingSlashes(repository);
+        final Collection<? extends ChartRepository> repos = this.getChartRepositories();
+        if (repos != null && !repos.isEmpty()) {
+          for (final ChartRepository repo : repos) {
+            if (repo != null && uri.equals(stripTrailingSlashes(repo.getUri().toString()))) {
+              returnValue = repo;
+              break;
+            }
+          }
+        }
+      }
+    }
+    return returnValue;
+  }
+
+  /**
+   * Downloads (if necessary) and loads the {@linkplain
+   * ChartRepository#getIndex(boolean) indices} of all {@linkplain
+   * #getChartRepositories() <code>ChartRepository</code> instances
+   * managed by this <code>ChartRepositoryRepository</code>}
+   * concurrently, using a new, bounded thread pool that is shut down
+   * before this method returns, and returns the resulting {@link
+   * ChartRepository.Index} instances indexed by {@linkplain
+   * ChartRepository#getName() chart repository name}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param forceDownload whether each index should be downloaded
+   * even if its cached copy has not expired
+   *
+   * @param timeout the maximum time that any one {@link
+   * ChartRepository}'s index may take to refresh, measured from the
+   * moment its refresh starts
+   *
+   * @param unit the {@link TimeUnit} of the supplied {@code timeout};
+   * must not be {@code null}
+   *
+   * @return an {@linkplain Collections#unmodifiableMap(Map)
+   * immutable} {@link Map} of {@link ChartRepository.Index} instances
+   * indexed by chart repository name; never {@code null}
+   *
+   * @exception IOException if any index could not be refreshed; each
+   * individual failure is {@linkplain Throwable#getSuppressed()
+   * suppressed} by it
+   *
+   * @exception NullPointerException if {@code unit} is {@code null}
+   *
+   * @see #refreshIndices(boolean, ExecutorService, long, TimeUnit)
+   */
+  public final Map<String, ChartRepository.Index> refreshIndices(final boolean forceDownload, final long timeout, final TimeUnit unit) throws IOException {
+    Objects.requireNonNull(unit);
+    final Collection<? extends ChartRepository> repos = this.getChartRepositories();
+    if (repos == null || repos.isEmpty()) {
+      return Collections.emptyMap();
+    }
+    final ExecutorService executor = Executors.newFixedThreadPool(Math.min(repos.size(), DEFAULT_REFRESH_PARALLELISM));
+    assert executor != null;
+    try {
+      return this.refreshIndices(forceDownload, executor, timeout, unit);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Downloads (if necessary) and loads the {@linkplain
+   * ChartRepository#getIndex(boolean) indices} of all {@linkplain
+   * #getChartRepositories() <code>ChartRepository</code> instances
+   * managed by this <code>ChartRepositoryRepository</code>}
+   * concurrently, using the supplied {@link ExecutorService}, and
+   * returns the resulting {@link ChartRepository.Index} instances
+   * indexed by {@linkplain ChartRepository#getName() chart repository
+   * name}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * <p>The bound on concurrency is that of the supplied {@link
+   * ExecutorService}.  This method waits for every {@link
+   * ChartRepository}'s index to be refreshed.  The supplied timeout
+   * applies to each refresh separately, and its clock starts only
+   * when the {@link ExecutorService} starts that refresh, so
+   * refreshes queued behind others are not penalized for the time
+   * they spent waiting.  A refresh that is still running when its
+   * timeout elapses is {@linkplain Future#cancel(boolean)
+   * cancelled}.  Indices that were refreshed successfully remain
+   * installed in their {@link ChartRepository} instances even if
+   * others failed.</p>
+   *
+   * @param forceDownload whether each index should be downloaded
+   * even if its cached copy has not expired
+   *
+   * @param executor the {@link ExecutorService} that will perform
+   * the refreshes; must not be {@code null}
+   *
+   * @param timeout the maximum time that any one {@link
+   * ChartRepository}'s index may take to refresh, measured from the
+   * moment its refresh starts
+   *
+   * @param unit the {@link TimeUnit} of the supplied {@code timeout};
+   * must not be {@code null}
+   *
+   * @return an {@linkplain Collections#unmodifiableMap(Map)
+   * immutable} {@link Map} of {@link ChartRepository.Index} instances
+   * indexed by chart repository name; never {@code null}
+   *
+   * @exception IOException if any index could not be refreshed; each
+   * individual failure is {@linkplain Throwable#getSuppressed()
+   * suppressed} by it
+   *
+   * @exception InterruptedIOException if the calling thread was
+   * interrupted while waiting
+   *
+   * @exception NullPointerException if {@code executor} or {@code
+   * unit} is {@code null}
+   *
+   * @see ChartRepository#getIndex(boolean)
+   */
+  public final Map<String, ChartRepository.Index> refreshIndices(final boolean forceDownload, final ExecutorService executor, final long timeout, final TimeUnit unit) throws IOException {
+    Objects.requireNonNull(executor);
+    Objects.requireNonNull(unit);
+    final Collection<? extends ChartRepository> repos = this.getChartRepositories();
+    if (repos == null || repos.isEmpty()) {
+      return Collections.emptyMap();
+    }
+    final long timeoutNanos = unit.toNanos(timeout);
+    final Map<IndexRefresh, Future<ChartRepository.Index>> futures = new LinkedHashMap<>();
+    for (final ChartRepository repo : repos) {
+      if (repo != null) {
+        final IndexRefresh refresh = new IndexRefresh(repo, forceDownload);
+        futures.put(refresh, executor.submit(refresh));
+      }
+    }
+    final Map<String, ChartRepository.Index> returnValue = new LinkedHashMap<>();
+    final Collection<Exception> failures = new ArrayList<>();
+    boolean interrupted = false;
+    for (final Map.Entry<IndexRefresh, Future<ChartRepository.Index>> entry : futures.entrySet()) {
+      final IndexRefresh refresh = entry.getKey();
+      final ChartRepository repo = refresh.repo;
+      final Future<ChartRepository.Index> future = entry.getValue();
+      assert future != null;
+      boolean waiting = !interrupted;
+      while (waiting) {
+        waiting = false;
+        try {
+          returnValue.put(repo.getName(), future.get(refresh.getRemainingNanos(timeoutNanos), TimeUnit.NANOSECONDS));
+        } catch (final ExecutionException executionException) {
+          final Throwable cause = executionException.getCause();
+          if (cause instanceof Exception) {
+            failures.add(new IOException("Failed to refresh the index of chart repository " + repo.getName(), cause));
+          } else if (cause instanceof Error) {
+            throw (Error)cause;
+          } else {
+            failures.add(executionException);
+          }
+        } catch (final TimeoutException timeoutException) {
+          if (timeoutNanos > 0L && refresh.getRemainingNanos(timeoutNanos) > 0L) {
+            // The refresh had not started when we began waiting, or
+            // started while we were waiting; its own clock has not
+            // yet run out.
+            waiting = true;
+          } else {
+            future.cancel(true);
+            failures.add(new IOException("Timed out refreshing the index of chart repository " + repo.getName(), timeoutException));
+          }
+        } catch (final InterruptedException interruptedException) {
+          interrupted = true;
+          failures.add(interruptedException);
+        }
+      }
+      if (interrupted) {
+        future.cancel(true);
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+      final InterruptedIOException throwMe = new InterruptedIOException("Interrupted while refreshing chart repository indices");
+      for (final Exception failure : failures) {
+        throwMe.addSuppressed(failure);
+      }
+      throw throwMe;
+    } else if (!failures.isEmpty()) {
+      final IOException throwMe = new IOException("Failed to refresh the indices of " + failures.size() + " of " + futures.size() + " chart repositories");
+      for (final Exception failure : failures) {
+        throwMe.addSuppressed(failure);
+      }
+      throw throwMe;
+    }
+    return Collections.unmodifiableMap(returnValue);
+  }
+
+  /**
+   * Searches the {@linkplain ChartRepository#getIndex(boolean)
+   * indices} of all {@linkplain #getChartRepositories()
+   * <code>ChartRepository</code> instances managed by this
+   * <code>ChartRepositoryRepository</code>} and returns a {@link List}
+   * of {@link SearchIndex.Hit}s, best first.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * <p>Each {@link ChartRepository.Index}'s {@linkplain
+   * ChartRepository.Index#getSearchIndex() search index} is built
+   * once, the first time it is needed, and reused thereafter until
+   * the index itself is replaced.  Each {@link SearchIndex.Hit}
+   * returned by this method bears the {@linkplain
+   * SearchIndex.Hit#getRepositoryName() name} of the {@link
+   * ChartRepository} in which it was found.</p>
+   *
+   * @param query the query; must not be {@code null}
+   *
+   * @param allVersions if {@code true}, every matching version of a
+   * chart is returned; if {@code false}, only the latest version of
+   * each chart in each {@link ChartRepository} is considered
+   *
+   * @return an {@linkplain Collections#unmodifiableList(List)
+   * immutable} {@link List} of {@link SearchIndex.Hit}s in descending
+   * order of score; never {@code null}
+   *
+   * @exception IOException if an index could not be loaded
+   *
+   * @exception URISyntaxException if an index contained an invalid
+   * URI
+   *
+   * @exception NullPointerException if {@code query} is {@code null}
+   *
+   * @see SearchIndex#search(String, boolean)
+   */
+  @Experimental
+  public final List<SearchIndex.Hit> search(final String query, final boolean allVersions) throws IOException, URISyntaxException {
+    Objects.requireNonNull(query);
+    final List<SearchIndex.Hit> returnValue = new ArrayList<>();
+    final Collection<? extends ChartRepository> repos = this.getChartRepositories();
+    if (repos != null && !repos.isEmpty()) {
+      for (final ChartRepository repo : repos) {
+        if (repo != null) {
+          final ChartRepository.Index index = repo.getIndex(false);
+          if (index != null) {
+            for (final SearchIndex.Hit hit : index.getSearchIndex().search(query, allVersions)) {
+              returnValue.add(new SearchIndex.Hit(repo.getName(), hit.getEntry(), hit.getScore()));
+            }
+          }
+        }
+      }
+      Collections.sort(returnValue);
+    }
+    return Collections.unmodifiableList(returnValue);
+  }
+
 
   /*
    * Static methods.
    */
 
+
+  /**
+   * Returns the supplied {@link String} without any trailing solidi
+   * ("{@code /}").
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param s the {@link String} to strip; must not be {@code null}
+   *
+   * @return the stripped {@link String}; never {@code null}
+   */
+  private static final String stripTrailingSlashes(final String s) {
+    Objects.requireNonNull(s);
+    int end = s.length();
+    while (end > 0 && s.charAt(end - 1) == '/') {
+      end--;
+    }
+    return s.substring(0, end);
+  }
+
+  /**
+   * Returns {@code true} if the chart with the supplied name is
+   * among the supplied bundled chart names, either as a chart name
+   * or as the name of a {@code name-version.tgz} archive less its
+   * extension.
+   *
+   * @param chartName the name of the chart; must not be {@code null}
+   *
+   * @param bundledChartNames the names of the charts, or of the chart
+   * archives less their {@code .tgz} extension, present in a parent
+   * chart's {@code charts} directory; must not be {@code null}
+   *
+   * @return {@code true} if the chart is bundled
+   */
+  private static final boolean isBundled(final String chartName, final Set<String> bundledChartNames) {
+    Objects.requireNonNull(chartName);
+    Objects.requireNonNull(bundledChartNames);
+    boolean returnValue = bundledChartNames.contains(chartName);
+    if (!returnValue) {
+      final String prefix = chartName + "-";
+      for (final String bundledChartName : bundledChartNames) {
+        if (bundledChartName.startsWith(prefix)) {
+          returnValue = true;
+          break;
+        }
+      }
+    }
+    return returnValue;
+  }
+
+  /**
+   * Reads the top-level {@code requirements.yaml} resource from the
+   * Helm chart archive at the supplied {@link Path}, without loading
+   * the rest of the chart, and returns the {@link Requirements} it
+   * describes, or {@code null} if there is no such resource.
+   *
+   * <p>This method may return {@code null}.</p>
+   *
+   * <p>The names of the charts bundled in the archive's top-level
+   * {@code charts} directory, and of the chart archives there less
+   * their {@code .tgz} extension, are added to the supplied {@link
+   * Set}.  Only their tape archive headers are read.</p>
+   *
+   * @param archive the {@link Path} of a gzipped tape archive; must
+   * not be {@code null}
+   *
+   * @param bundledChartNames a {@link Set} to which the names of
+   * bundled charts will be added; must not be {@code null}
+   *
+   * @return a {@link Requirements}, or {@code null}
+   *
+   * @exception IOException if the archive could not be read
+   */
+  private static final Requirements readRequirements(final Path archive, final Set<String> bundledChartNames) throws IOException {
+    Objects.requireNonNull(archive);
+    Objects.requireNonNull(bundledChartNames);
+    Requirements returnValue = null;
+    try (final TarInputStream stream = new TarInputStream(new GZIPInputStream(new BufferedInputStream(Files.newInputStream(archive))))) {
+      TarEntry entry;
+      while ((entry = stream.getNextEntry()) != null) {
+        // Every entry is beneath a single directory named after the
+        // chart.
+        final String[] parts = slashPattern.split(entry.getName(), 4);
+        if (parts.length == 2 && "requirements.yaml".equals(parts[1]) && !entry.isDirectory()) {
+          final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+          final byte[] buffer = new byte[4096];
+          int bytesRead;
+          while ((bytesRead = stream.read(buffer)) != -1) {
+            bytes.write(buffer, 0, bytesRead);
+          }
+          returnValue = new Yaml().loadAs(new String(bytes.toByteArray(), StandardCharsets.UTF_8), Requirements.class);
+        } else if (parts.length >= 3 && "charts".equals(parts[1]) && !parts[2].isEmpty()) {
+          if (parts.length == 4 || entry.isDirectory()) {
+            bundledChartNames.add(parts[2]);
+          } else if (parts[2].endsWith(".tgz")) {
+            bundledChartNames.add(parts[2].substring(0, parts[2].length() - ".tgz".length()));
+          }
+        }
+      }
+    }
+    return returnValue;
+  }
   
   /**
    * Creates and returns a new {@link ChartRepositoryRepository} from
@@ -378,4 +978,436 @@ public class ChartRepositoryRepository extends AbstractChartResolver {
     return new ChartRepositoryRepository(chartRepositories);
   }
  
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * A single, possibly still running, {@linkplain
+   * ChartRepositoryRepository#prefetchDependencies(ChartOrBuilder,
+   * ExecutorService) prefetch} of the transitive dependencies of a
+   * chart.
+   *
+   * <p>Each dependency is prefetched by its own task, which, once it
+   * has downloaded the dependency's archive and read its {@code
+   * requirements.yaml} resource, submits a task for each of the
+   * dependencies listed there that has not already been
+   * visited.</p>
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   *
+   * @see ChartRepositoryRepository#prefetchDependencies(ChartOrBuilder,
+   * ExecutorService)
+   */
+  private final class DependencyPrefetch {
+
+    /**
+     * The {@link ExecutorService} that runs each task.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final ExecutorService executor;
+
+    /**
+     * A {@link Consumer} notified of each failure as it happens.
+     *
+     * <p>This field may be {@code null}.</p>
+     */
+    private final Consumer<? super Exception> errorHandler;
+
+    /**
+     * The keys identifying the dependencies that have been visited.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final Set<String> visited;
+
+    /**
+     * The failures that have happened so far.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final Collection<Exception> failures;
+
+    /**
+     * The number of tasks that have not yet finished, plus one for
+     * the {@link #start(ChartOrBuilder)} method until it has
+     * submitted the first tasks.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final AtomicInteger pending;
+
+    /**
+     * The number of dependencies that were found and are now present
+     * in their respective archive caches.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final AtomicInteger found;
+
+    /**
+     * A {@link CountDownLatch} released once every task has finished.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final CountDownLatch done;
+
+    /**
+     * Whether tasks that have not yet started should do nothing.
+     */
+    private volatile boolean cancelled;
+
+    /**
+     * Creates a new {@link DependencyPrefetch}.
+     *
+     * @param executor the {@link ExecutorService} that will run each
+     * task; must not be {@code null}
+     *
+     * @param errorHandler a {@link Consumer} notified of each failure
+     * as it happens; may be {@code null}
+     */
+    private DependencyPrefetch(final ExecutorService executor, final Consumer<? super Exception> errorHandler) {
+      super();
+      this.executor = Objects.requireNonNull(executor);
+      this.errorHandler = errorHandler;
+      this.visited = ConcurrentHashMap.newKeySet();
+      this.failures = Collections.synchronizedList(new ArrayList<>());
+      this.pending = new AtomicInteger(1);
+      this.found = new AtomicInteger();
+      this.done = new CountDownLatch(1);
+    }
+
+    /**
+     * Submits a task for each dependency of the supplied chart and
+     * returns without waiting for any of them.
+     *
+     * <p>This method must be called exactly once.</p>
+     *
+     * @param chart the {@link ChartOrBuilder} whose dependencies
+     * should be prefetched; must not be {@code null}
+     */
+    private final void start(final ChartOrBuilder chart) {
+      Objects.requireNonNull(chart);
+      try {
+        final Set<String> bundledChartNames = new HashSet<>();
+        for (final ChartOrBuilder subchart : chart.getDependenciesOrBuilderList()) {
+          if (subchart != null) {
+            final MetadataOrBuilder metadata = subchart.getMetadataOrBuilder();
+            if (metadata != null) {
+              bundledChartNames.add(metadata.getName());
+            }
+          }
+        }
+        this.submit(Requirements.fromChartOrBuilder(chart), bundledChartNames);
+      } finally {
+        this.arrive();
+      }
+    }
+
+    /**
+     * Waits for every task to finish and returns the number of
+     * dependencies that were found.
+     *
+     * @return the number of dependencies that were found and are now
+     * present in their respective archive caches
+     *
+     * @exception IOException if any dependency could not be
+     * prefetched
+     *
+     * @exception InterruptedIOException if the calling thread was
+     * interrupted while waiting
+     */
+    private final int await() throws IOException {
+      try {
+        this.done.await();
+      } catch (final InterruptedException interruptedException) {
+        this.cancelled = true;
+        Thread.currentThread().interrupt();
+        final InterruptedIOException throwMe = new InterruptedIOException("Interrupted while prefetching chart dependencies");
+        throwMe.initCause(interruptedException);
+        synchronized (this.failures) {
+          for (final Exception failure : this.failures) {
+            throwMe.addSuppressed(failure);
+          }
+        }
+        throw throwMe;
+      }
+      if (!this.failures.isEmpty()) {
+        final IOException throwMe = new IOException("Failed to prefetch " + this.failures.size() + " chart dependencies");
+        for (final Exception failure : this.failures) {
+          throwMe.addSuppressed(failure);
+        }
+        throw throwMe;
+      }
+      return this.found.get();
+    }
+
+    /**
+     * Submits a task for each dependency listed in the supplied
+     * {@link Requirements} that is not bundled, can be found in a
+     * {@link ChartRepository} managed by this {@link
+     * ChartRepositoryRepository} and has not yet been visited.
+     *
+     * @param requirements the {@link Requirements} to read; may be
+     * {@code null}
+     *
+     * @param bundledChartNames the names of the charts, or of the
+     * chart archives less their {@code .tgz} extension, present in the
+     * parent chart's {@code charts} directory; must not be {@code
+     * null}
+     */
+    private final void submit(final Requirements requirements, final Set<String> bundledChartNames) {
+      Objects.requireNonNull(bundledChartNames);
+      if (requirements != null && !requirements.isEmpty() && !this.cancelled) {
+        for (final Requirements.Dependency dependency : requirements.getDependencies()) {
+          if (dependency != null) {
+            final String name = dependency.getName();
+            if (name != null && !isBundled(name, bundledChartNames)) {
+              final ChartRepository repo = getChartRepository(dependency);
+              if (repo != null) {
+                String version = dependency.getVersion();
+                if (version != null && version.trim().isEmpty()) {
+                  version = null;
+                }
+                final String key = new StringBuilder(repo.getName()).append('/').append(name).append(':').append(version).toString();
+                if (this.visited.add(key)) {
+                  final String finalVersion = version;
+                  this.pending.incrementAndGet();
+                  try {
+                    this.executor.execute(() -> this.run(key, repo, name, finalVersion));
+                  } catch (final RejectedExecutionException rejectedExecutionException) {
+                    this.fail(new IOException("Failed to prefetch dependency " + key, rejectedExecutionException));
+                    this.arrive();
+                  }
+                }
+              }
+            }
+          }
+        }
+      }
+    }
+
+    /**
+     * Prefetches a single dependency, recording any failure, and
+     * then submits tasks for its own dependencies.
+     *
+     * @param key the key identifying the dependency; must not be
+     * {@code null}
+     *
+     * @param chartRepository the {@link ChartRepository} holding the
+     * dependency; must not be {@code null}
+     *
+     * @param chartName the name of the dependency; must not be {@code
+     * null}
+     *
+     * @param chartVersion the version, or version constraint, of the
+     * dependency; may be {@code null} in which case "latest" semantics
+     * are implied
+     */
+    private final void run(final String key, final ChartRepository chartRepository, final String chartName, final String chartVersion) {
+      try {
+        if (!this.cancelled) {
+          this.prefetch(chartRepository, chartName, chartVersion);
+        }
+      } catch (final IOException | URISyntaxException | RuntimeException exception) {
+        this.fail(new IOException("Failed to prefetch dependency " + key, exception));
+      } finally {
+        this.arrive();
+      }
+    }
+
+    /**
+     * Downloads the archive of a single dependency, if necessary,
+     * reads its {@code requirements.yaml} resource, and submits tasks
+     * for the dependencies it lists.
+     *
+     * @param chartRepository the {@link ChartRepository} holding the
+     * dependency; must not be {@code null}
+     *
+     * @param chartName the name of the dependency; must not be {@code
+     * null}
+     *
+     * @param chartVersion the version, or version constraint, of the
+     * dependency; may be {@code null} in which case "latest" semantics
+     * are implied
+     *
+     * @exception IOException if the {@link ChartRepository}'s index
+     * could not be loaded, or the archive could not be downloaded or
+     * read
+     *
+     * @exception URISyntaxException if the {@link ChartRepository}'s
+     * index contained an invalid URI
+     *
+     * @exception IllegalArgumentException if the dependency's version
+     * constraint could not be parsed
+     */
+    private final void prefetch(final ChartRepository chartRepository, final String chartName, final String chartVersion) throws IOException, URISyntaxException {
+      final ChartRepository.Index index = chartRepository.getIndex(false);
+      if (index != null) {
+        ChartRepository.Index.Entry entry = index.getEntry(chartName, chartVersion);
+        if (entry == null && chartVersion != null) {
+          // Not an exact version, so it may be a constraint; resolve
+          // it to a concrete version before anything is named after
+          // it.
+          entry = index.getEntryMatching(chartName, chartVersion);
+        }
+        if (entry != null) {
+          final ArchiveCache archiveCache = chartRepository.getArchiveCache();
+          Path pinnedPath = null;
+          try {
+            if (archiveCache != null) {
+              // Pin the archive so that it cannot be evicted before
+              // it has been read.
+              pinnedPath = chartRepository.getArchivePath(chartName, entry.getVersion());
+              archiveCache.pin(pinnedPath);
+            }
+            final Path cachedChartPath = chartRepository.getCachedChartPath(chartName, entry.getVersion());
+            if (cachedChartPath != null) {
+              this.found.incrementAndGet();
+              final Set<String> bundledChartNames = new HashSet<>();
+              final Requirements requirements = readRequirements(cachedChartPath, bundledChartNames);
+              this.submit(requirements, bundledChartNames);
+            }
+          } finally {
+            if (pinnedPath != null) {
+              archiveCache.unpin(pinnedPath);
+            }
+          }
+        }
+      }
+    }
+
+    /**
+     * Records the supplied failure and notifies the error handler, if
+     * there is one.
+     *
+     * @param failure the failure; must not be {@code null}
+     */
+    private final void fail(final Exception failure) {
+      Objects.requireNonNull(failure);
+      this.failures.add(failure);
+      if (this.errorHandler != null) {
+        this.errorHandler.accept(failure);
+      }
+    }
+
+    /**
+     * Records that a task, or the {@link #start(ChartOrBuilder)}
+     * method, has finished, and releases anyone {@linkplain #await()
+     * waiting} once nothing is left to do.
+     */
+    private final void arrive() {
+      if (this.pending.decrementAndGet() == 0) {
+        this.done.countDown();
+      }
+    }
+
+  }
+
+
+
+  /**
+   * A {@link Callable} that {@linkplain
+   * ChartRepository#getIndex(boolean) refreshes} the index of a
+   * single {@link ChartRepository} and records when it started doing
+   * so, so that the {@link #refreshIndices(boolean, ExecutorService,
+   * long, TimeUnit)} method can time it out independently of any
+   * time it spent queued.
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   *
+   * @see #refreshIndices(boolean, ExecutorService, long, TimeUnit)
+   */
+  private static final class IndexRefresh implements Callable<ChartRepository.Index> {
+
+    /**
+     * The {@link ChartRepository} whose index will be refreshed.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final ChartRepository repo;
+
+    /**
+     * Whether the index should be downloaded even if its cached copy
+     * has not expired.
+     */
+    private final boolean forceDownload;
+
+    /**
+     * The value of {@link System#nanoTime()} when the {@link #call()}
+     * method was invoked.
+     *
+     * <p>This field is meaningful only if {@link #started} is {@code
+     * true}.</p>
+     */
+    private volatile long startTime;
+
+    /**
+     * Whether the {@link #call()} method has been invoked.
+     */
+    private volatile boolean started;
+
+    /**
+     * Creates a new {@link IndexRefresh}.
+     *
+     * @param repo the {@link ChartRepository} whose index will be
+     * refreshed; must not be {@code null}
+     *
+     * @param forceDownload whether the index should be downloaded
+     * even if its cached copy has not expired
+     *
+     * @exception NullPointerException if {@code repo} is {@code null}
+     */
+    private IndexRefresh(final ChartRepository repo, final boolean forceDownload) {
+      super();
+      this.repo = Objects.requireNonNull(repo);
+      this.forceDownload = forceDownload;
+    }
+
+    /**
+     * Records the current time and then {@linkplain
+     * ChartRepository#getIndex(boolean) refreshes} the index.
+     *
+     * @return the refreshed {@link ChartRepository.Index}
+     *
+     * @exception IOException if the index could not be refreshed
+     *
+     * @exception URISyntaxException if the index's {@link URI} is
+     * invalid
+     */
+    @Override
+    public final ChartRepository.Index call() throws IOException, URISyntaxException {
+      this.startTime = System.nanoTime();
+      this.started = true;
+      return this.repo.getIndex(this.forceDownload);
+    }
+
+    /**
+     * Returns the number of nanoseconds this refresh has left before
+     * the supplied timeout elapses, which is the entire timeout if it
+     * has not yet started, or {@code 0} if it has run out.
+     *
+     * @param timeoutNanos the timeout, in nanoseconds, measured from
+     * the moment this refresh started
+     *
+     * @return the number of nanoseconds remaining; never negative
+     */
+    private final long getRemainingNanos(final long timeoutNanos) {
+      final long returnValue;
+      if (this.started) {
+        returnValue = Math.max(0L, this.startTime + timeoutNanos - System.nanoTime());
+      } else {
+        returnValue = Math.max(0L, timeoutNanos);
+      }
+      return returnValue;
+    }
+
+  }
+
 }
@@ -0,0 +1,190 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2017 MicroBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.helm.chart.repository;
+
+import java.io.InputStream;
+import java.io.IOException;
+
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import java.util.Objects;
+
+import javax.xml.bind.DatatypeConverter;
+
+/**
+ * A {@link DigestInputStream} that computes the SHA-256 digest of the
+ * bytes read through it and, once the end of the stream has been
+ * reached, throws an {@link IOException} from the {@code read}
+ * method that reached it if that digest does not match the expected
+ * one.
+ *
+ * <p>Because verification happens as the bytes pass through, a
+ * caller copying this stream somewhere, such as to a file, verifies
+ * the bytes in the same pass that copies them.  A caller that stops
+ * reading before the end of the stream verifies nothing.</p>
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see ChartRepository.Index.Entry#newVerifyingInputStream(InputStream)
+ */
+final class DigestVerifyingInputStream extends DigestInputStream {
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  /**
+   * The expected hexadecimal SHA-256 digest.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final String expectedDigest;
+
+  /**
+   * Whether the digest has been verified.
+   */
+  private boolean verified;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link DigestVerifyingInputStream}.
+   *
+   * @param in the {@link InputStream} to read from; must not be
+   * {@code null}
+   *
+   * @param expectedDigest the expected hexadecimal SHA-256 digest of
+   * the bytes readable from {@code in}; must not be {@code null}
+   *
+   * @exception NullPointerException if either parameter is {@code
+   * null}
+   */
+  DigestVerifyingInputStream(final InputStream in, final String expectedDigest) {
+    super(Objects.requireNonNull(in), newSha256MessageDigest());
+    this.expectedDigest = Objects.requireNonNull(expectedDigest);
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  /**
+   * Reads a single byte, verifying the digest if the end of the
+   * stream has been reached.
+   *
+   * @return the byte read, or {@code -1} if the end of the stream has
+   * been reached
+   *
+   * @exception IOException if an input or output error occurs, or if
+   * the digest does not match the expected one
+   */
+  @Override
+  public final int read() throws IOException {
+    final int returnValue = super.read();
+    if (returnValue < 0) {
+      this.verify();
+    }
+    return returnValue;
+  }
+
+  /**
+   * Reads bytes into the supplied array, verifying the digest if the
+   * end of the stream has been reached.
+   *
+   * @param bytes the array to read into; must not be {@code null}
+   *
+   * @param offset the offset in the array at which to start writing
+   *
+   * @param length the maximum number of bytes to read
+   *
+   * @return the number of bytes read, or {@code -1} if the end of the
+   * stream has been reached
+   *
+   * @exception IOException if an input or output error occurs, or if
+   * the digest does not match the expected one
+   */
+  @Override
+  public final int read(final byte[] bytes, final int offset, final int length) throws IOException {
+    final int returnValue = super.read(bytes, offset, length);
+    if (returnValue < 0) {
+      this.verify();
+    }
+    return returnValue;
+  }
+
+  /**
+   * Returns {@code false}, since verification requires every byte
+   * to be read exactly once.
+   *
+   * @return {@code false}
+   */
+  @Override
+  public final boolean markSupported() {
+    return false;
+  }
+
+  /**
+   * Compares the digest of the bytes read so far to the expected one,
+   * once.
+   *
+   * @exception IOException if the digests do not match
+   */
+  private final void verify() throws IOException {
+    if (!this.verified) {
+      this.verified = true;
+      final String actualDigest = DatatypeConverter.printHexBinary(this.getMessageDigest().digest());
+      if (!this.expectedDigest.equalsIgnoreCase(actualDigest)) {
+        throw new IOException("Digest mismatch; expected: " + this.expectedDigest + "; actual: " + actualDigest);
+      }
+    }
+  }
+
+
+  /*
+   * Static methods.
+   */
+
+
+  /**
+   * Returns a new {@link MessageDigest} implementing the SHA-256
+   * algorithm.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a new {@link MessageDigest}; never {@code null}
+   */
+  static final MessageDigest newSha256MessageDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (final NoSuchAlgorithmException noSuchAlgorithmException) {
+      // SHA-256 is guaranteed to exist.
+      throw new InternalError(noSuchAlgorithmException);
+    }
+  }
+
+}
@@ -0,0 +1,344 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2017 MicroBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.helm.chart.repository;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.InputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+
+/**
+ * An immutable pair of <a
+ * href="https://tools.ietf.org/html/rfc7232#section-2">HTTP
+ * validators</a>—an entity tag and a last modified date—describing
+ * a particular representation of a remote resource, such as a chart
+ * repository's {@code index.yaml} file.
+ *
+ * <p>{@link HttpValidators} are persisted in a small properties file
+ * next to the local copy of the resource they describe, and are used
+ * to make conditional requests for that resource.</p>
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see #getValidatorsPath(Path)
+ */
+final class HttpValidators {
+
+
+  /*
+   * Static fields.
+   */
+
+
+  /**
+   * The suffix appended to the file name of a local copy of a
+   * resource to form the file name of its validators file.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private static final String SUFFIX = ".validators";
+
+  /**
+   * The name of the HTTP header, and of the property, holding an
+   * entity tag.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private static final String ETAG = "ETag";
+
+  /**
+   * The name of the HTTP header, and of the property, holding a last
+   * modified date.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private static final String LAST_MODIFIED = "Last-Modified";
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  /**
+   * The entity tag, exactly as supplied by the server.
+   *
+   * <p>This field may be {@code null}.</p>
+   */
+  private final String entityTag;
+
+  /**
+   * The last modified date, exactly as supplied by the server.
+   *
+   * <p>This field may be {@code null}.</p>
+   */
+  private final String lastModified;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link HttpValidators}.
+   *
+   * @param entityTag the entity tag; may be {@code null}
+   *
+   * @param lastModified the last modified date in HTTP date format;
+   * may be {@code null}
+   */
+  HttpValidators(final String entityTag, final String lastModified) {
+    super();
+    this.entityTag = entityTag;
+    this.lastModified = lastModified;
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  /**
+   * Returns the entity tag held by this {@link HttpValidators}.
+   *
+   * <p>This method may return {@code null}.</p>
+   *
+   * @return the entity tag, or {@code null}
+   */
+  final String getEntityTag() {
+    return this.entityTag;
+  }
+
+  /**
+   * Returns the last modified date held by this {@link
+   * HttpValidators}.
+   *
+   * <p>This method may return {@code null}.</p>
+   *
+   * @return the last modified date in HTTP date format, or {@code
+   * null}
+   */
+  final String getLastModified() {
+    return this.lastModified;
+  }
+
+  /**
+   * Returns a value suitable for an {@code If-Range} request header:
+   * the entity tag, if it is a <a
+   * href="https://tools.ietf.org/html/rfc7232#section-2.1">strong</a>
+   * one, or else the last modified date.
+   *
+   * <p>This method may return {@code null}, in which case a partial
+   * copy of the resource described by this {@link HttpValidators}
+   * cannot safely be completed with a range request.</p>
+   *
+   * @return a value for an {@code If-Range} request header, or
+   * {@code null}
+   *
+   * @see <a href="https://tools.ietf.org/html/rfc7233#section-3.2">RFC
+   * 7233, section 3.2</a>
+   */
+  final String getIfRangeValue() {
+    final String returnValue;
+    if (this.entityTag != null && !this.entityTag.startsWith("W/")) {
+      returnValue = this.entityTag;
+    } else {
+      returnValue = this.lastModified;
+    }
+    return returnValue;
+  }
+
+  /**
+   * Returns {@code true} if this {@link HttpValidators} holds
+   * neither an entity tag nor a last modified date.
+   *
+   * @return {@code true} if this {@link HttpValidators} is empty
+   */
+  final boolean isEmpty() {
+    return this.entityTag == null && this.lastModified == null;
+  }
+
+  /**
+   * Adds {@code If-None-Match} and {@code If-Modified-Since} request
+   * headers, as appropriate, to the supplied {@link Map} of request
+   * headers.
+   *
+   * @param requestHeaders the {@link Map} of request headers to
+   * affect; must not be {@code null}
+   *
+   * @exception NullPointerException if {@code requestHeaders} is
+   * {@code null}
+   *
+   * @see Transport#get(java.net.URI, Map)
+   */
+  final void applyTo(final Map<? super String, ? super String> requestHeaders) {
+    Objects.requireNonNull(requestHeaders);
+    if (this.entityTag != null) {
+      requestHeaders.put("If-None-Match", this.entityTag);
+    }
+    if (this.lastModified != null) {
+      requestHeaders.put("If-Modified-Since", this.lastModified);
+    }
+  }
+
+  /**
+   * Writes this {@link HttpValidators} to the supplied {@link Path},
+   * or deletes any file at that {@link Path} if this {@link
+   * HttpValidators} {@linkplain #isEmpty() is empty}.
+   *
+   * @param validatorsPath the {@link Path} to write to; must not be
+   * {@code null}
+   *
+   * @exception NullPointerException if {@code validatorsPath} is
+   * {@code null}
+   *
+   * @exception IOException if an input or output error occurs
+   */
+  final void store(final Path validatorsPath) throws IOException {
+    Objects.requireNonNull(validatorsPath);
+    if (this.isEmpty()) {
+      Files.deleteIfExists(validatorsPath);
+    } else {
+      final Properties properties = new Properties();
+      if (this.entityTag != null) {
+        properties.setProperty(ETAG, this.entityTag);
+      }
+      if (this.lastModified != null) {
+        properties.setProperty(LAST_MODIFIED, this.lastModified);
+      }
+      final Path directory = validatorsPath.toAbsolutePath().getParent();
+      assert directory != null;
+      final Path temporaryPath = Files.createTempFile(directory, validatorsPath.getFileName().toString(), ".tmp");
+      assert temporaryPath != null;
+      try {
+        try (final OutputStream stream = new BufferedOutputStream(Files.newOutputStream(temporaryPath))) {
+          properties.store(stream, null);
+        }
+        Files.move(temporaryPath, validatorsPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } catch (final IOException throwMe) {
+        try {
+          Files.deleteIfExists(temporaryPath);
+        } catch (final IOException suppressMe) {
+          throwMe.addSuppressed(suppressMe);
+        }
+        throw throwMe;
+      }
+    }
+  }
+
+  /**
+   * Returns a {@link String} representation of this {@link
+   * HttpValidators}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a non-{@code null} {@link String} representation of this
+   * {@link HttpValidators}
+   */
+  @Override
+  public final String toString() {
+    return new StringBuilder(ETAG).append(": ").append(this.entityTag).append(", ").append(LAST_MODIFIED).append(": ").append(this.lastModified).toString();
+  }
+
+
+  /*
+   * Static methods.
+   */
+
+
+  /**
+   * Returns the {@link Path} of the validators file that corresponds
+   * to the supplied {@link Path} to a local copy of a resource.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param path the {@link Path} to a local copy of a resource; must
+   * not be {@code null}
+   *
+   * @return the {@link Path} of the corresponding validators file;
+   * never {@code null}
+   *
+   * @exception NullPointerException if {@code path} is {@code null}
+   */
+  static final Path getValidatorsPath(final Path path) {
+    Objects.requireNonNull(path);
+    return path.resolveSibling(new StringBuilder(path.getFileName().toString()).append(SUFFIX).toString());
+  }
+
+  /**
+   * Reads {@link HttpValidators} from the supplied {@link Path} and
+   * returns them, or returns {@code null} if there is no such file
+   * or it could not be read.
+   *
+   * <p>This method may return {@code null}.</p>
+   *
+   * @param validatorsPath the {@link Path} to read from; must not be
+   * {@code null}
+   *
+   * @return a new {@link HttpValidators}, or {@code null}
+   *
+   * @exception NullPointerException if {@code validatorsPath} is
+   * {@code null}
+   */
+  static final HttpValidators load(final Path validatorsPath) {
+    Objects.requireNonNull(validatorsPath);
+    HttpValidators returnValue = null;
+    if (Files.isRegularFile(validatorsPath)) {
+      final Properties properties = new Properties();
+      try (final InputStream stream = new BufferedInputStream(Files.newInputStream(validatorsPath))) {
+        properties.load(stream);
+        returnValue = new HttpValidators(properties.getProperty(ETAG), properties.getProperty(LAST_MODIFIED));
+      } catch (final IOException | IllegalArgumentException ignore) {
+        returnValue = null;
+      }
+    }
+    return returnValue;
+  }
+
+  /**
+   * Returns a new {@link HttpValidators} holding the {@code ETag} and
+   * {@code Last-Modified} response headers of the supplied {@link
+   * Transport.Response}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param response the {@link Transport.Response} whose headers
+   * should be read; must not be {@code null}
+   *
+   * @return a new {@link HttpValidators}; never {@code null}
+   *
+   * @exception NullPointerException if {@code response} is {@code
+   * null}
+   */
+  static final HttpValidators from(final Transport.Response response) {
+    Objects.requireNonNull(response);
+    return new HttpValidators(response.getHeader(ETAG), response.getHeader(LAST_MODIFIED));
+  }
+
+}
@@ -0,0 +1,378 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2017 MicroBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.helm.chart.repository;
+
+import java.io.Reader;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import java.util.regex.Pattern;
+
+import hapi.chart.MetadataOuterClass.Metadata;
+
+import org.microbean.helm.chart.Metadatas;
+
+import org.yaml.snakeyaml.error.YAMLException;
+
+import org.yaml.snakeyaml.events.Event;
+import org.yaml.snakeyaml.events.ScalarEvent;
+
+import org.yaml.snakeyaml.parser.Parser;
+import org.yaml.snakeyaml.parser.ParserImpl;
+
+import org.yaml.snakeyaml.reader.StreamReader;
+
+/**
+ * A streaming, event-based parser that builds a {@link
+ * ChartRepository.Index} from the contents of a <a
+ * href="https://docs.helm.sh/developing_charts/#the-index-file">Helm
+ * chart repository index</a> without first materializing the whole
+ * YAML document in memory.
+ *
+ * <p>Only the raw contents of a single chart version entry are held
+ * in memory at any one time; each is converted into a {@link
+ * ChartRepository.Index.Entry} and discarded as soon as its closing
+ * event has been read.  Top-level keys other than {@code entries}
+ * are skipped without being materialized.</p>
+ *
+ * <p>All scalars are treated as {@link String}s (or {@code null});
+ * YAML aliases are treated as {@code null}.</p>
+ *
+ * <p>Instances of this class are not safe for concurrent use by
+ * multiple threads, and are intended to be used exactly once.</p>
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see ChartRepository.Index#loadFrom(java.io.InputStream)
+ */
+final class IndexParser {
+
+
+  /*
+   * Static fields.
+   */
+
+
+  /**
+   * A {@link Pattern} matching the plain scalar values that YAML
+   * resolves to {@code null}.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private static final Pattern nullPattern = Pattern.compile("^(?:~|null|Null|NULL)?$");
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  /**
+   * The {@link Interner} used to canonicalize chart names, versions
+   * and URLs.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final Interner interner;
+
+  /**
+   * The {@link Parser} supplying YAML {@link Event}s.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final Parser parser;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link IndexParser}.
+   *
+   * @param reader the {@link Reader} from which YAML content will be
+   * read; must not be {@code null}
+   *
+   * @exception NullPointerException if {@code reader} is {@code
+   * null}
+   */
+  IndexParser(final Reader reader) {
+    this(reader, null);
+  }
+
+  /**
+   * Creates a new {@link IndexParser}.
+   *
+   * @param reader the {@link Reader} from which YAML content will be
+   * read; must not be {@code null}
+   *
+   * @param interner the {@link Interner} used to canonicalize
+   * repeated values; may be {@code null} in which case a new {@link
+   * Interner} will be used
+   *
+   * @exception NullPointerException if {@code reader} is {@code
+   * null}
+   */
+  IndexParser(final Reader reader, final Interner interner) {
+    super();
+    Objects.requireNonNull(reader);
+    this.interner = interner == null ? new Interner() : interner;
+    this.parser = new ParserImpl(new StreamReader(reader));
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  /**
+   * Parses the YAML content supplied at construction time and
+   * returns a new {@link ChartRepository.Index} representing it.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return a new {@link ChartRepository.Index}; never {@code null}
+   *
+   * @exception URISyntaxException if one of the URIs in the content
+   * was invalid
+   *
+   * @exception YAMLException if the content was not well-formed
+   */
+  final ChartRepository.Index parse() throws URISyntaxException {
+    final SortedMap<String, SortedSet<ChartRepository.Index.Entry>> sortedEntryMap = new TreeMap<>();
+    this.expect(Event.ID.StreamStart);
+    if (this.parser.checkEvent(Event.ID.DocumentStart)) {
+      this.parser.getEvent();
+      if (this.parser.checkEvent(Event.ID.MappingStart)) {
+        this.parser.getEvent();
+        while (!this.parser.checkEvent(Event.ID.MappingEnd)) {
+          final Object key = this.readNode();
+          if ("entries".equals(key)) {
+            this.parseEntries(sortedEntryMap);
+          } else {
+            this.skipNode();
+          }
+        }
+        this.parser.getEvent();
+      } else {
+        this.skipNode();
+      }
+      this.expect(Event.ID.DocumentEnd);
+    }
+    return new ChartRepository.Index(sortedEntryMap);
+  }
+
+  /**
+   * Parses the value of the {@code entries} key of a chart repository
+   * index, adding {@link ChartRepository.Index.Entry} instances to
+   * the supplied {@link SortedMap} as each chart version's raw
+   * mapping is completely read.
+   *
+   * @param sortedEntryMap the {@link SortedMap} to populate; must not
+   * be {@code null}
+   *
+   * @exception URISyntaxException if one of the URIs in the content
+   * was invalid
+   */
+  private final void parseEntries(final SortedMap<String, SortedSet<ChartRepository.Index.Entry>> sortedEntryMap) throws URISyntaxException {
+    Objects.requireNonNull(sortedEntryMap);
+    if (!this.parser.checkEvent(Event.ID.MappingStart)) {
+      this.skipNode();
+    } else {
+      this.parser.getEvent();
+      while (!this.parser.checkEvent(Event.ID.MappingEnd)) {
+        final Object entryName = this.readNode();
+        if (entryName == null || !this.parser.checkEvent(Event.ID.SequenceStart)) {
+          this.skipNode();
+        } else {
+          this.parser.getEvent();
+          while (!this.parser.checkEvent(Event.ID.SequenceEnd)) {
+            if (this.parser.checkEvent(Event.ID.MappingStart)) {
+              final Map<?, ?> entryMap = (Map<?, ?>)this.readNode();
+              if (entryMap != null && !entryMap.isEmpty()) {
+                final String name = this.interner.intern(entryName.toString());
+                SortedSet<ChartRepository.Index.Entry> entryObjects = sortedEntryMap.get(name);
+                if (entryObjects == null) {
+                  entryObjects = new TreeSet<>(Collections.reverseOrder());
+                  sortedEntryMap.put(name, entryObjects);
+                }
+                entryObjects.add(this.toEntry(entryMap));
+              }
+            } else {
+              this.skipNode();
+            }
+          }
+          this.parser.getEvent();
+        }
+      }
+      this.parser.getEvent();
+    }
+  }
+
+  /**
+   * Reads the next complete YAML node and returns it as a {@link
+   * String}, {@link List}, {@link Map} or {@code null}.
+   *
+   * <p>This method may return {@code null}.</p>
+   *
+   * @return the node that was read, or {@code null}
+   *
+   * @exception YAMLException if the content was not well-formed
+   */
+  private final Object readNode() {
+    final Object returnValue;
+    final Event event = this.parser.getEvent();
+    assert event != null;
+    if (event.is(Event.ID.Scalar)) {
+      final ScalarEvent scalarEvent = (ScalarEvent)event;
+      final String value = scalarEvent.getValue();
+      if (scalarEvent.getStyle() == null && (value == null || nullPattern.matcher(value).matches())) {
+        returnValue = null;
+      } else {
+        returnValue = value;
+      }
+    } else if (event.is(Event.ID.SequenceStart)) {
+      final List<Object> list = new ArrayList<>();
+      while (!this.parser.checkEvent(Event.ID.SequenceEnd)) {
+        list.add(this.readNode());
+      }
+      this.parser.getEvent();
+      returnValue = list;
+    } else if (event.is(Event.ID.MappingStart)) {
+      final Map<String, Object> map = new LinkedHashMap<>();
+      while (!this.parser.checkEvent(Event.ID.MappingEnd)) {
+        final Object key = this.readNode();
+        final Object value = this.readNode();
+        if (key != null) {
+          // Keys are discarded once the entry has been built, so are
+          // not worth interning.
+          map.put(key.toString(), value);
+        }
+      }
+      this.parser.getEvent();
+      returnValue = map;
+    } else if (event.is(Event.ID.Alias)) {
+      returnValue = null;
+    } else {
+      throw new YAMLException("Unexpected event: " + event);
+    }
+    return returnValue;
+  }
+
+  /**
+   * Consumes the next complete YAML node without materializing it.
+   *
+   * @exception YAMLException if the content was not well-formed
+   */
+  private final void skipNode() {
+    int depth = 0;
+    do {
+      final Event event = this.parser.getEvent();
+      assert event != null;
+      if (event.is(Event.ID.SequenceStart) || event.is(Event.ID.MappingStart)) {
+        depth++;
+      } else if (event.is(Event.ID.SequenceEnd) || event.is(Event.ID.MappingEnd)) {
+        depth--;
+      } else if (!event.is(Event.ID.Scalar) && !event.is(Event.ID.Alias)) {
+        throw new YAMLException("Unexpected event: " + event);
+      }
+    } while (depth > 0);
+  }
+
+  /**
+   * Consumes the next {@link Event}, ensuring that it has the
+   * supplied {@link Event.ID}.
+   *
+   * @param id the {@link Event.ID} expected; must not be {@code
+   * null}
+   *
+   * @exception YAMLException if the next {@link Event} does not have
+   * the supplied {@link Event.ID}
+   */
+  private final void expect(final Event.ID id) {
+    final Event event = this.parser.getEvent();
+    if (event == null || !event.is(id)) {
+      throw new YAMLException("Expected " + id + " but got: " + event);
+    }
+  }
+
+
+  /**
+   * Creates a new {@link ChartRepository.Index.Entry} from the raw
+   * {@link Map} representation of a single chart version in a chart
+   * repository index.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * <p>The chart name, version and URLs retained by the new {@link
+   * ChartRepository.Index.Entry} are {@linkplain
+   * Interner#intern(String) interned}.</p>
+   *
+   * @param entryMap the raw {@link Map} to convert; must not be
+   * {@code null}
+   *
+   * @return a new {@link ChartRepository.Index.Entry}; never {@code
+   * null}
+   *
+   * @exception URISyntaxException if one of the URIs in the supplied
+   * {@link Map} was invalid
+   *
+   * @see Metadatas#populateMetadataBuilder(Metadata.Builder, Map)
+   */
+  private final ChartRepository.Index.Entry toEntry(final Map<?, ?> entryMap) throws URISyntaxException {
+    Objects.requireNonNull(entryMap);
+    final Metadata.Builder metadataBuilder = Metadata.newBuilder();
+    assert metadataBuilder != null;
+    Metadatas.populateMetadataBuilder(metadataBuilder, entryMap);
+    @SuppressWarnings("unchecked")
+    final Collection<? extends String> uriStrings = (Collection<? extends String>)entryMap.get("urls");
+    final Set<String> uris = new LinkedHashSet<>();
+    if (uriStrings != null && !uriStrings.isEmpty()) {
+      for (final String uriString : uriStrings) {
+        if (uriString != null && !uriString.isEmpty()) {
+          final URI uri = new URI(uriString);
+          uris.add(this.interner.intern(uri.toString()));
+        }
+      }
+    }
+    final String digest = (String)entryMap.get("digest");
+    return new ChartRepository.Index.Entry(this.interner.intern(metadataBuilder.getName()),
+                                           this.interner.intern(metadataBuilder.getVersion()),
+                                           metadataBuilder.build().toByteArray(),
+                                           uris.isEmpty() ? ChartRepository.Index.Entry.NO_URIS : uris.toArray(new String[uris.size()]),
+                                           digest);
+  }
+
+}
@@ -0,0 +1,526 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2017 MicroBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.helm.chart.repository;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.net.URISyntaxException;
+
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+
+import java.nio.channels.FileChannel;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import java.nio.file.attribute.BasicFileAttributes;
+
+import java.security.MessageDigest;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import javax.xml.bind.DatatypeConverter;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+
+import hapi.chart.MetadataOuterClass.Metadata;
+
+/**
+ * A utility class that reads and writes compact binary snapshots of
+ * {@link ChartRepository.Index} instances, stored next to the <a
+ * href="https://docs.helm.sh/developing_charts/#the-index-file">{@code
+ * index.yaml}</a> file from which they were parsed.
+ *
+ * <p>A snapshot begins with a header recording the size, last
+ * modified time and SHA-256 digest of the YAML file it was derived
+ * from.  A snapshot is considered valid if the YAML file's size and
+ * last modified time are unchanged, or, if only its last modified
+ * time has changed, if its digest is unchanged, in which case the
+ * snapshot is rewritten to record the new last modified time so that
+ * the YAML file need not be hashed again.  Each {@link
+ * ChartRepository.Index.Entry} is then stored as its name and
+ * version, a protocol-buffers-serialized {@link Metadata}, and its
+ * {@linkplain ChartRepository.Index.Entry#getUris() URIs} and
+ * {@linkplain ChartRepository.Index.Entry#getDigest() digest}.  The
+ * serialized {@link Metadata} is read back as an opaque byte array,
+ * exactly as a {@link ChartRepository.Index.Entry} stores it, and is
+ * never deserialized by this class.</p>
+ *
+ * <p>Both snapshots and {@code index.yaml} files are read by
+ * {@linkplain #map(Path) memory-mapping} them, so that processes
+ * sharing a cache directory share the operating system's page cache
+ * for them too, rather than each reading its own copy onto the Java
+ * heap.  This is safe because neither kind of file is ever modified
+ * in place: each is only ever replaced by {@linkplain
+ * StandardCopyOption#ATOMIC_MOVE atomically renaming} a new file over
+ * it, which leaves existing mappings of the old file intact.  A
+ * mapping can only be released by the garbage collector, and some
+ * file systems, notably those on Windows, refuse to rename a file
+ * over one that is still mapped, so on file systems that do not
+ * support POSIX file attributes the files are read onto the Java
+ * heap instead.</p>
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see #load(Path)
+ */
+final class IndexSnapshot {
+
+
+  /*
+   * Static fields.
+   */
+
+
+  /**
+   * The "magic number" with which every snapshot begins ({@code
+   * HIDX} in ASCII).
+   */
+  private static final int MAGIC = 0x48494458;
+
+  /**
+   * The version of the snapshot format written by this class.
+   */
+  private static final int FORMAT_VERSION = 2;
+
+  /**
+   * The suffix appended to the file name of an {@code index.yaml}
+   * file to form the file name of its snapshot.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private static final String SUFFIX = ".snapshot";
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link IndexSnapshot}.
+   */
+  private IndexSnapshot() {
+    super();
+  }
+
+
+  /*
+   * Static methods.
+   */
+
+
+  /**
+   * Returns the {@link Path} of the snapshot that corresponds to the
+   * supplied {@link Path} to an {@code index.yaml} file.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param yamlPath the {@link Path} to an {@code index.yaml} file;
+   * must not be {@code null}
+   *
+   * @return the {@link Path} of the corresponding snapshot; never
+   * {@code null}
+   *
+   * @exception NullPointerException if {@code yamlPath} is {@code
+   * null}
+   */
+  static final Path getSnapshotPath(final Path yamlPath) {
+    Objects.requireNonNull(yamlPath);
+    return yamlPath.resolveSibling(new StringBuilder(yamlPath.getFileName().toString()).append(SUFFIX).toString());
+  }
+
+  /**
+   * Returns a new {@link ChartRepository.Index} representing the
+   * contents of the {@code index.yaml} file located at the supplied
+   * {@link Path}, reading it from a valid snapshot if one exists, or
+   * parsing the YAML file and writing a new snapshot if not.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * <p>Failure to write a snapshot is not considered an error.</p>
+   *
+   * @param yamlPath the {@link Path} to an {@code index.yaml} file;
+   * must not be {@code null}
+   *
+   * @return a new {@link ChartRepository.Index}; never {@code null}
+   *
+   * @exception NullPointerException if {@code yamlPath} is {@code
+   * null}
+   *
+   * @exception IOException if there was a problem reading the YAML
+   * file
+   *
+   * @exception URISyntaxException if one of the URIs in the YAML
+   * file was invalid
+   */
+  static final ChartRepository.Index load(final Path yamlPath) throws IOException, URISyntaxException {
+    return load(yamlPath, null);
+  }
+
+  /**
+   * Returns a new {@link ChartRepository.Index} representing the
+   * contents of the {@code index.yaml} file located at the supplied
+   * {@link Path}, reading it from a valid snapshot if one exists, or
+   * parsing the YAML file and writing a new snapshot if not, and
+   * canonicalizing repeated values with the supplied {@link
+   * Interner}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * <p>Failure to write a snapshot is not considered an error.</p>
+   *
+   * @param yamlPath the {@link Path} to an {@code index.yaml} file;
+   * must not be {@code null}
+   *
+   * @param interner the {@link Interner} to use; may be {@code null}
+   * in which case a new {@link Interner} will be used
+   *
+   * @return a new {@link ChartRepository.Index}; never {@code null}
+   *
+   * @exception NullPointerException if {@code yamlPath} is {@code
+   * null}
+   *
+   * @exception IOException if there was a problem reading the YAML
+   * file
+   *
+   * @exception URISyntaxException if one of the URIs in the YAML
+   * file was invalid
+   */
+  static final ChartRepository.Index load(final Path yamlPath, final Interner interner) throws IOException, URISyntaxException {
+    Objects.requireNonNull(yamlPath);
+    final Interner effectiveInterner = interner == null ? new Interner() : interner;
+    final Path snapshotPath = getSnapshotPath(yamlPath);
+    assert snapshotPath != null;
+    ChartRepository.Index returnValue = read(snapshotPath, yamlPath, effectiveInterner);
+    if (returnValue == null) {
+      final BasicFileAttributes before = Files.readAttributes(yamlPath, BasicFileAttributes.class);
+      assert before != null;
+      final ByteBuffer yaml = map(yamlPath);
+      assert yaml != null;
+      final MessageDigest md = DigestVerifyingInputStream.newSha256MessageDigest();
+      md.update(yaml.duplicate());
+      returnValue = ChartRepository.Index.loadFrom(new ByteBufferInputStream(yaml), effectiveInterner);
+      assert returnValue != null;
+      final BasicFileAttributes after = Files.readAttributes(yamlPath, BasicFileAttributes.class);
+      assert after != null;
+      if (before.size() == after.size() && before.lastModifiedTime().equals(after.lastModifiedTime())) {
+        try {
+          write(returnValue, snapshotPath, after.size(), after.lastModifiedTime().toMillis(), DatatypeConverter.printHexBinary(md.digest()));
+        } catch (final IOException ignore) {
+
+        }
+      }
+    }
+    return returnValue;
+  }
+
+  /**
+   * Reads a snapshot from the supplied {@code snapshotPath} and
+   * returns the {@link ChartRepository.Index} it represents, or
+   * {@code null} if the snapshot does not exist, is unreadable, or is
+   * stale with respect to the YAML file located at {@code yamlPath}.
+   *
+   * <p>This method may return {@code null}.</p>
+   *
+   * @param snapshotPath the {@link Path} to the snapshot; must not be
+   * {@code null}
+   *
+   * @param yamlPath the {@link Path} to the {@code index.yaml} file
+   * from which the snapshot was derived; must not be {@code null}
+   *
+   * @return a new {@link ChartRepository.Index}, or {@code null}
+   *
+   * @exception NullPointerException if either parameter is {@code
+   * null}
+   */
+  static final ChartRepository.Index read(final Path snapshotPath, final Path yamlPath) {
+    return read(snapshotPath, yamlPath, null);
+  }
+
+  /**
+   * Reads a snapshot from the supplied {@code snapshotPath} and
+   * returns the {@link ChartRepository.Index} it represents,
+   * canonicalizing repeated values with the supplied {@link
+   * Interner}, or {@code null} if the snapshot does not exist, is
+   * unreadable, or is stale with respect to the YAML file located at
+   * {@code yamlPath}.
+   *
+   * <p>This method may return {@code null}.</p>
+   *
+   * <p>If the snapshot had to be validated by hashing the YAML file,
+   * because only the YAML file's last modified time had changed, the
+   * snapshot is {@linkplain #write(ChartRepository.Index, Path, long,
+   * long, String) rewritten} with that last modified time.  Failure
+   * to rewrite it is not considered an error.</p>
+   *
+   * @param snapshotPath the {@link Path} to the snapshot; must not be
+   * {@code null}
+   *
+   * @param yamlPath the {@link Path} to the {@code index.yaml} file
+   * from which the snapshot was derived; must not be {@code null}
+   *
+   * @param interner the {@link Interner} to use; may be {@code null}
+   * in which case a new {@link Interner} will be used
+   *
+   * @return a new {@link ChartRepository.Index}, or {@code null}
+   *
+   * @exception NullPointerException if {@code snapshotPath} or
+   * {@code yamlPath} is {@code null}
+   */
+  static final ChartRepository.Index read(final Path snapshotPath, final Path yamlPath, final Interner interner) {
+    Objects.requireNonNull(snapshotPath);
+    Objects.requireNonNull(yamlPath);
+    ChartRepository.Index returnValue = null;
+    if (Files.isRegularFile(snapshotPath) && Files.isRegularFile(yamlPath)) {
+      try {
+        // Decoded directly from the mapped pages; only the strings
+        // and metadata bytes retained by each Entry are copied.
+        final CodedInputStream input = CodedInputStream.newInstance(map(snapshotPath));
+        assert input != null;
+        if (input.readFixed32() == MAGIC && input.readUInt32() == FORMAT_VERSION) {
+          final long size = input.readFixed64();
+          final long lastModified = input.readFixed64();
+          final String digest = input.readString();
+          final BasicFileAttributes attributes = Files.readAttributes(yamlPath, BasicFileAttributes.class);
+          assert attributes != null;
+          if (attributes.size() == size) {
+            final long currentLastModified = attributes.lastModifiedTime().toMillis();
+            if (currentLastModified == lastModified) {
+              returnValue = readEntries(input, interner == null ? new Interner() : interner);
+            } else if (digest.equalsIgnoreCase(ChartRepository.Index.Entry.getDigest(yamlPath))) {
+              returnValue = readEntries(input, interner == null ? new Interner() : interner);
+              // The YAML file was only touched; record that so that
+              // the next read need not hash it again.
+              try {
+                write(returnValue, snapshotPath, size, currentLastModified, digest);
+              } catch (final IOException ignore) {
+
+              }
+            }
+          }
+        }
+      } catch (final IOException | RuntimeException ignore) {
+        // A missing, truncated or otherwise damaged snapshot simply
+        // means the YAML file has to be parsed.
+        returnValue = null;
+      }
+    }
+    return returnValue;
+  }
+
+  /**
+   * {@linkplain FileChannel#map(FileChannel.MapMode, long, long)
+   * Maps} the whole of the file at the supplied {@link Path} into
+   * memory, read-only, and returns the resulting {@link
+   * MappedByteBuffer}, or, if the file's {@linkplain
+   * Path#getFileSystem() file system} does not {@linkplain
+   * java.nio.file.FileSystem#supportedFileAttributeViews() support}
+   * POSIX file attributes, reads the whole of it into a {@link
+   * ByteBuffer} on the Java heap and returns that.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * <p>A mapping remains valid after this method returns, until the
+   * returned {@link MappedByteBuffer} is garbage collected.  The file
+   * must not be truncated while the mapping is in use.  File systems
+   * that do not support POSIX file attributes, such as those on
+   * Windows, typically also do not permit a file to be replaced while
+   * it is mapped, which is why no mapping is made on them.</p>
+   *
+   * @param path the {@link Path} of the file to map; must not be
+   * {@code null}
+   *
+   * @return a read-only {@link ByteBuffer}; never {@code null}
+   *
+   * @exception NullPointerException if {@code path} is {@code null}
+   *
+   * @exception IOException if the file could not be mapped or read,
+   * or is larger than {@link Integer#MAX_VALUE} bytes
+   */
+  static final ByteBuffer map(final Path path) throws IOException {
+    Objects.requireNonNull(path);
+    final ByteBuffer returnValue;
+    try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      final long size = channel.size();
+      if (size > Integer.MAX_VALUE) {
+        throw new IOException("File too large to map: " + path);
+      }
+      if (path.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+        returnValue = channel.map(FileChannel.MapMode.READ_ONLY, 0L, size);
+      } else {
+        final ByteBuffer buffer = ByteBuffer.allocate((int)size);
+        while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+          // Keep reading.
+        }
+        buffer.flip();
+        returnValue = buffer.asReadOnlyBuffer();
+      }
+    }
+    return returnValue;
+  }
+
+  /**
+   * Reads the entries portion of a snapshot from the supplied {@link
+   * CodedInputStream} and returns a new {@link ChartRepository.Index}
+   * containing them.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param input the {@link CodedInputStream} to read from; must not
+   * be {@code null}
+   *
+   * @param interner the {@link Interner} used to canonicalize chart
+   * names, versions and URLs; must not be {@code null}
+   *
+   * @return a new {@link ChartRepository.Index}; never {@code null}
+   *
+   * @exception IOException if an input or output error occurs
+   */
+  private static final ChartRepository.Index readEntries(final CodedInputStream input, final Interner interner) throws IOException {
+    Objects.requireNonNull(input);
+    Objects.requireNonNull(interner);
+    final SortedMap<String, SortedSet<ChartRepository.Index.Entry>> sortedEntryMap = new TreeMap<>();
+    final int nameCount = input.readUInt32();
+    for (int i = 0; i < nameCount; i++) {
+      final String name = interner.intern(input.readString());
+      final SortedSet<ChartRepository.Index.Entry> entries = new TreeSet<>(Collections.reverseOrder());
+      final int entryCount = input.readUInt32();
+      for (int j = 0; j < entryCount; j++) {
+        final String entryName = interner.intern(input.readString());
+        final String version = interner.intern(input.readString());
+        final byte[] metadataBytes = input.readByteArray();
+        final int uriCount = input.readUInt32();
+        final String[] uris = uriCount == 0 ? ChartRepository.Index.Entry.NO_URIS : new String[uriCount];
+        for (int k = 0; k < uriCount; k++) {
+          uris[k] = interner.intern(input.readString());
+        }
+        final String digest;
+        if (input.readBool()) {
+          digest = input.readString();
+        } else {
+          digest = null;
+        }
+        entries.add(new ChartRepository.Index.Entry(entryName, version, metadataBytes, uris, digest));
+      }
+      sortedEntryMap.put(name, entries);
+    }
+    if (!input.isAtEnd()) {
+      throw new IOException("Trailing data in snapshot");
+    }
+    return new ChartRepository.Index(sortedEntryMap);
+  }
+
+  /**
+   * Writes a snapshot of the supplied {@link ChartRepository.Index}
+   * to the supplied {@link Path}, replacing any existing snapshot
+   * atomically.
+   *
+   * @param index the {@link ChartRepository.Index} to write; must not
+   * be {@code null}
+   *
+   * @param snapshotPath the {@link Path} to write to; must not be
+   * {@code null}
+   *
+   * @param size the size, in bytes, of the YAML file from which the
+   * supplied {@link ChartRepository.Index} was parsed
+   *
+   * @param lastModified the last modified time, in milliseconds since
+   * the epoch, of the YAML file from which the supplied {@link
+   * ChartRepository.Index} was parsed
+   *
+   * @param digest the hexadecimal-encoded SHA-256 digest of the YAML
+   * file from which the supplied {@link ChartRepository.Index} was
+   * parsed; must not be {@code null}
+   *
+   * @exception NullPointerException if {@code index}, {@code
+   * snapshotPath} or {@code digest} is {@code null}
+   *
+   * @exception IOException if an input or output error occurs
+   */
+  static final void write(final ChartRepository.Index index, final Path snapshotPath, final long size, final long lastModified, final String digest) throws IOException {
+    Objects.requireNonNull(index);
+    Objects.requireNonNull(snapshotPath);
+    Objects.requireNonNull(digest);
+    final Path directory = snapshotPath.toAbsolutePath().getParent();
+    assert directory != null;
+    final Path temporaryPath = Files.createTempFile(directory, snapshotPath.getFileName().toString(), ".tmp");
+    assert temporaryPath != null;
+    try {
+      try (final OutputStream stream = new BufferedOutputStream(Files.newOutputStream(temporaryPath))) {
+        final CodedOutputStream output = CodedOutputStream.newInstance(stream);
+        assert output != null;
+        output.writeFixed32NoTag(MAGIC);
+        output.writeUInt32NoTag(FORMAT_VERSION);
+        output.writeFixed64NoTag(size);
+        output.writeFixed64NoTag(lastModified);
+        output.writeStringNoTag(digest);
+        final Map<String, SortedSet<ChartRepository.Index.Entry>> entries = index.getEntries();
+        assert entries != null;
+        output.writeUInt32NoTag(entries.size());
+        for (final Map.Entry<String, SortedSet<ChartRepository.Index.Entry>> mapEntry : entries.entrySet()) {
+          output.writeStringNoTag(mapEntry.getKey());
+          final Collection<? extends ChartRepository.Index.Entry> entrySet = mapEntry.getValue();
+          if (entrySet == null) {
+            output.writeUInt32NoTag(0);
+          } else {
+            output.writeUInt32NoTag(entrySet.size());
+            for (final ChartRepository.Index.Entry entry : entrySet) {
+              output.writeStringNoTag(entry.getName());
+              output.writeStringNoTag(entry.getVersion());
+              output.writeByteArrayNoTag(entry.getMetadataBytes());
+              final String[] uris = entry.getUriStrings();
+              output.writeUInt32NoTag(uris.length);
+              for (final String uri : uris) {
+                output.writeStringNoTag(uri);
+              }
+              final String entryDigest = entry.getDigest();
+              output.writeBoolNoTag(entryDigest != null);
+              if (entryDigest != null) {
+                output.writeStringNoTag(entryDigest);
+              }
+            }
+          }
+        }
+        output.flush();
+      }
+      Files.move(temporaryPath, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (final IOException | RuntimeException throwMe) {
+      try {
+        Files.deleteIfExists(temporaryPath);
+      } catch (final IOException suppressMe) {
+        throwMe.addSuppressed(suppressMe);
+      }
+      throw throwMe;
+    }
+  }
+
+}
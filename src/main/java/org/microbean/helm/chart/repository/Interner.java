@@ -0,0 +1,243 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2017 MicroBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.helm.chart.repository;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A table of canonical {@link String} instances, used while loading
+ * {@link ChartRepository.Index} instances so that values repeated
+ * across many {@link ChartRepository.Index.Entry} objects—chart
+ * names, versions and URLs—are represented by a single {@link
+ * String} rather than by one copy per occurrence.
+ *
+ * <p>One {@link Interner} is created for each {@linkplain
+ * ChartRepository.Index#loadFrom(java.io.InputStream) load}, or shared
+ * by all the {@link ChartRepository} instances managed by a {@link
+ * ChartRepositoryRepository}, so that {@linkplain
+ * ChartRepository.Index#mergeAll(java.util.Collection) merged}
+ * indices share instances too.  A shared {@link Interner} lives as
+ * long as its {@link ChartRepository} instances do, and sees every
+ * {@link ChartRepository.Index} they ever load, so it holds its
+ * canonical instances only {@linkplain WeakReference weakly}: once
+ * no {@link ChartRepository.Index} refers to a canonical instance any
+ * more, for example because the {@link ChartRepository.Index} that
+ * did was replaced by a refreshed one, it may be garbage collected
+ * and is then forgotten.</p>
+ *
+ * <p>Instances of this class are safe for concurrent use by multiple
+ * threads, and do not serialize them: a shared {@link Interner} is
+ * used by every thread {@linkplain
+ * ChartRepositoryRepository#refreshIndices(boolean, long,
+ * java.util.concurrent.TimeUnit) refreshing} an index at the same
+ * time.</p>
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ */
+final class Interner {
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  /**
+   * The canonical {@link String}s, each {@linkplain WeakReference
+   * weakly referenced} by a {@link CanonicalReference} that is mapped
+   * to itself.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final ConcurrentMap<CanonicalReference, CanonicalReference> strings;
+
+  /**
+   * The {@link ReferenceQueue} with which the {@link
+   * CanonicalReference}s in {@link #strings} are registered, so that
+   * those whose {@link String}s have been garbage collected can be
+   * {@linkplain #purge() removed}.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final ReferenceQueue<String> queue;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new, empty {@link Interner}.
+   */
+  Interner() {
+    super();
+    this.strings = new ConcurrentHashMap<>();
+    this.queue = new ReferenceQueue<>();
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  /**
+   * Returns the canonical instance of the supplied {@link String},
+   * making it the canonical instance if there is none yet.
+   *
+   * <p>This method returns {@code null} if and only if {@code s} is
+   * {@code null}.</p>
+   *
+   * @param s the {@link String} to intern; may be {@code null}
+   *
+   * @return the canonical {@link String} equal to {@code s}, or
+   * {@code null}
+   */
+  final String intern(final String s) {
+    String returnValue = null;
+    if (s != null) {
+      this.purge();
+      final CanonicalReference reference = new CanonicalReference(s, this.queue);
+      while (returnValue == null) {
+        final CanonicalReference existing = this.strings.putIfAbsent(reference, reference);
+        if (existing == null) {
+          returnValue = s;
+        } else {
+          returnValue = existing.get();
+          if (returnValue == null) {
+            // The canonical instance was garbage collected after it
+            // was found; make s the canonical instance instead.
+            this.strings.remove(existing, existing);
+          }
+        }
+      }
+    }
+    return returnValue;
+  }
+
+  /**
+   * Returns the number of canonical {@link String}s held by this
+   * {@link Interner} that have not yet been garbage collected.
+   *
+   * @return the number of canonical {@link String}s held by this
+   * {@link Interner}; never negative
+   */
+  final int size() {
+    this.purge();
+    return this.strings.size();
+  }
+
+  /**
+   * Removes from {@link #strings} every {@link CanonicalReference}
+   * whose {@link String} has been garbage collected.
+   */
+  private final void purge() {
+    Reference<? extends String> reference;
+    while ((reference = this.queue.poll()) != null) {
+      this.strings.remove(reference);
+    }
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * A {@link WeakReference} to a {@link String} that is {@linkplain
+   * #equals(Object) equal} to another {@link CanonicalReference} if
+   * both still refer to equal {@link String}s.
+   *
+   * <p>A {@link CanonicalReference} whose {@link String} has been
+   * garbage collected is equal only to itself, but retains its
+   * {@linkplain #hashCode() hash code}, so that it can still be
+   * removed from a {@link java.util.Map}.</p>
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class CanonicalReference extends WeakReference<String> {
+
+    /**
+     * The {@linkplain String#hashCode() hash code} of the {@link
+     * String} referred to by this {@link CanonicalReference}.
+     */
+    private final int hashCode;
+
+    /**
+     * Creates a new {@link CanonicalReference}.
+     *
+     * @param s the {@link String} to refer to; must not be {@code
+     * null}
+     *
+     * @param queue the {@link ReferenceQueue} with which to register
+     * this {@link CanonicalReference}; may be {@code null}
+     */
+    private CanonicalReference(final String s, final ReferenceQueue<? super String> queue) {
+      super(s, queue);
+      this.hashCode = s.hashCode();
+    }
+
+    /**
+     * Returns the {@linkplain String#hashCode() hash code} of the
+     * {@link String} referred to by this {@link CanonicalReference}
+     * when it was created.
+     *
+     * @return a hash code
+     */
+    @Override
+    public final int hashCode() {
+      return this.hashCode;
+    }
+
+    /**
+     * Returns {@code true} if the supplied {@link Object} is this
+     * {@link CanonicalReference}, or is a {@link CanonicalReference}
+     * that refers to a {@link String} {@linkplain
+     * String#equals(Object) equal} to the one referred to by this
+     * {@link CanonicalReference}.
+     *
+     * @param other the {@link Object} to test; may be {@code null}
+     *
+     * @return {@code true} if the supplied {@link Object} is equal to
+     * this {@link CanonicalReference}; {@code false} otherwise
+     */
+    @Override
+    public final boolean equals(final Object other) {
+      final boolean returnValue;
+      if (other == this) {
+        returnValue = true;
+      } else if (other instanceof CanonicalReference) {
+        final String s = this.get();
+        returnValue = s != null && s.equals(((CanonicalReference)other).get());
+      } else {
+        returnValue = false;
+      }
+      return returnValue;
+    }
+
+  }
+
+}
@@ -0,0 +1,337 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2017 MicroBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.helm.chart.repository;
+
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.io.IOException;
+
+import java.net.HttpURLConnection;
+import java.net.URI;
+
+import java.time.Duration;
+
+import java.util.Map;
+import java.util.Objects;
+
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.ConnectionPool;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.ResponseBody;
+
+import org.microbean.development.annotation.Experimental;
+
+/**
+ * A {@link Transport} that uses an {@link OkHttpClient}, and so keeps
+ * a pool of connections alive between requests, negotiates HTTP/2
+ * where the platform permits it, and decompresses {@code gzip}-encoded
+ * responses transparently.
+ *
+ * <p>Requests for {@link URI}s whose schemes are neither {@code http}
+ * nor {@code https} are delegated to a {@link
+ * URLConnectionTransport}.</p>
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see URLConnectionTransport
+ */
+@Experimental
+public class OkHttpTransport extends Transport {
+
+
+  /*
+   * Static fields.
+   */
+
+
+  /**
+   * The default maximum number of idle connections kept in the
+   * connection pool of an {@link OkHttpClient} created by this
+   * class.
+   */
+  private static final int DEFAULT_MAX_IDLE_CONNECTIONS = 8;
+
+  /**
+   * The default amount of time an idle connection is kept in the
+   * connection pool of an {@link OkHttpClient} created by this class.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private static final Duration DEFAULT_KEEP_ALIVE = Duration.ofMinutes(5L);
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  /**
+   * The {@link OkHttpClient} that performs requests.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final OkHttpClient client;
+
+  /**
+   * The {@link Transport} to which requests for {@link URI}s that
+   * are not {@code http} or {@code https} {@link URI}s are delegated.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final Transport fallback;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link OkHttpTransport} with the {@linkplain
+   * Transport#DEFAULT_CONNECT_TIMEOUT default connect timeout} and
+   * the {@linkplain Transport#DEFAULT_READ_TIMEOUT default read
+   * timeout}.
+   *
+   * @see #OkHttpTransport(Duration, Duration)
+   */
+  public OkHttpTransport() {
+    this(DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT);
+  }
+
+  /**
+   * Creates a new {@link OkHttpTransport} with its own pool of
+   * connections.
+   *
+   * @param connectTimeout the maximum amount of time to wait for a
+   * connection to be established; must not be {@code null} or
+   * negative; {@link Duration#ZERO} means no limit
+   *
+   * @param readTimeout the maximum amount of time to wait for data
+   * to become available while reading a response; must not be {@code
+   * null} or negative; {@link Duration#ZERO} means no limit
+   *
+   * @exception NullPointerException if either parameter is {@code
+   * null}
+   *
+   * @exception IllegalArgumentException if either parameter is
+   * negative
+   */
+  public OkHttpTransport(final Duration connectTimeout, final Duration readTimeout) {
+    this(new OkHttpClient.Builder()
+         .connectTimeout(toMillis(connectTimeout), TimeUnit.MILLISECONDS)
+         .readTimeout(toMillis(readTimeout), TimeUnit.MILLISECONDS)
+         .connectionPool(new ConnectionPool(DEFAULT_MAX_IDLE_CONNECTIONS, DEFAULT_KEEP_ALIVE.toMillis(), TimeUnit.MILLISECONDS))
+         .build(),
+         new URLConnectionTransport(connectTimeout, readTimeout));
+  }
+
+  /**
+   * Creates a new {@link OkHttpTransport} that uses the supplied
+   * {@link OkHttpClient}, and hence its connection pool, timeouts,
+   * proxy settings and so on.
+   *
+   * @param client the {@link OkHttpClient} to use; must not be {@code
+   * null}
+   *
+   * @exception NullPointerException if {@code client} is {@code
+   * null}
+   */
+  public OkHttpTransport(final OkHttpClient client) {
+    this(client, new URLConnectionTransport(Duration.ofMillis(client.connectTimeoutMillis()), Duration.ofMillis(client.readTimeoutMillis())));
+  }
+
+  /**
+   * Creates a new {@link OkHttpTransport}.
+   *
+   * @param client the {@link OkHttpClient} to use; must not be {@code
+   * null}
+   *
+   * @param fallback the {@link Transport} to which requests for
+   * {@link URI}s that are not {@code http} or {@code https} {@link
+   * URI}s are delegated; must not be {@code null}
+   *
+   * @exception NullPointerException if either parameter is {@code
+   * null}
+   */
+  private OkHttpTransport(final OkHttpClient client, final Transport fallback) {
+    super();
+    this.client = Objects.requireNonNull(client);
+    this.fallback = Objects.requireNonNull(fallback);
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  /**
+   * Returns the {@link OkHttpClient} used by this {@link
+   * OkHttpTransport}.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @return the non-{@code null} {@link OkHttpClient} used by this
+   * {@link OkHttpTransport}
+   */
+  public final OkHttpClient getClient() {
+    return this.client;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>This implementation relies on the {@link OkHttpClient}'s
+   * transparent {@code gzip} support when a compressed response body
+   * is asked for, and otherwise asks for the {@code identity}
+   * encoding.</p>
+   */
+  @Override
+  public Response get(final URI uri, final Map<? extends String, ? extends String> requestHeaders) throws IOException {
+    Objects.requireNonNull(uri);
+    final Response returnValue;
+    final HttpUrl url = HttpUrl.get(uri);
+    if (url == null) {
+      returnValue = this.fallback.get(uri, requestHeaders);
+    } else {
+      final boolean gzip = acceptsGzip(requestHeaders);
+      final Request.Builder builder = new Request.Builder().url(url);
+      if (requestHeaders != null && !requestHeaders.isEmpty()) {
+        for (final Map.Entry<? extends String, ? extends String> entry : requestHeaders.entrySet()) {
+          if (entry != null && !(gzip && "Accept-Encoding".equalsIgnoreCase(entry.getKey()))) {
+            builder.header(entry.getKey(), entry.getValue());
+          }
+        }
+      }
+      if (!gzip) {
+        builder.header("Accept-Encoding", "identity");
+      }
+      returnValue = new OkHttpResponse(uri, this.client.newCall(builder.build()).execute());
+    }
+    return returnValue;
+  }
+
+
+  /*
+   * Static methods.
+   */
+
+
+  /**
+   * Converts the supplied timeout to a non-negative number of
+   * milliseconds.
+   *
+   * @param timeout the timeout; must not be {@code null} or negative
+   *
+   * @return a non-negative number of milliseconds
+   *
+   * @exception NullPointerException if {@code timeout} is {@code
+   * null}
+   *
+   * @exception IllegalArgumentException if {@code timeout} is
+   * negative
+   */
+  private static final long toMillis(final Duration timeout) {
+    Objects.requireNonNull(timeout);
+    if (timeout.isNegative()) {
+      throw new IllegalArgumentException("timeout.isNegative(): " + timeout);
+    }
+    return timeout.toMillis();
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * A {@link Transport.Response} backed by an {@link
+   * okhttp3.Response}.
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class OkHttpResponse extends Response {
+
+    /**
+     * The {@link URI} that was requested.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final URI uri;
+
+    /**
+     * The {@link okhttp3.Response} being adapted.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final okhttp3.Response response;
+
+    /**
+     * Creates a new {@link OkHttpResponse}.
+     *
+     * @param uri the {@link URI} that was requested; must not be
+     * {@code null}
+     *
+     * @param response the {@link okhttp3.Response} to adapt; must not
+     * be {@code null}
+     */
+    private OkHttpResponse(final URI uri, final okhttp3.Response response) {
+      super();
+      this.uri = Objects.requireNonNull(uri);
+      this.response = Objects.requireNonNull(response);
+    }
+
+    @Override
+    public final int getStatusCode() {
+      return this.response.code();
+    }
+
+    @Override
+    public final String getHeader(final String name) {
+      Objects.requireNonNull(name);
+      return this.response.header(name);
+    }
+
+    @Override
+    public final InputStream getInputStream() throws IOException {
+      final int statusCode = this.response.code();
+      if (statusCode == HttpURLConnection.HTTP_NOT_FOUND || statusCode == HttpURLConnection.HTTP_GONE) {
+        throw new FileNotFoundException(this.uri.toString());
+      } else if (statusCode >= HttpURLConnection.HTTP_BAD_REQUEST) {
+        throw new IOException("Server returned HTTP response code: " + statusCode + " for URL: " + this.uri);
+      }
+      final ResponseBody body = this.response.body();
+      if (body == null) {
+        throw new IOException("No response body for URL: " + this.uri);
+      }
+      return body.byteStream();
+    }
+
+    @Override
+    public final void close() {
+      this.response.close();
+    }
+
+  }
+
+}
@@ -0,0 +1,644 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2017 MicroBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.helm.chart.repository;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeMap;
+
+import java.util.regex.Pattern;
+
+import hapi.chart.MetadataOuterClass.MaintainerOrBuilder;
+import hapi.chart.MetadataOuterClass.MetadataOrBuilder;
+
+import org.microbean.development.annotation.Experimental;
+
+/**
+ * An immutable inverted index over the {@linkplain
+ * ChartRepository.Index#getEntries() entries} of a {@link
+ * ChartRepository.Index} that supports ranked, prefix-matching
+ * keyword queries.
+ *
+ * <p>The terms of the index are the lowercased, alphanumeric tokens
+ * of each {@link ChartRepository.Index.Entry}'s name, keywords,
+ * maintainers, description and sources.  A term found in a chart's
+ * name counts for more than one found in its keywords, which counts
+ * for more than one found in its maintainers, which counts for more
+ * than one found in its description or sources.</p>
+ *
+ * <p>Instances of this class are obtained by way of the {@link
+ * ChartRepository.Index#getSearchIndex()} method, and are safe for
+ * use by multiple concurrent threads.</p>
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see #search(String, boolean)
+ *
+ * @see ChartRepositoryRepository#search(String, boolean)
+ */
+@Experimental
+public final class SearchIndex {
+
+
+  /*
+   * Static fields.
+   */
+
+
+  /**
+   * A {@link Pattern} matching runs of characters that separate
+   * tokens.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private static final Pattern separatorPattern = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+  /**
+   * The weight of a term found in a chart's name.
+   */
+  private static final float NAME_WEIGHT = 8.0f;
+
+  /**
+   * The weight of a term found in a chart's keywords.
+   */
+  private static final float KEYWORD_WEIGHT = 4.0f;
+
+  /**
+   * The weight of a term found in a chart's maintainers.
+   */
+  private static final float MAINTAINER_WEIGHT = 2.0f;
+
+  /**
+   * The weight of a term found in a chart's description or sources.
+   */
+  private static final float TEXT_WEIGHT = 1.0f;
+
+  /**
+   * The factor by which the weight of a term is multiplied when a
+   * query token is a proper prefix of it, rather than equal to it.
+   */
+  private static final float PREFIX_FACTOR = 0.5f;
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  /**
+   * The indexed {@link ChartRepository.Index.Entry} objects; the
+   * {@linkplain Postings postings} of each term refer to them by
+   * their position in this array.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final ChartRepository.Index.Entry[] entries;
+
+  /**
+   * A {@link BitSet} whose set bits identify those {@linkplain
+   * #entries entries} that represent the latest version of their
+   * chart.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final BitSet latest;
+
+  /**
+   * A {@link NavigableMap} of {@link Postings} indexed by term, so
+   * that all terms beginning with a given prefix can be found
+   * efficiently.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  private final NavigableMap<String, Postings> terms;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link SearchIndex} over the {@linkplain
+   * ChartRepository.Index#getEntries() entries} of the supplied
+   * {@link ChartRepository.Index}.
+   *
+   * @param index the {@link ChartRepository.Index} to index; must
+   * not be {@code null}
+   *
+   * @exception NullPointerException if {@code index} is {@code null}
+   */
+  SearchIndex(final ChartRepository.Index index) {
+    super();
+    Objects.requireNonNull(index);
+    final List<ChartRepository.Index.Entry> entries = new ArrayList<>();
+    this.latest = new BitSet();
+    final Map<String, PostingsBuilder> builders = new HashMap<>();
+    final Map<String, Float> entryTerms = new HashMap<>();
+    final Collection<? extends SortedSet<ChartRepository.Index.Entry>> entrySets = index.getEntries().values();
+    for (final SortedSet<ChartRepository.Index.Entry> entrySet : entrySets) {
+      if (entrySet != null) {
+        boolean first = true;
+        for (final ChartRepository.Index.Entry entry : entrySet) {
+          if (entry != null) {
+            final int ordinal = entries.size();
+            entries.add(entry);
+            if (first) {
+              this.latest.set(ordinal);
+              first = false;
+            }
+            entryTerms.clear();
+            addTerms(entryTerms, entry);
+            for (final Map.Entry<String, Float> term : entryTerms.entrySet()) {
+              builders.computeIfAbsent(term.getKey(), t -> new PostingsBuilder()).add(ordinal, term.getValue().floatValue());
+            }
+          }
+        }
+      }
+    }
+    this.entries = entries.toArray(new ChartRepository.Index.Entry[entries.size()]);
+    final NavigableMap<String, Postings> terms = new TreeMap<>();
+    for (final Map.Entry<String, PostingsBuilder> builder : builders.entrySet()) {
+      terms.put(builder.getKey(), builder.getValue().build());
+    }
+    this.terms = Collections.unmodifiableNavigableMap(terms);
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  /**
+   * Returns the number of distinct terms in this {@link SearchIndex}.
+   *
+   * @return the number of distinct terms in this {@link
+   * SearchIndex}; never negative
+   */
+  public final int getTermCount() {
+    return this.terms.size();
+  }
+
+  /**
+   * Searches this {@link SearchIndex} and returns a {@link List} of
+   * {@link Hit}s, best first, each describing a {@link
+   * ChartRepository.Index.Entry} that matched every token of the
+   * supplied query.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * <p>The query is tokenized the same way indexed text is.  A query
+   * token matches a term that it equals, or, with a reduced score, a
+   * term of which it is a prefix.  A {@link Hit}'s {@linkplain
+   * Hit#getScore() score} is the sum, over all query tokens, of the
+   * weight of the best term each token matched, plus a bonus if the
+   * whole query equals the chart's name.  A query with no tokens
+   * matches everything with a score of {@code 0}.</p>
+   *
+   * <p>The {@link Hit}s returned by this method have a {@code null}
+   * {@linkplain Hit#getRepositoryName() repository name}.</p>
+   *
+   * @param query the query; must not be {@code null}
+   *
+   * @param allVersions if {@code true}, every matching version of a
+   * chart is returned; if {@code false}, only the latest version of
+   * each chart is considered
+   *
+   * @return an {@linkplain Collections#unmodifiableList(List)
+   * immutable} {@link List} of {@link Hit}s in descending order of
+   * score; never {@code null}
+   *
+   * @exception NullPointerException if {@code query} is {@code null}
+   */
+  public final List<Hit> search(final String query, final boolean allVersions) {
+    Objects.requireNonNull(query);
+    final int size = this.entries.length;
+    final Set<String> tokens = tokenize(query);
+    final float[] scores = new float[size];
+    final BitSet matches = new BitSet(size);
+    if (allVersions) {
+      matches.set(0, size);
+    } else {
+      matches.or(this.latest);
+    }
+    if (!tokens.isEmpty()) {
+      final float[] best = new float[size];
+      for (final String token : tokens) {
+        for (final Map.Entry<String, Postings> term : this.terms.subMap(token, true, token + Character.MAX_VALUE, false).entrySet()) {
+          final float factor = token.equals(term.getKey()) ? 1.0f : PREFIX_FACTOR;
+          final Postings postings = term.getValue();
+          for (int i = 0; i < postings.ordinals.length; i++) {
+            final int ordinal = postings.ordinals[i];
+            final float weight = postings.weights[i] * factor;
+            if (weight > best[ordinal]) {
+              best[ordinal] = weight;
+            }
+          }
+        }
+        for (int ordinal = matches.nextSetBit(0); ordinal >= 0; ordinal = matches.nextSetBit(ordinal + 1)) {
+          if (best[ordinal] > 0.0f) {
+            scores[ordinal] += best[ordinal];
+          } else {
+            matches.clear(ordinal);
+          }
+        }
+        Arrays.fill(best, 0.0f);
+      }
+    }
+    final String trimmedQuery = query.trim();
+    final List<Hit> returnValue = new ArrayList<>(matches.cardinality());
+    for (int ordinal = matches.nextSetBit(0); ordinal >= 0; ordinal = matches.nextSetBit(ordinal + 1)) {
+      final ChartRepository.Index.Entry entry = this.entries[ordinal];
+      float score = scores[ordinal];
+      if (!tokens.isEmpty() && trimmedQuery.equalsIgnoreCase(entry.getName())) {
+        score += NAME_WEIGHT;
+      }
+      returnValue.add(new Hit(null, entry, score));
+    }
+    Collections.sort(returnValue);
+    return Collections.unmodifiableList(returnValue);
+  }
+
+
+  /*
+   * Static methods.
+   */
+
+
+  /**
+   * Adds the terms found in the supplied {@link
+   * ChartRepository.Index.Entry} to the supplied {@link Map},
+   * retaining, for each term, the greatest weight of any field in
+   * which it was found.
+   *
+   * @param terms the {@link Map} to add to; must not be {@code null}
+   *
+   * @param entry the {@link ChartRepository.Index.Entry} to read;
+   * must not be {@code null}
+   */
+  private static final void addTerms(final Map<String, Float> terms, final ChartRepository.Index.Entry entry) {
+    final MetadataOrBuilder metadata = entry.getMetadataOrBuilder();
+    assert metadata != null;
+    addTerms(terms, metadata.getName(), NAME_WEIGHT);
+    for (final String keyword : metadata.getKeywordsList()) {
+      addTerms(terms, keyword, KEYWORD_WEIGHT);
+    }
+    for (final MaintainerOrBuilder maintainer : metadata.getMaintainersOrBuilderList()) {
+      if (maintainer != null) {
+        addTerms(terms, maintainer.getName(), MAINTAINER_WEIGHT);
+        addTerms(terms, maintainer.getEmail(), MAINTAINER_WEIGHT);
+      }
+    }
+    addTerms(terms, metadata.getDescription(), TEXT_WEIGHT);
+    for (final String source : metadata.getSourcesList()) {
+      addTerms(terms, source, TEXT_WEIGHT);
+    }
+  }
+
+  /**
+   * Adds the {@linkplain #tokenize(String) tokens} of the supplied
+   * text to the supplied {@link Map} with the supplied weight,
+   * unless they are already present with a greater weight.
+   *
+   * @param terms the {@link Map} to add to; must not be {@code null}
+   *
+   * @param text the text to tokenize; may be {@code null}
+   *
+   * @param weight the weight to associate with each token
+   */
+  private static final void addTerms(final Map<String, Float> terms, final String text, final float weight) {
+    for (final String token : tokenize(text)) {
+      final Float existingWeight = terms.get(token);
+      if (existingWeight == null || existingWeight.floatValue() < weight) {
+        terms.put(token, Float.valueOf(weight));
+      }
+    }
+  }
+
+  /**
+   * Splits the supplied text into a {@link Set} of distinct,
+   * lowercased tokens consisting only of letters and digits.
+   *
+   * <p>This method never returns {@code null}.</p>
+   *
+   * @param text the text to tokenize; may be {@code null} in which
+   * case an empty {@link Set} will be returned
+   *
+   * @return a {@link Set} of tokens in encounter order; never {@code
+   * null}
+   */
+  static final Set<String> tokenize(final String text) {
+    final Set<String> returnValue = new LinkedHashSet<>();
+    if (text != null && !text.isEmpty()) {
+      for (final String token : separatorPattern.split(text.toLowerCase(Locale.ROOT))) {
+        if (!token.isEmpty()) {
+          returnValue.add(token);
+        }
+      }
+    }
+    return returnValue;
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * A result of {@linkplain SearchIndex#search(String, boolean)
+   * searching} a {@link SearchIndex}.
+   *
+   * <p>{@link Hit}s are ordered by descending {@linkplain #getScore()
+   * score}, then by chart name, then by descending chart version,
+   * then by {@linkplain #getRepositoryName() repository name}.  This
+   * ordering is not consistent with equals.</p>
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  @Experimental
+  public static final class Hit implements Comparable<Hit> {
+
+
+    /*
+     * Instance fields.
+     */
+
+
+    /**
+     * The name of the {@link ChartRepository} whose index contains
+     * the {@linkplain #getEntry() matching entry}.
+     *
+     * <p>This field may be {@code null}.</p>
+     */
+    private final String repositoryName;
+
+    /**
+     * The matching {@link ChartRepository.Index.Entry}.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final ChartRepository.Index.Entry entry;
+
+    /**
+     * The score of this {@link Hit}; higher is better.
+     */
+    private final float score;
+
+
+    /*
+     * Constructors.
+     */
+
+
+    /**
+     * Creates a new {@link Hit}.
+     *
+     * @param repositoryName the name of the {@link ChartRepository}
+     * whose index contains the supplied {@link
+     * ChartRepository.Index.Entry}; may be {@code null}
+     *
+     * @param entry the matching {@link ChartRepository.Index.Entry};
+     * must not be {@code null}
+     *
+     * @param score the score; higher is better
+     *
+     * @exception NullPointerException if {@code entry} is {@code
+     * null}
+     */
+    Hit(final String repositoryName, final ChartRepository.Index.Entry entry, final float score) {
+      super();
+      this.repositoryName = repositoryName;
+      this.entry = Objects.requireNonNull(entry);
+      this.score = score;
+    }
+
+
+    /*
+     * Instance methods.
+     */
+
+
+    /**
+     * Returns the name of the {@link ChartRepository} whose index
+     * contains the {@linkplain #getEntry() matching entry}.
+     *
+     * <p>This method may return {@code null}.</p>
+     *
+     * @return the name of a {@link ChartRepository}, or {@code null}
+     */
+    public final String getRepositoryName() {
+      return this.repositoryName;
+    }
+
+    /**
+     * Returns the matching {@link ChartRepository.Index.Entry}.
+     *
+     * <p>This method never returns {@code null}.</p>
+     *
+     * @return the matching {@link ChartRepository.Index.Entry};
+     * never {@code null}
+     */
+    public final ChartRepository.Index.Entry getEntry() {
+      return this.entry;
+    }
+
+    /**
+     * Returns the score of this {@link Hit}; higher is better.
+     *
+     * @return the score of this {@link Hit}
+     */
+    public final float getScore() {
+      return this.score;
+    }
+
+    /**
+     * Compares this {@link Hit} to the supplied {@link Hit} such
+     * that better {@link Hit}s sort first.
+     *
+     * @param her the {@link Hit} to compare; must not be {@code
+     * null}
+     *
+     * @return a negative number if this {@link Hit} sorts before the
+     * supplied {@link Hit}, a positive number if it sorts after it,
+     * and {@code 0} otherwise
+     *
+     * @exception NullPointerException if {@code her} is {@code null}
+     */
+    @Override
+    public final int compareTo(final Hit her) {
+      Objects.requireNonNull(her); // see Comparable documentation
+      int returnValue = Float.compare(her.score, this.score);
+      if (returnValue == 0) {
+        if (Objects.equals(this.entry.getName(), her.entry.getName())) {
+          // Same chart; later versions first.
+          returnValue = her.entry.compareTo(this.entry);
+        } else {
+          returnValue = this.entry.compareTo(her.entry);
+        }
+        if (returnValue == 0) {
+          if (this.repositoryName == null) {
+            returnValue = her.repositoryName == null ? 0 : -1;
+          } else if (her.repositoryName == null) {
+            returnValue = 1;
+          } else {
+            returnValue = this.repositoryName.compareTo(her.repositoryName);
+          }
+        }
+      }
+      return returnValue;
+    }
+
+    /**
+     * Returns a non-{@code null} {@link String} representation of
+     * this {@link Hit}.
+     *
+     * @return a non-{@code null} {@link String} representation of
+     * this {@link Hit}
+     */
+    @Override
+    public final String toString() {
+      final StringBuilder sb = new StringBuilder();
+      if (this.repositoryName != null) {
+        sb.append(this.repositoryName).append('/');
+      }
+      return sb.append(this.entry).append(" (").append(this.score).append(')').toString();
+    }
+
+  }
+
+  /**
+   * The {@link ChartRepository.Index.Entry} ordinals and weights
+   * associated with a single term, in ascending ordinal order.
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class Postings {
+
+    /**
+     * The ordinals of the {@link ChartRepository.Index.Entry} objects
+     * in which the term occurs.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final int[] ordinals;
+
+    /**
+     * The weights with which the term occurs in the corresponding
+     * {@link ChartRepository.Index.Entry} objects.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final float[] weights;
+
+    /**
+     * Creates a new {@link Postings}.
+     *
+     * @param ordinals the ordinals; must not be {@code null}
+     *
+     * @param weights the weights; must not be {@code null} and must
+     * have the same length as {@code ordinals}
+     */
+    private Postings(final int[] ordinals, final float[] weights) {
+      super();
+      assert ordinals.length == weights.length;
+      this.ordinals = ordinals;
+      this.weights = weights;
+    }
+
+  }
+
+  /**
+   * A mutable accumulator of {@link Postings}.
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class PostingsBuilder {
+
+    /**
+     * The ordinals accumulated so far, followed by unused space.
+     */
+    private int[] ordinals;
+
+    /**
+     * The weights accumulated so far, followed by unused space.
+     */
+    private float[] weights;
+
+    /**
+     * The number of postings accumulated so far.
+     */
+    private int size;
+
+    /**
+     * Creates a new {@link PostingsBuilder}.
+     */
+    private PostingsBuilder() {
+      super();
+      this.ordinals = new int[4];
+      this.weights = new float[4];
+    }
+
+    /**
+     * Adds a posting.
+     *
+     * @param ordinal the ordinal, which must be greater than any
+     * previously added
+     *
+     * @param weight the weight
+     */
+    private final void add(final int ordinal, final float weight) {
+      assert this.size == 0 || this.ordinals[this.size - 1] < ordinal;
+      if (this.size == this.ordinals.length) {
+        this.ordinals = Arrays.copyOf(this.ordinals, this.size * 2);
+        this.weights = Arrays.copyOf(this.weights, this.size * 2);
+      }
+      this.ordinals[this.size] = ordinal;
+      this.weights[this.size] = weight;
+      this.size++;
+    }
+
+    /**
+     * Returns a new, exactly-sized {@link Postings} holding the
+     * postings accumulated so far.
+     *
+     * @return a new {@link Postings}; never {@code null}
+     */
+    private final Postings build() {
+      return new Postings(Arrays.copyOf(this.ordinals, this.size), Arrays.copyOf(this.weights, this.size));
+    }
+
+  }
+
+}
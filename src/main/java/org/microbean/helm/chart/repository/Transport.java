@@ -0,0 +1,234 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2017 MicroBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.helm.chart.repository;
+
+import java.io.Closeable;
+import java.io.InputStream;
+import java.io.IOException;
+
+import java.net.URI;
+
+import java.time.Duration;
+
+import java.util.Map;
+
+import org.microbean.development.annotation.Experimental;
+
+/**
+ * A service provider that retrieves remote resources, such as chart
+ * repository {@code index.yaml} files and Helm chart archives, on
+ * behalf of a {@link ChartRepository}.
+ *
+ * <p>Implementations of this class must be safe for concurrent use
+ * by multiple threads.  They are encouraged to reuse connections to
+ * the same host across requests.</p>
+ *
+ * <p>If the request headers supplied to the {@link #get(URI, Map)}
+ * method include an {@code Accept-Encoding} header with a value of
+ * {@code gzip}, then a response body that the server has compressed
+ * must be decompressed by the {@link Transport} before it is made
+ * available by {@link Response#getInputStream()}.  Otherwise a
+ * {@link Transport} must not ask the server to compress the response
+ * body.</p>
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see ChartRepository#setTransport(Transport)
+ *
+ * @see OkHttpTransport
+ *
+ * @see URLConnectionTransport
+ */
+@Experimental
+public abstract class Transport {
+
+
+  /*
+   * Static fields.
+   */
+
+
+  /**
+   * The default maximum amount of time to wait for a connection to
+   * be established.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  public static final Duration DEFAULT_CONNECT_TIMEOUT = Duration.ofSeconds(10L);
+
+  /**
+   * The default maximum amount of time to wait for data to become
+   * available while reading a response.
+   *
+   * <p>This field is never {@code null}.</p>
+   */
+  public static final Duration DEFAULT_READ_TIMEOUT = Duration.ofSeconds(30L);
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link Transport}.
+   */
+  protected Transport() {
+    super();
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  /**
+   * Issues a {@code GET} request for the resource identified by the
+   * supplied {@link URI}, with the supplied request headers, and
+   * returns the {@link Response}.
+   *
+   * <p>Implementations of this method must not return {@code
+   * null}.</p>
+   *
+   * <p>The caller is responsible for {@linkplain Response#close()
+   * closing} the returned {@link Response}.</p>
+   *
+   * @param uri the {@link URI} of the resource; must not be {@code
+   * null}
+   *
+   * @param requestHeaders a {@link Map} of request headers indexed by
+   * name; may be {@code null}
+   *
+   * @return a non-{@code null} {@link Response}
+   *
+   * @exception IOException if the request could not be made
+   *
+   * @exception NullPointerException if {@code uri} is {@code null}
+   */
+  public abstract Response get(final URI uri, final Map<? extends String, ? extends String> requestHeaders) throws IOException;
+
+
+  /*
+   * Static methods.
+   */
+
+
+  /**
+   * Returns {@code true} if the supplied {@link Map} of request
+   * headers asks for a {@code gzip}-compressed response body.
+   *
+   * @param requestHeaders a {@link Map} of request headers indexed by
+   * name; may be {@code null}
+   *
+   * @return {@code true} if the supplied request headers ask for a
+   * {@code gzip}-compressed response body
+   */
+  protected static final boolean acceptsGzip(final Map<? extends String, ? extends String> requestHeaders) {
+    boolean returnValue = false;
+    if (requestHeaders != null && !requestHeaders.isEmpty()) {
+      for (final Map.Entry<? extends String, ? extends String> entry : requestHeaders.entrySet()) {
+        if (entry != null && "Accept-Encoding".equalsIgnoreCase(entry.getKey()) && "gzip".equalsIgnoreCase(entry.getValue())) {
+          returnValue = true;
+          break;
+        }
+      }
+    }
+    return returnValue;
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * The response to a request made by a {@link Transport}.
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   *
+   * @see Transport#get(URI, Map)
+   */
+  @Experimental
+  public static abstract class Response implements Closeable {
+
+    /**
+     * Creates a new {@link Response}.
+     */
+    protected Response() {
+      super();
+    }
+
+    /**
+     * Returns the HTTP status code of this {@link Response}.
+     *
+     * <p>Responses to requests for resources that are not served over
+     * HTTP, such as local files, report a status code of {@code
+     * 200}.</p>
+     *
+     * @return the HTTP status code of this {@link Response}
+     */
+    public abstract int getStatusCode();
+
+    /**
+     * Returns the value of the response header with the supplied
+     * name, compared case-insensitively, or {@code null} if there is
+     * no such header.
+     *
+     * <p>This method may return {@code null}.</p>
+     *
+     * @param name the name of the header; must not be {@code null}
+     *
+     * @return the value of the header, or {@code null}
+     *
+     * @exception NullPointerException if {@code name} is {@code null}
+     */
+    public abstract String getHeader(final String name);
+
+    /**
+     * Returns an {@link InputStream} from which the body of this
+     * {@link Response} may be read.
+     *
+     * <p>Implementations of this method must not return {@code
+     * null}.</p>
+     *
+     * <p>Closing the returned {@link InputStream} {@linkplain
+     * #close() closes} this {@link Response}.</p>
+     *
+     * @return a non-{@code null} {@link InputStream}
+     *
+     * @exception IOException if the {@linkplain #getStatusCode()
+     * status code} indicates an error, or if the body could not be
+     * read
+     */
+    public abstract InputStream getInputStream() throws IOException;
+
+    /**
+     * Releases any resources held by this {@link Response}, making
+     * any underlying connection available for reuse where possible.
+     *
+     * @exception IOException if an input or output error occurs
+     */
+    @Override
+    public abstract void close() throws IOException;
+
+  }
+
+}
@@ -0,0 +1,299 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2017 MicroBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.helm.chart.repository;
+
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.io.IOException;
+
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URLConnection;
+
+import java.time.Duration;
+
+import java.util.Map;
+import java.util.Objects;
+
+import java.util.zip.GZIPInputStream;
+
+import org.microbean.development.annotation.Experimental;
+
+/**
+ * A {@link Transport} that uses {@link URLConnection}s, and hence
+ * can retrieve resources from any {@link URI} for which a {@link
+ * java.net.URLStreamHandler} is installed, including {@code file:}
+ * {@link URI}s.
+ *
+ * <p>Connection reuse is governed by the {@code http.keepAlive} and
+ * {@code http.maxConnections} system properties.</p>
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see OkHttpTransport
+ */
+@Experimental
+public class URLConnectionTransport extends Transport {
+
+
+  /*
+   * Instance fields.
+   */
+
+
+  /**
+   * The connect timeout in milliseconds.
+   */
+  private final int connectTimeoutMillis;
+
+  /**
+   * The read timeout in milliseconds.
+   */
+  private final int readTimeoutMillis;
+
+
+  /*
+   * Constructors.
+   */
+
+
+  /**
+   * Creates a new {@link URLConnectionTransport} with the {@linkplain
+   * Transport#DEFAULT_CONNECT_TIMEOUT default connect timeout} and
+   * the {@linkplain Transport#DEFAULT_READ_TIMEOUT default read
+   * timeout}.
+   *
+   * @see #URLConnectionTransport(Duration, Duration)
+   */
+  public URLConnectionTransport() {
+    this(DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT);
+  }
+
+  /**
+   * Creates a new {@link URLConnectionTransport}.
+   *
+   * @param connectTimeout the maximum amount of time to wait for a
+   * connection to be established; must not be {@code null} or
+   * negative; {@link Duration#ZERO} means no limit
+   *
+   * @param readTimeout the maximum amount of time to wait for data
+   * to become available while reading a response; must not be {@code
+   * null} or negative; {@link Duration#ZERO} means no limit
+   *
+   * @exception NullPointerException if either parameter is {@code
+   * null}
+   *
+   * @exception IllegalArgumentException if either parameter is
+   * negative
+   */
+  public URLConnectionTransport(final Duration connectTimeout, final Duration readTimeout) {
+    super();
+    this.connectTimeoutMillis = toMillis(connectTimeout);
+    this.readTimeoutMillis = toMillis(readTimeout);
+  }
+
+
+  /*
+   * Instance methods.
+   */
+
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>This implementation {@linkplain URLConnection#connect()
+   * connects} before returning.</p>
+   */
+  @Override
+  public Response get(final URI uri, final Map<? extends String, ? extends String> requestHeaders) throws IOException {
+    Objects.requireNonNull(uri);
+    final URLConnection connection = uri.toURL().openConnection();
+    assert connection != null;
+    connection.setConnectTimeout(this.connectTimeoutMillis);
+    connection.setReadTimeout(this.readTimeoutMillis);
+    if (requestHeaders != null && !requestHeaders.isEmpty()) {
+      for (final Map.Entry<? extends String, ? extends String> entry : requestHeaders.entrySet()) {
+        if (entry != null) {
+          connection.setRequestProperty(entry.getKey(), entry.getValue());
+        }
+      }
+    }
+    final int statusCode;
+    if (connection instanceof HttpURLConnection) {
+      statusCode = ((HttpURLConnection)connection).getResponseCode();
+    } else {
+      connection.connect();
+      statusCode = HttpURLConnection.HTTP_OK;
+    }
+    return new URLConnectionResponse(uri, connection, statusCode, acceptsGzip(requestHeaders));
+  }
+
+
+  /*
+   * Static methods.
+   */
+
+
+  /**
+   * Converts the supplied timeout to a number of milliseconds
+   * suitable for supplying to {@link
+   * URLConnection#setConnectTimeout(int)} and {@link
+   * URLConnection#setReadTimeout(int)}.
+   *
+   * @param timeout the timeout; must not be {@code null} or negative
+   *
+   * @return a non-negative number of milliseconds
+   *
+   * @exception NullPointerException if {@code timeout} is {@code
+   * null}
+   *
+   * @exception IllegalArgumentException if {@code timeout} is
+   * negative
+   */
+  private static final int toMillis(final Duration timeout) {
+    Objects.requireNonNull(timeout);
+    if (timeout.isNegative()) {
+      throw new IllegalArgumentException("timeout.isNegative(): " + timeout);
+    }
+    return (int)Math.min(Integer.MAX_VALUE, timeout.toMillis());
+  }
+
+
+  /*
+   * Inner and nested classes.
+   */
+
+
+  /**
+   * A {@link Transport.Response} backed by a {@link URLConnection}.
+   *
+   * @author <a href="https://about.me/lairdnelson"
+   * target="_parent">Laird Nelson</a>
+   */
+  private static final class URLConnectionResponse extends Response {
+
+    /**
+     * The {@link URI} that was requested.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final URI uri;
+
+    /**
+     * The connected {@link URLConnection}.
+     *
+     * <p>This field is never {@code null}.</p>
+     */
+    private final URLConnection connection;
+
+    /**
+     * The status code.
+     */
+    private final int statusCode;
+
+    /**
+     * Whether a {@code gzip}-compressed body was asked for.
+     */
+    private final boolean gzip;
+
+    /**
+     * The {@link InputStream} returned by {@link #getInputStream()},
+     * if it has been called.
+     *
+     * <p>This field may be {@code null}.</p>
+     */
+    private InputStream inputStream;
+
+    /**
+     * Creates a new {@link URLConnectionResponse}.
+     *
+     * @param uri the {@link URI} that was requested; must not be
+     * {@code null}
+     *
+     * @param connection the connected {@link URLConnection}; must not
+     * be {@code null}
+     *
+     * @param statusCode the status code
+     *
+     * @param gzip whether a {@code gzip}-compressed body was asked for
+     */
+    private URLConnectionResponse(final URI uri, final URLConnection connection, final int statusCode, final boolean gzip) {
+      super();
+      this.uri = Objects.requireNonNull(uri);
+      this.connection = Objects.requireNonNull(connection);
+      this.statusCode = statusCode;
+      this.gzip = gzip;
+    }
+
+    @Override
+    public final int getStatusCode() {
+      return this.statusCode;
+    }
+
+    @Override
+    public final String getHeader(final String name) {
+      Objects.requireNonNull(name);
+      return this.connection.getHeaderField(name);
+    }
+
+    @Override
+    public final synchronized InputStream getInputStream() throws IOException {
+      if (this.inputStream == null) {
+        if (this.statusCode == HttpURLConnection.HTTP_NOT_FOUND || this.statusCode == HttpURLConnection.HTTP_GONE) {
+          throw new FileNotFoundException(this.uri.toString());
+        } else if (this.statusCode >= HttpURLConnection.HTTP_BAD_REQUEST) {
+          throw new IOException("Server returned HTTP response code: " + this.statusCode + " for URL: " + this.uri);
+        }
+        final InputStream stream = this.connection.getInputStream();
+        if (this.gzip && "gzip".equalsIgnoreCase(this.connection.getContentEncoding())) {
+          try {
+            this.inputStream = new GZIPInputStream(stream);
+          } catch (final IOException throwMe) {
+            try {
+              stream.close();
+            } catch (final IOException suppressMe) {
+              throwMe.addSuppressed(suppressMe);
+            }
+            throw throwMe;
+          }
+        } else {
+          this.inputStream = stream;
+        }
+      }
+      return this.inputStream;
+    }
+
+    @Override
+    public final synchronized void close() throws IOException {
+      if (this.inputStream != null) {
+        this.inputStream.close();
+      } else if (this.connection instanceof HttpURLConnection) {
+        // Closing the body, even one that was never read, is what
+        // lets the connection be kept alive.
+        final InputStream stream = this.statusCode >= HttpURLConnection.HTTP_BAD_REQUEST ? ((HttpURLConnection)this.connection).getErrorStream() : this.connection.getInputStream();
+        if (stream != null) {
+          stream.close();
+        }
+      } else {
+        this.connection.getInputStream().close();
+      }
+    }
+
+  }
+
+}
@@ -34,6 +34,9 @@ import java.nio.file.attribute.BasicFileAttributes;
 
 import java.util.List;
 
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+
 import java.util.zip.GZIPInputStream;
 
 import hapi.chart.ChartOuterClass.Chart;
@@ -79,4 +82,16 @@ public class TestDirectoryChartLoader {
     assertEquals(dependencies.toString(), 1, dependencies.size());
   }
 
+  @Test
+  public void testLoadWithExecutor() throws IOException {
+    final Chart sequential = new DirectoryChartLoader().load(this.validChartPath).build();
+    final ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      final Chart concurrent = new DirectoryChartLoader(executor).load(this.validChartPath).build();
+      assertEquals(sequential, concurrent);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
 }
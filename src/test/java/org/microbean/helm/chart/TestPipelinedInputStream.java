@@ -0,0 +1,124 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2017 MicroBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.helm.chart;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.util.Random;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestPipelinedInputStream {
+
+  public TestPipelinedInputStream() {
+    super();
+  }
+
+  @Test
+  public void testRead() throws IOException {
+    final byte[] bytes = new byte[100003];
+    new Random(17L).nextBytes(bytes);
+    final AtomicBoolean sourceClosed = new AtomicBoolean();
+    final InputStream source = new FilterInputStream(new ByteArrayInputStream(bytes)) {
+        @Override
+        public final void close() throws IOException {
+          sourceClosed.set(true);
+          super.close();
+        }
+      };
+    final ByteArrayOutputStream copy = new ByteArrayOutputStream();
+    try (final InputStream stream = new PipelinedInputStream(source, null, 1000, 3)) {
+      assertEquals(bytes[0] & 0xFF, stream.read());
+      copy.write(bytes[0]);
+      final byte[] buffer = new byte[777];
+      int bytesRead;
+      while ((bytesRead = stream.read(buffer)) >= 0) {
+        copy.write(buffer, 0, bytesRead);
+      }
+      assertEquals(-1, stream.read());
+    }
+    assertArrayEquals(bytes, copy.toByteArray());
+    assertTrue(sourceClosed.get());
+  }
+
+  @Test
+  public void testCloseEarly() throws IOException {
+    final AtomicBoolean sourceClosed = new AtomicBoolean();
+    final InputStream source = new InputStream() {
+        @Override
+        public final int read() {
+          return 'x';
+        }
+
+        @Override
+        public final void close() {
+          sourceClosed.set(true);
+        }
+      };
+    final InputStream stream = new PipelinedInputStream(source, null, 10, 2);
+    assertEquals('x', stream.read());
+    stream.close();
+    assertTrue(sourceClosed.get());
+    try {
+      stream.read();
+      fail();
+    } catch (final IOException expected) {
+
+    }
+  }
+
+  @Test
+  public void testFailure() throws IOException {
+    final InputStream source = new InputStream() {
+        private int count;
+
+        @Override
+        public final int read() throws IOException {
+          if (++this.count > 25) {
+            throw new IOException("boom");
+          }
+          return 'x';
+        }
+      };
+    try (final InputStream stream = new PipelinedInputStream(source, null, 10, 2)) {
+      final byte[] buffer = new byte[100];
+      int total = 0;
+      try {
+        int bytesRead;
+        while ((bytesRead = stream.read(buffer)) >= 0) {
+          total += bytesRead;
+        }
+        fail();
+      } catch (final IOException expected) {
+        assertEquals("boom", expected.getMessage());
+      }
+      assertEquals(25, total);
+    }
+  }
+
+}
@@ -17,6 +17,9 @@
 package org.microbean.helm.chart;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -24,26 +27,42 @@ import java.net.URI;
 import java.net.URL;
 import java.net.URLConnection;
 
+import java.nio.charset.StandardCharsets;
+
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.Map.Entry;
 import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
 
 import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import hapi.chart.ChartOuterClass.Chart;
 
 import hapi.chart.MetadataOuterClass.Metadata;
 
+import com.google.protobuf.Any;
+
 import org.junit.Test;
 import org.junit.Before;
 import org.junit.After;
 
+import org.kamranzafar.jtar.TarEntry;
+import org.kamranzafar.jtar.TarHeader;
 import org.kamranzafar.jtar.TarInputStream;
+import org.kamranzafar.jtar.TarOutputStream;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
 public class TestStreamOrientedChartLoader {
 
@@ -157,5 +176,152 @@ public class TestStreamOrientedChartLoader {
     assertTrue(output.isEmpty());
   }
 
-  
+  @Test
+  public void testLoadTapeArchive() throws IOException {
+    final byte[] large = new byte[100000];
+    Arrays.fill(large, (byte)'x');
+    final byte[] subchart = tgz(new String[] { "sub/Chart.yaml", "name: sub\nversion: 0.1.0\n" },
+                                new String[] { "sub/templates/sub.yaml", "kind: Sub\n" });
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (final TarOutputStream tar = new TarOutputStream(new GZIPOutputStream(bytes))) {
+      addTarEntry(tar, "top/Chart.yaml", "name: top\nversion: 1.0.0\n".getBytes(StandardCharsets.UTF_8));
+      addTarEntry(tar, "top/values.yaml", "a: b\n".getBytes(StandardCharsets.UTF_8));
+      addTarEntry(tar, "top/charts/sub-0.1.0.tgz", subchart);
+      addTarEntry(tar, "top/templates/top.yaml", "kind: Top\n".getBytes(StandardCharsets.UTF_8));
+      addTarEntry(tar, "top/dashboards/large.json", large);
+      addTarEntry(tar, "top/empty.txt", new byte[0]);
+    }
+    final Chart.Builder chart;
+    try (final TarInputStream stream = new TarInputStream(new GZIPInputStream(new ByteArrayInputStream(bytes.toByteArray())))) {
+      chart = new TapeArchiveChartLoader().load(stream);
+    }
+    assertNotNull(chart);
+    assertEquals("top", chart.getMetadataOrBuilder().getName());
+    assertEquals("a: b\n", chart.getValuesOrBuilder().getRaw());
+    assertEquals(1, chart.getTemplatesCount());
+    assertEquals("templates/top.yaml", chart.getTemplates(0).getName());
+    assertEquals("kind: Top\n", chart.getTemplates(0).getData().toStringUtf8());
+    assertEquals(2, chart.getFilesCount());
+    final Any largeFile = chart.getFiles(0);
+    assertEquals("dashboards/large.json", largeFile.getTypeUrl());
+    assertArrayEquals(large, largeFile.getValue().toByteArray());
+    assertEquals("empty.txt", chart.getFiles(1).getTypeUrl());
+    assertTrue(chart.getFiles(1).getValue().isEmpty());
+    assertEquals(1, chart.getDependenciesCount());
+    final Chart sub = chart.getDependencies(0);
+    assertEquals("sub", sub.getMetadata().getName());
+    assertEquals("kind: Sub\n", sub.getTemplates(0).getData().toStringUtf8());
+  }
+
+  @Test
+  public void testTapeArchiveReadFailuresAreNotTheEnd() throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (final TarOutputStream tar = new TarOutputStream(bytes)) {
+      addTarEntry(tar, "top/Chart.yaml", "name: top\nversion: 1.0.0\n".getBytes(StandardCharsets.UTF_8));
+      addTarEntry(tar, "top/values.yaml", "a: b\n".getBytes(StandardCharsets.UTF_8));
+    }
+    // Fail right where the second entry's header begins.
+    final InputStream failing = new FilterInputStream(new ByteArrayInputStream(bytes.toByteArray(), 0, 1024)) {
+        @Override
+        public int read() throws IOException {
+          final int returnValue = super.read();
+          if (returnValue < 0) {
+            throw new IOException("Simulated read failure");
+          }
+          return returnValue;
+        }
+
+        @Override
+        public int read(final byte[] bytes, final int offset, final int length) throws IOException {
+          final int returnValue = super.read(bytes, offset, length);
+          if (returnValue < 0) {
+            throw new IOException("Simulated read failure");
+          }
+          return returnValue;
+        }
+      };
+    try (final TarInputStream stream = new TarInputStream(failing)) {
+      final Iterator<? extends Entry<? extends String, ? extends InputStream>> iterator = new TapeArchiveChartLoader().toNamedInputStreamEntries(stream).iterator();
+      assertTrue(iterator.hasNext());
+      assertEquals("top/Chart.yaml", iterator.next().getKey());
+      try {
+        iterator.hasNext();
+        fail();
+      } catch (final NoSuchElementException expected) {
+        assertTrue(expected.getCause() instanceof IOException);
+      }
+    }
+  }
+
+  @Test
+  public void testLoadSubchartsConcurrently() throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (final TarOutputStream tar = new TarOutputStream(new GZIPOutputStream(bytes))) {
+      addTarEntry(tar, "umbrella/Chart.yaml", "name: umbrella\nversion: 1.0.0\n".getBytes(StandardCharsets.UTF_8));
+      for (int i = 0; i < 8; i++) {
+        final String name = "sub" + i;
+        if (i == 3) {
+          // A subchart directory between archives.
+          addTarEntry(tar, "umbrella/charts/plain/Chart.yaml", "name: plain\nversion: 0.1.0\n".getBytes(StandardCharsets.UTF_8));
+        }
+        final ByteArrayOutputStream nested = new ByteArrayOutputStream();
+        try (final TarOutputStream nestedTar = new TarOutputStream(new GZIPOutputStream(nested))) {
+          addTarEntry(nestedTar, name + "/Chart.yaml", ("name: " + name + "\nversion: 0.1.0\n").getBytes(StandardCharsets.UTF_8));
+          addTarEntry(nestedTar, name + "/templates/" + name + ".yaml", ("kind: " + name + "\n").getBytes(StandardCharsets.UTF_8));
+          addTarEntry(nestedTar, name + "/charts/leaf-0.1.0.tgz", tgz(new String[] { "leaf/Chart.yaml", "name: leaf" + i + "\nversion: 0.1.0\n" }));
+        }
+        addTarEntry(tar, "umbrella/charts/" + name + "-0.1.0.tgz", nested.toByteArray());
+      }
+      addTarEntry(tar, "umbrella/values.yaml", "a: b\n".getBytes(StandardCharsets.UTF_8));
+    }
+    final Chart sequential;
+    try (final TarInputStream stream = new TarInputStream(new GZIPInputStream(new ByteArrayInputStream(bytes.toByteArray())))) {
+      sequential = new TapeArchiveChartLoader().load(stream).build();
+    }
+    final ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      final Chart concurrent;
+      try (final TarInputStream stream = new TarInputStream(new GZIPInputStream(new ByteArrayInputStream(bytes.toByteArray())))) {
+        concurrent = new TapeArchiveChartLoader(executor).load(stream).build();
+      }
+      assertEquals(sequential, concurrent);
+      assertEquals(9, concurrent.getDependenciesCount());
+      assertEquals("sub0", concurrent.getDependencies(0).getMetadata().getName());
+      assertEquals("plain", concurrent.getDependencies(3).getMetadata().getName());
+      assertEquals("sub7", concurrent.getDependencies(8).getMetadata().getName());
+      assertEquals("leaf7", concurrent.getDependencies(8).getDependencies(0).getMetadata().getName());
+      assertEquals("kind: sub7\n", concurrent.getDependencies(8).getTemplates(0).getData().toStringUtf8());
+
+      // A corrupt embedded archive is reported.
+      final ByteArrayOutputStream corrupt = new ByteArrayOutputStream();
+      try (final TarOutputStream tar = new TarOutputStream(new GZIPOutputStream(corrupt))) {
+        addTarEntry(tar, "umbrella/Chart.yaml", "name: umbrella\nversion: 1.0.0\n".getBytes(StandardCharsets.UTF_8));
+        addTarEntry(tar, "umbrella/charts/bad-0.1.0.tgz", "not gzip".getBytes(StandardCharsets.UTF_8));
+      }
+      try (final TarInputStream stream = new TarInputStream(new GZIPInputStream(new ByteArrayInputStream(corrupt.toByteArray())))) {
+        new TapeArchiveChartLoader(executor).load(stream);
+        fail();
+      } catch (final IOException expected) {
+
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static final byte[] tgz(final String[]... pathsAndContents) throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (final TarOutputStream tar = new TarOutputStream(new GZIPOutputStream(bytes))) {
+      for (final String[] pathAndContents : pathsAndContents) {
+        addTarEntry(tar, pathAndContents[0], pathAndContents[1].getBytes(StandardCharsets.UTF_8));
+      }
+    }
+    return bytes.toByteArray();
+  }
+
+  private static final void addTarEntry(final TarOutputStream tar, final String path, final byte[] bytes) throws IOException {
+    tar.putNextEntry(new TarEntry(TarHeader.createHeader(path, bytes.length, System.currentTimeMillis() / 1000L, false, 0644)));
+    tar.write(bytes);
+  }
+
 }
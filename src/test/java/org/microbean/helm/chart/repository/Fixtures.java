@@ -0,0 +1,220 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2017 MicroBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.helm.chart.repository;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+
+import java.nio.charset.StandardCharsets;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import java.util.stream.Stream;
+
+import java.util.zip.GZIPOutputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.kamranzafar.jtar.TarEntry;
+import org.kamranzafar.jtar.TarHeader;
+import org.kamranzafar.jtar.TarOutputStream;
+
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Work areas, loopback HTTP servers, indices and chart archives
+ * shared by the tests in this package.
+ *
+ * @author <a href="https://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ */
+final class Fixtures {
+
+  private Fixtures() {
+    super();
+  }
+
+  /*
+   * Work areas.
+   */
+
+  static final Path getWorkArea(final String first, final String... more) {
+    final String targetDirectory = System.getProperty("project.build.directory");
+    assertNotNull(targetDirectory);
+    return Paths.get(targetDirectory, first).resolve(Paths.get("", more));
+  }
+
+  static final void clear(final Path... directories) throws IOException {
+    for (final Path directory : directories) {
+      Files.createDirectories(directory);
+      try (final Stream<Path> stream = Files.list(directory)) {
+        stream.filter(p -> !Files.isDirectory(p)).forEach(p -> p.toFile().delete());
+      }
+    }
+  }
+
+  /*
+   * Servers.
+   */
+
+  static final HttpServer newServer() throws IOException {
+    final HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.setExecutor(Executors.newCachedThreadPool());
+    return server;
+  }
+
+  static final URI getUri(final HttpServer server) throws URISyntaxException {
+    return getUri(server, "/");
+  }
+
+  static final URI getUri(final HttpServer server, final String path) throws URISyntaxException {
+    return new URI("http", null, server.getAddress().getHostString(), server.getAddress().getPort(), path, null, null);
+  }
+
+  static final HttpServer startServer(final Map<String, byte[]> resources, final List<String> requestedPaths) throws IOException {
+    final HttpServer server = newServer();
+    server.createContext("/", exchange -> {
+        try {
+          final String path = exchange.getRequestURI().getPath();
+          final byte[] bytes = resources.get(path);
+          if (bytes != null && requestedPaths != null) {
+            requestedPaths.add(path);
+          }
+          respond(exchange, bytes);
+        } finally {
+          exchange.close();
+        }
+      });
+    server.start();
+    return server;
+  }
+
+  static final HttpServer startIndexServer(final AtomicReference<byte[]> body, final AtomicReference<String> etag, final List<Integer> statusCodes) throws IOException {
+    final HttpServer server = newServer();
+    server.createContext("/", exchange -> {
+        try {
+          final String currentEtag = etag.get();
+          exchange.getResponseHeaders().set("ETag", currentEtag);
+          if (currentEtag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            statusCodes.add(304);
+            exchange.sendResponseHeaders(304, -1);
+          } else {
+            statusCodes.add(200);
+            respond(exchange, body.get());
+          }
+        } finally {
+          exchange.close();
+        }
+      });
+    server.start();
+    return server;
+  }
+
+  static final void respond(final HttpExchange exchange, final byte[] bytes) throws IOException {
+    if (bytes == null) {
+      exchange.sendResponseHeaders(404, -1);
+    } else {
+      exchange.sendResponseHeaders(200, bytes.length);
+      try (final OutputStream responseBody = exchange.getResponseBody()) {
+        responseBody.write(bytes);
+      }
+    }
+  }
+
+  static final void stop(final HttpServer server) {
+    server.stop(0);
+    ((ExecutorService)server.getExecutor()).shutdownNow();
+  }
+
+  /*
+   * Indices and archives.
+   */
+
+  static final byte[] index(final URI uri, final String... archives) {
+    return index(uri, Collections.emptyMap(), archives);
+  }
+
+  static final byte[] index(final URI uri, final Map<? extends String, ? extends String> digests, final String... archives) {
+    // Each archive is named name-version; entries for the same chart
+    // must be grouped under one key.
+    final Map<String, List<String>> archivesByName = new LinkedHashMap<>();
+    for (final String archive : archives) {
+      archivesByName.computeIfAbsent(archive.substring(0, archive.indexOf('-')), name -> new ArrayList<>()).add(archive);
+    }
+    final StringBuilder sb = new StringBuilder("apiVersion: v1\nentries:\n");
+    for (final Map.Entry<String, List<String>> entry : archivesByName.entrySet()) {
+      final String name = entry.getKey();
+      sb.append("  ").append(name).append(":\n");
+      for (final String archive : entry.getValue()) {
+        sb.append("  - name: ").append(name).append("\n")
+          .append("    version: ").append(archive.substring(name.length() + 1)).append("\n");
+        final String digest = digests.get(archive);
+        if (digest != null) {
+          sb.append("    digest: ").append(digest).append("\n");
+        }
+        sb.append("    urls:\n")
+          .append("    - ").append(uri.resolve(archive + ".tgz")).append("\n");
+      }
+    }
+    return sb.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  static final byte[] archive(final String name, final String version) throws IOException {
+    return archive(name, version, null);
+  }
+
+  static final byte[] archive(final String name, final String version, final String requirements, final String... bundledChartNames) throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (final TarOutputStream tar = new TarOutputStream(new GZIPOutputStream(bytes))) {
+      addTarEntry(tar, name + "/Chart.yaml", "name: " + name + "\nversion: " + version + "\n");
+      if (requirements != null) {
+        addTarEntry(tar, name + "/requirements.yaml", requirements);
+      }
+      for (final String bundledChartName : bundledChartNames) {
+        addTarEntry(tar, name + "/charts/" + bundledChartName + "/Chart.yaml", "name: " + bundledChartName + "\nversion: 1.0.0\n");
+      }
+    }
+    return bytes.toByteArray();
+  }
+
+  static final void addTarEntry(final TarOutputStream tar, final String path, final String contents) throws IOException {
+    final byte[] bytes = contents.getBytes(StandardCharsets.UTF_8);
+    tar.putNextEntry(new TarEntry(TarHeader.createHeader(path, bytes.length, System.currentTimeMillis() / 1000L, false, 0644)));
+    tar.write(bytes);
+  }
+
+}
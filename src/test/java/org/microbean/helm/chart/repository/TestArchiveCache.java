@@ -0,0 +1,158 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2017 MicroBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.helm.chart.repository;
+
+import java.io.IOException;
+
+import java.nio.channels.FileChannel;
+
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import java.nio.file.attribute.FileTime;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestArchiveCache {
+
+  private Path directory;
+
+  public TestArchiveCache() {
+    super();
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    final String targetDirectory = System.getProperty("project.build.directory");
+    assertNotNull(targetDirectory);
+    this.directory = Paths.get(targetDirectory).resolve(this.getClass().getSimpleName());
+    Files.createDirectories(this.directory);
+    try (final DirectoryStream<Path> stream = Files.newDirectoryStream(this.directory)) {
+      for (final Path path : stream) {
+        if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+          try (final DirectoryStream<Path> subdirectoryStream = Files.newDirectoryStream(path)) {
+            for (final Path subdirectoryPath : subdirectoryStream) {
+              Files.delete(subdirectoryPath);
+            }
+          }
+        }
+        Files.delete(path);
+      }
+    }
+    final long now = System.currentTimeMillis();
+    for (int i = 0; i < 4; i++) {
+      final Path archive = this.directory.resolve("chart-" + i + ".tgz");
+      Files.write(archive, new byte[100]);
+      // chart-0 is the least recently used
+      Files.setLastModifiedTime(archive, FileTime.fromMillis(now - (4 - i) * 60000L));
+    }
+    Files.write(this.directory.resolve("chart-9.tgz.lock"), new byte[1000]);
+  }
+
+  @Test
+  public void testEvictByEntries() throws IOException {
+    final ArchiveCache cache = new ArchiveCache(this.directory, Long.MAX_VALUE, 2);
+    assertEquals(2, cache.evict());
+    assertFalse(Files.exists(this.directory.resolve("chart-0.tgz")));
+    assertFalse(Files.exists(this.directory.resolve("chart-1.tgz")));
+    assertTrue(Files.exists(this.directory.resolve("chart-2.tgz")));
+    assertTrue(Files.exists(this.directory.resolve("chart-3.tgz")));
+    assertTrue(Files.exists(this.directory.resolve("chart-9.tgz.lock")));
+    assertEquals(2L, cache.getEvictionCount());
+    assertEquals(0, cache.evict());
+  }
+
+  @Test
+  public void testEvictByBytesHonorsAccessAndPins() throws IOException {
+    final ArchiveCache cache = new ArchiveCache(this.directory, 250L, Integer.MAX_VALUE);
+    cache.recordHit(this.directory.resolve("chart-0.tgz"));
+    cache.recordMiss(this.directory.resolve("chart-5.tgz"));
+    assertEquals(1L, cache.getHitCount());
+    assertEquals(1L, cache.getMissCount());
+    cache.pin(this.directory.resolve("chart-1.tgz"));
+    assertTrue(cache.isPinned(this.directory.resolve("chart-1.tgz")));
+    assertEquals(2, cache.evict());
+    // chart-0 was just used and chart-1 is pinned.
+    assertTrue(Files.exists(this.directory.resolve("chart-0.tgz")));
+    assertTrue(Files.exists(this.directory.resolve("chart-1.tgz")));
+    assertFalse(Files.exists(this.directory.resolve("chart-2.tgz")));
+    assertFalse(Files.exists(this.directory.resolve("chart-3.tgz")));
+    cache.unpin(this.directory.resolve("chart-1.tgz"));
+    assertFalse(cache.isPinned(this.directory.resolve("chart-1.tgz")));
+    assertEquals(0, cache.evict());
+  }
+
+  @Test
+  public void testEvictDeletesDanglingLinks() throws IOException {
+    final Path blobs = Files.createDirectories(this.directory.resolve("sha256"));
+    final Path blob = blobs.resolve("blob.tgz");
+    Files.write(blob, new byte[100]);
+    Files.setLastModifiedTime(blob, FileTime.fromMillis(System.currentTimeMillis() - 3600000L));
+    final Path link = Files.createSymbolicLink(this.directory.resolve("linked-1.0.0.tgz"), this.directory.relativize(blob));
+    final Path danglingLink = Files.createSymbolicLink(this.directory.resolve("dangling-1.0.0.tgz"), this.directory.relativize(blobs.resolve("gone.tgz")));
+    final Path pinnedLink = Files.createSymbolicLink(this.directory.resolve("pinned-1.0.0.tgz"), this.directory.relativize(blobs.resolve("coming.tgz")));
+    final ArchiveCache cache = new ArchiveCache(this.directory, Long.MAX_VALUE, 4);
+    cache.pin(pinnedLink);
+    // The blob is the least recently used archive.
+    assertEquals(1, cache.evict());
+    assertFalse(Files.exists(blob));
+    assertFalse(Files.exists(link, LinkOption.NOFOLLOW_LINKS));
+    assertFalse(Files.exists(danglingLink, LinkOption.NOFOLLOW_LINKS));
+    assertTrue(Files.exists(pinnedLink, LinkOption.NOFOLLOW_LINKS));
+    assertTrue(Files.exists(this.directory.resolve("chart-0.tgz")));
+  }
+
+  @Test
+  public void testEvictAbandonedPartialDownloads() throws IOException {
+    final long now = System.currentTimeMillis();
+    final Path abandoned = this.directory.resolve("abandoned-1.0.0.tgz.part");
+    Files.write(abandoned, new byte[100]);
+    Files.setLastModifiedTime(abandoned, FileTime.fromMillis(now - 600000L));
+    final Path abandonedValidators = HttpValidators.getValidatorsPath(abandoned);
+    Files.write(abandonedValidators, new byte[10]);
+    final Path downloading = this.directory.resolve("downloading-1.0.0.tgz.part");
+    Files.write(downloading, new byte[100]);
+    Files.setLastModifiedTime(downloading, FileTime.fromMillis(now - 1200000L));
+    final ArchiveCache cache = new ArchiveCache(this.directory, Long.MAX_VALUE, 5);
+    try (final FileChannel lockChannel = FileChannel.open(this.directory.resolve("downloading-1.0.0.tgz.lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+      lockChannel.lock();
+      // The download in progress is the least recently used, but is
+      // skipped.
+      assertEquals(1, cache.evict());
+      assertTrue(Files.exists(downloading));
+      assertFalse(Files.exists(abandoned));
+      assertFalse(Files.exists(abandonedValidators));
+      assertTrue(Files.exists(this.directory.resolve("chart-0.tgz")));
+    }
+    assertEquals(0, cache.evict());
+    assertEquals(1, new ArchiveCache(this.directory, Long.MAX_VALUE, 4).evict());
+    assertFalse(Files.exists(downloading));
+    assertFalse(Files.exists(this.directory.resolve("downloading-1.0.0.tgz.lock")));
+    assertTrue(Files.exists(this.directory.resolve("chart-0.tgz")));
+  }
+
+}
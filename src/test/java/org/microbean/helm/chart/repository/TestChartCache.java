@@ -0,0 +1,178 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2017 MicroBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.helm.chart.repository;
+
+import java.io.ByteArrayInputStream;
+
+import java.net.URI;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.protobuf.ByteString;
+
+import com.sun.net.httpserver.HttpServer;
+
+import hapi.chart.ChartOuterClass.Chart;
+
+import hapi.chart.TemplateOuterClass.Template;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TestChartCache {
+
+  public TestChartCache() {
+    super();
+  }
+
+  @Test
+  public void testEviction() {
+    final Chart a = chart("a", 100);
+    final Chart b = chart("b", 100);
+    final Chart c = chart("c", 100);
+    final ChartCache cache = new ChartCache(a.getSerializedSize() + b.getSerializedSize() + 10);
+    cache.put("a", a);
+    cache.put("b", b);
+    assertEquals(2, cache.size());
+    assertEquals(a.getSerializedSize() + b.getSerializedSize(), cache.getBytes());
+
+    // a is now the most recently used, so adding c evicts b.
+    assertSame(a, cache.get("a"));
+    cache.put("c", c);
+    assertEquals(2, cache.size());
+    assertSame(a, cache.get("a"));
+    assertNull(cache.get("b"));
+    assertSame(c, cache.get("c"));
+    assertEquals(1L, cache.getEvictionCount());
+    assertEquals(3L, cache.getHitCount());
+    assertEquals(1L, cache.getMissCount());
+
+    // A chart larger than the cache is not cached.
+    cache.put("huge", chart("huge", 1000));
+    assertNull(cache.get("huge"));
+    assertEquals(2, cache.size());
+
+    cache.clear();
+    assertEquals(0, cache.size());
+    assertEquals(0L, cache.getBytes());
+  }
+
+  @Test
+  public void testResolve() throws Exception {
+    final Path workArea = Fixtures.getWorkArea("TestChartCache");
+    final Path archiveCacheDirectory = workArea.resolve("archives");
+    Fixtures.clear(workArea, archiveCacheDirectory);
+
+    final Map<String, byte[]> resources = new ConcurrentHashMap<>();
+    final List<String> requestedPaths = Collections.synchronizedList(new ArrayList<>());
+    final HttpServer server = Fixtures.startServer(resources, requestedPaths);
+    final URI uri = Fixtures.getUri(server);
+    resources.put("/cached-1.0.0.tgz", Fixtures.archive("cached", "1.0.0"));
+    resources.put("/index.yaml", Fixtures.index(uri, "cached-1.0.0"));
+    try {
+      final ChartRepository chartRepository = new ChartRepository("cached", uri, archiveCacheDirectory, null, workArea.resolve("cached-index.yaml"));
+      final ChartCache chartCache = new ChartCache(Long.MAX_VALUE);
+      chartRepository.setChartCache(chartCache);
+      final ChartRepositoryMetrics metrics = new ChartRepositoryMetrics();
+      chartRepository.addChartRepositoryListener(metrics);
+
+      final Chart.Builder first = chartRepository.resolve("cached", "1.0.0");
+      assertNotNull(first);
+      assertEquals("cached", first.getMetadataOrBuilder().getName());
+      assertEquals(1, chartCache.size());
+      assertEquals(1L, chartCache.getMissCount());
+
+      // Changes made by one caller are not seen by the next.
+      first.getMetadataBuilder().setName("changed");
+      final Chart.Builder second = chartRepository.resolve("cached", "1.0.0");
+      assertNotSame(first, second);
+      assertEquals("cached", second.getMetadataOrBuilder().getName());
+      assertEquals(1L, chartCache.getHitCount());
+      assertEquals(1L, metrics.getStatistics("cached").getChartLoadTime().getCount());
+      assertEquals(1, Collections.frequency(requestedPaths, "/cached-1.0.0.tgz"));
+
+      // Without a cache the archive is loaded again.
+      chartRepository.setChartCache(null);
+      assertEquals("cached", chartRepository.resolve("cached", "1.0.0").getMetadataOrBuilder().getName());
+      assertEquals(2L, metrics.getStatistics("cached").getChartLoadTime().getCount());
+      assertEquals(1L, chartCache.getHitCount());
+    } finally {
+      Fixtures.stop(server);
+    }
+  }
+
+  @Test
+  public void testStaleArchivesAreNotCachedUnderTheirDigest() throws Exception {
+    final Path workArea = Fixtures.getWorkArea("TestChartCache", "stale");
+    final Path archiveCacheDirectory = workArea.resolve("archives");
+    Fixtures.clear(workArea, archiveCacheDirectory, archiveCacheDirectory.resolve("sha256"));
+
+    // An archive left behind by an earlier version of the chart, or
+    // from before archives were stored by digest.
+    Files.write(archiveCacheDirectory.resolve("fresh-1.0.0.tgz"), Fixtures.archive("stale", "1.0.0"));
+
+    final byte[] archive = Fixtures.archive("fresh", "1.0.0");
+    final Map<String, byte[]> resources = new ConcurrentHashMap<>();
+    final List<String> requestedPaths = Collections.synchronizedList(new ArrayList<>());
+    final HttpServer server = Fixtures.startServer(resources, requestedPaths);
+    final URI uri = Fixtures.getUri(server);
+    resources.put("/fresh-1.0.0.tgz", archive);
+    resources.put("/index.yaml", Fixtures.index(uri, Collections.singletonMap("fresh-1.0.0", ChartRepository.Index.Entry.getDigest(new ByteArrayInputStream(archive)).toLowerCase()), "fresh-1.0.0"));
+    try {
+      final ChartRepository chartRepository = new ChartRepository("fresh", uri, archiveCacheDirectory, null, workArea.resolve("fresh-index.yaml"));
+      final ChartCache chartCache = new ChartCache(Long.MAX_VALUE);
+      chartRepository.setChartCache(chartCache);
+
+      // Without an index the cached archive is used as it is, and
+      // the index is not loaded just to compute a cache key.
+      assertEquals("stale", chartRepository.resolve("fresh", "1.0.0").getMetadataOrBuilder().getName());
+      assertTrue(requestedPaths.isEmpty());
+
+      // Once the index is loaded the stale archive is replaced, and
+      // the chart cached from it is not mistaken for the new one.
+      assertNotNull(chartRepository.getIndex());
+      assertEquals("fresh", chartRepository.resolve("fresh", "1.0.0").getMetadataOrBuilder().getName());
+      assertEquals(1, Collections.frequency(requestedPaths, "/fresh-1.0.0.tgz"));
+      assertEquals("fresh", chartRepository.resolve("fresh", "1.0.0").getMetadataOrBuilder().getName());
+      assertEquals(1L, chartCache.getHitCount());
+    } finally {
+      Fixtures.stop(server);
+    }
+  }
+
+  private static final Chart chart(final String name, final int templateSize) {
+    final Chart.Builder builder = Chart.newBuilder();
+    builder.getMetadataBuilder().setName(name);
+    builder.addTemplates(Template.newBuilder().setName("templates/" + name + ".yaml").setData(ByteString.copyFrom(new byte[templateSize])));
+    return builder.build();
+  }
+
+}
@@ -16,21 +16,69 @@
  */
 package org.microbean.helm.chart.repository;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 
 import java.net.URI;
 import java.net.URISyntaxException;
 
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+
+import java.nio.charset.StandardCharsets;
+
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import java.nio.file.attribute.FileTime;
 
+import java.time.Duration;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.SortedSet;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.google.protobuf.CodedInputStream;
+
+import com.sun.net.httpserver.HttpServer;
+
+import hapi.chart.MetadataOuterClass.Metadata;
+
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class TestChartRepository {
 
@@ -57,5 +105,709 @@ public class TestChartRepository {
     assertEquals("wordpress", mostRecentWordpress.getName());
     assertEquals("0.6.12", mostRecentWordpress.getVersion());
   }
-  
+
+  @Test
+  public void testGetEntryByVersionConstraint() throws IOException, URISyntaxException {
+    final Path indexPath = Paths.get(Thread.currentThread().getContextClassLoader().getResource("TestChartRepository/stable-index.yaml").getPath());
+    final ChartRepository.Index index = ChartRepository.Index.loadFrom(indexPath);
+    assertNotNull(index);
+
+    assertEquals("0.6.12", index.getEntry("wordpress", null).getVersion());
+    assertEquals("0.5.1", index.getEntry("wordpress", "0.5.1").getVersion());
+    assertNull(index.getEntry("wordpress", "0.5.3"));
+    assertNull(index.getEntry("nonexistent", "0.5.1"));
+
+    // getEntry only ever does exact lookups.
+    for (final String notAVersion : Arrays.asList("^0.6", "0.6", "latest", "v0.5.1", "0.5.1-", "not a version")) {
+      assertNull(notAVersion, index.getEntry("wordpress", notAVersion));
+    }
+
+    assertEquals("0.6.12", index.getEntryMatching("wordpress", "^0.6").getVersion());
+    assertEquals("0.5.2", index.getEntryMatching("wordpress", "~0.5").getVersion());
+    assertEquals("0.4.3", index.getEntryMatching("wordpress", ">=0.4 <0.5").getVersion());
+    assertEquals("0.4.3", index.getEntryMatching("wordpress", ">= 0.4, < 0.5").getVersion());
+    assertEquals("0.3.4", index.getEntryMatching("wordpress", "0.3.0 - 0.3.9").getVersion());
+    assertEquals("0.5.2", index.getEntryMatching("wordpress", "<0.4 || ~0.5").getVersion());
+    assertEquals("0.4.3", index.getEntryMatching("wordpress", ">=0.4.0&<0.5.0").getVersion());
+    assertNull(index.getEntryMatching("wordpress", ">=1.0.0"));
+
+    try {
+      index.getEntryMatching("wordpress", ">=>");
+      fail();
+    } catch (final IllegalArgumentException expected) {
+
+    }
+
+    assertEquals(">=2&<3", ChartRepository.Index.normalizeConstraint(">=2 <3"));
+    assertEquals(">=2&<3|^4", ChartRepository.Index.normalizeConstraint(">= 2, < 3 || ^4"));
+    assertEquals("1.0.0 - 2.0.0", ChartRepository.Index.normalizeConstraint("1.0.0 - 2.0.0"));
+  }
+
+  @Test
+  public void testInterning() throws IOException, URISyntaxException {
+    final Path indexPath = Paths.get(Thread.currentThread().getContextClassLoader().getResource("TestChartRepository/stable-index.yaml").getPath());
+    final Interner interner = new Interner();
+    final ChartRepository.Index first;
+    try (final InputStream stream = Files.newInputStream(indexPath)) {
+      first = ChartRepository.Index.loadFrom(stream, interner);
+    }
+    final ChartRepository.Index second;
+    try (final InputStream stream = Files.newInputStream(indexPath)) {
+      second = ChartRepository.Index.loadFrom(stream, interner);
+    }
+    final ChartRepository.Index.Entry firstWordpress = first.getEntry("wordpress", "0.6.12");
+    final ChartRepository.Index.Entry secondWordpress = second.getEntry("wordpress", "0.6.12");
+    assertNotSame(firstWordpress, secondWordpress);
+    assertSame(firstWordpress.getName(), secondWordpress.getName());
+    assertSame(firstWordpress.getVersion(), secondWordpress.getVersion());
+    assertSame(firstWordpress.getUriStrings()[0], secondWordpress.getUriStrings()[0]);
+    assertSame(firstWordpress.getName(), first.getEntry("wordpress", "0.6.11").getName());
+    final int size = interner.size();
+    assertTrue(size > 0);
+
+    // Snapshots intern too.
+    final ChartRepository.Index third = IndexSnapshot.load(indexPath, interner);
+    assertSame(firstWordpress.getName(), third.getEntry("wordpress", "0.6.12").getName());
+    // Nothing new was added.
+    assertTrue(interner.size() <= size);
+    assertSame(firstWordpress.getName(), interner.intern(new StringBuilder("wordpress").toString()));
+  }
+
+  @Test
+  public void testLoadIndexFromSnapshot() throws IOException, URISyntaxException {
+    final String targetDirectory = System.getProperty("project.build.directory");
+    assertNotNull(targetDirectory);
+    final Path workArea = Paths.get(targetDirectory).resolve(this.getClass().getSimpleName());
+    Files.createDirectories(workArea);
+    final Path indexPath = workArea.resolve("stable-index.yaml");
+    Files.copy(Paths.get(Thread.currentThread().getContextClassLoader().getResource("TestChartRepository/stable-index.yaml").getPath()), indexPath, StandardCopyOption.REPLACE_EXISTING);
+    final Path snapshotPath = IndexSnapshot.getSnapshotPath(indexPath);
+    Files.deleteIfExists(snapshotPath);
+    final ChartRepository chartRepository = new ChartRepository("stable", new URI("https://kubernetes-charts.storage.googleapis.com/"), indexPath);
+    final ChartRepository.Index yamlIndex = chartRepository.loadIndex();
+    assertNotNull(yamlIndex);
+    assertTrue(Files.isRegularFile(snapshotPath));
+    final ChartRepository.Index snapshotIndex = IndexSnapshot.read(snapshotPath, indexPath);
+    assertNotNull(snapshotIndex);
+    assertEquals(yamlIndex.getEntries(), snapshotIndex.getEntries());
+
+    // Memory-mapped and streamed parses agree, and reading a mapping
+    // leaves it untouched for other readers.
+    try (final InputStream stream = Files.newInputStream(indexPath)) {
+      assertEquals(ChartRepository.Index.loadFrom(stream).getEntries(), ChartRepository.Index.loadFrom(indexPath).getEntries());
+    }
+    final ByteBuffer mapped = IndexSnapshot.map(indexPath);
+    assertEquals(Files.size(indexPath), mapped.remaining());
+    try (final InputStream stream = new ByteBufferInputStream(mapped)) {
+      assertEquals('a', stream.read());
+      assertEquals(10L, stream.skip(10L));
+      assertEquals(mapped.remaining() - 11, stream.available());
+      assertEquals(Files.readAllBytes(indexPath)[11], (byte)stream.read());
+      assertEquals(mapped.remaining() - 12, stream.skip(Long.MAX_VALUE));
+      assertEquals(-1, stream.read());
+      assertEquals(-1, stream.read(new byte[1], 0, 1));
+    }
+    assertEquals(0, mapped.position());
+
+    // File systems without POSIX file attributes are read rather
+    // than mapped, so that no mapping outlives the read.
+    final Path zipPath = workArea.resolve("stable-index.zip");
+    Files.deleteIfExists(zipPath);
+    try (final FileSystem zipFileSystem = FileSystems.newFileSystem(URI.create("jar:" + zipPath.toUri()), Collections.singletonMap("create", "true"))) {
+      final Path zippedIndexPath = zipFileSystem.getPath("/index.yaml");
+      Files.copy(indexPath, zippedIndexPath);
+      final ByteBuffer read = IndexSnapshot.map(zippedIndexPath);
+      assertFalse(read instanceof MappedByteBuffer);
+      assertEquals(mapped, read);
+      assertEquals(yamlIndex.getEntries(), ChartRepository.Index.loadFrom(zippedIndexPath).getEntries());
+    }
+
+    final ChartRepository.Index.Entry wordpress = snapshotIndex.getEntry("wordpress", "0.6.12");
+    assertNotNull(wordpress);
+    assertEquals(yamlIndex.getEntry("wordpress", "0.6.12").getDigest(), wordpress.getDigest());
+    assertEquals(yamlIndex.getEntry("wordpress", "0.6.12").getUris(), wordpress.getUris());
+    assertEquals(yamlIndex.getEntry("wordpress", "0.6.12").getMetadataOrBuilder(), wordpress.getMetadataOrBuilder());
+    assertEquals("Web publishing platform for building blogs and websites.", wordpress.getMetadataOrBuilder().getDescription());
+    assertEquals(new URI("https://kubernetes-charts.storage.googleapis.com/wordpress-0.6.12.tgz"), wordpress.getFirstUri());
+
+    // Touching the YAML file does not invalidate the snapshot, but
+    // changing its contents does.
+    Files.setLastModifiedTime(indexPath, FileTime.fromMillis(Files.getLastModifiedTime(indexPath).toMillis() - 60000L));
+    assertNotNull(IndexSnapshot.read(snapshotPath, indexPath));
+    // ...and the snapshot now records the new last modified time, so
+    // the YAML file will not be hashed again.
+    final CodedInputStream header = CodedInputStream.newInstance(Files.readAllBytes(snapshotPath));
+    header.readFixed32();
+    header.readUInt32();
+    assertEquals(Files.size(indexPath), header.readFixed64());
+    assertEquals(Files.getLastModifiedTime(indexPath).toMillis(), header.readFixed64());
+    Files.write(indexPath, "\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+    assertNull(IndexSnapshot.read(snapshotPath, indexPath));
+  }
+
+  @Test
+  public void testConditionalIndexDownload() throws IOException, URISyntaxException {
+    final String targetDirectory = System.getProperty("project.build.directory");
+    assertNotNull(targetDirectory);
+    final Path workArea = Paths.get(targetDirectory).resolve(this.getClass().getSimpleName());
+    Files.createDirectories(workArea);
+    final Path indexPath = workArea.resolve("conditional-index.yaml");
+    Files.deleteIfExists(indexPath);
+    Files.deleteIfExists(HttpValidators.getValidatorsPath(indexPath));
+    final byte[] indexBytes = Files.readAllBytes(Paths.get(Thread.currentThread().getContextClassLoader().getResource("TestChartRepository/stable-index.yaml").getPath()));
+    final List<Integer> statusCodes = Collections.synchronizedList(new ArrayList<>());
+    final HttpServer server = Fixtures.startIndexServer(new AtomicReference<>(indexBytes), new AtomicReference<>("\"stable-1\""), statusCodes);
+    try {
+      final ChartRepository chartRepository = new ChartRepository("conditional", Fixtures.getUri(server), indexPath);
+      final ChartRepository.Index index = chartRepository.getIndex(true);
+      assertNotNull(index);
+      assertEquals(Arrays.asList(200), statusCodes);
+      assertTrue(Files.isRegularFile(HttpValidators.getValidatorsPath(indexPath)));
+
+      // The second, conditional, request is answered with 304 and
+      // the already-loaded Index is reused.
+      assertSame(index, chartRepository.getIndex(true));
+      assertEquals(Arrays.asList(200, 304), statusCodes);
+      assertEquals(indexBytes.length, Files.size(indexPath));
+
+      // Without a cached file, the request is unconditional.
+      Files.delete(indexPath);
+      chartRepository.downloadIndex();
+      assertEquals(Arrays.asList(200, 304, 200), statusCodes);
+    } finally {
+      Fixtures.stop(server);
+    }
+  }
+
+  @Test
+  public void testIndexTimeToLiveAndBackgroundRefresh() throws Exception {
+    final String targetDirectory = System.getProperty("project.build.directory");
+    assertNotNull(targetDirectory);
+    final Path workArea = Paths.get(targetDirectory).resolve(this.getClass().getSimpleName());
+    Files.createDirectories(workArea);
+    final Path indexPath = workArea.resolve("refreshed-index.yaml");
+    Files.deleteIfExists(indexPath);
+    final Path validatorsPath = HttpValidators.getValidatorsPath(indexPath);
+    Files.deleteIfExists(validatorsPath);
+    final byte[] indexBytes = Files.readAllBytes(Paths.get(Thread.currentThread().getContextClassLoader().getResource("TestChartRepository/stable-index.yaml").getPath()));
+    final AtomicReference<byte[]> body = new AtomicReference<>(indexBytes);
+    final AtomicReference<String> etag = new AtomicReference<>("\"stable-1\"");
+    final List<Integer> statusCodes = Collections.synchronizedList(new ArrayList<>());
+    final HttpServer server = Fixtures.startIndexServer(body, etag, statusCodes);
+    final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    try {
+      final ChartRepository chartRepository = new ChartRepository("refreshed", Fixtures.getUri(server), indexPath);
+      chartRepository.setIndexTimeToLive(Duration.ofHours(1L));
+      final ChartRepository.Index index = chartRepository.getIndex();
+      assertNotNull(index);
+      assertFalse(chartRepository.isCachedIndexExpired());
+      assertSame(index, chartRepository.getIndex());
+      assertEquals(Arrays.asList(200), statusCodes);
+
+      // Once expired, the index is revalidated synchronously; a 304
+      // resets the clock.
+      final FileTime twoHoursAgo = FileTime.fromMillis(System.currentTimeMillis() - Duration.ofHours(2L).toMillis());
+      Files.setLastModifiedTime(validatorsPath, twoHoursAgo);
+      assertTrue(chartRepository.isCachedIndexExpired());
+      assertSame(index, chartRepository.getIndex());
+      assertEquals(Arrays.asList(200, 304), statusCodes);
+      assertFalse(chartRepository.isCachedIndexExpired());
+
+      // With a background refresh scheduled, an expired index is
+      // served as-is and replaced once the refresh completes.
+      final byte[] changedBytes = new String(indexBytes, StandardCharsets.UTF_8).replace("version: 0.6.12", "version: 0.6.13").getBytes(StandardCharsets.UTF_8);
+      body.set(changedBytes);
+      etag.set("\"stable-2\"");
+      Files.setLastModifiedTime(validatorsPath, twoHoursAgo);
+      final ScheduledFuture<?> refresh = chartRepository.scheduleIndexRefresh(executor, 1L, TimeUnit.HOURS, null);
+      assertSame(index, chartRepository.getIndex());
+      assertEquals(Arrays.asList(200, 304), statusCodes);
+      refresh.cancel(false);
+      final AtomicReference<Exception> refreshFailure = new AtomicReference<>();
+      chartRepository.scheduleIndexRefresh(executor, 50L, TimeUnit.MILLISECONDS, refreshFailure::set);
+      final long deadline = System.currentTimeMillis() + 10000L;
+      while (chartRepository.getIndex() == index && refreshFailure.get() == null && System.currentTimeMillis() < deadline) {
+        Thread.sleep(20L);
+      }
+      assertNull(refreshFailure.get());
+      final ChartRepository.Index newIndex = chartRepository.getIndex();
+      assertNotSame(index, newIndex);
+      assertNotNull(newIndex.getEntry("wordpress", "0.6.13"));
+      assertNull(newIndex.getEntry("wordpress", "0.6.12"));
+    } finally {
+      executor.shutdownNow();
+      Fixtures.stop(server);
+    }
+  }
+
+  @Test
+  public void testConcurrentArchiveDownloadsAreShared() throws Exception {
+    final String targetDirectory = System.getProperty("project.build.directory");
+    assertNotNull(targetDirectory);
+    final Path workArea = Paths.get(targetDirectory).resolve(this.getClass().getSimpleName()).resolve("shared");
+    final Path archiveCacheDirectory = workArea.resolve("archives");
+    Files.createDirectories(archiveCacheDirectory);
+    final Path indexPath = workArea.resolve("shared-index.yaml");
+    Files.deleteIfExists(indexPath);
+    Files.deleteIfExists(archiveCacheDirectory.resolve("foo-1.0.0.tgz"));
+    final byte[] archiveBytes = "not really a tape archive".getBytes(StandardCharsets.UTF_8);
+    final AtomicInteger indexRequests = new AtomicInteger();
+    final AtomicInteger archiveRequests = new AtomicInteger();
+    final HttpServer server = Fixtures.newServer();
+    final URI uri = Fixtures.getUri(server);
+    final byte[] indexBytes = new StringBuilder("apiVersion: v1\n")
+      .append("entries:\n")
+      .append("  foo:\n")
+      .append("  - name: foo\n")
+      .append("    version: 1.0.0\n")
+      .append("    urls:\n")
+      .append("    - ").append(uri.resolve("foo-1.0.0.tgz")).append("\n")
+      .toString().getBytes(StandardCharsets.UTF_8);
+    server.createContext("/", exchange -> {
+        try {
+          final byte[] bytes;
+          if (exchange.getRequestURI().getPath().endsWith(".tgz")) {
+            archiveRequests.incrementAndGet();
+            Thread.sleep(200L);
+            bytes = archiveBytes;
+          } else {
+            indexRequests.incrementAndGet();
+            bytes = indexBytes;
+          }
+          exchange.sendResponseHeaders(200, bytes.length);
+          try (final OutputStream responseBody = exchange.getResponseBody()) {
+            responseBody.write(bytes);
+          }
+        } catch (final InterruptedException interruptedException) {
+          Thread.currentThread().interrupt();
+        } finally {
+          exchange.close();
+        }
+      });
+    server.start();
+    final ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      final ChartRepository chartRepository = new ChartRepository("shared", uri, archiveCacheDirectory, null, indexPath);
+      final CountDownLatch start = new CountDownLatch(1);
+      final List<Future<Path>> futures = new ArrayList<>();
+      for (int i = 0; i < 8; i++) {
+        futures.add(executor.submit(() -> {
+              start.await();
+              return chartRepository.getCachedChartPath("foo", "1.0.0");
+            }));
+      }
+      start.countDown();
+      for (final Future<Path> future : futures) {
+        final Path archivePath = future.get(30L, TimeUnit.SECONDS);
+        assertEquals(archiveCacheDirectory.resolve("foo-1.0.0.tgz"), archivePath);
+        assertTrue(Arrays.equals(archiveBytes, Files.readAllBytes(archivePath)));
+      }
+      assertEquals(1, archiveRequests.get());
+      assertEquals(1, indexRequests.get());
+      assertFalse(Files.exists(archiveCacheDirectory.resolve("foo-1.0.0.tgz.lock")));
+    } finally {
+      executor.shutdownNow();
+      Fixtures.stop(server);
+    }
+  }
+
+  @Test
+  public void testInterruptedArchiveDownloadsResume() throws Exception {
+    final String targetDirectory = System.getProperty("project.build.directory");
+    assertNotNull(targetDirectory);
+    final Path workArea = Paths.get(targetDirectory).resolve(this.getClass().getSimpleName()).resolve("resumed");
+    final Path archiveCacheDirectory = workArea.resolve("archives");
+    Files.createDirectories(archiveCacheDirectory.resolve("sha256"));
+    final Path indexPath = workArea.resolve("resumed-index.yaml");
+    Files.deleteIfExists(indexPath);
+    final byte[] archiveBytes = new byte[100000];
+    new Random(42L).nextBytes(archiveBytes);
+    final String digest;
+    try (final InputStream stream = new ByteArrayInputStream(archiveBytes)) {
+      digest = ChartRepository.Index.Entry.getDigest(stream).toLowerCase();
+    }
+    for (final String name : Arrays.asList("foo-1.0.0.tgz", "bar-1.0.0.tgz", "sha256/" + digest + ".tgz", "sha256/" + digest + ".tgz.part", "sha256/" + digest + ".tgz.part.validators")) {
+      Files.deleteIfExists(archiveCacheDirectory.resolve(name));
+    }
+    final Path partialPath = archiveCacheDirectory.resolve("sha256").resolve(digest + ".tgz.part");
+
+    // The first response for each archive is cut off half way
+    // through; a resumed response for bar is corrupt.
+    final List<String> ranges = Collections.synchronizedList(new ArrayList<>());
+    final AtomicInteger archiveRequests = new AtomicInteger();
+    final HttpServer server = Fixtures.newServer();
+    final URI uri = Fixtures.getUri(server);
+    final StringBuilder index = new StringBuilder("apiVersion: v1\nentries:\n");
+    for (final String name : Arrays.asList("foo", "bar")) {
+      index.append("  ").append(name).append(":\n")
+        .append("  - name: ").append(name).append("\n")
+        .append("    version: 1.0.0\n")
+        .append("    digest: ").append(digest).append("\n")
+        .append("    urls:\n")
+        .append("    - ").append(uri.resolve(name + "-1.0.0.tgz")).append("\n");
+    }
+    final byte[] indexBytes = index.toString().getBytes(StandardCharsets.UTF_8);
+    server.createContext("/", exchange -> {
+        try {
+          final String path = exchange.getRequestURI().getPath();
+          if (!path.endsWith(".tgz")) {
+            exchange.sendResponseHeaders(200, indexBytes.length);
+            try (final OutputStream responseBody = exchange.getResponseBody()) {
+              responseBody.write(indexBytes);
+            }
+          } else {
+            final int request = archiveRequests.incrementAndGet();
+            final String range = exchange.getRequestHeaders().getFirst("Range");
+            ranges.add(range + " " + exchange.getRequestHeaders().getFirst("If-Range"));
+            exchange.getResponseHeaders().set("ETag", "\"v1\"");
+            if (range == null) {
+              exchange.sendResponseHeaders(200, archiveBytes.length);
+              final OutputStream responseBody = exchange.getResponseBody();
+              if (request == 1 || request == 3) {
+                responseBody.write(archiveBytes, 0, archiveBytes.length / 2);
+                responseBody.flush();
+                throw new IOException("Simulated network failure");
+              }
+              responseBody.write(archiveBytes);
+              responseBody.close();
+            } else {
+              final int offset = Integer.parseInt(range.substring("bytes=".length(), range.length() - 1));
+              final byte[] remainder = Arrays.copyOfRange(archiveBytes, offset, archiveBytes.length);
+              if (path.startsWith("/bar")) {
+                remainder[0]++;
+              }
+              exchange.getResponseHeaders().set("Content-Range", "bytes " + offset + "-" + (archiveBytes.length - 1) + "/" + archiveBytes.length);
+              exchange.sendResponseHeaders(206, remainder.length);
+              try (final OutputStream responseBody = exchange.getResponseBody()) {
+                responseBody.write(remainder);
+              }
+            }
+          }
+        } finally {
+          exchange.close();
+        }
+      });
+    server.start();
+    try {
+      final ChartRepository chartRepository = new ChartRepository("resumed", uri, archiveCacheDirectory, null, indexPath);
+
+      // foo: cut off, then resumed.
+      try {
+        chartRepository.getCachedChartPath("foo", "1.0.0");
+        fail();
+      } catch (final IOException expected) {
+
+      }
+      assertEquals(archiveBytes.length / 2, Files.size(partialPath));
+      final Path fooPath = chartRepository.getCachedChartPath("foo", "1.0.0");
+      assertTrue(Arrays.equals(archiveBytes, Files.readAllBytes(fooPath)));
+      assertEquals(Arrays.asList("null null", "bytes=" + (archiveBytes.length / 2) + "- \"v1\""), ranges);
+      assertFalse(Files.exists(partialPath));
+      assertFalse(Files.exists(HttpValidators.getValidatorsPath(partialPath)));
+
+      // bar: cut off, then resumed with corrupt bytes, then downloaded
+      // again from scratch.
+      Files.delete(archiveCacheDirectory.resolve("sha256").resolve(digest + ".tgz"));
+      ranges.clear();
+      try {
+        chartRepository.getCachedChartPath("bar", "1.0.0");
+        fail();
+      } catch (final IOException expected) {
+
+      }
+      assertTrue(Files.exists(partialPath));
+      try {
+        chartRepository.getCachedChartPath("bar", "1.0.0");
+        fail();
+      } catch (final IOException expected) {
+        assertTrue(expected.getMessage().contains("Digest mismatch"));
+      }
+      assertFalse(Files.exists(partialPath));
+      final Path barPath = chartRepository.getCachedChartPath("bar", "1.0.0");
+      assertTrue(Arrays.equals(archiveBytes, Files.readAllBytes(barPath)));
+      assertEquals(3, ranges.size());
+      assertEquals("null null", ranges.get(2));
+    } finally {
+      Fixtures.stop(server);
+    }
+  }
+
+  @Test
+  public void testMissingChartsDoNotRedownloadTheIndex() throws Exception {
+    final String targetDirectory = System.getProperty("project.build.directory");
+    assertNotNull(targetDirectory);
+    final Path workArea = Paths.get(targetDirectory).resolve(this.getClass().getSimpleName()).resolve("missing");
+    final Path archiveCacheDirectory = workArea.resolve("archives");
+    Files.createDirectories(archiveCacheDirectory);
+    final Path indexPath = workArea.resolve("missing-index.yaml");
+    Files.deleteIfExists(indexPath);
+    Files.deleteIfExists(HttpValidators.getValidatorsPath(indexPath));
+    final byte[] indexBytes = new StringBuilder("apiVersion: v1\n")
+      .append("entries:\n")
+      .append("  foo:\n")
+      .append("  - name: foo\n")
+      .append("    version: 1.0.0\n")
+      .toString().getBytes(StandardCharsets.UTF_8);
+    final List<Integer> statusCodes = Collections.synchronizedList(new ArrayList<>());
+    final HttpServer server = Fixtures.startIndexServer(new AtomicReference<>(indexBytes), new AtomicReference<>("\"missing-1\""), statusCodes);
+    try {
+      final ChartRepository chartRepository = new ChartRepository("missing", Fixtures.getUri(server), archiveCacheDirectory, null, indexPath);
+      assertEquals(Duration.ofMinutes(1L), chartRepository.getMissingChartTimeToLive());
+
+      // The first miss downloads the index to make sure.
+      assertNull(chartRepository.getCachedChartPath("foo", "9.9.9"));
+      assertEquals(1, statusCodes.size());
+
+      // Later misses are answered from memory.
+      for (int i = 0; i < 5; i++) {
+        assertNull(chartRepository.getCachedChartPath("foo", "9.9.9"));
+        assertNull(chartRepository.resolve("foo", "9.9.9"));
+      }
+      assertEquals(1, statusCodes.size());
+
+      // A different missing version is a different miss.
+      chartRepository.getCachedChartPath("foo", "9.9.8");
+      assertEquals(2, statusCodes.size());
+
+      // Disabling the cache forgets what was missing.
+      chartRepository.setMissingChartTimeToLive(Duration.ZERO);
+      chartRepository.getCachedChartPath("foo", "9.9.9");
+      chartRepository.getCachedChartPath("foo", "9.9.9");
+      assertEquals(4, statusCodes.size());
+
+      try {
+        chartRepository.setMissingChartTimeToLive(Duration.ofSeconds(-1L));
+        fail();
+      } catch (final IllegalArgumentException expected) {
+
+      }
+    } finally {
+      Fixtures.stop(server);
+    }
+  }
+
+  @Test
+  public void testContentAddressedArchives() throws Exception {
+    final String targetDirectory = System.getProperty("project.build.directory");
+    assertNotNull(targetDirectory);
+    final Path workArea = Paths.get(targetDirectory).resolve(this.getClass().getSimpleName()).resolve("content-addressed");
+    final Path archiveCacheDirectory = workArea.resolve("archives");
+    // Archives stored by an earlier run would otherwise be reused
+    // without being downloaded.
+    for (final Path directory : Arrays.asList(workArea, archiveCacheDirectory, archiveCacheDirectory.resolve("sha256"))) {
+      Files.createDirectories(directory);
+      try (final Stream<Path> stream = Files.list(directory)) {
+        stream.filter(p -> !Files.isDirectory(p)).forEach(p -> p.toFile().delete());
+      }
+    }
+    final AtomicReference<byte[]> archiveBytes = new AtomicReference<>("first".getBytes(StandardCharsets.UTF_8));
+    final AtomicReference<String> digest = new AtomicReference<>(ChartRepository.Index.Entry.getDigest(new ByteArrayInputStream(archiveBytes.get())).toLowerCase());
+    final AtomicInteger archiveRequests = new AtomicInteger();
+    final AtomicInteger indexRequests = new AtomicInteger();
+    final HttpServer server = Fixtures.newServer();
+    final URI uri = Fixtures.getUri(server);
+    server.createContext("/", exchange -> {
+        try {
+          final String path = exchange.getRequestURI().getPath();
+          final byte[] bytes;
+          if (path.endsWith(".tgz")) {
+            archiveRequests.incrementAndGet();
+            bytes = archiveBytes.get();
+          } else {
+            indexRequests.incrementAndGet();
+            // Repository a serves foo, repository b serves bar, and
+            // both are the same archive.
+            final String chartName = path.startsWith("/a/") ? "foo" : "bar";
+            bytes = new StringBuilder("apiVersion: v1\n")
+              .append("entries:\n")
+              .append("  ").append(chartName).append(":\n")
+              .append("  - name: ").append(chartName).append("\n")
+              .append("    version: 1.0.0\n")
+              .append("    digest: ").append(digest.get()).append("\n")
+              .append("    urls:\n")
+              .append("    - ").append(uri.resolve("/archive.tgz")).append("\n")
+              .toString().getBytes(StandardCharsets.UTF_8);
+          }
+          exchange.sendResponseHeaders(200, bytes.length);
+          try (final OutputStream responseBody = exchange.getResponseBody()) {
+            responseBody.write(bytes);
+          }
+        } finally {
+          exchange.close();
+        }
+      });
+    server.start();
+    try {
+      final ChartRepository a = new ChartRepository("a", uri.resolve("/a/"), archiveCacheDirectory, null, workArea.resolve("a-index.yaml"));
+      final ChartRepository b = new ChartRepository("b", uri.resolve("/b/"), archiveCacheDirectory, null, workArea.resolve("b-index.yaml"));
+      final Path blobPath = archiveCacheDirectory.resolve("sha256").resolve(digest.get() + ".tgz");
+      final Path foo = a.getCachedChartPath("foo", "1.0.0");
+      assertEquals(1, archiveRequests.get());
+      assertTrue(Files.isRegularFile(blobPath));
+      assertTrue(Files.isSameFile(foo, blobPath));
+
+      // The same archive under another name in another repository is
+      // linked, not downloaded again.
+      final Path bar = b.getCachedChartPath("bar", "1.0.0");
+      assertEquals(1, archiveRequests.get());
+      assertTrue(Files.isSameFile(bar, blobPath));
+      assertTrue(Arrays.equals(archiveBytes.get(), Files.readAllBytes(bar)));
+
+      // A republished archive with a new digest is detected without
+      // re-hashing the cached one.
+      archiveBytes.set("second".getBytes(StandardCharsets.UTF_8));
+      digest.set(ChartRepository.Index.Entry.getDigest(new ByteArrayInputStream(archiveBytes.get())).toLowerCase());
+      a.refreshIndex();
+      assertEquals(foo, a.getCachedChartPath("foo", "1.0.0"));
+      assertEquals(2, archiveRequests.get());
+      assertTrue(Arrays.equals(archiveBytes.get(), Files.readAllBytes(foo)));
+
+      // An evicted archive is downloaded again from the URI in the
+      // loaded index, which is not itself downloaded again.
+      final int indexRequestCount = indexRequests.get();
+      Files.delete(foo);
+      Files.delete(archiveCacheDirectory.resolve("sha256").resolve(digest.get() + ".tgz"));
+      assertEquals(foo, a.getCachedChartPath("foo", "1.0.0"));
+      assertEquals(3, archiveRequests.get());
+      assertEquals(indexRequestCount, indexRequests.get());
+      assertTrue(Arrays.equals(archiveBytes.get(), Files.readAllBytes(foo)));
+
+      // An archive that does not match its digest is rejected.
+      digest.set(ChartRepository.Index.Entry.getDigest(new ByteArrayInputStream("third".getBytes(StandardCharsets.UTF_8))).toLowerCase());
+      b.refreshIndex();
+      try {
+        b.getCachedChartPath("bar", "1.0.0");
+        fail();
+      } catch (final IOException expected) {
+        assertTrue(expected.getMessage().contains("Digest mismatch"));
+      }
+      assertFalse(Files.exists(archiveCacheDirectory.resolve("sha256").resolve(digest.get() + ".tgz")));
+    } finally {
+      Fixtures.stop(server);
+    }
+  }
+
+  @Test
+  public void testCachedArchivesDoNotNeedTheIndex() throws Exception {
+    final String targetDirectory = System.getProperty("project.build.directory");
+    assertNotNull(targetDirectory);
+    final Path workArea = Paths.get(targetDirectory).resolve(this.getClass().getSimpleName()).resolve("offline");
+    final Path archiveCacheDirectory = workArea.resolve("archives");
+    Files.createDirectories(archiveCacheDirectory);
+    final Path indexPath = workArea.resolve("offline-index.yaml");
+    Files.deleteIfExists(indexPath);
+    final Path archivePath = archiveCacheDirectory.resolve("foo-1.0.0.tgz");
+    Files.write(archivePath, "not really a tape archive".getBytes(StandardCharsets.UTF_8));
+
+    // Nothing is listening at this URI any more, so any attempt to
+    // download the index fails.
+    final HttpServer server = Fixtures.newServer();
+    final URI uri = Fixtures.getUri(server);
+    Fixtures.stop(server);
+
+    final ChartRepository chartRepository = new ChartRepository("offline", uri, archiveCacheDirectory, null, indexPath);
+    assertEquals(archivePath, chartRepository.getCachedChartPath("foo", "1.0.0"));
+    assertFalse(Files.exists(indexPath));
+  }
+
+  @Test
+  public void testConcurrentDownloadsOfTheSameDigestAreShared() throws Exception {
+    final String targetDirectory = System.getProperty("project.build.directory");
+    assertNotNull(targetDirectory);
+    final Path workArea = Paths.get(targetDirectory).resolve(this.getClass().getSimpleName()).resolve("shared-digest");
+    final Path archiveCacheDirectory = workArea.resolve("archives");
+    final Path blobDirectory = archiveCacheDirectory.resolve("sha256");
+    for (final Path directory : Arrays.asList(workArea, archiveCacheDirectory, blobDirectory)) {
+      Files.createDirectories(directory);
+      try (final Stream<Path> stream = Files.list(directory)) {
+        stream.filter(p -> !Files.isDirectory(p)).forEach(p -> p.toFile().delete());
+      }
+    }
+    final byte[] archiveBytes = new byte[64 * 1024];
+    new Random(17L).nextBytes(archiveBytes);
+    final String digest = ChartRepository.Index.Entry.getDigest(new ByteArrayInputStream(archiveBytes)).toLowerCase();
+    final AtomicInteger archiveRequests = new AtomicInteger();
+    final HttpServer server = Fixtures.newServer();
+    final URI uri = Fixtures.getUri(server);
+    server.createContext("/", exchange -> {
+        try {
+          final String path = exchange.getRequestURI().getPath();
+          final byte[] bytes;
+          if (path.endsWith(".tgz")) {
+            archiveRequests.incrementAndGet();
+            Thread.sleep(200L);
+            bytes = archiveBytes;
+          } else {
+            // Repository a serves foo, repository b serves bar, and
+            // both are the same archive.
+            final String chartName = path.startsWith("/a/") ? "foo" : "bar";
+            bytes = new StringBuilder("apiVersion: v1\n")
+              .append("entries:\n")
+              .append("  ").append(chartName).append(":\n")
+              .append("  - name: ").append(chartName).append("\n")
+              .append("    version: 1.0.0\n")
+              .append("    digest: ").append(digest).append("\n")
+              .append("    urls:\n")
+              .append("    - ").append(uri.resolve("/" + chartName + ".tgz")).append("\n")
+              .toString().getBytes(StandardCharsets.UTF_8);
+          }
+          exchange.sendResponseHeaders(200, bytes.length);
+          try (final OutputStream responseBody = exchange.getResponseBody()) {
+            responseBody.write(bytes);
+          }
+        } catch (final InterruptedException interruptedException) {
+          Thread.currentThread().interrupt();
+        } finally {
+          exchange.close();
+        }
+      });
+    server.start();
+    final ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      final ChartRepository a = new ChartRepository("a", uri.resolve("/a/"), archiveCacheDirectory, null, workArea.resolve("a-index.yaml"));
+      final ChartRepository b = new ChartRepository("b", uri.resolve("/b/"), archiveCacheDirectory, null, workArea.resolve("b-index.yaml"));
+      final CountDownLatch start = new CountDownLatch(1);
+      final List<Future<Path>> futures = new ArrayList<>();
+      for (int i = 0; i < 8; i++) {
+        final boolean foo = i % 2 == 0;
+        futures.add(executor.submit(() -> {
+              start.await();
+              return foo ? a.getCachedChartPath("foo", "1.0.0") : b.getCachedChartPath("bar", "1.0.0");
+            }));
+      }
+      start.countDown();
+      for (final Future<Path> future : futures) {
+        assertTrue(Arrays.equals(archiveBytes, Files.readAllBytes(future.get(30L, TimeUnit.SECONDS))));
+      }
+      assertEquals(1, archiveRequests.get());
+      try (final Stream<Path> stream = Files.list(blobDirectory)) {
+        assertEquals(Collections.singletonList(blobDirectory.resolve(digest + ".tgz")), stream.collect(Collectors.toList()));
+      }
+    } finally {
+      executor.shutdownNow();
+      Fixtures.stop(server);
+    }
+  }
+
+  @Test
+  public void testStreamingDigests() throws IOException, URISyntaxException {
+    final Path indexPath = Paths.get(Thread.currentThread().getContextClassLoader().getResource("TestChartRepository/stable-index.yaml").getPath());
+    final byte[] bytes = Files.readAllBytes(indexPath);
+    final String digest = ChartRepository.Index.Entry.getDigest(indexPath);
+    assertEquals(64, digest.length());
+    assertEquals(digest, ChartRepository.Index.Entry.getDigest(new ByteArrayInputStream(bytes)));
+
+    final ChartRepository.Index.Entry good = new ChartRepository.Index.Entry(Metadata.newBuilder().setName("foo").setVersion("1.0.0"), Collections.emptySet(), digest.toLowerCase());
+    try (final InputStream stream = good.newVerifyingInputStream(new ByteArrayInputStream(bytes))) {
+      assertEquals(digest, ChartRepository.Index.Entry.getDigest(stream));
+    }
+    final ChartRepository.Index.Entry bad = new ChartRepository.Index.Entry(Metadata.newBuilder().setName("foo").setVersion("1.0.0"), Collections.emptySet(), ChartRepository.Index.Entry.getDigest(new ByteArrayInputStream(new byte[0])));
+    try (final InputStream stream = bad.newVerifyingInputStream(new ByteArrayInputStream(bytes))) {
+      ChartRepository.Index.Entry.getDigest(stream);
+      fail();
+    } catch (final IOException expected) {
+
+    }
+  }
+
 }
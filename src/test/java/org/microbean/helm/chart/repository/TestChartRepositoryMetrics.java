@@ -0,0 +1,121 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2017 MicroBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.helm.chart.repository;
+
+import java.net.URI;
+
+import java.nio.file.Path;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.sun.net.httpserver.HttpServer;
+
+import hapi.chart.ChartOuterClass.Chart;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestChartRepositoryMetrics {
+
+  public TestChartRepositoryMetrics() {
+    super();
+  }
+
+  @Test
+  public void testHistogram() {
+    final ChartRepositoryMetrics.Histogram histogram = new ChartRepositoryMetrics.Histogram();
+    assertEquals(0L, histogram.getCount());
+    assertEquals(0L, histogram.getValueAtPercentile(50.0));
+    for (long i = 1L; i <= 100L; i++) {
+      histogram.record(i);
+    }
+    histogram.record(-1L);
+    assertEquals(101L, histogram.getCount());
+    assertEquals(5050L, histogram.getSum());
+    assertEquals(100L, histogram.getMax());
+    // 50 falls in the bucket holding 32 through 63.
+    assertEquals(63L, histogram.getValueAtPercentile(50.0));
+    assertEquals(100L, histogram.getValueAtPercentile(100.0));
+    assertEquals(0L, histogram.getValueAtPercentile(0.0));
+  }
+
+  @Test
+  public void testMetrics() throws Exception {
+    final Path workArea = Fixtures.getWorkArea("TestChartRepositoryMetrics");
+    final Path archiveCacheDirectory = workArea.resolve("archives");
+    Fixtures.clear(workArea, archiveCacheDirectory);
+
+    final Map<String, byte[]> resources = new ConcurrentHashMap<>();
+    final List<String> requestedPaths = Collections.synchronizedList(new ArrayList<>());
+    final HttpServer server = Fixtures.startServer(resources, requestedPaths);
+    final URI uri = Fixtures.getUri(server);
+    final byte[] archive = Fixtures.archive("metered", "1.0.0");
+    resources.put("/metered-1.0.0.tgz", archive);
+    resources.put("/index.yaml", Fixtures.index(uri, "metered-1.0.0", "metered-0.9.0"));
+    try {
+      final ChartRepository chartRepository = new ChartRepository("metered", uri, archiveCacheDirectory, null, workArea.resolve("metered-index.yaml"));
+      final ChartRepositoryMetrics metrics = new ChartRepositoryMetrics();
+      assertNull(metrics.getStatistics("metered"));
+      chartRepository.addChartRepositoryListener(new ChartRepositoryListener() {
+          @Override
+          public final void archiveCacheHit(final ChartRepository source, final String chartName, final String chartVersion) {
+            throw new IllegalStateException();
+          }
+        });
+      chartRepository.addChartRepositoryListener(metrics);
+
+      assertNotNull(chartRepository.getCachedChartPath("metered", "1.0.0"));
+      assertNotNull(chartRepository.getCachedChartPath("metered", "1.0.0"));
+      final Chart.Builder chart = chartRepository.resolve("metered", "1.0.0");
+      assertNotNull(chart);
+      assertEquals("metered", chart.getMetadataOrBuilder().getName());
+      assertEquals(1, Collections.frequency(requestedPaths, "/metered-1.0.0.tgz"));
+
+      final ChartRepositoryMetrics.Statistics statistics = metrics.getStatistics("metered");
+      assertNotNull(statistics);
+      assertEquals(1L, statistics.getIndexDownloadCount());
+      assertEquals(resources.get("/index.yaml").length, statistics.getIndexDownloadBytes());
+      assertEquals(1L, statistics.getIndexDownloadTime().getCount());
+      assertEquals(1L, statistics.getIndexLoadTime().getCount());
+      assertEquals(2, statistics.getIndexEntryCount());
+      assertEquals(2L, statistics.getArchiveCacheHitCount());
+      assertEquals(1L, statistics.getArchiveCacheMissCount());
+      assertEquals(1L, statistics.getArchiveDownloadTime().getCount());
+      assertEquals(archive.length, statistics.getArchiveDownloadBytes());
+      assertTrue(statistics.getArchiveDownloadThroughput() > 0.0);
+      assertEquals(1L, statistics.getChartLoadTime().getCount());
+
+      // Nothing more is recorded once the listener is removed.
+      chartRepository.removeChartRepositoryListener(metrics);
+      assertNotNull(chartRepository.resolve("metered", "1.0.0"));
+      assertEquals(2L, statistics.getArchiveCacheHitCount());
+      assertEquals(1L, statistics.getChartLoadTime().getCount());
+    } finally {
+      Fixtures.stop(server);
+    }
+  }
+
+}
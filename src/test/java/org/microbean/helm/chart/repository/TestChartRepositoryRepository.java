@@ -23,16 +23,32 @@ import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 
-import java.nio.charset.StandardCharsets;
-
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import java.util.stream.Collectors;
+
+import com.sun.net.httpserver.HttpServer;
+
 import hapi.chart.ChartOuterClass.Chart;
 import hapi.chart.MetadataOuterClass.MetadataOrBuilder;
 
@@ -42,6 +58,8 @@ import org.microbean.helm.chart.resolver.ChartResolverException;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class TestChartRepositoryRepository {
 
@@ -83,5 +101,241 @@ public class TestChartRepositoryRepository {
       assertEquals("0.10.1", metadata.getVersion());
     }
   }
-  
+
+  @Test
+  public void testRefreshIndices() throws IOException, URISyntaxException {
+    final String targetDirectory = System.getProperty("project.build.directory");
+    assertNotNull(targetDirectory);
+    final Path indexCacheDirectory = Paths.get(targetDirectory).resolve("TestChartRepositoryRepository").resolve("refreshed-indices");
+    Files.createDirectories(indexCacheDirectory);
+    final byte[] indexBytes = Files.readAllBytes(Paths.get(Thread.currentThread().getContextClassLoader().getResource("TestChartRepository/stable-index.yaml").getPath()));
+
+    // Every repository's index request waits until all of them are in
+    // flight at once, so this only succeeds if they are concurrent.
+    final CountDownLatch inFlight = new CountDownLatch(3);
+    final HttpServer server = Fixtures.newServer();
+    server.createContext("/", exchange -> {
+        try {
+          inFlight.countDown();
+          inFlight.await(10L, TimeUnit.SECONDS);
+          Fixtures.respond(exchange, exchange.getRequestURI().getPath().startsWith("/missing/") ? null : indexBytes);
+        } catch (final InterruptedException interruptedException) {
+          Thread.currentThread().interrupt();
+        } finally {
+          exchange.close();
+        }
+      });
+    server.start();
+    try {
+      final Set<ChartRepository> chartRepositories = new LinkedHashSet<>();
+      for (final String name : Arrays.asList("first", "second", "missing")) {
+        final URI uri = Fixtures.getUri(server, "/" + name + "/");
+        final Path cachedIndexPath = indexCacheDirectory.resolve(name + "-index.yaml");
+        Files.deleteIfExists(cachedIndexPath);
+        chartRepositories.add(new ChartRepository(name, uri, cachedIndexPath));
+      }
+      final ChartRepositoryRepository repo = new ChartRepositoryRepository(chartRepositories);
+      try {
+        repo.refreshIndices(true, 30L, TimeUnit.SECONDS);
+        fail();
+      } catch (final IOException expected) {
+        final Throwable[] suppressed = expected.getSuppressed();
+        assertEquals(1, suppressed.length);
+        assertTrue(suppressed[0].getMessage().contains("missing"));
+      }
+      assertNotNull(repo.getChartRepository("first").getIndex().getEntry("wordpress", "0.6.12"));
+      assertNotNull(repo.getChartRepository("second").getIndex().getEntry("wordpress", "0.6.12"));
+    } finally {
+      Fixtures.stop(server);
+    }
+  }
+
+  @Test
+  public void testRefreshIndicesTimesEachRepositoryFromItsStart() throws Exception {
+    final Path indexCacheDirectory = Fixtures.getWorkArea("TestChartRepositoryRepository", "queued-indices");
+    Fixtures.clear(indexCacheDirectory);
+    final byte[] indexBytes = Files.readAllBytes(Paths.get(Thread.currentThread().getContextClassLoader().getResource("TestChartRepository/stable-index.yaml").getPath()));
+
+    // Each index takes a second to serve.  With one thread, the last
+    // of three repositories starts two seconds in, after an overall
+    // deadline of two seconds would already have passed.
+    final HttpServer server = Fixtures.newServer();
+    server.createContext("/", exchange -> {
+        try {
+          Thread.sleep(1000L);
+          Fixtures.respond(exchange, indexBytes);
+        } catch (final InterruptedException interruptedException) {
+          Thread.currentThread().interrupt();
+        } finally {
+          exchange.close();
+        }
+      });
+    server.start();
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      final Set<ChartRepository> chartRepositories = new LinkedHashSet<>();
+      for (final String name : Arrays.asList("first", "second", "third")) {
+        chartRepositories.add(new ChartRepository(name, Fixtures.getUri(server, "/" + name + "/"), indexCacheDirectory.resolve(name + "-index.yaml")));
+      }
+      final ChartRepositoryRepository repo = new ChartRepositoryRepository(chartRepositories);
+      final Map<String, ChartRepository.Index> indices = repo.refreshIndices(true, executor, 2L, TimeUnit.SECONDS);
+      assertEquals(Arrays.asList("first", "second", "third"), new ArrayList<>(indices.keySet()));
+    } finally {
+      executor.shutdownNow();
+      Fixtures.stop(server);
+    }
+  }
+
+  @Test
+  public void testSearch() throws IOException, URISyntaxException {
+    final String targetDirectory = System.getProperty("project.build.directory");
+    assertNotNull(targetDirectory);
+    final Path indexCacheDirectory = Paths.get(targetDirectory).resolve("TestChartRepositoryRepository").resolve("searched-indices");
+    Files.createDirectories(indexCacheDirectory);
+    final Path indexPath = Paths.get(Thread.currentThread().getContextClassLoader().getResource("TestChartRepository/stable-index.yaml").getPath());
+    final Set<ChartRepository> chartRepositories = new LinkedHashSet<>();
+    for (final String name : Arrays.asList("first", "second")) {
+      final Path cachedIndexPath = indexCacheDirectory.resolve(name + "-index.yaml");
+      Files.copy(indexPath, cachedIndexPath, StandardCopyOption.REPLACE_EXISTING);
+      chartRepositories.add(new ChartRepository(name, new URI("http://example.com/" + name + "/"), cachedIndexPath));
+    }
+    final ChartRepositoryRepository repo = new ChartRepositoryRepository(chartRepositories);
+    final List<SearchIndex.Hit> hits = repo.search("wordpress", false);
+    assertNotNull(hits);
+    assertTrue(hits.size() >= 2);
+    assertEquals("wordpress", hits.get(0).getEntry().getName());
+    assertEquals("first", hits.get(0).getRepositoryName());
+    assertEquals("wordpress", hits.get(1).getEntry().getName());
+    assertEquals("second", hits.get(1).getRepositoryName());
+  }
+
+  @Test
+  public void testPrefetchDependencies() throws Exception {
+    final Path workArea = Fixtures.getWorkArea("TestChartRepositoryRepository", "prefetch");
+    final Path indexCacheDirectory = workArea.resolve("indices");
+    final Path archiveCacheDirectory = workArea.resolve("archives");
+    Fixtures.clear(indexCacheDirectory, archiveCacheDirectory);
+
+    final Map<String, byte[]> resources = new ConcurrentHashMap<>();
+    final List<String> requestedPaths = Collections.synchronizedList(new ArrayList<>());
+    final HttpServer server = Fixtures.startServer(resources, requestedPaths);
+    final URI one = Fixtures.getUri(server, "/one/");
+    final URI two = Fixtures.getUri(server, "/two/");
+
+    // umbrella depends on a (by URI and constraint), b (by name), a
+    // bundled chart and a chart from an unknown repository; a and b
+    // both depend on d.
+    resources.put("/one/umbrella-1.0.0.tgz",
+                  Fixtures.archive("umbrella", "1.0.0",
+                          new StringBuilder("dependencies:\n")
+                          .append("- name: a\n  version: ^1.0.0\n  repository: ").append(one.toString().replaceAll("/$", "")).append("\n")
+                          .append("- name: b\n  version: 1.0.0\n  repository: \"@two\"\n")
+                          .append("- name: bundled\n  version: 1.0.0\n  repository: ").append(one).append("\n")
+                          .append("- name: elsewhere\n  version: 1.0.0\n  repository: http://example.com/charts\n")
+                          .toString(),
+                          "bundled"));
+    resources.put("/one/a-1.0.0.tgz", Fixtures.archive("a", "1.0.0"));
+    resources.put("/one/a-1.1.0.tgz", Fixtures.archive("a", "1.1.0", "dependencies:\n- name: d\n  version: 1.0.0\n  repository: \"alias:two\"\n"));
+    resources.put("/two/b-1.0.0.tgz", Fixtures.archive("b", "1.0.0", "dependencies:\n- name: d\n  version: 1.0.0\n  repository: \"@two\"\n"));
+    resources.put("/two/d-1.0.0.tgz", Fixtures.archive("d", "1.0.0"));
+    resources.put("/one/index.yaml", Fixtures.index(one, "umbrella-1.0.0", "a-1.0.0", "a-1.1.0", "bundled-1.0.0"));
+    resources.put("/two/index.yaml", Fixtures.index(two, "b-1.0.0", "d-1.0.0"));
+
+    final ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      final List<String> loadedCharts = Collections.synchronizedList(new ArrayList<>());
+      final ChartRepositoryListener listener = new ChartRepositoryListener() {
+          @Override
+          public final void chartLoaded(final ChartRepository source, final String chartName, final String chartVersion, final long nanos) {
+            loadedCharts.add(chartName);
+          }
+        };
+      final Set<ChartRepository> chartRepositories = new LinkedHashSet<>();
+      chartRepositories.add(new ChartRepository("one", one, archiveCacheDirectory, indexCacheDirectory, null));
+      chartRepositories.add(new ChartRepository("two", two, archiveCacheDirectory, indexCacheDirectory, null));
+      for (final ChartRepository chartRepository : chartRepositories) {
+        chartRepository.addChartRepositoryListener(listener);
+      }
+      final ChartRepositoryRepository repo = new ChartRepositoryRepository(chartRepositories);
+      repo.setDependencyPrefetchExecutor(executor);
+
+      // Occupy every thread, so that resolve() can only return before
+      // any dependency is fetched if it does not wait for them.
+      final CountDownLatch gate = new CountDownLatch(1);
+      for (int i = 0; i < 4; i++) {
+        executor.submit(() -> {
+            gate.await();
+            return null;
+          });
+      }
+      final Chart.Builder umbrella = repo.resolve("one/umbrella", "1.0.0");
+      assertNotNull(umbrella);
+      assertEquals("umbrella", umbrella.getMetadataOrBuilder().getName());
+      assertEquals(Collections.singletonList("/one/umbrella-1.0.0.tgz"), requestedPaths.stream().filter(p -> p.endsWith(".tgz")).collect(Collectors.toList()));
+      gate.countDown();
+
+      final List<Path> dependencyPaths = Arrays.asList(archiveCacheDirectory.resolve("a-1.1.0.tgz"), archiveCacheDirectory.resolve("b-1.0.0.tgz"), archiveCacheDirectory.resolve("d-1.0.0.tgz"));
+      final long deadline = System.currentTimeMillis() + 10000L;
+      while (!dependencyPaths.stream().allMatch(Files::isRegularFile) && System.currentTimeMillis() < deadline) {
+        Thread.sleep(20L);
+      }
+      assertTrue(dependencyPaths.stream().allMatch(Files::isRegularFile));
+      assertEquals(1, Collections.frequency(requestedPaths, "/one/umbrella-1.0.0.tgz"));
+      assertEquals(0, Collections.frequency(requestedPaths, "/one/a-1.0.0.tgz"));
+      assertEquals(1, Collections.frequency(requestedPaths, "/one/a-1.1.0.tgz"));
+      assertEquals(1, Collections.frequency(requestedPaths, "/two/b-1.0.0.tgz"));
+      assertEquals(1, Collections.frequency(requestedPaths, "/two/d-1.0.0.tgz"));
+
+      // Everything is cached now.
+      repo.setDependencyPrefetchExecutor(null);
+      assertEquals(3, repo.prefetchDependencies(umbrella, executor));
+      assertEquals(4L, requestedPaths.stream().filter(p -> p.endsWith(".tgz")).count());
+
+      // Prefetching downloads archives; only resolution loads them.
+      assertEquals(Collections.singletonList("umbrella"), loadedCharts);
+      assertNotNull(repo.resolve("two/d", "1.0.0"));
+      assertEquals(1, Collections.frequency(requestedPaths, "/two/d-1.0.0.tgz"));
+      assertEquals(Arrays.asList("umbrella", "d"), loadedCharts);
+    } finally {
+      executor.shutdownNow();
+      Fixtures.stop(server);
+    }
+  }
+
+  @Test
+  public void testPrefetchFailuresDoNotFailResolution() throws Exception {
+    final Path workArea = Fixtures.getWorkArea("TestChartRepositoryRepository", "prefetch-failure");
+    final Path indexCacheDirectory = workArea.resolve("indices");
+    final Path archiveCacheDirectory = workArea.resolve("archives");
+    Fixtures.clear(indexCacheDirectory, archiveCacheDirectory);
+
+    // umbrella depends on missing, whose archive is not there.
+    final Map<String, byte[]> resources = new ConcurrentHashMap<>();
+    final HttpServer server = Fixtures.startServer(resources, null);
+    final URI one = Fixtures.getUri(server, "/one/");
+    resources.put("/one/umbrella-1.0.0.tgz", Fixtures.archive("umbrella", "1.0.0", "dependencies:\n- name: missing\n  version: 1.0.0\n  repository: \"@one\"\n"));
+    resources.put("/one/index.yaml", Fixtures.index(one, "umbrella-1.0.0", "missing-1.0.0"));
+    final ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      final ChartRepositoryRepository repo = new ChartRepositoryRepository(Collections.singleton(new ChartRepository("one", one, archiveCacheDirectory, indexCacheDirectory, null)));
+      final AtomicReference<Exception> failure = new AtomicReference<>();
+      repo.setDependencyPrefetchExecutor(executor);
+      repo.setDependencyPrefetchErrorHandler(failure::set);
+      final Chart.Builder umbrella = repo.resolve("one/umbrella", "1.0.0");
+      assertNotNull(umbrella);
+      assertEquals("umbrella", umbrella.getMetadataOrBuilder().getName());
+
+      // The failure is reported once the prefetch, which resolve()
+      // does not wait for, gets to it.
+      final long deadline = System.currentTimeMillis() + 10000L;
+      while (failure.get() == null && System.currentTimeMillis() < deadline) {
+        Thread.sleep(20L);
+      }
+      assertTrue(failure.get() instanceof IOException);
+    } finally {
+      executor.shutdownNow();
+      Fixtures.stop(server);
+    }
+  }
+
 }
@@ -24,6 +24,8 @@ import java.net.URISyntaxException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Map;
 import java.util.SortedSet;
 
@@ -36,6 +38,8 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
 
 public class TestMergeChartRepositoryIndices {
 
@@ -82,5 +86,41 @@ public class TestMergeChartRepositoryIndices {
     assertEquals("0.3.1", first.getVersion());
     
   }
+
+  @Test
+  public void testMergeAllSharesUnchangedEntries() throws IOException, URISyntaxException {
+    final Index originalIndex = Index.loadFrom(Paths.get(Thread.currentThread().getContextClassLoader().getResource(this.getClass().getSimpleName() + "/original-index.yaml").getPath()));
+    final Index newIndex = Index.loadFrom(Paths.get(Thread.currentThread().getContextClassLoader().getResource(this.getClass().getSimpleName() + "/new-index.yaml").getPath()));
+    final Index sameAsOriginalIndex = Index.loadFrom(Paths.get(Thread.currentThread().getContextClassLoader().getResource(this.getClass().getSimpleName() + "/original-index.yaml").getPath()));
+
+    final Index mergedIndex = Index.mergeAll(Arrays.asList(originalIndex, null, newIndex, sameAsOriginalIndex));
+    assertNotNull(mergedIndex);
+    final Map<String, SortedSet<Entry>> entries = mergedIndex.getEntries();
+    assertEquals(3, entries.size());
+
+    // Charts present in only one input, or identically in several,
+    // are shared rather than copied.
+    assertSame(originalIndex.getEntries().get("buildkite"), entries.get("buildkite"));
+    assertSame(newIndex.getEntries().get("zetcd"), entries.get("zetcd"));
+
+    // Charts that differ are copied, and earlier inputs win.
+    final SortedSet<Entry> awsClusterAutoscaler = entries.get("aws-cluster-autoscaler");
+    assertNotSame(originalIndex.getEntries().get("aws-cluster-autoscaler"), awsClusterAutoscaler);
+    assertEquals(6, awsClusterAutoscaler.size());
+    for (final Entry entry : originalIndex.getEntries().get("aws-cluster-autoscaler")) {
+      assertSame(entry, mergedIndex.getEntry("aws-cluster-autoscaler", entry.getVersion()));
+    }
+    assertEquals(originalIndex.merge(newIndex).getEntries(), entries);
+
+    try {
+      awsClusterAutoscaler.clear();
+      fail();
+    } catch (final UnsupportedOperationException expected) {
+
+    }
+
+    assertEquals(0, Index.mergeAll(null).getEntries().size());
+    assertEquals(0, Index.mergeAll(Collections.emptyList()).getEntries().size());
+  }
   
 }
@@ -0,0 +1,97 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2017 MicroBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.helm.chart.repository;
+
+import java.io.IOException;
+
+import java.net.URISyntaxException;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TestSearchIndex {
+
+  private ChartRepository.Index index;
+
+  public TestSearchIndex() {
+    super();
+  }
+
+  @Before
+  public void setUp() throws IOException, URISyntaxException {
+    final Path indexPath = Paths.get(Thread.currentThread().getContextClassLoader().getResource("TestChartRepository/stable-index.yaml").getPath());
+    this.index = ChartRepository.Index.loadFrom(indexPath);
+    assertNotNull(this.index);
+  }
+
+  @Test
+  public void testSearch() {
+    final SearchIndex searchIndex = this.index.getSearchIndex();
+    assertNotNull(searchIndex);
+    assertSame(searchIndex, this.index.getSearchIndex());
+    assertTrue(searchIndex.getTermCount() > 0);
+
+    // A name match outranks keyword and description matches.
+    List<SearchIndex.Hit> hits = searchIndex.search("wordpress", false);
+    assertNotNull(hits);
+    assertTrue(hits.size() > 0);
+    SearchIndex.Hit first = hits.get(0);
+    assertEquals("wordpress", first.getEntry().getName());
+    assertEquals("0.6.12", first.getEntry().getVersion());
+    assertNull(first.getRepositoryName());
+    for (int i = 1; i < hits.size(); i++) {
+      assertTrue(hits.get(i - 1).getScore() >= hits.get(i).getScore());
+    }
+
+    // Prefix matching, and every token must match.
+    hits = searchIndex.search("WordPr", false);
+    assertEquals("wordpress", hits.get(0).getEntry().getName());
+    hits = searchIndex.search("blog php", false);
+    assertTrue(hits.size() > 0);
+    for (final SearchIndex.Hit hit : hits) {
+      assertTrue(hit.getEntry().getMetadataOrBuilder().getKeywordsList().contains("blog") ||
+                 hit.getEntry().getMetadataOrBuilder().getDescription().toLowerCase().contains("blog"));
+    }
+    assertEquals(0, searchIndex.search("wordpress nosuchtermanywhere", false).size());
+
+    // Maintainers are indexed.
+    hits = searchIndex.search("bitnami-bot", false);
+    assertTrue(hits.size() > 1);
+
+    // All versions, latest first.
+    hits = searchIndex.search("wordpress", true);
+    first = hits.get(0);
+    assertEquals("0.6.12", first.getEntry().getVersion());
+    assertEquals("0.6.11", hits.get(1).getEntry().getVersion());
+    assertEquals(25, hits.stream().filter(h -> h.getEntry().getName().equals("wordpress")).count());
+
+    // An empty query matches the latest version of everything.
+    assertEquals(this.index.getEntries().size(), searchIndex.search("  ", false).size());
+  }
+
+}
@@ -0,0 +1,177 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2017 MicroBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.helm.chart.repository;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+
+import java.nio.charset.StandardCharsets;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+
+import java.util.zip.GZIPOutputStream;
+
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestTransport {
+
+  private static final byte[] BODY = "apiVersion: v1\nentries: {}\n".getBytes(StandardCharsets.UTF_8);
+
+  private HttpServer server;
+
+  private URI uri;
+
+  private List<String> acceptEncodings;
+
+  private List<Integer> clientPorts;
+
+  public TestTransport() {
+    super();
+  }
+
+  @Before
+  public void startServer() throws Exception {
+    this.acceptEncodings = Collections.synchronizedList(new ArrayList<>());
+    this.clientPorts = Collections.synchronizedList(new ArrayList<>());
+    this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    this.server.setExecutor(Executors.newCachedThreadPool());
+    this.server.createContext("/", exchange -> {
+        try {
+          final String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+          this.acceptEncodings.add(String.valueOf(acceptEncoding));
+          this.clientPorts.add(exchange.getRemoteAddress().getPort());
+          if (!exchange.getRequestURI().getPath().equals("/index.yaml")) {
+            exchange.sendResponseHeaders(404, -1);
+          } else {
+            final byte[] bytes;
+            if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+              final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+              try (final OutputStream gzip = new GZIPOutputStream(compressed)) {
+                gzip.write(BODY);
+              }
+              bytes = compressed.toByteArray();
+              exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            } else {
+              bytes = BODY;
+            }
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (final OutputStream responseBody = exchange.getResponseBody()) {
+              responseBody.write(bytes);
+            }
+          }
+        } finally {
+          exchange.close();
+        }
+      });
+    this.server.start();
+    this.uri = new URI("http", null, this.server.getAddress().getHostString(), this.server.getAddress().getPort(), "/", null, null);
+  }
+
+  @After
+  public void stopServer() {
+    if (this.server != null) {
+      this.server.stop(0);
+      ((ExecutorService)this.server.getExecutor()).shutdownNow();
+    }
+  }
+
+  @Test
+  public void testOkHttpTransport() throws Exception {
+    final Transport transport = new OkHttpTransport();
+    for (int i = 0; i < 3; i++) {
+      assertTrue(Arrays.equals(BODY, read(transport, this.uri.resolve("index.yaml"), true)));
+    }
+    assertTrue(Arrays.equals(BODY, read(transport, this.uri.resolve("index.yaml"), false)));
+    assertEquals(Arrays.asList("gzip", "gzip", "gzip", "identity"), this.acceptEncodings);
+
+    // All four requests were made over one pooled connection.
+    assertEquals(1, this.clientPorts.stream().distinct().count());
+
+    this.testMissing(transport);
+    this.testFile(transport);
+  }
+
+  @Test
+  public void testURLConnectionTransport() throws Exception {
+    final Transport transport = new URLConnectionTransport();
+    assertTrue(Arrays.equals(BODY, read(transport, this.uri.resolve("index.yaml"), true)));
+    assertTrue(Arrays.equals(BODY, read(transport, this.uri.resolve("index.yaml"), false)));
+    assertEquals("gzip", this.acceptEncodings.get(0));
+    assertTrue(!this.acceptEncodings.get(1).contains("gzip"));
+    this.testMissing(transport);
+    this.testFile(transport);
+  }
+
+  private final void testMissing(final Transport transport) throws IOException {
+    try (final Transport.Response response = transport.get(this.uri.resolve("missing.yaml"), null)) {
+      assertEquals(404, response.getStatusCode());
+      response.getInputStream();
+      fail();
+    } catch (final FileNotFoundException expected) {
+
+    }
+  }
+
+  private final void testFile(final Transport transport) throws IOException {
+    final String targetDirectory = System.getProperty("project.build.directory");
+    final Path file = Paths.get(targetDirectory).resolve(this.getClass().getSimpleName()).resolve("index.yaml");
+    Files.createDirectories(file.getParent());
+    Files.write(file, BODY);
+    assertTrue(Arrays.equals(BODY, read(transport, file.toUri(), true)));
+  }
+
+  private static final byte[] read(final Transport transport, final URI uri, final boolean gzip) throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (final Transport.Response response = transport.get(uri, gzip ? Collections.singletonMap("Accept-Encoding", "gzip") : null)) {
+      assertEquals(200, response.getStatusCode());
+      try (final InputStream stream = response.getInputStream()) {
+        final byte[] buffer = new byte[4096];
+        int bytesRead;
+        while ((bytesRead = stream.read(buffer)) != -1) {
+          bytes.write(buffer, 0, bytesRead);
+        }
+      }
+    }
+    return bytes.toByteArray();
+  }
+
+}